@@ -1,11 +1,14 @@
 package world.landfall.persona.command;
 
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.Util;
 import net.minecraft.commands.Commands;
+import net.minecraft.commands.SharedSuggestionProvider;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.level.ServerPlayer;
 import world.landfall.persona.Persona;
@@ -13,10 +16,26 @@ import world.landfall.persona.config.Config;
 import world.landfall.persona.data.PlayerCharacterCapability;
 import world.landfall.persona.data.PlayerCharacterData;
 import world.landfall.persona.data.CharacterProfile;
+import world.landfall.persona.data.CharacterMetadata;
+import world.landfall.persona.data.CharacterFileStorage;
+import world.landfall.persona.data.PersonaSnapshots;
+import world.landfall.persona.data.CharacterSchema;
+import world.landfall.persona.data.storage.CharacterArchive;
+import world.landfall.persona.data.storage.CharacterCache;
+import world.landfall.persona.data.storage.CharacterHistory;
+import world.landfall.persona.data.storage.CharacterTombstones;
+import world.landfall.persona.data.storage.DictionaryTrainer;
+import world.landfall.persona.data.storage.CharacterWriteQueue;
+import world.landfall.persona.data.storage.PackedCharacterStore;
+import world.landfall.persona.data.storage.SaveReason;
+import world.landfall.persona.data.storage.SnapshotEngine;
+import world.landfall.persona.data.storage.CharacterStores;
 import world.landfall.persona.registry.GlobalCharacterRegistry;
 import world.landfall.persona.registry.PersonaNetworking;
 import world.landfall.persona.registry.RegistryPersistence;
 import world.landfall.persona.features.aging.AgingManager;
+import world.landfall.persona.features.inventory.InventoryHandler;
+import world.landfall.persona.features.inventory.ItemBlobStore;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import net.minecraft.nbt.Tag;
 import com.mojang.brigadier.arguments.BoolArgumentType;
@@ -24,8 +43,15 @@ import world.landfall.persona.util.CharacterUtils;
 import net.neoforged.neoforge.common.NeoForge;
 import world.landfall.persona.registry.PersonaEvents;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.UUID;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.Map;
 import java.util.HashMap;
@@ -35,6 +61,10 @@ import net.minecraft.resources.ResourceLocation;
 import net.minecraft.nbt.CompoundTag;
 
 public class CommandRegistry {
+    private static final int DICTIONARY_SAMPLE_SIZE = 1000;
+    private static final int DICTIONARY_SIZE = 16 * 1024;
+    private static final int ARCHIVE_LIST_LIMIT = 50;
+    private static final DateTimeFormatter REVISION_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
     private static void sendError(ServerPlayer player, Component message, boolean fromGui) {
         if (!fromGui) {
@@ -69,6 +99,13 @@ public class CommandRegistry {
             .requires(source -> source.hasPermission(2)) // Requires permission level 2 (ops)
             .then(Commands.literal("registry")
                 .executes(CommandRegistry::debugRegistry))
+            .then(Commands.literal("storage")
+                .executes(CommandRegistry::debugStorage))
+            .then(Commands.literal("dictionary")
+                .then(Commands.literal("train")
+                    .executes(CommandRegistry::debugDictionaryTrain))
+                .then(Commands.literal("stats")
+                    .executes(CommandRegistry::debugDictionaryStats)))
             .then(Commands.literal("characterdata")
                 .then(Commands.argument("characterNameOrUUID", StringArgumentType.string())
                     .executes(CommandRegistry::debugCharacterData)))
@@ -98,7 +135,33 @@ public class CommandRegistry {
                     .executes(CommandRegistry::adminRenameCharacter)))))
             .then(Commands.literal("clearcooldown")
                 .then(Commands.argument("playerName", StringArgumentType.word())
-                    .executes(CommandRegistry::adminClearCooldown)));
+                    .executes(CommandRegistry::adminClearCooldown)))
+            .then(Commands.literal("snapshot")
+                .then(Commands.literal("create")
+                    .executes(CommandRegistry::adminCreateSnapshot))
+                .then(Commands.literal("list")
+                    .executes(CommandRegistry::adminListSnapshots))
+                .then(Commands.literal("restore")
+                    .then(Commands.argument("snapshotName", StringArgumentType.string())
+                        .suggests((context, builder) -> SharedSuggestionProvider.suggest(snapshotNames(), builder))
+                        .executes(CommandRegistry::adminRestoreSnapshot))))
+            .then(Commands.literal("history")
+                .then(Commands.literal("list")
+                    .then(Commands.argument("characterNameOrUUID", StringArgumentType.string())
+                        .executes(CommandRegistry::adminListRevisions)))
+                .then(Commands.literal("rollback")
+                    .then(Commands.argument("characterNameOrUUID", StringArgumentType.string())
+                    .then(Commands.argument("revision", IntegerArgumentType.integer(1))
+                        .executes(CommandRegistry::adminRollbackCharacter)))))
+            .then(Commands.literal("trash")
+                .then(Commands.literal("list")
+                    .executes(CommandRegistry::adminListDeletedCharacters))
+                .then(Commands.literal("restore")
+                    .then(Commands.argument("characterNameOrUUID", StringArgumentType.string())
+                        .executes(CommandRegistry::adminRestoreDeletedCharacter))))
+            .then(Commands.literal("archive")
+                .then(Commands.literal("list")
+                    .executes(CommandRegistry::adminListArchivedCharacters)));
         
         personaCommand.then(adminCommand); // Nest admin under persona
         
@@ -127,26 +190,14 @@ public class CommandRegistry {
         ServerPlayer player = context.getSource().getPlayerOrException();
         PlayerCharacterData characterData = player.getData(PlayerCharacterCapability.CHARACTER_DATA);
 
-        if (characterData == null || characterData.getCharacters().isEmpty()) {
+        if (characterData == null || characterData.getCharacterCount() == 0) {
             context.getSource().sendSuccess(() -> Component.translatable("command.persona.error.no_characters"), false);
             return 1;
         }
 
         StringBuilder sb = new StringBuilder();
         sb.append("\n§6=== Your Characters ===§r\n");
-        characterData.getCharacters().forEach((uuid, profile) -> {
-            if (uuid.equals(characterData.getActiveCharacterId())) {
-                sb.append("§a➤ "); // Green arrow for active character
-            } else {
-                sb.append("§7• "); // Gray bullet for inactive characters
-            }
-            sb.append("§f").append(profile.getDisplayName()); // White text for name
-            sb.append(" §8(").append(uuid.toString().substring(0, 8)).append(")"); // Gray UUID
-            if (uuid.equals(characterData.getActiveCharacterId())) {
-                sb.append(" §a(Active)"); // Green active indicator
-            }
-            sb.append("§r\n");
-        });
+        appendCharacterList(sb, characterData);
 
         context.getSource().sendSuccess(() -> Component.literal(sb.toString()), false);
         return 1;
@@ -309,6 +360,413 @@ public class CommandRegistry {
         return 1;
     }
 
+    private static int debugStorage(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n§6=== Character Storage Debug ===§r\n");
+
+        sb.append("\n§eWrite-Behind Queue:§r\n");
+        CharacterWriteQueue.Stats queueStats = CharacterFileStorage.getWriteQueueStats();
+        if (queueStats == null) {
+            sb.append("§7  Disabled (writes are synchronous)§r\n");
+        } else {
+            sb.append(String.format("§7  Depth: §f%d§r\n", queueStats.depth()));
+            sb.append(String.format("§7  Written: §f%d §7(coalesced: §f%d§7, failed: §f%d§7)§r\n",
+                queueStats.written(), queueStats.coalesced(), queueStats.failed()));
+            sb.append(String.format("§7  Latency: §f%.2f ms §7avg, §f%.2f ms §7max§r\n",
+                queueStats.averageLatencyMs(), queueStats.maxLatencyMs()));
+        }
+
+        sb.append("\n§eSaves:§r\n");
+        CharacterFileStorage.SaveStats saveStats = CharacterFileStorage.getSaveStats();
+        sb.append(String.format("§7  Written: §f%d §7Skipped (unchanged): §f%d§r\n", saveStats.written(), saveStats.skipped()));
+        sb.append(String.format("§7  Mod data entries: §f%d §7encoded, §f%d §7reused§r\n",
+            saveStats.entriesEncoded(), saveStats.entriesReused()));
+        sb.append(String.format("§7  Upgraded to a newer layout: §f%d §7entries§r\n", CharacterSchema.getUpgradedCount()));
+
+        sb.append("\n§eLayout:§r\n");
+        PackedCharacterStore.Stats packedStats = CharacterFileStorage.getPackedStoreStats();
+        if (packedStats != null) {
+            sb.append(String.format("§7  Packed: §f%d §7characters in §f%d §7segments (§f%d KiB§7)§r\n",
+                packedStats.characters(), packedStats.segments(), packedStats.fileBytes() / 1024));
+            sb.append(String.format("§7  Sectors: §f%d §7used, §f%d §7free§r\n", packedStats.usedSectors(), packedStats.freeSectors()));
+        } else {
+            sb.append(CharacterFileStorage.isLayoutMigrationPending()
+                ? "§7  Migrating flat character files into subdirectories§r\n"
+                : "§7  Sharded subdirectories§r\n");
+        }
+
+        sb.append("\n§eItem Blobs:§r\n");
+        ItemBlobStore.Stats blobStats = ItemBlobStore.getStats();
+        sb.append(String.format("§7  Deduplication: §f%s§r\n", Config.ITEM_DEDUPLICATION.get() ? "enabled" : "disabled"));
+        sb.append(String.format("§7  Blobs: §f%d §7(references: §f%d§7, unreferenced: §f%d§7, collected: §f%d§7)§r\n",
+            blobStats.blobs(), blobStats.references(), blobStats.unreferenced(), blobStats.collected()));
+
+        sb.append("\n§eCharacter Cache:§r\n");
+        CharacterCache.Stats cacheStats = CharacterFileStorage.getCacheStats();
+        sb.append(String.format("§7  Entries: §f%d §7(pinned: §f%d§7)§r\n", cacheStats.entries(), cacheStats.pinnedEntries()));
+        sb.append(String.format("§7  Size: §f%d KiB §7/ §f%d KiB §7(pinned: §f%d KiB§7)§r\n",
+            cacheStats.weight() / 1024, cacheStats.maximumWeight() / 1024, cacheStats.pinnedWeight() / 1024));
+        sb.append(String.format("§7  Hits: §f%d §7Misses: §f%d §7Hit rate: §f%.1f%%§r\n",
+            cacheStats.hits(), cacheStats.misses(), cacheStats.hitRate() * 100));
+        sb.append(String.format("§7  Evictions: §f%d §7Rejected: §f%d§r\n", cacheStats.evictions(), cacheStats.rejections()));
+
+        context.getSource().sendSuccess(() -> Component.literal(sb.toString()), false);
+        return 1;
+    }
+
+    private static int debugDictionaryTrain(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        source.sendSuccess(() -> Component.literal("§7Training compression dictionary...§r"), false);
+
+        // Every fifth character is held out so the dictionary is measured on data it was not trained on
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                List<byte[]> samples = CharacterFileStorage.sampleCharacterPayloads(DICTIONARY_SAMPLE_SIZE);
+                if (samples.size() < 2) {
+                    throw new IllegalStateException("At least 2 stored characters are needed, found " + samples.size());
+                }
+                List<byte[]> training = new ArrayList<>();
+                List<byte[]> holdout = new ArrayList<>();
+                for (int i = 0; i < samples.size(); i++) {
+                    (samples.size() >= 10 && i % 5 == 0 ? holdout : training).add(samples.get(i));
+                }
+                byte[] dictionary = DictionaryTrainer.train(training, DICTIONARY_SIZE);
+                if (dictionary.length == 0) {
+                    throw new IllegalStateException("The stored characters have nothing in common to build a dictionary from");
+                }
+                DictionaryTrainer.Measurement measurement = DictionaryTrainer.measure(holdout.isEmpty() ? training : holdout, dictionary);
+                int version = CharacterFileStorage.installCompressionDictionary(dictionary);
+                return Map.entry(version, measurement);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, Util.backgroundExecutor()).whenComplete((result, error) -> source.getServer().execute(() -> {
+            if (error != null) {
+                Persona.LOGGER.error("[Persona] Failed to train compression dictionary", error);
+                source.sendFailure(Component.literal("Dictionary training failed: " + error.getMessage()));
+                return;
+            }
+            String header = String.format("Installed compression dictionary version %d", result.getKey());
+            source.sendSuccess(() -> Component.literal(formatDictionaryMeasurement(header, result.getValue())), true);
+        }));
+        return 1;
+    }
+
+    private static int debugDictionaryStats(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        byte[] dictionary = CharacterFileStorage.getCompressionDictionary();
+        if (dictionary == null) {
+            source.sendFailure(Component.literal("No compression dictionary has been trained yet. Use /persona debug dictionary train"));
+            return 0;
+        }
+        source.sendSuccess(() -> Component.literal("§7Measuring compression dictionary...§r"), false);
+
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return DictionaryTrainer.measure(CharacterFileStorage.sampleCharacterPayloads(DICTIONARY_SAMPLE_SIZE), dictionary);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, Util.backgroundExecutor()).whenComplete((measurement, error) -> source.getServer().execute(() -> {
+            if (error != null) {
+                Persona.LOGGER.error("[Persona] Failed to measure compression dictionary", error);
+                source.sendFailure(Component.literal("Dictionary measurement failed: " + error.getMessage()));
+                return;
+            }
+            String header = String.format("Compression dictionary (%s mode, %d bytes)", Config.CHARACTER_COMPRESSION.get(), dictionary.length);
+            source.sendSuccess(() -> Component.literal(formatDictionaryMeasurement(header, measurement)), false);
+        }));
+        return 1;
+    }
+
+    private static String formatDictionaryMeasurement(String header, DictionaryTrainer.Measurement measurement) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n§6=== ").append(header).append(" ===§r\n");
+        sb.append(String.format("§7Measured on §f%d§7 characters, §f%d§7 bytes uncompressed§r\n",
+            measurement.payloads(), measurement.uncompressedBytes()));
+        sb.append(String.format("§egzip:§r §f%d§7 bytes (§f%.1f%%§7), encode §f%.1f§7 µs, decode §f%.1f§7 µs§r\n",
+            measurement.gzipBytes(), measurement.gzipRatio() * 100, measurement.gzipEncodeMicros(), measurement.gzipDecodeMicros()));
+        sb.append(String.format("§edictionary:§r §f%d§7 bytes (§f%.1f%%§7), encode §f%.1f§7 µs, decode §f%.1f§7 µs§r\n",
+            measurement.dictionaryBytes(), measurement.dictionaryRatio() * 100, measurement.dictionaryEncodeMicros(), measurement.dictionaryDecodeMicros()));
+        return sb.toString();
+    }
+
+    private static int adminCreateSnapshot(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        source.sendSuccess(() -> Component.translatable("command.persona.admin.snapshot.started"), false);
+
+        PersonaSnapshots.createSnapshot().whenComplete((result, error) -> source.getServer().execute(() -> {
+            if (error != null) {
+                Persona.LOGGER.error("[Persona] Snapshot failed", error);
+                source.sendFailure(Component.translatable("command.persona.admin.snapshot.failed", error.getMessage()));
+                return;
+            }
+            source.sendSuccess(() -> Component.translatable("command.persona.admin.snapshot.created", result.snapshot().name(),
+                result.stats().files(), result.stats().copies(), result.stats().copiedBytes() / 1024, result.durationMillis()), true);
+            if (!result.pruned().isEmpty()) {
+                source.sendSuccess(() -> Component.translatable("command.persona.admin.snapshot.pruned", result.pruned().size()), false);
+            }
+        }));
+        return 1;
+    }
+
+    private static int adminListSnapshots(CommandContext<CommandSourceStack> context) {
+        List<SnapshotEngine.SnapshotInfo> snapshots;
+        try {
+            snapshots = PersonaSnapshots.listSnapshots();
+        } catch (IOException e) {
+            context.getSource().sendFailure(Component.translatable("command.persona.admin.snapshot.failed", e.getMessage()));
+            return 0;
+        }
+        if (snapshots.isEmpty()) {
+            context.getSource().sendSuccess(() -> Component.translatable("command.persona.admin.snapshot.none"), false);
+            return 1;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n§6=== Persona Snapshots ===§r\n");
+        for (SnapshotEngine.SnapshotInfo snapshot : snapshots) {
+            sb.append("§7• §f").append(snapshot.name());
+            if (!snapshot.isScheduled()) {
+                sb.append(" §8(kept until deleted by hand)");
+            }
+            sb.append("§r\n");
+        }
+        context.getSource().sendSuccess(() -> Component.literal(sb.toString()), false);
+        return 1;
+    }
+
+    private static List<String> snapshotNames() {
+        try {
+            return PersonaSnapshots.listSnapshots().stream().map(SnapshotEngine.SnapshotInfo::name).toList();
+        } catch (IOException | IllegalStateException e) {
+            return List.of();
+        }
+    }
+
+    private static int adminRestoreSnapshot(CommandContext<CommandSourceStack> context) {
+        String name = StringArgumentType.getString(context, "snapshotName");
+        try {
+            PersonaSnapshots.scheduleRestore(name);
+        } catch (IllegalArgumentException e) {
+            context.getSource().sendFailure(Component.translatable("command.persona.admin.snapshot.not_found", name));
+            return 0;
+        } catch (IOException e) {
+            context.getSource().sendFailure(Component.translatable("command.persona.admin.snapshot.failed", e.getMessage()));
+            return 0;
+        }
+        context.getSource().sendSuccess(() -> Component.translatable("command.persona.admin.snapshot.restore_scheduled", name), true);
+        return 1;
+    }
+
+    private static int adminListRevisions(CommandContext<CommandSourceStack> context) {
+        String nameOrUUID = StringArgumentType.getString(context, "characterNameOrUUID");
+        UUID characterId = findRegisteredCharacterId(nameOrUUID);
+        if (characterId == null) {
+            context.getSource().sendFailure(Component.translatable("command.persona.error.not_found", nameOrUUID));
+            return 0;
+        }
+
+        List<CharacterHistory.Revision> revisions;
+        try {
+            revisions = CharacterFileStorage.listRevisions(characterId);
+        } catch (IOException e) {
+            context.getSource().sendFailure(Component.translatable("command.persona.admin.history.failed", e.getMessage()));
+            return 0;
+        }
+        if (revisions.isEmpty()) {
+            context.getSource().sendSuccess(() -> Component.translatable("command.persona.admin.history.none", nameOrUUID), false);
+            return 1;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n§6=== History of §f").append(nameOrUUID).append(" §6===§r\n");
+        for (int i = 0; i < revisions.size(); i++) {
+            CharacterHistory.Revision revision = revisions.get(i);
+            sb.append(i == 0 ? "§a➤ " : "§7• ");
+            sb.append("§f#").append(revision.number());
+            sb.append(" §7").append(REVISION_TIME_FORMAT.format(Instant.ofEpochMilli(revision.savedAt()).atZone(ZoneId.systemDefault())));
+            sb.append(" §e").append(revision.reason().name().toLowerCase());
+            sb.append(" §8(").append(revision.storedBytes()).append(i == 0 ? " bytes, current)" : " bytes)");
+            sb.append("§r\n");
+        }
+        context.getSource().sendSuccess(() -> Component.literal(sb.toString()), false);
+        return 1;
+    }
+
+    private static int adminRollbackCharacter(CommandContext<CommandSourceStack> context) {
+        String nameOrUUID = StringArgumentType.getString(context, "characterNameOrUUID");
+        int revision = IntegerArgumentType.getInteger(context, "revision");
+        UUID characterId = findRegisteredCharacterId(nameOrUUID);
+        if (characterId == null) {
+            context.getSource().sendFailure(Component.translatable("command.persona.error.not_found", nameOrUUID));
+            return 0;
+        }
+
+        // The active character's state lives on the player and would overwrite the rollback on the next save
+        ServerPlayer owner = GlobalCharacterRegistry.getPlayerForCharacter(characterId)
+            .map(ownerId -> context.getSource().getServer().getPlayerList().getPlayer(ownerId))
+            .orElse(null);
+        PlayerCharacterData ownerData = owner != null ? owner.getData(PlayerCharacterCapability.CHARACTER_DATA) : null;
+        if (ownerData != null && characterId.equals(ownerData.getActiveCharacterId())) {
+            context.getSource().sendFailure(Component.translatable("command.persona.admin.history.in_use", nameOrUUID, owner.getName().getString()));
+            return 0;
+        }
+
+        CharacterProfile restored;
+        try {
+            restored = CharacterFileStorage.readRevision(characterId, revision);
+        } catch (IOException e) {
+            context.getSource().sendFailure(Component.translatable("command.persona.admin.history.failed", e.getMessage()));
+            return 0;
+        }
+        if (restored == null) {
+            context.getSource().sendFailure(Component.translatable("command.persona.admin.history.revision_not_found", revision, nameOrUUID));
+            return 0;
+        }
+
+        // Names are owned by the registry; a rollback restores the character's data but keeps its current name
+        CharacterProfile current = CharacterStores.get().load(characterId);
+        if (current != null && !current.getDisplayName().equals(restored.getDisplayName())) {
+            try {
+                restored.setDisplayName(current.getDisplayName());
+            } catch (IllegalArgumentException e) {
+                Persona.LOGGER.warn("[Persona] Keeping name '{}' of rolled back character {}: current name no longer valid", 
+                    restored.getDisplayName(), characterId);
+            }
+        }
+
+        // The revision's item blob references are held by its history entry; the restored inventory takes its own
+        // and releases those of the inventory it replaces
+        CompoundTag currentInventory = current != null && current.hasModData(InventoryHandler.INVENTORY_KEY)
+            ? current.getModData(InventoryHandler.INVENTORY_KEY).copy() : null;
+        CompoundTag restoredInventory = restored.hasModData(InventoryHandler.INVENTORY_KEY)
+            ? restored.getModData(InventoryHandler.INVENTORY_KEY) : null;
+        if (restoredInventory != null) {
+            restored.setModData(InventoryHandler.INVENTORY_KEY, currentInventory != null ? currentInventory : new CompoundTag());
+            InventoryHandler.storeInventory(restored, restoredInventory);
+        }
+        if (!CharacterStores.get().save(restored, SaveReason.ADMIN)) {
+            if (restoredInventory != null) {
+                InventoryHandler.storeInventory(restored, currentInventory != null ? currentInventory : new CompoundTag());
+            }
+            context.getSource().sendFailure(Component.translatable("command.persona.admin.history.failed", "save failed"));
+            return 0;
+        }
+        if (restoredInventory == null && currentInventory != null) {
+            ItemBlobStore.release(currentInventory);
+        }
+        if (ownerData != null) {
+            ownerData.cacheCharacter(restored);
+        }
+
+        context.getSource().sendSuccess(() -> Component.translatable("command.persona.admin.history.rolled_back", 
+            restored.getDisplayName(), revision), true);
+        return 1;
+    }
+
+    private static int adminListDeletedCharacters(CommandContext<CommandSourceStack> context) {
+        List<CharacterTombstones.Tombstone> deleted = CharacterFileStorage.listDeletedCharacters();
+        if (deleted.isEmpty()) {
+            context.getSource().sendSuccess(() -> Component.translatable("command.persona.admin.trash.none"), false);
+            return 1;
+        }
+
+        long graceMillis = TimeUnit.HOURS.toMillis(Config.CHARACTER_DELETE_GRACE_HOURS.get());
+        long now = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n§6=== Deleted Characters ===§r\n");
+        for (CharacterTombstones.Tombstone tombstone : deleted) {
+            sb.append("§7• §f").append(tombstone.displayName().isEmpty() ? "?" : tombstone.displayName());
+            sb.append(" §8(").append(tombstone.characterId()).append(")");
+            sb.append(" §7deleted ").append(REVISION_TIME_FORMAT.format(Instant.ofEpochMilli(tombstone.deletedAt()).atZone(ZoneId.systemDefault())));
+            long hoursLeft = Math.max(0, TimeUnit.MILLISECONDS.toHours(tombstone.deletedAt() + graceMillis - now));
+            sb.append(", §e").append(hoursLeft).append("h§7 left");
+            sb.append("§r\n");
+        }
+        context.getSource().sendSuccess(() -> Component.literal(sb.toString()), false);
+        return 1;
+    }
+
+    private static int adminListArchivedCharacters(CommandContext<CommandSourceStack> context) {
+        List<CharacterArchive.Stub> archived = CharacterFileStorage.listArchivedCharacters();
+        CharacterArchive.Stats stats = CharacterFileStorage.getArchiveStats();
+        if (archived.isEmpty() || stats == null) {
+            context.getSource().sendSuccess(() -> Component.translatable("command.persona.admin.archive.none"), false);
+            return 1;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n§6=== Archived Characters ===§r\n");
+        sb.append(String.format("§e%d§7 characters in §e%d§7 bundles, §e%d KiB§r\n", stats.characters(), stats.bundles(), stats.bytes() / 1024));
+        int shown = Math.min(archived.size(), ARCHIVE_LIST_LIMIT);
+        for (CharacterArchive.Stub stub : archived.subList(0, shown)) {
+            sb.append("§7• §f").append(stub.displayName());
+            sb.append(" §8(").append(stub.characterId()).append(")");
+            sb.append(" §7archived ").append(REVISION_TIME_FORMAT.format(Instant.ofEpochMilli(stub.archivedAt()).atZone(ZoneId.systemDefault())));
+            sb.append("§r\n");
+        }
+        if (archived.size() > shown) {
+            sb.append("§7... and ").append(archived.size() - shown).append(" more§r\n");
+        }
+        context.getSource().sendSuccess(() -> Component.literal(sb.toString()), false);
+        return 1;
+    }
+
+    private static int adminRestoreDeletedCharacter(CommandContext<CommandSourceStack> context) {
+        String nameOrUUID = StringArgumentType.getString(context, "characterNameOrUUID");
+        CharacterTombstones.Tombstone tombstone = null;
+        for (CharacterTombstones.Tombstone candidate : CharacterFileStorage.listDeletedCharacters()) {
+            // Most recently deleted first, in case several deleted characters had the same name
+            if (candidate.characterId().toString().equalsIgnoreCase(nameOrUUID) || candidate.displayName().equalsIgnoreCase(nameOrUUID)) {
+                tombstone = candidate;
+                break;
+            }
+        }
+        if (tombstone == null) {
+            context.getSource().sendFailure(Component.translatable("command.persona.admin.trash.not_found", nameOrUUID));
+            return 0;
+        }
+        if (tombstone.ownerId() == null || tombstone.displayName().isEmpty()) {
+            context.getSource().sendFailure(Component.translatable("command.persona.admin.trash.unknown_owner", nameOrUUID));
+            return 0;
+        }
+
+        UUID characterId = tombstone.characterId();
+        String name = tombstone.displayName();
+        // The name may have been reused while the character was deleted
+        if (!GlobalCharacterRegistry.registerCharacter(characterId, tombstone.ownerId(), name)) {
+            context.getSource().sendFailure(Component.translatable("command.persona.admin.trash.name_taken", name));
+            return 0;
+        }
+        if (CharacterFileStorage.restoreCharacter(characterId) == null) {
+            // Reclaimed meanwhile
+            GlobalCharacterRegistry.unregisterCharacter(characterId, name);
+            context.getSource().sendFailure(Component.translatable("command.persona.admin.trash.not_found", nameOrUUID));
+            return 0;
+        }
+
+        ServerPlayer owner = context.getSource().getServer().getPlayerList().getPlayer(tombstone.ownerId());
+        PlayerCharacterData ownerData = owner != null ? owner.getData(PlayerCharacterCapability.CHARACTER_DATA) : null;
+        CharacterProfile restored = CharacterStores.get().load(characterId);
+        if (ownerData != null && restored != null) {
+            ownerData.cacheCharacter(restored);
+            CharacterFileStorage.pinCharacters(List.of(characterId));
+        }
+
+        context.getSource().sendSuccess(() -> Component.translatable("command.persona.admin.trash.restored", name), true);
+        return 1;
+    }
+
+    private static UUID findRegisteredCharacterId(String nameOrUUID) {
+        try {
+            UUID characterId = UUID.fromString(nameOrUUID);
+            return GlobalCharacterRegistry.getPlayerForCharacter(characterId).isPresent() ? characterId : null;
+        } catch (IllegalArgumentException e) {
+            return GlobalCharacterRegistry.getCharacterIdByName(nameOrUUID).orElse(null);
+        }
+    }
+
     private static int adminListCharacters(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
         String playerName = StringArgumentType.getString(context, "playerName");
         ServerPlayer targetPlayer = context.getSource().getServer().getPlayerList().getPlayerByName(playerName);
@@ -326,22 +784,33 @@ public class CommandRegistry {
 
         StringBuilder sb = new StringBuilder();
         sb.append("\n§6=== Characters for §f").append(playerName).append(" §6===§r\n");
+        appendCharacterList(sb, characterData);
+
+        context.getSource().sendSuccess(() -> Component.literal(sb.toString()), false);
+        return 1;
+    }
+
+    /**
+     * Appends one line per character. Only each character's metadata is read, not the whole character.
+     */
+    private static void appendCharacterList(StringBuilder sb, PlayerCharacterData characterData) {
         characterData.getCharacterIds().forEach((uuid, displayName) -> {
+            CharacterMetadata metadata = CharacterStores.get().readMetadata(uuid);
             if (uuid.equals(characterData.getActiveCharacterId())) {
                 sb.append("§a➤ "); // Green arrow for active character
             } else {
                 sb.append("§7• "); // Gray bullet for inactive characters
             }
-            sb.append("§f").append(displayName); // White text for name
+            sb.append("§f").append(metadata != null ? metadata.displayName() : displayName); // White text for name
             sb.append(" §8(").append(uuid.toString().substring(0, 8)).append(")"); // Gray UUID
             if (uuid.equals(characterData.getActiveCharacterId())) {
                 sb.append(" §a(Active)"); // Green active indicator
             }
+            if (metadata != null && metadata.deceased()) {
+                sb.append(" §c(Deceased)"); // Red deceased indicator
+            }
             sb.append("§r\n");
         });
-
-        context.getSource().sendSuccess(() -> Component.literal(sb.toString()), false);
-        return 1;
     }
 
     private static int adminDeleteCharacter(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
@@ -615,6 +1084,14 @@ public class CommandRegistry {
             return;
         }
 
+        // With shared characters, the character may be in play on another server
+        if (!world.landfall.persona.data.CharacterLeasing.acquire(foundCharacterId)) {
+            String holder = world.landfall.persona.data.CharacterLeasing.getHolder(foundCharacterId);
+            sendError(player, Component.translatable("command.persona.error.char_leased_elsewhere", targetProfile.getDisplayName(), holder != null ? holder : "?"), fromGui);
+            if (fromGui) PersonaNetworking.sendCreationResponseToPlayer(player, false, "command.persona.error.char_leased_elsewhere", targetProfile.getDisplayName(), holder != null ? holder : "?");
+            return;
+        }
+
         // Fire the CharacterPreSwitchEvent with async gate
         world.landfall.persona.registry.PersonaEvents.CharacterPreSwitchEvent preSwitchEvent = 
             new world.landfall.persona.registry.PersonaEvents.CharacterPreSwitchEvent(player, oldActiveCharacterId, foundCharacterId);
@@ -1,6 +1,8 @@
 package world.landfall.persona.config;
 
 import net.neoforged.neoforge.common.ModConfigSpec;
+import world.landfall.persona.data.storage.CompressionMode;
+import world.landfall.persona.data.storage.StorageMode;
 
 public class Config {
     public static final ModConfigSpec.Builder BUILDER = new ModConfigSpec.Builder();
@@ -28,6 +30,30 @@ public class Config {
     public static final ModConfigSpec.DoubleValue MAX_CHARACTER_AGE;
     public static final ModConfigSpec.DoubleValue DEFAULT_CHARACTER_AGE;
 
+    // Storage Settings
+    public static final ModConfigSpec.EnumValue<StorageMode> STORAGE_MODE;
+    public static final ModConfigSpec.BooleanValue ASYNC_CHARACTER_WRITES;
+    public static final ModConfigSpec.IntValue SHUTDOWN_FLUSH_TIMEOUT_SECONDS;
+    public static final ModConfigSpec.IntValue SHUTDOWN_SAVE_BUDGET_SECONDS;
+    public static final ModConfigSpec.IntValue SHUTDOWN_SAVE_THREADS;
+    public static final ModConfigSpec.IntValue AUTOSAVE_INTERVAL_SECONDS;
+    public static final ModConfigSpec.IntValue WRITE_BATCH_SIZE;
+    public static final ModConfigSpec.IntValue CHARACTER_CACHE_SIZE_MB;
+    public static final ModConfigSpec.EnumValue<CompressionMode> CHARACTER_COMPRESSION;
+    public static final ModConfigSpec.BooleanValue ITEM_DEDUPLICATION;
+    public static final ModConfigSpec.IntValue ITEM_BLOB_MIN_BYTES;
+    public static final ModConfigSpec.IntValue SNAPSHOT_INTERVAL_MINUTES;
+    public static final ModConfigSpec.IntValue SNAPSHOT_KEEP_LAST;
+    public static final ModConfigSpec.IntValue SNAPSHOT_KEEP_DAYS;
+    public static final ModConfigSpec.IntValue CHARACTER_HISTORY_REVISIONS;
+    public static final ModConfigSpec.IntValue CHARACTER_DELETE_GRACE_HOURS;
+    public static final ModConfigSpec.IntValue ARCHIVE_DECEASED_AFTER_HOURS;
+    public static final ModConfigSpec.BooleanValue CHARACTER_LEASES;
+    public static final ModConfigSpec.ConfigValue<String> SHARED_STORAGE_DIRECTORY;
+    public static final ModConfigSpec.ConfigValue<String> SERVER_ID;
+    public static final ModConfigSpec.IntValue LEASE_TTL_SECONDS;
+    public static final ModConfigSpec.IntValue REGISTRY_JOURNAL_COMPACT_KB;
+
     static {
         // General Settings Section
         BUILDER.push("General Settings");
@@ -114,6 +140,133 @@ public class Config {
             .defineInRange("defaultCharacterAge", 20.0, 0.0, 10000.0);
 
         BUILDER.pop(); // End Aging System
+
+        // Storage Settings
+        BUILDER.push("Storage");
+
+        STORAGE_MODE = BUILDER
+            .comment("How character data is stored on disk.",
+                    "FILES: one file per character under persona/characters.",
+                    "PACKED: a few large segment files under persona/character_segments, which avoids per-file",
+                    "overhead on servers with many characters. Existing data is converted on the next server start.")
+            .defineEnum("storageMode", StorageMode.FILES);
+
+        ASYNC_CHARACTER_WRITES = BUILDER
+            .comment("Write character files on a background I/O thread instead of the server thread.",
+                    "Repeated saves of the same character are merged into a single write.")
+            .define("asyncCharacterWrites", true);
+
+        SHUTDOWN_FLUSH_TIMEOUT_SECONDS = BUILDER
+            .comment("Maximum time (in seconds) the server waits for queued character writes to finish when stopping.")
+            .defineInRange("shutdownFlushTimeoutSeconds", 30, 1, 600);
+
+        SHUTDOWN_SAVE_BUDGET_SECONDS = BUILDER
+            .comment("Maximum time (in seconds) the server spends saving the active characters of online players when stopping.",
+                    "Characters not saved by then keep their last saved state.")
+            .defineInRange("shutdownSaveBudgetSeconds", 30, 1, 600);
+
+        SHUTDOWN_SAVE_THREADS = BUILDER
+            .comment("Number of threads that serialize and write the active characters when the server stops.",
+                    "0 uses one thread per available processor.")
+            .defineInRange("shutdownSaveThreads", 0, 0, 64);
+
+        AUTOSAVE_INTERVAL_SECONDS = BUILDER
+            .comment("How often (in seconds) each online player's active character inventory and location are saved (0 disables).",
+                    "The saves are spread over the interval a few players per tick, fewer when the server has little time to spare,",
+                    "and a character whose inventory and location are unchanged since its last autosave is not written.")
+            .defineInRange("autosaveIntervalSeconds", 300, 0, 86400);
+
+        WRITE_BATCH_SIZE = BUILDER
+            .comment("Maximum number of queued character files committed together with a single round of disk syncs.",
+                    "Larger batches mean fewer syncs when many characters are saved at once (e.g. during shutdown).")
+            .defineInRange("writeBatchSize", 64, 1, 1024);
+        
+        CHARACTER_CACHE_SIZE_MB = BUILDER
+            .comment("Approximate memory budget in megabytes for cached characters of offline players.",
+                    "Characters of online players are always kept in memory and do not count against this limit.")
+            .defineInRange("characterCacheSizeMb", 64, 1, 4096);
+
+        REGISTRY_JOURNAL_COMPACT_KB = BUILDER
+            .comment("Size in kilobytes the character registry journal may grow to before it is folded into",
+                    "persona/character_registry.dat on a background thread.")
+            .defineInRange("registryJournalCompactKb", 1024, 16, 65536);
+
+        CHARACTER_COMPRESSION = BUILDER
+            .comment("How character data is compressed when it is written.",
+                    "GZIP: plain gzip, readable by any NBT tool.",
+                    "DICTIONARY: deflate with a dictionary trained on this server's characters, which makes small",
+                    "character files considerably smaller. Writes stay gzip until a dictionary has been trained with",
+                    "'/persona debug dictionary train'. Files in either format can always be read.")
+            .defineEnum("characterCompression", CompressionMode.GZIP);
+
+        ITEM_DEDUPLICATION = BUILDER
+            .comment("Store large items of saved inventories once under persona/item_blobs and keep only references",
+                    "in the characters. Saves disk space and cache memory when many characters hold identical gear.",
+                    "Turning it off again is safe: inventories are written inline on their next save.")
+            .define("itemDeduplication", false);
+
+        ITEM_BLOB_MIN_BYTES = BUILDER
+            .comment("Minimum encoded size in bytes of an item before it is deduplicated.",
+                    "Smaller items are cheaper to store inline than to reference.")
+            .defineInRange("itemBlobMinBytes", 256, 0, 1048576);
+
+        SNAPSHOT_INTERVAL_MINUTES = BUILDER
+            .comment("Minutes between automatic snapshots of the persona data into <world>/persona_snapshots (0 disables them).",
+                    "Unchanged files are hard-linked, so a snapshot only costs the space of what changed since the last one.",
+                    "Snapshots can also be taken and restored with '/persona admin snapshot'.")
+            .defineInRange("snapshotIntervalMinutes", 0, 0, 10080);
+
+        SNAPSHOT_KEEP_LAST = BUILDER
+            .comment("Number of most recent automatic snapshots to keep.")
+            .defineInRange("snapshotKeepLast", 24, 1, 1000);
+
+        SNAPSHOT_KEEP_DAYS = BUILDER
+            .comment("Additionally keep the newest automatic snapshot of each of this many days (0 keeps none beyond snapshotKeepLast).",
+                    "Snapshots taken before a restore are never deleted automatically.")
+            .defineInRange("snapshotKeepDays", 7, 0, 365);
+
+        CHARACTER_HISTORY_REVISIONS = BUILDER
+            .comment("Number of revisions kept per character under persona/character_history (0 disables the history).",
+                    "Older revisions are stored as binary differences to the next newer one, and can be listed and restored",
+                    "with '/persona admin history'.")
+            .defineInRange("characterHistoryRevisions", 10, 0, 100);
+
+        CHARACTER_DELETE_GRACE_HOURS = BUILDER
+            .comment("Hours a deleted character's data is kept before it is removed from disk in the background.",
+                    "Until then it can be restored with '/persona admin trash restore'. Its name is free for reuse right away.")
+            .defineInRange("characterDeleteGraceHours", 72, 0, 8760);
+
+        ARCHIVE_DECEASED_AFTER_HOURS = BUILDER
+            .comment("Hours after a character's death before it is moved from the characters into compressed bundles under",
+                    "persona/character_archive (-1 disables archiving). Archived characters are still listed, and are read back",
+                    "from their bundle when they are needed. Not done while character leases are enabled.")
+            .defineInRange("archiveDeceasedAfterHours", 168, -1, 87600);
+
+        CHARACTER_LEASES = BUILDER
+            .comment("Whether characters are shared with other servers through sharedStorageDirectory, leased to one server at a time.",
+                    "A character can then only be active on the server holding its lease, and other servers drop their cached copy",
+                    "when the lease moves. The servers' clocks must be kept in sync (e.g. with NTP).")
+            .define("characterLeases", false);
+
+        SHARED_STORAGE_DIRECTORY = BUILDER
+            .comment("Directory the servers sharing characters all point at; required with characterLeases and unused without.",
+                    "It holds the character files, their history, compression dictionaries, item blobs and the leases; relative paths",
+                    "are resolved against the server directory. Characters are stored as files there whatever storageMode says.",
+                    "The character registry, deleted characters and snapshots stay in each world's persona directory, which must",
+                    "not be shared: a server refuses to start while another one runs on it.")
+            .define("sharedStorageDirectory", "");
+
+        SERVER_ID = BUILDER
+            .comment("Identifies this server to the others sharing characters. Must be unique among them;",
+                    "a random id is used for each run when left empty.")
+            .define("serverId", "");
+
+        LEASE_TTL_SECONDS = BUILDER
+            .comment("Seconds a character lease stays valid without being renewed. Leases are renewed every third of this,",
+                    "so a crashed server blocks its characters for at most this long.")
+            .defineInRange("leaseTtlSeconds", 30, 5, 600);
+
+        BUILDER.pop(); // End Storage
         
         SPEC = BUILDER.build();
     }
@@ -0,0 +1,249 @@
+package world.landfall.persona.data;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+import world.landfall.persona.config.Config;
+import world.landfall.persona.data.storage.CharacterArchive;
+import world.landfall.persona.data.storage.DeceasedIndex;
+import world.landfall.persona.registry.GlobalCharacterRegistry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves characters that have been dead for {@link Config#ARCHIVE_DECEASED_AFTER_HOURS} from {@link CharacterFileStorage}
+ * into its {@link CharacterArchive}, and takes characters that were saved again since they were archived out of it.
+ * Candidates come from a {@link DeceasedIndex} that saves keep up to date through {@link #track}.
+ * <p>
+ * A bundle is written before the stored data of its characters is dropped. A character saved in between must be
+ * {@link #claim claimed} by the save, so that its newer data is not dropped in favour of the archived copy.
+ */
+final class CharacterArchiver {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int BUNDLE_SIZE = 256;
+
+    private final CharacterArchive archive;
+    private final DeceasedIndex index;
+    // Characters of the bundle being archived that no save has claimed yet
+    private final Set<UUID> archiving = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopped;
+
+    CharacterArchiver(CharacterArchive archive, DeceasedIndex index) {
+        this.archive = archive;
+        this.index = index;
+    }
+
+    /**
+     * Keeps the deceased index in step with a character that is being saved.
+     */
+    void track(CharacterProfile character) {
+        index.record(character.getId(), character.isDeceased(), character.getDeceasedSince());
+    }
+
+    /**
+     * Takes a character out of the bundle being archived, if it is in one. Saves call this before they take their
+     * snapshot of the character, so the stored data they write is never dropped.
+     * @param characterId The character being saved
+     */
+    void claim(UUID characterId) {
+        archiving.remove(characterId);
+    }
+
+    /**
+     * Removes a deleted character from the deceased index.
+     */
+    void forget(UUID characterId) {
+        index.remove(characterId);
+    }
+
+    /**
+     * Puts a restored character back into the deceased index, which it left when it was deleted.
+     */
+    void reindex(UUID characterId) {
+        if (archive.contains(characterId)) {
+            return;
+        }
+        CharacterMetadata metadata = CharacterFileStorage.readMetadata(characterId, List.of(CharacterProfile.IS_DECEASED_KEY));
+        if (metadata != null && metadata.deceased()) {
+            index.seed(characterId, metadata.getModData(CharacterProfile.IS_DECEASED_KEY).getLong("since"));
+        }
+    }
+
+    /**
+     * @return true once the deceased index covers every stored character
+     */
+    boolean isSeeded() {
+        return index.isSeeded();
+    }
+
+    /**
+     * Fills the deceased index from the stored characters, once per world or after the index was lost in a crash.
+     */
+    void seed() {
+        if (index.isSeeded()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            for (UUID characterId : GlobalCharacterRegistry.getCharacterToPlayerMap().keySet()) {
+                if (stopped) {
+                    return; // Seeded again on the next start
+                }
+                if (!archive.contains(characterId)) {
+                    CharacterMetadata metadata = CharacterFileStorage.readMetadata(characterId, List.of(CharacterProfile.IS_DECEASED_KEY));
+                    if (metadata != null && metadata.deceased()) {
+                        index.seed(characterId, metadata.getModData(CharacterProfile.IS_DECEASED_KEY).getLong("since"));
+                    }
+                }
+            }
+            index.markSeeded();
+            LOGGER.info("[CharacterArchiver] Indexed {} deceased characters in {} ms", index.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            LOGGER.error("[CharacterArchiver] Failed to index deceased characters, retrying with the next archive pass", e);
+        }
+    }
+
+    /**
+     * Runs one archive pass: takes characters that were saved again out of the archive, then archives the characters
+     * whose time of death is old enough.
+     */
+    void archiveDeceased() {
+        int hours = Config.ARCHIVE_DECEASED_AFTER_HOURS.get();
+        // Moving characters is not coordinated between servers sharing them
+        if (hours < 0 || CharacterLeasing.isEnabled()) {
+            return;
+        }
+        seed();
+        if (!index.isSeeded()) {
+            return;
+        }
+        try {
+            dropRestored();
+
+            long cutoff = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(hours);
+            List<UUID> candidates = new ArrayList<>();
+            for (UUID characterId : index.deceasedBefore(cutoff)) {
+                if (archive.contains(characterId)) {
+                    index.remove(characterId);
+                } else if (GlobalCharacterRegistry.getPlayerForCharacter(characterId).isPresent()) {
+                    // Characters in use are passed over when their bundle is read
+                    candidates.add(characterId);
+                }
+            }
+
+            int archived = 0;
+            for (int start = 0; start < candidates.size() && !stopped; start += BUNDLE_SIZE) {
+                archived += archiveBundle(candidates.subList(start, Math.min(candidates.size(), start + BUNDLE_SIZE)));
+            }
+            if (archived > 0) {
+                CharacterArchive.Stats stats = archive.getStats();
+                LOGGER.info("[CharacterArchiver] Archived {} deceased characters; the archive holds {} characters in {} KiB",
+                    archived, stats.characters(), stats.bytes() / 1024);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("[CharacterArchiver] Failed to archive deceased characters, retrying later", e);
+        }
+    }
+
+    /**
+     * Archives one bundle of characters and drops their stored data. The bundle is written before anything is
+     * dropped, so a crash in between leaves characters in both places, where the stored data takes precedence.
+     * @return How many characters were archived
+     */
+    private int archiveBundle(List<UUID> bundle) throws IOException {
+        long now = System.currentTimeMillis();
+        List<CharacterArchive.Entry> entries = new ArrayList<>(bundle.size());
+        archiving.addAll(bundle);
+        try {
+            for (UUID characterId : bundle) {
+                byte[] payload = CharacterFileStorage.readArchivable(characterId);
+                if (payload == null) {
+                    continue;
+                }
+                CharacterProfile profile = CharacterProfile.read(payload);
+                if (!profile.isDeceased()) {
+                    // Revived in data the index never saw being saved, e.g. before a crash
+                    index.remove(characterId);
+                    continue;
+                }
+                UUID ownerId = GlobalCharacterRegistry.getPlayerForCharacter(characterId).orElse(null);
+                entries.add(new CharacterArchive.Entry(new CharacterArchive.Stub(characterId, ownerId, profile.getDisplayName(), now), payload));
+            }
+            if (entries.isEmpty()) {
+                return 0;
+            }
+
+            archive.write(entries);
+
+            int archived = 0;
+            List<UUID> changed = new ArrayList<>();
+            CharacterFileStorage.lockCharacterWrites();
+            try {
+                for (CharacterArchive.Entry entry : entries) {
+                    UUID characterId = entry.stub().characterId();
+                    if (!archiving.contains(characterId) || !CharacterFileStorage.isArchivable(characterId)) {
+                        // Saved, deleted or taken into use since it was read
+                        changed.add(characterId);
+                        continue;
+                    }
+                    CharacterFileStorage.dropStoredData(characterId);
+                    index.remove(characterId);
+                    archived++;
+                }
+                if (!changed.isEmpty()) {
+                    archive.remove(changed);
+                }
+            } finally {
+                CharacterFileStorage.unlockCharacterWrites();
+            }
+            return archived;
+        } finally {
+            archiving.removeAll(bundle);
+        }
+    }
+
+    /**
+     * Takes characters out of the archive whose data has been saved outside of it again, e.g. after an admin
+     * revived them. Their saves are written by now, so the archived copies are outdated.
+     */
+    private void dropRestored() throws IOException {
+        List<UUID> restored = new ArrayList<>();
+        for (CharacterArchive.Stub stub : archive.list()) {
+            if (CharacterFileStorage.hasStoredData(stub.characterId())) {
+                restored.add(stub.characterId());
+            }
+        }
+        if (restored.isEmpty()) {
+            return;
+        }
+        // Rewrites bundles, which must not be read meanwhile
+        CharacterFileStorage.lockCharacterWrites();
+        try {
+            archive.remove(restored);
+        } finally {
+            CharacterFileStorage.unlockCharacterWrites();
+        }
+        LOGGER.info("[CharacterArchiver] Took {} characters that were saved again out of the archive", restored.size());
+    }
+
+    /**
+     * Makes a running seed or archive pass stop after the character or bundle it is working on.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Writes the deceased index, if it is complete. Saves must have stopped.
+     * @throws IOException if the index could not be written
+     */
+    void writeIndex() throws IOException {
+        index.write();
+    }
+}
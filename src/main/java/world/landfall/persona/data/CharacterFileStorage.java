@@ -4,48 +4,232 @@ import com.mojang.logging.LogUtils;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.NbtAccounter;
 import net.minecraft.nbt.NbtIo;
+import net.minecraft.resources.ResourceLocation;
 import org.slf4j.Logger;
 import world.landfall.persona.Persona;
+import world.landfall.persona.config.Config;
+import world.landfall.persona.data.storage.CharacterArchive;
+import world.landfall.persona.data.storage.CharacterCache;
+import world.landfall.persona.data.storage.CharacterCodec;
+import world.landfall.persona.data.storage.CharacterHistory;
+import world.landfall.persona.data.storage.CharacterTombstones;
+import world.landfall.persona.data.storage.CharacterWriteQueue;
+import world.landfall.persona.data.storage.DeceasedIndex;
+import world.landfall.persona.data.storage.DurableFileWriter;
+import world.landfall.persona.data.storage.LayoutMigrator;
+import world.landfall.persona.data.storage.PackedCharacterStore;
+import world.landfall.persona.data.storage.SaveReason;
+import world.landfall.persona.data.storage.SnapshotEngine;
+import world.landfall.persona.data.storage.StorageMode;
+import world.landfall.persona.features.inventory.ItemBlobStore;
+import world.landfall.persona.registry.GlobalCharacterRegistry;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * File-based storage system for character data.
  * Each character is stored in a separate file named by its UUID to prevent playerdata size issues.
+ * Files are spread over two levels of subdirectories named after the first hex digits of the UUID
+ * (characters/ab/cd/abcd....dat) so no single directory grows huge. Worlds created with the old flat
+ * layout are migrated in the background; until that finishes, lookups fall back to the flat location.
+ * In {@link StorageMode#PACKED} mode the same compressed NBT payloads are kept in a {@link PackedCharacterStore} instead.
+ * Payloads are gzip or, depending on {@link Config#CHARACTER_COMPRESSION}, deflated with a trained dictionary;
+ * see {@link CharacterCodec}.
+ * Independently of the storage mode, the last {@link Config#CHARACTER_HISTORY_REVISIONS} revisions of each character
+ * are kept as a {@link CharacterHistory} under character_history, in the same shard layout as character files.
+ * Deleting a character only leaves a tombstone; its data is reclaimed in the background by a {@link CharacterReclaimer}
+ * after {@link Config#CHARACTER_DELETE_GRACE_HOURS} and can be restored until then.
+ * Characters that have been dead for {@link Config#ARCHIVE_DECEASED_AFTER_HOURS} are moved into a
+ * {@link CharacterArchive} in the background by a {@link CharacterArchiver}. Only a stub of each archived character
+ * stays in memory; loads fall back to the archive, and a character saved again afterwards is stored normally and taken
+ * out of the archive.
  */
 public class CharacterFileStorage {
     private static final Logger LOGGER = LogUtils.getLogger();
     private static final String CHARACTERS_DIR = "characters";
+    private static final String SEGMENTS_DIR = "character_segments";
+    private static final String DICTIONARY_DIR = "character_dictionary";
+    private static final String HISTORY_DIR = "character_history";
+    private static final String HISTORY_FILE_EXTENSION = ".hist";
+    private static final String TOMBSTONES_DIR = "character_tombstones";
+    private static final String ARCHIVE_DIR = "character_archive";
+    private static final String DECEASED_INDEX_FILE = "deceased_index.dat";
+    private static final long RECLAIM_INTERVAL_MINUTES = 10;
+    private static final long ARCHIVE_INTERVAL_MINUTES = 60;
+    private static final int CONVERSION_BATCH_SIZE = 64;
     private static final String CHARACTER_FILE_EXTENSION = ".dat";
+    private static final int SHARD_NAME_LENGTH = 2;
     
     private static Path charactersDirectory;
+    private static Path historyDirectory;
+    // Whether the character files are in a directory shared with other servers, see CharacterLeasing
+    private static volatile boolean shared;
     private static final ReentrantReadWriteLock storageLock = new ReentrantReadWriteLock();
+    // Held shared, before the storage write lock, by everything that changes character files, segments or the archive,
+    // and exclusively by a snapshot taking its cut. Readers never take it, so a snapshot only holds back writers.
+    private static final ReentrantReadWriteLock snapshotGate = new ReentrantReadWriteLock();
     
-    // Cache for loaded characters to improve performance
-    private static final Map<UUID, CharacterProfile> characterCache = new ConcurrentHashMap<>();
+    // Size-bounded cache for loaded characters; characters of online players are pinned
+    private static final CharacterCache<CharacterProfile> characterCache = new CharacterCache<>(64L * 1024 * 1024);
+    
+    // Write-behind queue; null while the server is not running
+    private static CharacterWriteQueue writeQueue;
+    
+    // Moves files from the old flat layout into shard directories; null if there was nothing to move
+    private static LayoutMigrator layoutMigrator;
+    // True while character files may still exist in the old flat layout
+    private static volatile boolean legacyFilesPresent;
+    
+    // Segment store used instead of per-character files in packed mode; null in file mode
+    private static PackedCharacterStore packedStore;
+    
+    // Compresses payloads; holds the dictionaries of the current world
+    private static volatile CharacterCodec codec;
+    
+    // Deleted characters whose data has not been reclaimed yet
+    private static volatile CharacterTombstones tombstones;
+    private static volatile CharacterReclaimer reclaimer;
+    
+    // Archived deceased characters
+    private static volatile CharacterArchive archive;
+    // Null while the server is not running
+    private static volatile CharacterArchiver archiver;
+    
+    // Runs the reclaimer and the archiver, and deletes tombstones of restored characters; null while the server is not running
+    private static volatile ScheduledExecutorService background;
+    
+    // Saves that wrote a changed character, and saves skipped because nothing changed
+    private static final LongAdder savesWritten = new LongAdder();
+    private static final LongAdder savesSkipped = new LongAdder();
+    // Mod data entries of written saves that were encoded, and that were copied from their stored form
+    private static final LongAdder entriesEncoded = new LongAdder();
+    private static final LongAdder entriesReused = new LongAdder();
+    
+    /**
+     * Save metrics.
+     * @param written Saves that wrote a changed character
+     * @param skipped Saves skipped because the character was unchanged since it was last stored
+     * @param entriesEncoded Mod data entries encoded by written saves
+     * @param entriesReused Mod data entries written saves copied from their stored form without encoding
+     */
+    public record SaveStats(long written, long skipped, long entriesEncoded, long entriesReused) {}
     
     /**
      * Initializes the character file storage system.
      * @param worldPath The world directory path
      */
     public static void initialize(Path worldPath) {
+        // A previous world in this JVM must not leave its worker running (it takes the storage lock)
+        shutdown();
+        writeQueue = null;
+        
         storageLock.writeLock().lock();
         try {
-            // Create characters directory in world/persona/characters/
+            // Create characters directory in world/persona/characters/, or in the directory shared with other servers
             Path personaDir = worldPath.resolve(Persona.MODID).normalize();
-            charactersDirectory = personaDir.resolve(CHARACTERS_DIR).normalize();
+            Path sharedDir = CharacterLeasing.getSharedDirectory();
+            shared = sharedDir != null;
+            Path dataDir = shared ? sharedDir : personaDir;
+            charactersDirectory = dataDir.resolve(CHARACTERS_DIR).normalize();
+            historyDirectory = dataDir.resolve(HISTORY_DIR).normalize();
             
             // Ensure directories exist
             Files.createDirectories(charactersDirectory);
             
-            LOGGER.info("[CharacterFileStorage] Initialized character storage at: {}", charactersDirectory);
+            // Needed to validate files written in dictionary format
+            codec = CharacterCodec.open(dataDir.resolve(DICTIONARY_DIR).normalize());
+            
+            // In a shared directory, a temporary file may belong to a write another server is doing right now; one
+            // left by a crash is simply overwritten by the character's next save
+            if (!shared) {
+                recoverInterruptedWrites();
+            }
+            tombstones = CharacterTombstones.open(personaDir.resolve(TOMBSTONES_DIR).normalize());
+            reclaimer = new CharacterReclaimer(tombstones);
+            archive = CharacterArchive.open(personaDir.resolve(ARCHIVE_DIR).normalize());
+            archiver = new CharacterArchiver(archive, DeceasedIndex.open(personaDir.resolve(DECEASED_INDEX_FILE).normalize()));
+            
+            if (packedStore != null) {
+                packedStore.close();
+                packedStore = null;
+            }
+            Path segmentsDirectory = personaDir.resolve(SEGMENTS_DIR).normalize();
+            if (Config.STORAGE_MODE.get() == StorageMode.PACKED && shared) {
+                LOGGER.warn("[CharacterFileStorage] Packed storage has a single writer and cannot be shared, storing characters as files in {}", sharedDir);
+            }
+            if (Config.STORAGE_MODE.get() == StorageMode.PACKED && !shared) {
+                packedStore = PackedCharacterStore.open(segmentsDirectory);
+                importCharacterFiles();
+                compactPackedStore();
+            } else if (PackedCharacterStore.exists(segmentsDirectory)) {
+                exportPackedCharacters(segmentsDirectory);
+            }
+            
+            legacyFilesPresent = packedStore == null && hasLegacyFiles();
+            if (legacyFilesPresent) {
+                layoutMigrator = new LayoutMigrator("Persona-LayoutMigration", charactersDirectory, 
+                    "*" + CHARACTER_FILE_EXTENSION, CharacterFileStorage::migrateLegacyFile, 
+                    () -> legacyFilesPresent = false);
+                layoutMigrator.start();
+                LOGGER.info("[CharacterFileStorage] Found character files in the flat layout, migrating them to subdirectories in the background");
+            }
+            
+            characterCache.reset();
+            characterCache.setMaximumWeight(Config.CHARACTER_CACHE_SIZE_MB.get() * 1024L * 1024L);
+            characterCache.installMemoryPressureListener();
+            
+            if (Config.ASYNC_CHARACTER_WRITES.get()) {
+                writeQueue = new CharacterWriteQueue("Persona-CharacterIO", Config.WRITE_BATCH_SIZE.get(), 
+                    CharacterFileStorage::writeQueuedOrForget);
+                writeQueue.start();
+            }
+            
+            background = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Persona-CharacterMaintenance");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+            background.scheduleWithFixedDelay(reclaimer::reclaimExpired, 1, RECLAIM_INTERVAL_MINUTES, TimeUnit.MINUTES);
+            if (!archiver.isSeeded()) {
+                background.execute(archiver::seed);
+            }
+            background.scheduleWithFixedDelay(archiver::archiveDeceased, 5, ARCHIVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+            if (tombstones.size() > 0) {
+                LOGGER.info("[CharacterFileStorage] {} deleted characters are waiting to be reclaimed", tombstones.size());
+            }
+            if (archive.size() > 0) {
+                LOGGER.info("[CharacterFileStorage] {} deceased characters are archived", archive.size());
+            }
+            
+            LOGGER.info("[CharacterFileStorage] Initialized character storage at: {} (mode: {}, write-behind: {})", 
+                packedStore != null ? segmentsDirectory : charactersDirectory, packedStore != null ? StorageMode.PACKED : StorageMode.FILES, writeQueue != null);
         } catch (IOException e) {
             LOGGER.error("[CharacterFileStorage] Failed to initialize character storage", e);
             throw new RuntimeException("Failed to initialize character file storage", e);
@@ -54,12 +238,361 @@ public class CharacterFileStorage {
         }
     }
     
+    /**
+     * Finishes or discards character files whose write was interrupted by a crash.
+     * Caller must hold the storage write lock.
+     */
+    private static void recoverInterruptedWrites() throws IOException {
+        int recovered = 0;
+        int discarded = 0;
+        String tempSuffix = CHARACTER_FILE_EXTENSION + DurableFileWriter.TEMP_SUFFIX;
+        List<Path> temps;
+        // Shard directories are two levels deep; depth 1 covers leftovers from the flat layout
+        try (Stream<Path> files = Files.walk(charactersDirectory, 3)) {
+            temps = files.filter(file -> file.getFileName().toString().endsWith(tempSuffix)).toList();
+        }
+        for (Path temp : temps) {
+            if (DurableFileWriter.recover(temp, CharacterFileStorage::isReadableCharacterFile)) {
+                recovered++;
+            } else {
+                discarded++;
+            }
+        }
+        if (recovered > 0 || discarded > 0) {
+            LOGGER.info("[CharacterFileStorage] Recovered {} and discarded {} interrupted character writes", recovered, discarded);
+        }
+    }
+    
+    private static boolean hasLegacyFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(charactersDirectory, "*" + CHARACTER_FILE_EXTENSION)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Moves one character file from the flat layout into its shard directory. Runs on the migration thread.
+     * @param legacyFile A file directly inside the characters directory
+     * @return true if the file was moved, false if it is not a character file
+     */
+    private static boolean migrateLegacyFile(Path legacyFile) throws IOException {
+        UUID characterId = parseCharacterId(legacyFile);
+        if (characterId == null) {
+            return false;
+        }
+        Path target = getCharacterFilePath(characterId);
+        
+        lockCharacterWrites();
+        try {
+            if (!Files.exists(legacyFile)) {
+                // Deleted since it was listed
+                return true;
+            }
+            if (Files.exists(target)) {
+                // Saved again since the migration started; the sharded copy is the newer one
+                Files.delete(legacyFile);
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.move(legacyFile, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return true;
+        } finally {
+            unlockCharacterWrites();
+        }
+    }
+    
+    /**
+     * Moves every character file into the packed store, a batch at a time. The files are only deleted once their
+     * batch is durable in the store, so an interrupted conversion simply continues on the next start.
+     * Caller must hold the storage write lock.
+     */
+    private static void importCharacterFiles() throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(charactersDirectory, 3)) {
+            // Sharded files first: a flat-layout file is never newer than a sharded one of the same character
+            files = walk.filter(file -> file.getFileName().toString().endsWith(CHARACTER_FILE_EXTENSION) && Files.isRegularFile(file))
+                .sorted(Comparator.comparing(file -> file.getParent().equals(charactersDirectory)))
+                .toList();
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+        LOGGER.info("[CharacterFileStorage] Converting {} character files to packed storage", files.size());
+        
+        int imported = 0;
+        for (int start = 0; start < files.size(); start += CONVERSION_BATCH_SIZE) {
+            Map<UUID, byte[]> batch = new LinkedHashMap<>();
+            List<Path> sources = new ArrayList<>();
+            for (Path file : files.subList(start, Math.min(files.size(), start + CONVERSION_BATCH_SIZE))) {
+                UUID characterId = parseCharacterId(file);
+                if (characterId == null) {
+                    continue;
+                }
+                if (file.getParent().equals(charactersDirectory) && (batch.containsKey(characterId) || packedStore.contains(characterId))) {
+                    // Flat-layout leftover of a character that was saved again in the sharded layout
+                    sources.add(file);
+                    continue;
+                }
+                if (!isReadableCharacterFile(file)) {
+                    LOGGER.warn("[CharacterFileStorage] Skipping unreadable character file during conversion: {}", file);
+                    continue;
+                }
+                batch.put(characterId, Files.readAllBytes(file));
+                sources.add(file);
+            }
+            packedStore.writeAll(batch);
+            for (Path source : sources) {
+                Files.delete(source);
+            }
+            imported += batch.size();
+        }
+        LOGGER.info("[CharacterFileStorage] Converted {} characters to packed storage", imported);
+    }
+    
+    /**
+     * Writes every character of a packed store back out as individual files and removes the segments, so switching
+     * back to file mode keeps all data. Caller must hold the storage write lock.
+     */
+    private static void exportPackedCharacters(Path segmentsDirectory) throws IOException {
+        boolean complete = true;
+        int exported = 0;
+        try (PackedCharacterStore store = PackedCharacterStore.open(segmentsDirectory)) {
+            List<UUID> characterIds = new ArrayList<>(store.getCharacterIds());
+            LOGGER.info("[CharacterFileStorage] Converting {} packed characters to individual files", characterIds.size());
+            for (int start = 0; start < characterIds.size(); start += CONVERSION_BATCH_SIZE) {
+                List<DurableFileWriter.FileWrite> writes = new ArrayList<>();
+                for (UUID characterId : characterIds.subList(start, Math.min(characterIds.size(), start + CONVERSION_BATCH_SIZE))) {
+                    try {
+                        writes.add(new DurableFileWriter.FileWrite(getCharacterFilePath(characterId), store.read(characterId)));
+                    } catch (IOException e) {
+                        complete = false;
+                        LOGGER.error("[CharacterFileStorage] Failed to read packed character {}", characterId, e);
+                    }
+                }
+                List<DurableFileWriter.PreparedFile> prepared = DurableFileWriter.prepare(writes);
+                for (DurableFileWriter.PreparedFile file : prepared) {
+                    DurableFileWriter.publish(file);
+                }
+                DurableFileWriter.syncDirectories(prepared);
+                exported += prepared.size();
+            }
+        }
+        if (complete) {
+            PackedCharacterStore.deleteAll(segmentsDirectory);
+            LOGGER.info("[CharacterFileStorage] Converted {} packed characters to individual files", exported);
+        } else {
+            LOGGER.error("[CharacterFileStorage] Some packed characters could not be converted, keeping {}", segmentsDirectory);
+        }
+    }
+    
+    /**
+     * Compacts the packed store when at least a quarter of its data sectors are free.
+     * Caller must hold the storage write lock.
+     */
+    private static void compactPackedStore() {
+        PackedCharacterStore.Stats stats = packedStore.getStats();
+        if (stats.freeSectors() * 4 < stats.usedSectors() + stats.freeSectors()) {
+            return;
+        }
+        try {
+            packedStore.compact();
+        } catch (IOException e) {
+            LOGGER.error("[CharacterFileStorage] Failed to compact packed character storage", e);
+        }
+    }
+    
+    /**
+     * @return The UUID a character file is named after, or null if the file is not a character file
+     */
+    private static UUID parseCharacterId(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return UUID.fromString(name.substring(0, name.length() - CHARACTER_FILE_EXTENSION.length()));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            LOGGER.warn("[CharacterFileStorage] Ignoring unexpected file in characters directory: {}", name);
+            return null;
+        }
+    }
+    
+    private static boolean isReadableCharacterFile(Path file) {
+        try {
+            byte[] payload = decompress(Files.readAllBytes(file));
+            CompoundTag tag = NbtIo.read(new DataInputStream(new ByteArrayInputStream(payload)), NbtAccounter.unlimitedHeap());
+            return tag != null && tag.hasUUID("id");
+        } catch (Exception e) {
+            return false;
+        }
+    }
+    
     /**
      * Saves a character to disk.
      * @param character The character to save
      * @return true if successful, false otherwise
      */
     public static boolean saveCharacter(CharacterProfile character) {
+        return saveCharacter(character, SaveReason.OTHER);
+    }
+    
+    /**
+     * Saves a character to disk and records the save in the character's history.
+     * @param character The character to save
+     * @param reason Why the character is saved
+     * @return true if successful, false otherwise
+     */
+    public static boolean saveCharacter(CharacterProfile character, SaveReason reason) {
+        if (!isSavable(character)) {
+            return false;
+        }
+        
+        UUID characterId = character.getId();
+        claimFromArchiver(characterId);
+        CharacterProfile.Encoding encoding;
+        try {
+            // Snapshot on the calling thread; compression and disk I/O happen on the I/O worker when enabled
+            encoding = encodeChanges(character);
+        } catch (IOException e) {
+            LOGGER.error("[CharacterFileStorage] Failed to serialize character {} ({})", 
+                character.getDisplayName(), characterId, e);
+            return false;
+        }
+        if (encoding == null) {
+            LOGGER.debug("[CharacterFileStorage] Character {} ({}) is unchanged, not saving", character.getDisplayName(), characterId);
+            return true;
+        }
+        byte[] payload = encoding.payload();
+        trackDeceased(character);
+        
+        CharacterWriteQueue queue = writeQueue;
+        if (queue != null && queue.enqueue(characterId, payload, reason)) {
+            character.markStored(encoding);
+            characterCache.put(characterId, character, payload.length);
+            return true;
+        }
+        
+        try {
+            // The item blobs the character refers to must be on disk before it is
+            ItemBlobStore.writePendingBlobs();
+        } catch (IOException e) {
+            LOGGER.error("[CharacterFileStorage] Failed to save character {} ({})", 
+                character.getDisplayName(), characterId, e);
+            return false;
+        }
+        RecordedRevision revision;
+        lockCharacterWrites();
+        try {
+            if (packedStore != null) {
+                packedStore.write(characterId, compress(payload));
+            } else {
+                DurableFileWriter.commit(getCharacterFilePath(characterId), compress(payload));
+            }
+            revision = recordRevision(characterId, payload, reason, System.currentTimeMillis());
+            character.markStored(encoding);
+            
+            // Update cache
+            characterCache.put(characterId, character, payload.length);
+            
+        } catch (IOException e) {
+            LOGGER.error("[CharacterFileStorage] Failed to save character {} ({})", 
+                character.getDisplayName(), characterId, e);
+            return false;
+        } finally {
+            unlockCharacterWrites();
+        }
+        applyToItemBlobs(revision);
+        LOGGER.debug("[CharacterFileStorage] Saved character {} ({})", character.getDisplayName(), characterId);
+        return true;
+    }
+    
+    /**
+     * Saves a character on the calling thread, bypassing the write-behind queue. Serialization, compression and the
+     * synced temporary file all happen before the storage lock is taken, so several threads can save at once and
+     * only the final rename is serialized. Used to flush the active characters in parallel on shutdown, after
+     * {@link #stopWriteQueue}; while the queue still runs, a queued write of the same character could collide with
+     * this one.
+     * @param character The character to save
+     * @param reason Why the character is saved
+     * @return true if successful, false otherwise
+     */
+    public static boolean saveCharacterNow(CharacterProfile character, SaveReason reason) {
+        if (!isSavable(character)) {
+            return false;
+        }
+        
+        UUID characterId = character.getId();
+        claimFromArchiver(characterId);
+        List<DurableFileWriter.PreparedFile> prepared = List.of();
+        try {
+            CharacterProfile.Encoding encoding = encodeChanges(character);
+            if (encoding == null) {
+                LOGGER.debug("[CharacterFileStorage] Character {} ({}) is unchanged, not saving", character.getDisplayName(), characterId);
+                return true;
+            }
+            byte[] payload = encoding.payload();
+            trackDeceased(character);
+            byte[] compressed = compress(payload);
+            ItemBlobStore.writePendingBlobs();
+            PackedCharacterStore store = packedStore;
+            if (store == null) {
+                prepared = DurableFileWriter.prepare(List.of(new DurableFileWriter.FileWrite(getCharacterFilePath(characterId), compressed)));
+            }
+            
+            lockCharacterWrites();
+            try {
+                if (store != null) {
+                    store.write(characterId, compressed);
+                } else {
+                    DurableFileWriter.publish(prepared.get(0));
+                }
+                character.markStored(encoding);
+                characterCache.put(characterId, character, payload.length);
+            } finally {
+                unlockCharacterWrites();
+            }
+            DurableFileWriter.syncDirectories(prepared);
+            // Each character has its own history file, and with the queue stopped nothing else writes to it
+            applyToItemBlobs(recordRevision(characterId, payload, reason, System.currentTimeMillis()));
+            
+            LOGGER.debug("[CharacterFileStorage] Saved character {} ({})", character.getDisplayName(), characterId);
+            return true;
+            
+        } catch (IOException e) {
+            prepared.forEach(DurableFileWriter::discard);
+            LOGGER.error("[CharacterFileStorage] Failed to save character {} ({})", 
+                character.getDisplayName(), characterId, e);
+            return false;
+        }
+    }
+    
+    /**
+     * Keeps the deceased index in step with a character that is being saved.
+     */
+    private static void trackDeceased(CharacterProfile character) {
+        CharacterArchiver current = archiver;
+        if (current != null) {
+            current.track(character);
+        }
+    }
+    
+    /**
+     * Takes a character that is about to be saved out of an archive pass in progress, so the archiver cannot drop the
+     * data this save writes in favour of the older copy it archived. Must be called before the character is encoded.
+     */
+    private static void claimFromArchiver(UUID characterId) {
+        CharacterArchiver current = archiver;
+        if (current != null) {
+            current.claim(characterId);
+        }
+    }
+    
+    /**
+     * Checks that a character may be saved at all: storage is up, and the character is neither deleted nor leased by
+     * another server.
+     */
+    private static boolean isSavable(CharacterProfile character) {
         if (character == null) {
             LOGGER.warn("[CharacterFileStorage] Cannot save null character");
             return false;
@@ -72,117 +605,697 @@ public class CharacterFileStorage {
         }
         
         UUID characterId = character.getId();
-        Path characterFile = getCharacterFilePath(characterId);
+        CharacterTombstones deleted = tombstones;
+        if (deleted != null && deleted.contains(characterId)) {
+            LOGGER.warn("[CharacterFileStorage] Not saving character {} ({}): it has been deleted", character.getDisplayName(), characterId);
+            return false;
+        }
+        if (CharacterLeasing.isLeasedElsewhere(characterId)) {
+            LOGGER.warn("[CharacterFileStorage] Not saving character {} ({}): it is leased by another server", character.getDisplayName(), characterId);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Writes a batch from the write-behind queue. If that fails, the cached characters of the batch forget what they
+     * consider stored, so that their next save is not skipped as unchanged.
+     */
+    private static void writeQueuedOrForget(List<CharacterWriteQueue.PendingWrite> batch) throws IOException {
+        try {
+            writeQueued(batch);
+        } catch (IOException | RuntimeException e) {
+            for (CharacterWriteQueue.PendingWrite write : batch) {
+                CharacterProfile cached = characterCache.get(write.getCharacterId());
+                if (cached != null) {
+                    cached.markUnstored();
+                }
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Writes a batch of snapshots taken from the write-behind queue. Runs on the I/O worker thread.
+     * Compression and the synced temporary files are produced outside the storage lock; readers are only
+     * blocked while the finished files are renamed into place.
+     */
+    private static void writeQueued(List<CharacterWriteQueue.PendingWrite> batch) throws IOException {
+        // The item blobs the batch refers to were handed out before it was queued
+        ItemBlobStore.writePendingBlobs();
+        if (packedStore != null) {
+            writeQueuedPacked(batch);
+            return;
+        }
+        List<DurableFileWriter.FileWrite> files = new ArrayList<>(batch.size());
+        for (CharacterWriteQueue.PendingWrite write : batch) {
+            files.add(new DurableFileWriter.FileWrite(getCharacterFilePath(write.getCharacterId()), compress(write.getPayload())));
+        }
+        List<DurableFileWriter.PreparedFile> prepared = DurableFileWriter.prepare(files);
+        List<DurableFileWriter.PreparedFile> published = new ArrayList<>(prepared.size());
         
-        storageLock.writeLock().lock();
+        lockCharacterWrites();
+        try {
+            for (int i = 0; i < prepared.size(); i++) {
+                DurableFileWriter.PreparedFile file = prepared.get(i);
+                if (batch.get(i).isCancelled()) {
+                    LOGGER.debug("[CharacterFileStorage] Skipping queued write for deleted character {}", batch.get(i).getCharacterId());
+                    DurableFileWriter.discard(file);
+                    continue;
+                }
+                DurableFileWriter.publish(file);
+                published.add(file);
+            }
+        } finally {
+            unlockCharacterWrites();
+        }
+        
+        DurableFileWriter.syncDirectories(published);
+        LOGGER.debug("[CharacterFileStorage] Committed {} queued character files", published.size());
+        recordRevisions(batch);
+    }
+    
+    /**
+     * Packed-mode counterpart of {@link #writeQueued}: the whole batch goes into the segment store with one round of syncs.
+     */
+    private static void writeQueuedPacked(List<CharacterWriteQueue.PendingWrite> batch) throws IOException {
+        List<byte[]> compressed = new ArrayList<>(batch.size());
+        for (CharacterWriteQueue.PendingWrite write : batch) {
+            compressed.add(compress(write.getPayload()));
+        }
+        
+        lockCharacterWrites();
+        try {
+            Map<UUID, byte[]> writes = new LinkedHashMap<>();
+            for (int i = 0; i < batch.size(); i++) {
+                if (!batch.get(i).isCancelled()) {
+                    writes.put(batch.get(i).getCharacterId(), compressed.get(i));
+                }
+            }
+            packedStore.writeAll(writes);
+            LOGGER.debug("[CharacterFileStorage] Committed {} queued characters to packed storage", writes.size());
+        } finally {
+            unlockCharacterWrites();
+        }
+        recordRevisions(batch);
+    }
+    
+    /**
+     * Adds a batch of written snapshots to the characters' histories. Runs on the I/O worker thread, which is the
+     * only writer of history files while the queue runs. History is best effort: failures are logged and never fail
+     * the save.
+     */
+    private static void recordRevisions(List<CharacterWriteQueue.PendingWrite> batch) {
+        int keep = Config.CHARACTER_HISTORY_REVISIONS.get();
+        if (keep <= 0) {
+            return;
+        }
+        List<DurableFileWriter.FileWrite> files = new ArrayList<>(batch.size());
+        List<CharacterWriteQueue.PendingWrite> recorded = new ArrayList<>(batch.size());
+        List<RecordedRevision> revisions = new ArrayList<>(batch.size());
+        for (CharacterWriteQueue.PendingWrite write : batch) {
+            if (write.isCancelled()) {
+                continue;
+            }
+            try {
+                Path file = getHistoryFilePath(write.getCharacterId());
+                List<byte[]> dropped = new ArrayList<>();
+                byte[] history = CharacterHistory.append(readIfExists(file), write.getPayload(), write.getReason(),
+                    write.getSavedAt(), keep, codec, Config.CHARACTER_COMPRESSION.get(), dropped::add);
+                if (history != null) {
+                    files.add(new DurableFileWriter.FileWrite(file, history));
+                    recorded.add(write);
+                    revisions.add(new RecordedRevision(write.getPayload(), dropped));
+                }
+            } catch (IOException e) {
+                LOGGER.warn("[CharacterFileStorage] Failed to record revision of character {}: {}", write.getCharacterId(), e.getMessage());
+            }
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+        
+        List<RecordedRevision> publishedRevisions = new ArrayList<>(revisions.size());
+        try {
+            List<DurableFileWriter.PreparedFile> prepared = DurableFileWriter.prepare(files);
+            List<DurableFileWriter.PreparedFile> published = new ArrayList<>(prepared.size());
+            storageLock.writeLock().lock();
+            try {
+                for (int i = 0; i < prepared.size(); i++) {
+                    // A character deleted meanwhile has had its history deleted too
+                    if (recorded.get(i).isCancelled()) {
+                        DurableFileWriter.discard(prepared.get(i));
+                        continue;
+                    }
+                    DurableFileWriter.publish(prepared.get(i));
+                    published.add(prepared.get(i));
+                    publishedRevisions.add(revisions.get(i));
+                }
+            } finally {
+                storageLock.writeLock().unlock();
+            }
+            DurableFileWriter.syncDirectories(published);
+        } catch (IOException e) {
+            LOGGER.warn("[CharacterFileStorage] Failed to record {} character revisions: {}", files.size(), e.getMessage());
+        }
+        // Revisions whose history file was renamed into place hold references, even if the directory sync failed
+        publishedRevisions.forEach(CharacterFileStorage::applyToItemBlobs);
+    }
+    
+    /**
+     * Synchronous counterpart of {@link #recordRevisions}. Caller must hold the storage write lock, and pass the
+     * result to {@link #applyToItemBlobs} once it has dropped the lock.
+     * @return The recorded revision, or null if none was recorded
+     */
+    private static RecordedRevision recordRevision(UUID characterId, byte[] payload, SaveReason reason, long savedAt) {
+        int keep = Config.CHARACTER_HISTORY_REVISIONS.get();
+        if (keep <= 0) {
+            return null;
+        }
+        try {
+            Path file = getHistoryFilePath(characterId);
+            List<byte[]> dropped = new ArrayList<>();
+            byte[] history = CharacterHistory.append(readIfExists(file), payload, reason, savedAt, keep, codec, 
+                Config.CHARACTER_COMPRESSION.get(), dropped::add);
+            if (history != null) {
+                DurableFileWriter.commit(file, history);
+                return new RecordedRevision(payload, dropped);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("[CharacterFileStorage] Failed to record revision of character {}: {}", characterId, e.getMessage());
+        }
+        return null;
+    }
+    
+    /**
+     * A revision added to a character's history.
+     * @param payload The revision, which now holds item blob references
+     * @param dropped Older revisions removed from the history to make room, which no longer do
+     */
+    private record RecordedRevision(byte[] payload, List<byte[]> dropped) {}
+    
+    /**
+     * Hands item blob references from dropped history revisions to the recorded one. Must not be called while
+     * holding the storage lock, which the item blob store takes while it holds its own.
+     */
+    private static void applyToItemBlobs(RecordedRevision revision) {
+        if (revision == null) {
+            return;
+        }
+        ItemBlobStore.acquireStored(revision.payload());
+        revision.dropped().forEach(ItemBlobStore::releaseStored);
+    }
+    
+    /**
+     * Lists the recorded revisions of a character without reading any of them.
+     * Saves still waiting in the write-behind queue are not recorded yet.
+     * @param characterId The character's UUID
+     * @return The revisions, newest first; empty if none were recorded
+     * @throws IOException if the history could not be read
+     */
+    public static List<CharacterHistory.Revision> listRevisions(UUID characterId) throws IOException {
+        storageLock.readLock().lock();
+        try {
+            return CharacterHistory.readRevisions(getHistoryFilePath(characterId));
+        } finally {
+            storageLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Reconstructs a recorded revision of a character. The result is not saved; save it to roll the character back.
+     * @param characterId The character's UUID
+     * @param revision The revision number
+     * @return The character as it was at that revision, or null if the revision is not (or no longer) recorded
+     * @throws IOException if the history could not be read or is corrupt
+     */
+    public static CharacterProfile readRevision(UUID characterId, int revision) throws IOException {
+        byte[] payload;
+        storageLock.readLock().lock();
+        try {
+            payload = CharacterHistory.reconstruct(getHistoryFilePath(characterId), revision, codec);
+        } finally {
+            storageLock.readLock().unlock();
+        }
+        if (payload == null) {
+            return null;
+        }
+        CharacterProfile character = CharacterProfile.read(payload);
+        if (!characterId.equals(character.getId())) {
+            throw new IOException("Revision " + revision + " belongs to character " + character.getId());
+        }
+        return character;
+    }
+    
+    private static byte[] readIfExists(Path file) throws IOException {
         try {
-            CompoundTag characterData = character.serialize();
-            NbtIo.writeCompressed(characterData, characterFile);
+            return Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Loads a character from disk.
+     * @param characterId The UUID of the character to load
+     * @return The loaded character, or null if not found or error occurred
+     */
+    public static CharacterProfile loadCharacter(UUID characterId) {
+        if (characterId == null) {
+            LOGGER.warn("[CharacterFileStorage] Cannot load character with null ID");
+            return null;
+        }
+        
+        // Check if storage is initialized (server-side only)
+        if (charactersDirectory == null) {
+            LOGGER.debug("[CharacterFileStorage] Storage not initialized - this should only be called on server side");
+            return null;
+        }
+        
+        CharacterTombstones deleted = tombstones;
+        if (deleted != null && deleted.contains(characterId)) {
+            return null;
+        }
+        
+        // Check cache first
+        CharacterProfile cached = characterCache.get(characterId);
+        if (cached != null) {
+            return cached;
+        }
+        
+        storageLock.readLock().lock();
+        try {
+            // Uncompressed NBT; mod data entries stay encoded until first accessed
+            byte[] characterData;
+            CharacterWriteQueue queue = writeQueue;
+            byte[] queued = queue != null ? queue.peek(characterId) : null;
+            if (queued != null) {
+                // The newest snapshot has not reached the disk yet
+                characterData = queued;
+            } else if (packedStore != null) {
+                byte[] packed = packedStore.read(characterId);
+                characterData = packed != null ? decompress(packed) : readArchived(characterId);
+                if (characterData == null) {
+                    LOGGER.debug("[CharacterFileStorage] Character {} not found in packed storage", characterId);
+                    return null;
+                }
+            } else {
+                Path characterFile = locateCharacterFile(characterId);
+                characterData = characterFile != null ? decompress(Files.readAllBytes(characterFile)) : readArchived(characterId);
+                if (characterData == null) {
+                    LOGGER.debug("[CharacterFileStorage] Character file not found: {}", getCharacterFilePath(characterId));
+                    return null;
+                }
+            }
+            
+            CharacterProfile character = CharacterProfile.read(characterData);
+            character.markStored();
             
             // Update cache
-            characterCache.put(characterId, character);
+            characterCache.put(characterId, character, characterData.length);
             
-            LOGGER.debug("[CharacterFileStorage] Saved character {} to file: {}", 
-                character.getDisplayName(), characterFile.getFileName());
-            return true;
+            LOGGER.debug("[CharacterFileStorage] Loaded character {} ({})", character.getDisplayName(), characterId);
+            return character;
             
         } catch (IOException e) {
-            LOGGER.error("[CharacterFileStorage] Failed to save character {} ({})", 
-                character.getDisplayName(), characterId, e);
+            LOGGER.error("[CharacterFileStorage] Failed to load character {}", characterId, e);
+            return null;
+        } finally {
+            storageLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Reads only a character's id, display name, deceased flag and the given mod data entries. Unless the character
+     * is cached or its newest save is still queued, the compressed data is decompressed and scanned as a stream that
+     * stops as soon as those fields have been seen; nothing else is decoded and the character is not cached.
+     * @param characterId The UUID of the character
+     * @param modDataKeys Mod data entries to include besides the deceased flag
+     * @return The metadata, or null if not found or error occurred
+     */
+    public static CharacterMetadata readMetadata(UUID characterId, Collection<ResourceLocation> modDataKeys) {
+        if (characterId == null || charactersDirectory == null) {
+            return null;
+        }
+        
+        CharacterTombstones deleted = tombstones;
+        if (deleted != null && deleted.contains(characterId)) {
+            return null;
+        }
+        
+        CharacterProfile cached = characterCache.get(characterId);
+        if (cached != null) {
+            return CharacterMetadata.of(cached, modDataKeys);
+        }
+        
+        storageLock.readLock().lock();
+        try {
+            CharacterWriteQueue queue = writeQueue;
+            byte[] queued = queue != null ? queue.peek(characterId) : null;
+            if (queued != null) {
+                // Already uncompressed
+                return CharacterMetadata.read(new DataInputStream(new ByteArrayInputStream(queued)), modDataKeys);
+            }
+            InputStream compressed = null;
+            if (packedStore != null) {
+                byte[] packed = packedStore.read(characterId);
+                if (packed != null) {
+                    compressed = new ByteArrayInputStream(packed);
+                }
+            } else {
+                Path characterFile = locateCharacterFile(characterId);
+                if (characterFile != null) {
+                    compressed = Files.newInputStream(characterFile);
+                }
+            }
+            if (compressed == null) {
+                return readArchivedMetadata(characterId, modDataKeys);
+            }
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(codec.openStream(compressed)))) {
+                return CharacterMetadata.read(input, modDataKeys);
+            }
+        } catch (IOException e) {
+            LOGGER.error("[CharacterFileStorage] Failed to read metadata of character {}", characterId, e);
+            return null;
+        } finally {
+            storageLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Reads an archived character's payload. Caller must hold the storage lock.
+     * @return Uncompressed NBT, or null if the character is not archived
+     */
+    private static byte[] readArchived(UUID characterId) throws IOException {
+        CharacterArchive current = archive;
+        return current != null ? current.read(characterId) : null;
+    }
+    
+    /**
+     * Reads an archived character's metadata, from its stub alone if no mod data entries are needed.
+     * Caller must hold the storage lock.
+     * @return The metadata, or null if the character is not archived
+     */
+    private static CharacterMetadata readArchivedMetadata(UUID characterId, Collection<ResourceLocation> modDataKeys) throws IOException {
+        CharacterArchive current = archive;
+        CharacterArchive.Stub stub = current != null ? current.getStub(characterId) : null;
+        if (stub == null) {
+            return null;
+        }
+        if (modDataKeys.isEmpty()) {
+            return new CharacterMetadata(characterId, stub.displayName(), true, Map.of());
+        }
+        byte[] payload = current.read(characterId);
+        return payload != null ? CharacterMetadata.read(new DataInputStream(new ByteArrayInputStream(payload)), modDataKeys) : null;
+    }
+    
+    /**
+     * Checks whether a character is only stored in the archive.
+     * @param characterId The character's UUID
+     * @return true if it is archived and has not been saved since
+     */
+    public static boolean isArchived(UUID characterId) {
+        CharacterArchive current = archive;
+        if (current == null || !current.contains(characterId)) {
+            return false;
+        }
+        storageLock.readLock().lock();
+        try {
+            return !isStoredHot(characterId);
+        } finally {
+            storageLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets a display-only stand-in for an archived character, so listing it does not read it from its bundle.
+     * @param characterId The character's UUID
+     * @return The stand-in, or null if the character is not archived
+     * @see CharacterProfile#archivedStub
+     */
+    public static CharacterProfile getArchivedStub(UUID characterId) {
+        CharacterArchive current = archive;
+        CharacterArchive.Stub stub = current != null ? current.getStub(characterId) : null;
+        if (stub == null || !isArchived(characterId)) {
+            return null;
+        }
+        CharacterProfile cached = characterCache.get(characterId);
+        return cached != null ? cached : CharacterProfile.archivedStub(characterId, stub.displayName());
+    }
+    
+    /**
+     * Lists the archived characters.
+     * @return Their stubs, most recently archived first
+     */
+    public static List<CharacterArchive.Stub> listArchivedCharacters() {
+        CharacterArchive current = archive;
+        return current != null ? current.list() : List.of();
+    }
+    
+    /**
+     * Gets the archive metrics.
+     * @return The stats, or null if the storage is not initialized
+     */
+    public static CharacterArchive.Stats getArchiveStats() {
+        CharacterArchive current = archive;
+        return current != null ? current.getStats() : null;
+    }
+    
+    /**
+     * Checks whether a character has data outside the archive, including a save that is still queued.
+     * Caller must hold the storage lock.
+     */
+    private static boolean isStoredHot(UUID characterId) {
+        CharacterWriteQueue queue = writeQueue;
+        if (queue != null && queue.peek(characterId) != null) {
+            return true;
+        }
+        return packedStore != null ? packedStore.contains(characterId) : locateCharacterFile(characterId) != null;
+    }
+    
+    /**
+     * Deletes a character. It is gone for all other methods right away, but its data is only marked with a tombstone,
+     * which is written durably before this returns; the character can be brought back with {@link #restoreCharacter}
+     * until the background reclaimer removes it after {@link Config#CHARACTER_DELETE_GRACE_HOURS}.
+     * @param characterId The UUID of the character to delete
+     * @return true if the character is deleted or never existed, false if error occurred
+     */
+    public static boolean deleteCharacter(UUID characterId) {
+        if (characterId == null) {
+            LOGGER.warn("[CharacterFileStorage] Cannot delete character with null ID");
+            return false;
+        }
+        
+        CharacterTombstones current = tombstones;
+        if (current == null) {
+            LOGGER.debug("[CharacterFileStorage] Storage not initialized - this should only be called on server side");
             return false;
+        }
+        
+        // Kept for restoring; callers delete the character before unregistering it
+        UUID ownerId = GlobalCharacterRegistry.getPlayerForCharacter(characterId).orElse(null);
+        String displayName = ownerId != null ? GlobalCharacterRegistry.getCharactersForPlayer(ownerId).getOrDefault(characterId, "") : "";
+        
+        storageLock.writeLock().lock();
+        try {
+            boolean stored = packedStore != null ? packedStore.contains(characterId) : locateCharacterFile(characterId) != null;
+            if (!current.contains(characterId) && (stored || (archive != null && archive.contains(characterId)))) {
+                CharacterTombstones.Tombstone tombstone = new CharacterTombstones.Tombstone(characterId, ownerId, displayName, System.currentTimeMillis());
+                // Written before anything changes, so a failed delete leaves the character as it was
+                try {
+                    current.write(tombstone);
+                } catch (IOException e) {
+                    LOGGER.error("[CharacterFileStorage] Failed to write tombstone of character {}; it is not deleted", characterId, e);
+                    return false;
+                }
+                current.add(tombstone);
+                CharacterArchiver runningArchiver = archiver;
+                if (runningArchiver != null) {
+                    runningArchiver.forget(characterId);
+                }
+                LOGGER.debug("[CharacterFileStorage] Marked character {} as deleted", characterId);
+            } else if (!current.contains(characterId)) {
+                LOGGER.debug("[CharacterFileStorage] Character {} has no stored data to delete", characterId);
+            }
+            
+            // Remove from cache and drop any queued write; an in-flight write has either landed by now or is skipped
+            characterCache.remove(characterId);
+            if (writeQueue != null) {
+                writeQueue.cancel(characterId);
+            }
+            return true;
+        } finally {
+            storageLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Brings back a deleted character that has not been reclaimed yet. Its registry entry is not restored.
+     * @param characterId The character's UUID
+     * @return The character's tombstone, or null if it is not deleted or already reclaimed
+     */
+    public static CharacterTombstones.Tombstone restoreCharacter(UUID characterId) {
+        CharacterTombstones current = tombstones;
+        if (current == null) {
+            throw new IllegalStateException("CharacterFileStorage is not initialized. This should only be called on the server side.");
+        }
+        CharacterTombstones.Tombstone tombstone;
+        // Excludes a reclaim of this character in progress
+        storageLock.writeLock().lock();
+        try {
+            tombstone = current.remove(characterId);
+        } finally {
+            storageLock.writeLock().unlock();
+        }
+        if (tombstone != null) {
+            CharacterReclaimer currentReclaimer = reclaimer;
+            runInBackground(() -> {
+                currentReclaimer.forgetRestored(characterId);
+                // Left the deceased index when it was deleted
+                CharacterArchiver runningArchiver = archiver;
+                if (runningArchiver != null) {
+                    runningArchiver.reindex(characterId);
+                }
+            });
+            LOGGER.info("[CharacterFileStorage] Restored deleted character {} ({})", tombstone.displayName(), characterId);
+        }
+        return tombstone;
+    }
+    
+    /**
+     * Lists the deleted characters that can still be restored.
+     * @return Their tombstones, most recently deleted first
+     */
+    public static List<CharacterTombstones.Tombstone> listDeletedCharacters() {
+        CharacterTombstones current = tombstones;
+        return current != null ? current.list() : List.of();
+    }
+    
+    /**
+     * Deletes everything stored for a character, e.g. once the reclaimer reclaims it. Caller must hold
+     * {@link #lockCharacterWrites}.
+     * @return The deleted payloads that held item blob references, for the caller to release once it has dropped the lock
+     */
+    static List<byte[]> purgeCharacterData(UUID characterId) throws IOException {
+        List<byte[]> purged = new ArrayList<>();
+        byte[] stored = readStoredPayload(characterId);
+        if (stored != null) {
+            purged.add(stored);
+        }
+        Path historyFile = getHistoryFilePath(characterId);
+        try {
+            CharacterHistory.forEachRevision(historyFile, codec, purged::add);
+        } catch (IOException e) {
+            LOGGER.warn("[CharacterFileStorage] Failed to read history of character {}: {}", characterId, e.getMessage());
+        }
+        Files.deleteIfExists(historyFile);
+        CharacterArchive current = archive;
+        if (current != null && current.contains(characterId)) {
+            current.remove(List.of(characterId));
+        }
+        dropStoredData(characterId);
+        LOGGER.debug("[CharacterFileStorage] Reclaimed data of deleted character {}", characterId);
+        return purged;
+    }
+    
+    /**
+     * Reads a character's stored payload wherever it is kept, ignoring tombstones. Caller must hold the storage lock.
+     * @return Uncompressed NBT, or null if nothing is stored or it is unreadable
+     */
+    private static byte[] readStoredPayload(UUID characterId) {
+        try {
+            if (packedStore != null) {
+                byte[] packed = packedStore.read(characterId);
+                return packed != null ? decompress(packed) : readArchived(characterId);
+            }
+            Path characterFile = locateCharacterFile(characterId);
+            return characterFile != null ? decompress(Files.readAllBytes(characterFile)) : readArchived(characterId);
+        } catch (IOException e) {
+            LOGGER.warn("[CharacterFileStorage] Failed to read stored data of character {}: {}", characterId, e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Reads a character for the archiver, unless something keeps its stored data from being moved into the archive
+     * right now.
+     * @return Uncompressed NBT, or null if the character is not archivable or has no data outside the archive
+     * @throws IOException if the stored data could not be read
+     */
+    static byte[] readArchivable(UUID characterId) throws IOException {
+        byte[] stored;
+        storageLock.readLock().lock();
+        try {
+            if (!isArchivable(characterId)) {
+                return null;
+            }
+            if (packedStore != null) {
+                stored = packedStore.read(characterId);
+            } else {
+                Path characterFile = locateCharacterFile(characterId);
+                stored = characterFile != null ? readIfExists(characterFile) : null;
+            }
         } finally {
-            storageLock.writeLock().unlock();
+            storageLock.readLock().unlock();
         }
+        return stored != null ? decompress(stored) : null;
     }
     
     /**
-     * Loads a character from disk.
-     * @param characterId The UUID of the character to load
-     * @return The loaded character, or null if not found or error occurred
+     * Checks that nothing keeps a character's stored data from being moved into the archive right now.
+     * Caller must hold the storage lock.
      */
-    public static CharacterProfile loadCharacter(UUID characterId) {
-        if (characterId == null) {
-            LOGGER.warn("[CharacterFileStorage] Cannot load character with null ID");
-            return null;
-        }
-        
-        // Check if storage is initialized (server-side only)
-        if (charactersDirectory == null) {
-            LOGGER.debug("[CharacterFileStorage] Storage not initialized - this should only be called on server side");
-            return null;
-        }
-        
-        // Check cache first
-        CharacterProfile cached = characterCache.get(characterId);
-        if (cached != null) {
-            return cached;
-        }
-        
-        Path characterFile = getCharacterFilePath(characterId);
-        
+    static boolean isArchivable(UUID characterId) {
+        CharacterWriteQueue queue = writeQueue;
+        CharacterTombstones deleted = tombstones;
+        return !characterCache.isPinned(characterId)
+            && (deleted == null || !deleted.contains(characterId))
+            && (queue == null || queue.peek(characterId) == null);
+    }
+    
+    /**
+     * Checks whether a character has written data outside the archive. Unlike {@link #isStoredHot}, a save that is
+     * still queued does not count.
+     */
+    static boolean hasStoredData(UUID characterId) {
         storageLock.readLock().lock();
         try {
-            if (!Files.exists(characterFile)) {
-                LOGGER.debug("[CharacterFileStorage] Character file not found: {}", characterFile);
-                return null;
-            }
-            
-            CompoundTag characterData = NbtIo.readCompressed(characterFile, NbtAccounter.unlimitedHeap());
-            if (characterData == null) {
-                LOGGER.warn("[CharacterFileStorage] Failed to read character data from file: {}", characterFile);
-                return null;
-            }
-            
-            CharacterProfile character = CharacterProfile.deserialize(characterData);
-            
-            // Update cache
-            characterCache.put(characterId, character);
-            
-            LOGGER.debug("[CharacterFileStorage] Loaded character {} from file: {}", 
-                character.getDisplayName(), characterFile.getFileName());
-            return character;
-            
-        } catch (IOException e) {
-            LOGGER.error("[CharacterFileStorage] Failed to load character {}", characterId, e);
-            return null;
+            return packedStore != null ? packedStore.contains(characterId) : locateCharacterFile(characterId) != null;
         } finally {
             storageLock.readLock().unlock();
         }
     }
     
     /**
-     * Deletes a character file from disk.
-     * @param characterId The UUID of the character to delete
-     * @return true if successful or file didn't exist, false if error occurred
+     * Drops a character's cached copy and its stored data outside the archive and history, e.g. once it has been
+     * archived. Caller must hold {@link #lockCharacterWrites}.
      */
-    public static boolean deleteCharacter(UUID characterId) {
-        if (characterId == null) {
-            LOGGER.warn("[CharacterFileStorage] Cannot delete character with null ID");
-            return false;
+    static void dropStoredData(UUID characterId) throws IOException {
+        characterCache.remove(characterId);
+        if (packedStore != null) {
+            packedStore.delete(characterId);
+            return;
         }
-        
-        Path characterFile = getCharacterFilePath(characterId);
-        
-        storageLock.writeLock().lock();
-        try {
-            // Remove from cache
-            characterCache.remove(characterId);
-            
-            if (!Files.exists(characterFile)) {
-                LOGGER.debug("[CharacterFileStorage] Character file already doesn't exist: {}", characterFile);
-                return true;
+        Files.deleteIfExists(getCharacterFilePath(characterId));
+        if (legacyFilesPresent) {
+            Files.deleteIfExists(getLegacyCharacterFilePath(characterId));
+        }
+    }
+    
+    /**
+     * Runs a task on the background thread, or right away if the storage is not running.
+     */
+    private static void runInBackground(Runnable task) {
+        ScheduledExecutorService executor = background;
+        if (executor != null) {
+            try {
+                executor.execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                // Shutting down
             }
-            
-            Files.delete(characterFile);
-            LOGGER.debug("[CharacterFileStorage] Deleted character file: {}", characterFile.getFileName());
-            return true;
-            
-        } catch (IOException e) {
-            LOGGER.error("[CharacterFileStorage] Failed to delete character {}", characterId, e);
-            return false;
-        } finally {
-            storageLock.writeLock().unlock();
         }
+        task.run();
     }
     
     /**
@@ -195,16 +1308,32 @@ public class CharacterFileStorage {
             return false;
         }
         
+        CharacterTombstones deleted = tombstones;
+        if (deleted != null && deleted.contains(characterId)) {
+            return false;
+        }
+        
         // Check cache first
         if (characterCache.containsKey(characterId)) {
             return true;
         }
         
-        Path characterFile = getCharacterFilePath(characterId);
+        CharacterWriteQueue queue = writeQueue;
+        if (queue != null && queue.peek(characterId) != null) {
+            return true;
+        }
+        
+        CharacterArchive archived = archive;
+        if (archived != null && archived.contains(characterId)) {
+            return true;
+        }
         
         storageLock.readLock().lock();
         try {
-            return Files.exists(characterFile);
+            if (packedStore != null) {
+                return packedStore.contains(characterId);
+            }
+            return locateCharacterFile(characterId) != null;
         } finally {
             storageLock.readLock().unlock();
         }
@@ -212,11 +1341,21 @@ public class CharacterFileStorage {
     
     /**
      * Loads all character IDs that belong to a specific player.
-     * This method scans the character files and checks ownership.
+     * Ownership and display names come from the registry's owner index rather than the character files.
      * @param playerId The player's UUID
      * @return Map of character IDs to their display names
      */
     public static Map<UUID, String> loadPlayerCharacterIds(UUID playerId) {
+        return loadPlayerCharacterIds(playerId, world.landfall.persona.registry.GlobalCharacterRegistry.getCharactersForPlayer(playerId));
+    }
+    
+    /**
+     * Filters a player's indexed characters down to the ones that are actually stored.
+     * @param playerId The player's UUID
+     * @param indexedCharacters The player's character IDs mapped to their display names, from the owner index
+     * @return Map of character IDs to their display names
+     */
+    public static Map<UUID, String> loadPlayerCharacterIds(UUID playerId, Map<UUID, String> indexedCharacters) {
         if (playerId == null) {
             LOGGER.warn("[CharacterFileStorage] Cannot load characters for null player ID");
             return new HashMap<>();
@@ -231,20 +1370,11 @@ public class CharacterFileStorage {
                 return playerCharacters;
             }
             
-            // We need to check the global character registry to find which characters belong to this player
-            // This is more efficient than loading every character file
-            Map<UUID, UUID> characterToPlayerMap = world.landfall.persona.registry.GlobalCharacterRegistry.getCharacterToPlayerMap();
-            
-            for (Map.Entry<UUID, UUID> entry : characterToPlayerMap.entrySet()) {
-                UUID characterId = entry.getKey();
-                UUID characterPlayerId = entry.getValue();
-                
-                if (playerId.equals(characterPlayerId)) {
-                    // Load character to get display name
-                    CharacterProfile character = loadCharacter(characterId);
-                    if (character != null) {
-                        playerCharacters.put(characterId, character.getDisplayName());
-                    }
+            // Ownership and display names come from the registry's owner index, so only the
+            // player's own characters are touched and none of them has to be loaded
+            for (Map.Entry<UUID, String> entry : indexedCharacters.entrySet()) {
+                if (characterExists(entry.getKey())) {
+                    playerCharacters.put(entry.getKey(), entry.getValue());
                 }
             }
             
@@ -259,6 +1389,65 @@ public class CharacterFileStorage {
         }
     }
     
+    /**
+     * Keeps the given characters in memory regardless of the cache size limit, e.g. while their owner is online.
+     * @param characterIds The characters to pin
+     */
+    public static void pinCharacters(Collection<UUID> characterIds) {
+        characterIds.forEach(characterCache::pin);
+    }
+    
+    /**
+     * Makes previously pinned characters subject to eviction again.
+     * @param characterIds The characters to unpin
+     */
+    public static void unpinCharacters(Collection<UUID> characterIds) {
+        characterIds.forEach(characterCache::unpin);
+    }
+    
+    /**
+     * Gets the save metrics.
+     * @return Counts since the game started
+     */
+    public static SaveStats getSaveStats() {
+        return new SaveStats(savesWritten.sum(), savesSkipped.sum(), entriesEncoded.sum(), entriesReused.sum());
+    }
+    
+    /**
+     * Gets the character cache metrics.
+     * @return The current cache stats
+     */
+    public static CharacterCache.Stats getCacheStats() {
+        return characterCache.getStats();
+    }
+    
+    /**
+     * Drops a character's cached copy, so it is read from disk again the next time it is loaded.
+     * Used when another server may have changed the character. A pin on the character is kept.
+     * @param characterId The character
+     */
+    public static void invalidateCachedCharacter(UUID characterId) {
+        storageLock.writeLock().lock();
+        try {
+            boolean pinned = characterCache.isPinned(characterId);
+            characterCache.remove(characterId);
+            if (pinned) {
+                characterCache.pin(characterId);
+            }
+        } finally {
+            storageLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Blocks until every character save queued before this call has been written.
+     * @return true if the queue drained within the timeout or there is no queue
+     */
+    public static boolean flushWrites(long timeout, TimeUnit unit) {
+        CharacterWriteQueue queue = writeQueue;
+        return queue == null || queue.flush(timeout, unit);
+    }
+    
     /**
      * Clears the character cache. Useful for testing or when memory is needed.
      */
@@ -272,18 +1461,367 @@ public class CharacterFileStorage {
         }
     }
     
+    /**
+     * Writes out every queued character save and stops the I/O worker, so that all later saves are written by the
+     * thread that makes them. {@link #shutdown} does this as well; calling it earlier is harmless.
+     * @return true if every queued save was written, false if some were given up on
+     */
+    public static boolean stopWriteQueue() {
+        CharacterWriteQueue queue = writeQueue;
+        if (queue == null || !queue.isRunning()) {
+            return true;
+        }
+        int depth = queue.getDepth();
+        boolean drained = queue.shutdown(Config.SHUTDOWN_FLUSH_TIMEOUT_SECONDS.get(), TimeUnit.SECONDS);
+        if (drained) {
+            LOGGER.info("[CharacterFileStorage] Flushed {} queued character writes", depth);
+        } else {
+            LOGGER.error("[CharacterFileStorage] Timed out flushing character writes, {} still pending", queue.getDepth());
+        }
+        return drained && queue.getStats().failed() == 0;
+    }
+    
+    /**
+     * Writes out every queued character save and stops the I/O worker.
+     * Must be called before the server finishes stopping; later saves are written synchronously.
+     * @return true if every queued save was written, false if some were given up on
+     */
+    public static boolean shutdown() {
+        characterCache.uninstallMemoryPressureListener();
+        CharacterArchiver currentArchiver = archiver;
+        if (currentArchiver != null) {
+            currentArchiver.stop();
+        }
+        ScheduledExecutorService executor = background;
+        background = null;
+        if (executor != null) {
+            // Tombstone deletions already submitted still run; the periodic passes do not
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(Config.SHUTDOWN_FLUSH_TIMEOUT_SECONDS.get(), TimeUnit.SECONDS)) {
+                    LOGGER.warn("[CharacterFileStorage] Timed out waiting for the character reclaimer and archiver to finish");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (layoutMigrator != null) {
+            layoutMigrator.stop();
+            layoutMigrator = null;
+        }
+        CharacterWriteQueue queue = writeQueue;
+        boolean flushed = queue == null || (stopWriteQueue() && queue.getStats().failed() == 0);
+        archiver = null;
+        // Only worth keeping if it matches what reached the disk; otherwise it is seeded again on the next start
+        if (currentArchiver != null && flushed) {
+            try {
+                currentArchiver.writeIndex();
+            } catch (IOException e) {
+                LOGGER.warn("[CharacterFileStorage] Failed to write the deceased index, it is seeded again on the next start: {}", e.getMessage());
+            }
+        }
+        return flushed;
+    }
+    
+    /**
+     * Checks whether character files from the old flat layout are still waiting to be moved into subdirectories.
+     * @return true while the background migration has not finished
+     */
+    public static boolean isLayoutMigrationPending() {
+        return legacyFilesPresent;
+    }
+    
+    /**
+     * Gets the packed storage metrics.
+     * @return The current stats, or null if characters are stored as individual files
+     */
+    public static PackedCharacterStore.Stats getPackedStoreStats() {
+        PackedCharacterStore store = packedStore;
+        return store != null ? store.getStats() : null;
+    }
+    
+    /**
+     * Reads a random sample of stored characters, e.g. to train a compression dictionary on.
+     * Characters that cannot be read are skipped.
+     * @param maxCharacters Maximum number of characters to read
+     * @return Uncompressed NBT payloads
+     * @throws IOException if the stored characters could not be listed
+     */
+    public static List<byte[]> sampleCharacterPayloads(int maxCharacters) throws IOException {
+        List<byte[]> payloads = new ArrayList<>();
+        visitCharacterPayloads(true, maxCharacters, payloads::add);
+        return payloads;
+    }
+    
+    /**
+     * Reads every stored character, one at a time, including archived characters and deleted characters that have not
+     * been reclaimed yet. Characters that cannot be read are skipped.
+     * Writes still waiting in the write-behind queue are not seen.
+     * @param visitor Receives each character's uncompressed NBT
+     * @throws IOException if the stored characters could not be listed
+     */
+    public static void forEachCharacterPayload(Consumer<byte[]> visitor) throws IOException {
+        visitCharacterPayloads(false, Integer.MAX_VALUE, visitor);
+    }
+    
+    /**
+     * Reconstructs every recorded history revision of every character, for counting item blob references.
+     * Unreadable histories are skipped.
+     * @param visitor Receives the uncompressed NBT of each revision
+     * @throws IOException if the histories could not be listed
+     */
+    public static void forEachHistoryPayload(Consumer<byte[]> visitor) throws IOException {
+        if (historyDirectory == null) {
+            throw new IllegalStateException("CharacterFileStorage is not initialized. This should only be called on the server side.");
+        }
+        storageLock.readLock().lock();
+        try {
+            if (!Files.isDirectory(historyDirectory)) {
+                return;
+            }
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(historyDirectory, 3)) {
+                files = walk.filter(file -> file.getFileName().toString().endsWith(HISTORY_FILE_EXTENSION) && Files.isRegularFile(file))
+                    .toList();
+            }
+            for (Path file : files) {
+                try {
+                    CharacterHistory.forEachRevision(file, codec, visitor);
+                } catch (IOException e) {
+                    LOGGER.warn("[CharacterFileStorage] Skipping unreadable history file {}: {}", file, e.getMessage());
+                }
+            }
+        } finally {
+            storageLock.readLock().unlock();
+        }
+    }
+    
+    private static void visitCharacterPayloads(boolean shuffle, int maxCharacters, Consumer<byte[]> visitor) throws IOException {
+        if (charactersDirectory == null) {
+            throw new IllegalStateException("CharacterFileStorage is not initialized. This should only be called on the server side.");
+        }
+        int visited = 0;
+        storageLock.readLock().lock();
+        try {
+            CharacterArchive archived = archive;
+            if (!shuffle && archived != null) {
+                // Archived characters still refer to item blobs; samples are only drawn from the characters in use
+                archived.forEachPayload(visitor);
+            }
+            if (packedStore != null) {
+                List<UUID> characterIds = new ArrayList<>(packedStore.getCharacterIds());
+                if (shuffle) {
+                    Collections.shuffle(characterIds);
+                }
+                for (UUID characterId : characterIds) {
+                    if (visited >= maxCharacters) {
+                        break;
+                    }
+                    try {
+                        byte[] packed = packedStore.read(characterId);
+                        if (packed != null) {
+                            visitor.accept(decompress(packed));
+                            visited++;
+                        }
+                    } catch (IOException e) {
+                        LOGGER.warn("[CharacterFileStorage] Skipping unreadable packed character {}: {}", characterId, e.getMessage());
+                    }
+                }
+                return;
+            }
+            
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(charactersDirectory, 3)) {
+                files = new ArrayList<>(walk.filter(file -> file.getFileName().toString().endsWith(CHARACTER_FILE_EXTENSION) && Files.isRegularFile(file))
+                    .toList());
+            }
+            if (shuffle) {
+                Collections.shuffle(files);
+            }
+            for (Path file : files) {
+                if (visited >= maxCharacters) {
+                    break;
+                }
+                try {
+                    visitor.accept(decompress(Files.readAllBytes(file)));
+                    visited++;
+                } catch (IOException e) {
+                    LOGGER.warn("[CharacterFileStorage] Skipping unreadable character file {}: {}", file, e.getMessage());
+                }
+            }
+        } finally {
+            storageLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Adds the stored characters to a snapshot as one consistent cut: no character is written or deleted meanwhile.
+     * Loads keep being served, and with write-behind enabled saves keep being queued.
+     * @param snapshot The snapshot of the persona directory
+     * @throws IOException if the characters could not be captured
+     */
+    public static void captureSnapshot(SnapshotEngine.Builder snapshot) throws IOException {
+        // Not the storage lock: a writer queued behind it would block every reader, including the server thread
+        snapshotGate.writeLock().lock();
+        try {
+            snapshot.capture(Path.of(CHARACTERS_DIR));
+            snapshot.capture(Path.of(SEGMENTS_DIR));
+            // In the same cut: archiving moves characters from the files above into the archive
+            snapshot.capture(Path.of(ARCHIVE_DIR));
+        } finally {
+            snapshotGate.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Takes the storage write lock for a change to character files, segments or the archive; waits while a snapshot
+     * takes its cut.
+     */
+    static void lockCharacterWrites() {
+        snapshotGate.readLock().lock();
+        storageLock.writeLock().lock();
+    }
+    
+    static void unlockCharacterWrites() {
+        storageLock.writeLock().unlock();
+        snapshotGate.readLock().unlock();
+    }
+    
+    /**
+     * Checks whether a file of character storage is only ever replaced by renaming a new file over it, as opposed
+     * to being modified in place like the segments of packed storage.
+     * @param relativePath A path relative to the persona directory
+     * @return true for character files, histories, tombstones, compression dictionaries and archive bundles
+     */
+    public static boolean isReplacedAtomically(Path relativePath) {
+        String top = relativePath.getName(0).toString();
+        return top.equals(CHARACTERS_DIR) || top.equals(HISTORY_DIR) || top.equals(TOMBSTONES_DIR) || top.equals(DICTIONARY_DIR)
+            || top.equals(ARCHIVE_DIR);
+    }
+    
+    /**
+     * Stores a new compression dictionary and uses it for all following writes in dictionary mode.
+     * Files written with earlier dictionaries stay readable.
+     * @param dictionary The dictionary bytes
+     * @return The new dictionary's version
+     * @throws IOException if the dictionary could not be written
+     * @throws IllegalStateException if the characters are shared, since the other servers only load dictionaries on start
+     */
+    public static int installCompressionDictionary(byte[] dictionary) throws IOException {
+        CharacterCodec current = codec;
+        if (current == null) {
+            throw new IllegalStateException("CharacterFileStorage is not initialized. This should only be called on the server side.");
+        }
+        if (shared) {
+            throw new IllegalStateException("Compression dictionaries cannot be trained while characters are shared with other servers");
+        }
+        return current.install(dictionary);
+    }
+    
+    /**
+     * Gets the dictionary new characters are compressed with in dictionary mode.
+     * @return The dictionary, or null if none has been trained or the storage is not initialized
+     */
+    public static byte[] getCompressionDictionary() {
+        CharacterCodec current = codec;
+        return current != null ? current.getDictionary(current.getCurrentVersion()) : null;
+    }
+    
+    /**
+     * Gets the write-behind queue metrics.
+     * @return The current stats, or null if write-behind is disabled or the server is not running
+     */
+    public static CharacterWriteQueue.Stats getWriteQueueStats() {
+        CharacterWriteQueue queue = writeQueue;
+        return queue != null ? queue.getStats() : null;
+    }
+    
+    /**
+     * Encodes a character for saving, counting the save as written or skipped.
+     * @return The encoding, or null if the character is unchanged since it was last stored
+     */
+    private static CharacterProfile.Encoding encodeChanges(CharacterProfile character) throws IOException {
+        CharacterProfile.Encoding encoding = character.encodeChanges();
+        if (encoding == null) {
+            savesSkipped.increment();
+        } else {
+            savesWritten.increment();
+            entriesEncoded.add(encoding.encodedEntries());
+            entriesReused.add(encoding.reusedEntries());
+        }
+        return encoding;
+    }
+    
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        return codec.decompress(compressed);
+    }
+    
+    /**
+     * Compresses uncompressed NBT in the configured format.
+     */
+    private static byte[] compress(byte[] payload) throws IOException {
+        return codec.compress(payload, Config.CHARACTER_COMPRESSION.get());
+    }
+    
     /**
      * Gets the file path for a character.
      * @param characterId The character's UUID
-     * @return The path to the character file
+     * @return The path to the character file, e.g. characters/ab/cd/abcd1234-....dat
      * @throws IllegalStateException if the storage system is not initialized
      */
     private static Path getCharacterFilePath(UUID characterId) {
         if (charactersDirectory == null) {
             throw new IllegalStateException("CharacterFileStorage is not initialized. This should only be called on the server side.");
         }
-        String filename = characterId.toString() + CHARACTER_FILE_EXTENSION;
-        return charactersDirectory.resolve(filename);
+        String id = characterId.toString();
+        return charactersDirectory
+            .resolve(id.substring(0, SHARD_NAME_LENGTH))
+            .resolve(id.substring(SHARD_NAME_LENGTH, SHARD_NAME_LENGTH * 2))
+            .resolve(id + CHARACTER_FILE_EXTENSION);
+    }
+    
+    /**
+     * Gets the history file path for a character.
+     * @param characterId The character's UUID
+     * @return The path to the history file, e.g. character_history/ab/cd/abcd1234-....hist
+     */
+    private static Path getHistoryFilePath(UUID characterId) {
+        if (historyDirectory == null) {
+            throw new IllegalStateException("CharacterFileStorage is not initialized. This should only be called on the server side.");
+        }
+        String id = characterId.toString();
+        return historyDirectory
+            .resolve(id.substring(0, SHARD_NAME_LENGTH))
+            .resolve(id.substring(SHARD_NAME_LENGTH, SHARD_NAME_LENGTH * 2))
+            .resolve(id + HISTORY_FILE_EXTENSION);
+    }
+    
+    /**
+     * Gets the path a character file had in the old flat layout.
+     * @param characterId The character's UUID
+     * @return The path directly inside the characters directory
+     */
+    private static Path getLegacyCharacterFilePath(UUID characterId) {
+        return charactersDirectory.resolve(characterId.toString() + CHARACTER_FILE_EXTENSION);
+    }
+    
+    /**
+     * Finds a character's file in either layout. Caller must hold the storage lock so the migrator cannot move it meanwhile.
+     * @param characterId The character's UUID
+     * @return The existing file, or null if the character has no file
+     */
+    private static Path locateCharacterFile(UUID characterId) {
+        Path characterFile = getCharacterFilePath(characterId);
+        if (Files.exists(characterFile)) {
+            return characterFile;
+        }
+        if (legacyFilesPresent) {
+            Path legacyFile = getLegacyCharacterFilePath(characterId);
+            if (Files.exists(legacyFile)) {
+                return legacyFile;
+            }
+        }
+        return null;
     }
     
     /**
@@ -0,0 +1,329 @@
+package world.landfall.persona.data;
+
+import com.mojang.logging.LogUtils;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.fml.common.EventBusSubscriber;
+import org.slf4j.Logger;
+import world.landfall.persona.Persona;
+import world.landfall.persona.config.Config;
+import world.landfall.persona.data.storage.CharacterLeases;
+import world.landfall.persona.registry.PersonaEvents;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link CharacterLeases} of the characters active on this server when several servers share their
+ * characters through {@link Config#SHARED_STORAGE_DIRECTORY} (see {@link Config#CHARACTER_LEASES}). A character's lease is acquired before it becomes active and
+ * released once it is no longer active and its queued saves have been written, so the next server always reads the
+ * latest data. A background heartbeat renews the held leases and watches the others: whenever a lease moves to
+ * another server, the cached copy of its character is dropped here.
+ * <p>
+ * Only character data lives in the shared directory; the registry stays in each world's persona directory, where
+ * {@link world.landfall.persona.registry.RegistryPersistence} keeps it to a single writer with a lock.
+ * <p>
+ * Everything succeeds trivially while leasing is disabled.
+ */
+@EventBusSubscriber(modid = Persona.MODID)
+public final class CharacterLeasing {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final String LEASES_DIR = "character_leases";
+
+    // null while leasing is disabled or the server is not running
+    private static volatile CharacterLeases leases;
+    // Renews leases and releases them off the server thread; null while leasing is not running
+    private static ScheduledExecutorService heartbeat;
+    private static volatile long renewIntervalMillis;
+    // The last lease seen for each character leased by another server
+    private static final Map<UUID, CharacterLeases.Lease> foreignLeases = new ConcurrentHashMap<>();
+    // Characters active on this server; a release is skipped if its character became active again meanwhile
+    private static final Map<UUID, Boolean> active = new ConcurrentHashMap<>();
+    // Serializes acquiring and releasing, so a late release cannot drop a lease that was just acquired again
+    private static final Object leaseLock = new Object();
+
+    private CharacterLeasing() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * The directory shared with the other servers, see {@link Config#SHARED_STORAGE_DIRECTORY}.
+     * @return The directory, or null if leasing is disabled and characters are kept in the world
+     * @throws IllegalStateException if leasing is enabled without a shared directory
+     */
+    public static Path getSharedDirectory() {
+        if (!Config.CHARACTER_LEASES.get()) {
+            return null;
+        }
+        String configured = Config.SHARED_STORAGE_DIRECTORY.get().trim();
+        if (configured.isEmpty()) {
+            throw new IllegalStateException("characterLeases is enabled, but no sharedStorageDirectory is configured");
+        }
+        return Path.of(configured).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Starts leasing if it is enabled. Must run after {@link CharacterFileStorage#initialize}.
+     */
+    public static void initialize() {
+        shutdown();
+        Path sharedDirectory = getSharedDirectory();
+        if (sharedDirectory == null) {
+            return;
+        }
+        String serverId = Config.SERVER_ID.get().isBlank() ? UUID.randomUUID().toString() : Config.SERVER_ID.get().trim();
+        long ttlMillis = TimeUnit.SECONDS.toMillis(Config.LEASE_TTL_SECONDS.get());
+        try {
+            leases = CharacterLeases.open(sharedDirectory.resolve(LEASES_DIR), serverId, ttlMillis);
+        } catch (IOException e) {
+            LOGGER.error("[CharacterLeasing] Failed to open the lease directory", e);
+            throw new RuntimeException("Failed to initialize character leasing", e);
+        }
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Persona-Leases");
+            thread.setDaemon(true);
+            return thread;
+        });
+        renewIntervalMillis = Math.max(1, ttlMillis / 3);
+        heartbeat.scheduleWithFixedDelay(CharacterLeasing::renewAndWatch, 0, renewIntervalMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("[CharacterLeasing] Leasing characters in {} as server '{}' (lease time {}s)", sharedDirectory, serverId, Config.LEASE_TTL_SECONDS.get());
+    }
+
+    /**
+     * Stops the heartbeat and releases every held lease. Queued character saves must have been written before.
+     */
+    public static void shutdown() {
+        shutdown(Set.of());
+    }
+
+    /**
+     * Stops the heartbeat and releases the held leases, except those of characters that may still be written.
+     * Those expire on their own, by which time the write has landed or been abandoned.
+     * @param stillWriting Characters whose saves did not finish
+     */
+    public static void shutdown(Set<UUID> stillWriting) {
+        ScheduledExecutorService executor = heartbeat;
+        heartbeat = null;
+        if (executor != null) {
+            // Releases already submitted still run
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(Config.SHUTDOWN_FLUSH_TIMEOUT_SECONDS.get(), TimeUnit.SECONDS)) {
+                    LOGGER.warn("[CharacterLeasing] Timed out waiting for pending lease releases");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        CharacterLeases current = leases;
+        leases = null;
+        if (current != null) {
+            synchronized (leaseLock) {
+                for (UUID characterId : current.getHeld()) {
+                    if (stillWriting.contains(characterId)) {
+                        LOGGER.warn("[CharacterLeasing] Keeping the lease of character {}, which may still be written", characterId);
+                        continue;
+                    }
+                    try {
+                        current.release(characterId);
+                    } catch (IOException e) {
+                        LOGGER.warn("[CharacterLeasing] Failed to release the lease of character {}; it expires on its own", characterId, e);
+                    }
+                }
+            }
+        }
+        foreignLeases.clear();
+        active.clear();
+    }
+
+    public static boolean isEnabled() {
+        return leases != null;
+    }
+
+    /**
+     * Acquires a character's lease before it becomes active on this server.
+     * If the character was last held elsewhere, its cached copy is dropped so it is read from disk.
+     * @param characterId The character
+     * @return true if this server holds the lease (or leasing is disabled), false if another server does
+     */
+    public static boolean acquire(UUID characterId) {
+        CharacterLeases current = leases;
+        if (current == null) {
+            return true;
+        }
+        synchronized (leaseLock) {
+            boolean alreadyHeld = current.isHeld(characterId);
+            CharacterLeases.Lease lease;
+            try {
+                lease = current.acquire(characterId);
+            } catch (IOException e) {
+                LOGGER.error("[CharacterLeasing] Failed to acquire the lease of character {}", characterId, e);
+                return false;
+            }
+            if (!lease.holder().equals(current.getServerId())) {
+                foreignLeases.put(characterId, lease);
+                return false;
+            }
+            foreignLeases.remove(characterId);
+            active.put(characterId, Boolean.TRUE);
+            if (!alreadyHeld) {
+                CharacterFileStorage.invalidateCachedCharacter(characterId);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Releases a character's lease once it is no longer active here. Runs in the background after the character's
+     * queued saves have been written, and is skipped if the character becomes active here again before that.
+     * @param characterId The character
+     */
+    public static void release(UUID characterId) {
+        CharacterLeases current = leases;
+        ScheduledExecutorService executor = heartbeat;
+        if (current == null || executor == null) {
+            return;
+        }
+        active.remove(characterId);
+        try {
+            executor.execute(() -> releaseWhenWritten(current, characterId));
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the remaining leases are released there
+        }
+    }
+
+    private static void releaseWhenWritten(CharacterLeases current, UUID characterId) {
+        // Waits at most one renewal interval, so the heartbeat on this thread is never held up long enough to lose leases
+        if (!CharacterFileStorage.flushWrites(renewIntervalMillis, TimeUnit.MILLISECONDS)) {
+            // Other servers must not read older data than what is still queued; keep the lease and try again
+            LOGGER.debug("[CharacterLeasing] Keeping the lease of character {} until its saves are written", characterId);
+            ScheduledExecutorService executor = heartbeat;
+            if (executor != null) {
+                try {
+                    executor.schedule(() -> releaseWhenWritten(current, characterId), renewIntervalMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down; the remaining leases are released there
+                }
+            }
+            return;
+        }
+        synchronized (leaseLock) {
+            if (active.containsKey(characterId)) {
+                return;
+            }
+            try {
+                current.release(characterId);
+            } catch (IOException e) {
+                LOGGER.warn("[CharacterLeasing] Failed to release the lease of character {}; it expires on its own", characterId, e);
+            }
+        }
+    }
+
+    /**
+     * @return true if this server may play the character: it holds its lease, or leasing is disabled
+     */
+    public static boolean isHeld(UUID characterId) {
+        CharacterLeases current = leases;
+        return current == null || current.isHeld(characterId);
+    }
+
+    /**
+     * Checks, without touching the disk, whether another server held an unexpired lease on a character when it was
+     * last looked at. Saves of such characters are refused so they cannot overwrite the other server's data.
+     * @param characterId The character
+     * @return true if the character is leased elsewhere
+     */
+    public static boolean isLeasedElsewhere(UUID characterId) {
+        CharacterLeases current = leases;
+        if (current == null || current.isHeld(characterId)) {
+            return false;
+        }
+        CharacterLeases.Lease lease = foreignLeases.get(characterId);
+        return lease != null && !lease.isExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * @return The id of the server holding the character's lease, or null if it is not leased
+     */
+    public static String getHolder(UUID characterId) {
+        CharacterLeases current = leases;
+        if (current == null) {
+            return null;
+        }
+        CharacterLeases.Lease lease = current.read(characterId);
+        return lease != null && !lease.isExpired(System.currentTimeMillis()) ? lease.holder() : null;
+    }
+
+    @SubscribeEvent
+    public static void onCharacterSwitch(PersonaEvents.CharacterSwitchEvent event) {
+        if (leases == null) {
+            return;
+        }
+        UUID from = event.getFromCharacterId();
+        UUID to = event.getToCharacterId();
+        // Switches that are not gated on the lease (e.g. after a death) still take it if they can
+        if (to != null && !isHeld(to) && !acquire(to)) {
+            LOGGER.warn("[CharacterLeasing] Character {} became active while another server holds its lease", to);
+        }
+        if (from != null && !from.equals(to)) {
+            release(from);
+        }
+    }
+
+    /**
+     * Renews the held leases and drops cached characters whose lease moved to another server.
+     * Runs on the heartbeat thread.
+     */
+    private static void renewAndWatch() {
+        CharacterLeases current = leases;
+        if (current == null) {
+            return;
+        }
+        try {
+            for (UUID characterId : current.getHeld()) {
+                synchronized (leaseLock) {
+                    if (!current.isHeld(characterId)) {
+                        continue;
+                    }
+                    try {
+                        if (!current.renew(characterId)) {
+                            LOGGER.error("[CharacterLeasing] Lost the lease of character {} to another server; its saves here are refused", characterId);
+                            active.remove(characterId);
+                            CharacterFileStorage.invalidateCachedCharacter(characterId);
+                        }
+                    } catch (IOException e) {
+                        LOGGER.warn("[CharacterLeasing] Failed to renew the lease of character {}", characterId, e);
+                    }
+                }
+            }
+
+            Map<UUID, CharacterLeases.Lease> all = current.readAll();
+            all.forEach((characterId, lease) -> {
+                if (lease.holder().equals(current.getServerId())) {
+                    return;
+                }
+                CharacterLeases.Lease previous = foreignLeases.put(characterId, lease);
+                if (previous == null || previous.epoch() != lease.epoch() || !previous.holder().equals(lease.holder())) {
+                    CharacterFileStorage.invalidateCachedCharacter(characterId);
+                }
+            });
+            // Released elsewhere: whatever was cached meanwhile may predate that server's last save
+            foreignLeases.keySet().removeIf(characterId -> {
+                if (all.containsKey(characterId)) {
+                    return false;
+                }
+                CharacterFileStorage.invalidateCachedCharacter(characterId);
+                return true;
+            });
+        } catch (Exception e) {
+            LOGGER.error("[CharacterLeasing] Lease heartbeat failed", e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package world.landfall.persona.data;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.IntArrayTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.StreamTagVisitor;
+import net.minecraft.nbt.StringTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.nbt.TagType;
+import net.minecraft.nbt.visitors.CollectFields;
+import net.minecraft.nbt.visitors.FieldSelector;
+import net.minecraft.resources.ResourceLocation;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The parts of a character that listings and reports need without the rest of it: id, display name, deceased flag
+ * and any requested mod data entries, in the current layout of their keys. Read with
+ * {@link CharacterFileStorage#readMetadata}, which scans the stored NBT with a streaming visitor instead of building
+ * a {@link CharacterProfile}.
+ * @param id The character's UUID
+ * @param displayName The character's display name
+ * @param deceased Whether the character is deceased
+ * @param modData The requested mod data entries that the character has; entries it lacks are absent
+ */
+public record CharacterMetadata(UUID id, String displayName, boolean deceased, Map<ResourceLocation, CompoundTag> modData) {
+    private static final String CHARACTER_DATA = "characterData";
+
+    /**
+     * @param modId A mod data key that was requested
+     * @return The entry, or an empty compound if the character has none
+     */
+    public CompoundTag getModData(ResourceLocation modId) {
+        CompoundTag data = modData.get(modId);
+        return data != null ? data : new CompoundTag();
+    }
+
+    /**
+     * Extracts the metadata of a character that is already in memory.
+     * @param profile The character
+     * @param modDataKeys The mod data entries to include
+     * @return The metadata; mod data entries are copies
+     */
+    public static CharacterMetadata of(CharacterProfile profile, Collection<ResourceLocation> modDataKeys) {
+        Map<ResourceLocation, CompoundTag> modData = new HashMap<>();
+        for (ResourceLocation modId : modDataKeys) {
+            if (profile.hasModData(modId)) {
+                modData.put(modId, profile.getModData(modId).copy());
+            }
+        }
+        return new CharacterMetadata(profile.getId(), profile.getDisplayName(), profile.isDeceased(), Map.copyOf(modData));
+    }
+
+    /**
+     * Scans uncompressed character NBT for the metadata. Only the selected fields are turned into tags; every other
+     * entry, such as inventories, is skipped without being allocated, and reading stops as soon as all selected
+     * fields have been seen, so the rest of the input is never consumed.
+     * @param input Uncompressed NBT as written by {@link CharacterProfile#write}
+     * @param modDataKeys The mod data entries to include
+     * @return The metadata
+     * @throws IOException if the data is malformed or has no id
+     */
+    static CharacterMetadata read(DataInput input, Collection<ResourceLocation> modDataKeys) throws IOException {
+        // Each field is counted once towards the halt, so duplicate selectors would keep it from ever halting
+        Set<String> modDataFields = new LinkedHashSet<>();
+        modDataFields.add(CharacterProfile.IS_DECEASED_KEY.toString());
+        modDataKeys.forEach(modId -> modDataFields.add(modId.toString()));
+        List<FieldSelector> selectors = new ArrayList<>();
+        selectors.add(new FieldSelector(IntArrayTag.TYPE, "id"));
+        selectors.add(new FieldSelector(StringTag.TYPE, "name"));
+        // Files written before entries were versioned have no schema, so the scan of those never halts early
+        selectors.add(new FieldSelector(CompoundTag.TYPE, CharacterProfile.SCHEMA));
+        modDataFields.forEach(field -> selectors.add(new FieldSelector(CHARACTER_DATA, CompoundTag.TYPE, field)));
+        MetadataVisitor visitor = new MetadataVisitor(selectors.toArray(FieldSelector[]::new));
+        NbtIo.parse(input, visitor, NbtAccounter.unlimitedHeap());
+
+        if (!(visitor.getResult() instanceof CompoundTag root) || !root.hasUUID("id")) {
+            throw new IOException("Character data has no id");
+        }
+        CompoundTag characterData = root.getCompound(CHARACTER_DATA);
+        CompoundTag schema = root.getCompound(CharacterProfile.SCHEMA);
+        CompoundTag deceasedTag = upgrade(CharacterProfile.IS_DECEASED_KEY,
+            characterData.getCompound(CharacterProfile.IS_DECEASED_KEY.toString()), schema);
+        Map<ResourceLocation, CompoundTag> modData = new HashMap<>();
+        for (ResourceLocation modId : modDataKeys) {
+            if (characterData.contains(modId.toString(), Tag.TAG_COMPOUND)) {
+                modData.put(modId, upgrade(modId, characterData.getCompound(modId.toString()), schema));
+            }
+        }
+        return new CharacterMetadata(root.getUUID("id"), root.getString("name"),
+            deceasedTag.contains("value") && deceasedTag.getBoolean("value"), Map.copyOf(modData));
+    }
+
+    /**
+     * Brings an entry read from storage into the current layout of its key. Nothing is written back here; the
+     * stored entry is upgraded once its character is loaded and saved.
+     */
+    private static CompoundTag upgrade(ResourceLocation modId, CompoundTag data, CompoundTag schema) {
+        int stored = schema.getInt(modId.toString());
+        return stored < CharacterSchema.getVersion(modId) ? CharacterSchema.upgrade(modId, data, stored).data() : data;
+    }
+
+    /**
+     * Collects the selected fields and halts the parse once all of them have been collected.
+     * {@link CollectFields} on its own only breaks out of the current compound, which still reads the rest of it.
+     */
+    private static final class MetadataVisitor extends CollectFields {
+        private MetadataVisitor(FieldSelector... selectors) {
+            super(selectors);
+        }
+
+        @Override
+        public StreamTagVisitor.EntryResult visitEntry(TagType<?> type) {
+            StreamTagVisitor.EntryResult result = super.visitEntry(type);
+            return result == StreamTagVisitor.EntryResult.BREAK ? StreamTagVisitor.EntryResult.HALT : result;
+        }
+    }
+}
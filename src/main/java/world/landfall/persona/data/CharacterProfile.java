@@ -1,25 +1,71 @@
 package world.landfall.persona.data;
 
 import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.IntArrayTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.nbt.Tag;
+import net.minecraft.nbt.TagTypes;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceLocation;
 import world.landfall.persona.config.Config;
 import world.landfall.persona.Persona;
 import world.landfall.persona.features.landfalladdon.LandfallAddonData;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 public class CharacterProfile {
     private static Pattern NAME_PATTERN = null; // Will be initialized from config
-    private static final ResourceLocation IS_DECEASED_KEY = ResourceLocation.fromNamespaceAndPath(Persona.MODID, "is_deceased"); // Key for modData
+    static final ResourceLocation IS_DECEASED_KEY = ResourceLocation.fromNamespaceAndPath(Persona.MODID, "is_deceased"); // Key for modData
+    private static final byte[] EMPTY_COMPOUND_PAYLOAD = { Tag.TAG_END };
+    // Top-level compound of mod data keys and the layout version their entry was written in
+    static final String SCHEMA = "schema";
 
     private final UUID id;
     private String displayName;
     private final Map<ResourceLocation, CompoundTag> modData;
+    // Entries read from storage that have not been accessed yet, kept as encoded compound payloads.
+    // They are decoded on first access and written back verbatim if never touched.
+    private final Map<ResourceLocation, byte[]> encodedModData = new HashMap<>();
+    // Incremented by every change made through this class; tags handed out by getModData can still change in place
+    private long version;
+    // Version as of the last save or load, or -1 if this profile was never stored
+    private long storedVersion = -1;
+    private String storedDisplayName;
+    // Encoded form of each mod data entry as last stored, so that unchanged entries are written without re-encoding
+    private final Map<ResourceLocation, byte[]> storedModData = new HashMap<>();
+    // Entries that may differ from their stored form: set through setModData, or handed out as a live tag that can be
+    // changed in place. These are encoded and compared against the stored form on every save.
+    private final Set<ResourceLocation> dirtyModData = new HashSet<>();
+    // Layout version of each mod data entry that is not at version 0, see CharacterSchema
+    private final Map<ResourceLocation, Integer> modDataVersions = new HashMap<>();
+    private final Map<ResourceLocation, Integer> storedModDataVersions = new HashMap<>();
+
+    /**
+     * A profile encoded for saving by {@link #encodeChanges}.
+     * @param payload Uncompressed NBT, in the format of {@link #write}
+     * @param version The profile version it reflects
+     * @param modDataVersions The layout versions written with it
+     * @param encodedEntries Mod data entries that had to be encoded
+     * @param reusedEntries Mod data entries copied from their stored form
+     */
+    record Encoding(byte[] payload, long version, String displayName, Map<ResourceLocation, byte[]> sections,
+                    Map<ResourceLocation, Integer> modDataVersions, int encodedEntries, int reusedEntries) {}
 
     static {
         updateNamePattern();
@@ -36,7 +82,7 @@ public class CharacterProfile {
         // Initialize isDeceased in modData
         CompoundTag deceasedTag = new CompoundTag();
         deceasedTag.putBoolean("value", false);
-        this.modData.put(IS_DECEASED_KEY, deceasedTag);
+        setModData(IS_DECEASED_KEY, deceasedTag);
     }
 
     private CharacterProfile(UUID id, String displayName, boolean skipValidation) {
@@ -50,7 +96,7 @@ public class CharacterProfile {
         // Initialize isDeceased in modData
         CompoundTag deceasedTag = new CompoundTag();
         deceasedTag.putBoolean("value", false);
-        this.modData.put(IS_DECEASED_KEY, deceasedTag);
+        setModData(IS_DECEASED_KEY, deceasedTag);
     }
 
     public UUID getId() {
@@ -69,7 +115,10 @@ public class CharacterProfile {
         if (validate && !isValidName(displayName)) {
             throw new IllegalArgumentException(Component.translatable("command.persona.error.invalid_name").getString());
         }
-        this.displayName = displayName;
+        synchronized (this) {
+            this.displayName = displayName;
+            version++;
+        }
     }
 
     /**
@@ -99,58 +148,416 @@ public class CharacterProfile {
         NAME_PATTERN = Pattern.compile(Config.NAME_VALIDATION_REGEX.get());
     }
 
-    public Map<ResourceLocation, CompoundTag> getModData() {
+    /**
+     * Gets all mod data, decoding any entries that have not been accessed yet.
+     * @return The live mod data map
+     */
+    public synchronized Map<ResourceLocation, CompoundTag> getModData() {
+        if (!encodedModData.isEmpty()) {
+            for (ResourceLocation modId : encodedModData.keySet().toArray(ResourceLocation[]::new)) {
+                resolveModData(modId);
+            }
+        }
+        dirtyModData.addAll(modData.keySet());
         return modData;
     }
 
-    public CompoundTag getModData(ResourceLocation modId) {
-        return modData.getOrDefault(modId, new CompoundTag());
+    public synchronized CompoundTag getModData(ResourceLocation modId) {
+        CompoundTag data = resolveModData(modId);
+        if (data == null) {
+            return new CompoundTag();
+        }
+        // The caller may change the live tag, so the next save has to check it
+        dirtyModData.add(modId);
+        return data;
     }
 
-    public void setModData(ResourceLocation modId, CompoundTag data) {
+    /**
+     * Checks for a mod data entry without decoding it.
+     * @return true if the character has the entry
+     */
+    public synchronized boolean hasModData(ResourceLocation modId) {
+        return modData.containsKey(modId) || encodedModData.containsKey(modId);
+    }
+
+    /**
+     * Sets a mod data entry, which must be in the current layout of its key (see {@link CharacterSchema}).
+     */
+    public synchronized void setModData(ResourceLocation modId, CompoundTag data) {
+        encodedModData.remove(modId);
         modData.put(modId, data);
+        dirtyModData.add(modId);
+        setModDataVersion(modId, CharacterSchema.getVersion(modId));
+        version++;
     }
 
-    public void removeModData(ResourceLocation modId) {
+    public synchronized void removeModData(ResourceLocation modId) {
+        encodedModData.remove(modId);
         modData.remove(modId);
+        dirtyModData.remove(modId);
+        modDataVersions.remove(modId);
+        version++;
+    }
+
+    private void setModDataVersion(ResourceLocation modId, int layoutVersion) {
+        if (layoutVersion != 0) {
+            modDataVersions.put(modId, layoutVersion);
+        } else {
+            modDataVersions.remove(modId);
+        }
+    }
+
+    /**
+     * Counts the changes made through this profile's setters. Changes made in place to a tag from
+     * {@link #getModData(ResourceLocation)} are not counted, but are still found by the next save.
+     * @return The current version
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets a mod data entry, decoding it first if it is still in its stored form. An entry stored in an older layout
+     * is upgraded as it is decoded, and marked dirty so that the next save writes it back in the current layout.
+     * @return The entry, or null if there is none
+     */
+    private CompoundTag resolveModData(ResourceLocation modId) {
+        CompoundTag data = modData.get(modId);
+        if (data == null) {
+            byte[] encoded = encodedModData.remove(modId);
+            if (encoded != null) {
+                data = decode(modId, encoded);
+                int storedLayout = modDataVersions.getOrDefault(modId, 0);
+                if (storedLayout < CharacterSchema.getVersion(modId)) {
+                    CharacterSchema.Upgraded upgraded = CharacterSchema.upgrade(modId, data, storedLayout);
+                    data = upgraded.data();
+                    setModDataVersion(modId, upgraded.version());
+                    dirtyModData.add(modId);
+                }
+                modData.put(modId, data);
+            }
+        }
+        return data;
     }
 
-    public boolean isDeceased() {
-        CompoundTag deceasedTag = modData.get(IS_DECEASED_KEY);
+    private CompoundTag decode(ResourceLocation modId, byte[] encoded) {
+        try {
+            return CompoundTag.TYPE.load(new DataInputStream(new ByteArrayInputStream(encoded)), NbtAccounter.unlimitedHeap());
+        } catch (IOException e) {
+            // The entry was already walked once when the profile was read, so this means memory corruption
+            throw new UncheckedIOException("Failed to decode mod data " + modId + " of character " + id, e);
+        }
+    }
+
+    public synchronized boolean isDeceased() {
+        CompoundTag deceasedTag = resolveModData(IS_DECEASED_KEY);
         if (deceasedTag != null && deceasedTag.contains("value")) {
             return deceasedTag.getBoolean("value");
         }
         return false; // Default to false if not found or malformed
     }
 
-    public void setDeceased(boolean deceased) {
+    public synchronized void setDeceased(boolean deceased) {
+        long since = deceased ? (isDeceased() ? getDeceasedSince() : System.currentTimeMillis()) : 0;
         CompoundTag deceasedTag = new CompoundTag();
         deceasedTag.putBoolean("value", deceased);
-        modData.put(IS_DECEASED_KEY, deceasedTag);
+        if (since != 0) {
+            deceasedTag.putLong("since", since);
+        }
+        setModData(IS_DECEASED_KEY, deceasedTag);
+    }
+
+    /**
+     * @return When the character died, in milliseconds since the epoch, or 0 if it is alive or died before deaths
+     *         were timestamped
+     */
+    public synchronized long getDeceasedSince() {
+        CompoundTag deceasedTag = resolveModData(IS_DECEASED_KEY);
+        return deceasedTag != null ? deceasedTag.getLong("since") : 0;
     }
 
-    public CompoundTag serialize() {
+    /**
+     * Creates a stand-in for a character whose data is archived: it has the character's id and name and is deceased,
+     * but carries none of its other mod data. Stand-ins are for display only and must never be saved.
+     * @param id The character's UUID
+     * @param displayName The character's display name
+     * @return The stand-in
+     */
+    public static CharacterProfile archivedStub(UUID id, String displayName) {
+        CharacterProfile profile = new CharacterProfile(id, displayName, true);
+        profile.setDeceased(true);
+        return profile;
+    }
+
+    /**
+     * Converts this profile to a tag. Entries that have not been accessed since the profile was read are decoded into
+     * the tag only; they stay encoded here and are neither upgraded nor marked dirty, so serializing a profile does not
+     * make its next save re-encode them.
+     * @return The profile, with the layout version of every entry under {@link #SCHEMA}
+     */
+    public synchronized CompoundTag serialize() {
         CompoundTag tag = new CompoundTag();
         tag.putUUID("id", id);
         tag.putString("name", displayName);
 
         CompoundTag dataTag = new CompoundTag();
-        modData.forEach((modId, modData) -> dataTag.put(modId.toString(), modData));
+        modData.forEach((modId, data) -> dataTag.put(modId.toString(), data));
+        encodedModData.forEach((modId, encoded) -> dataTag.put(modId.toString(), decode(modId, encoded)));
+        CompoundTag schema = new CompoundTag();
+        modDataVersions.forEach((modId, layoutVersion) -> schema.putInt(modId.toString(), layoutVersion));
+        tag.put(SCHEMA, schema);
         tag.put("characterData", dataTag);
 
         return tag;
     }
 
+    /**
+     * Encodes this profile for saving, unless it is unchanged since it was last stored. Mod data entries that were
+     * neither set nor handed out since are copied from their stored form; the others are encoded and compared
+     * against it.
+     * @return The encoding, or null if saving would write exactly what is stored already
+     * @throws IOException if encoding fails
+     */
+    synchronized Encoding encodeChanges() throws IOException {
+        boolean changed = storedVersion < 0 || !displayName.equals(storedDisplayName);
+        Map<ResourceLocation, byte[]> sections = new HashMap<>(encodedModData);
+        int encodedEntries = 0;
+        for (Map.Entry<ResourceLocation, CompoundTag> entry : modData.entrySet()) {
+            byte[] stored = storedModData.get(entry.getKey());
+            byte[] section = stored;
+            if (stored == null || dirtyModData.contains(entry.getKey())) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+                entry.getValue().write(new DataOutputStream(bytes));
+                encodedEntries++;
+                section = bytes.toByteArray();
+                if (stored != null && Arrays.equals(stored, section)) {
+                    section = stored;
+                } else {
+                    changed = true;
+                }
+            }
+            sections.put(entry.getKey(), section);
+        }
+        // Entries removed since they were stored
+        changed |= !sections.keySet().containsAll(storedModData.keySet());
+        // Entries upgraded in place, e.g. by an upgrader that did not change the content
+        changed |= !modDataVersions.equals(storedModDataVersions);
+        if (!changed) {
+            return null;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream output = new DataOutputStream(bytes);
+        writeHeader(output);
+        for (Map.Entry<ResourceLocation, byte[]> entry : sections.entrySet()) {
+            output.writeByte(Tag.TAG_COMPOUND);
+            output.writeUTF(entry.getKey().toString());
+            output.write(entry.getValue());
+        }
+        writeFooter(output);
+        return new Encoding(bytes.toByteArray(), version, displayName, sections, Map.copyOf(modDataVersions),
+            encodedEntries, sections.size() - encodedEntries);
+    }
+
+    /**
+     * Records that an encoding from {@link #encodeChanges} has been stored.
+     * An encoding older than the one stored last is ignored. Entries handed out as live tags stay dirty, as they can
+     * still be changed in place; re-encoding them is what finds such changes, and an unchanged entry is not written.
+     */
+    synchronized void markStored(Encoding encoding) {
+        if (encoding.version() < storedVersion) {
+            return;
+        }
+        storedVersion = encoding.version();
+        storedDisplayName = encoding.displayName();
+        storedModData.clear();
+        storedModData.putAll(encoding.sections());
+        storedModDataVersions.clear();
+        storedModDataVersions.putAll(encoding.modDataVersions());
+    }
+
+    /**
+     * Forgets what is stored, e.g. because writing it failed, so that the next save writes this profile in full.
+     */
+    synchronized void markUnstored() {
+        storedVersion = -1;
+        storedModData.clear();
+    }
+
+    /**
+     * Records that this profile, as read with {@link #read}, is what is stored.
+     */
+    synchronized void markStored() {
+        storedVersion = version;
+        storedDisplayName = displayName;
+        storedModData.clear();
+        storedModData.putAll(encodedModData);
+        storedModDataVersions.clear();
+        storedModDataVersions.putAll(modDataVersions);
+        dirtyModData.clear();
+    }
+
+    /**
+     * Writes this profile as uncompressed NBT, producing the same format as {@code NbtIo.write(serialize(), output)}.
+     * Mod data entries that have not been accessed since the profile was read are copied through without re-encoding.
+     * @param output The stream to write to
+     * @throws IOException if writing fails
+     */
+    public synchronized void write(DataOutput output) throws IOException {
+        writeHeader(output);
+        for (Map.Entry<ResourceLocation, CompoundTag> entry : modData.entrySet()) {
+            output.writeByte(Tag.TAG_COMPOUND);
+            output.writeUTF(entry.getKey().toString());
+            entry.getValue().write(output);
+        }
+        for (Map.Entry<ResourceLocation, byte[]> entry : encodedModData.entrySet()) {
+            output.writeByte(Tag.TAG_COMPOUND);
+            output.writeUTF(entry.getKey().toString());
+            output.write(entry.getValue());
+        }
+        writeFooter(output);
+    }
+
+    /**
+     * Writes everything up to the first mod data entry.
+     */
+    private void writeHeader(DataOutput output) throws IOException {
+        output.writeByte(Tag.TAG_COMPOUND);
+        output.writeUTF("");
+
+        output.writeByte(Tag.TAG_INT_ARRAY);
+        output.writeUTF("id");
+        NbtUtils.createUUID(id).write(output);
+
+        output.writeByte(Tag.TAG_STRING);
+        output.writeUTF("name");
+        output.writeUTF(displayName);
+
+        // Ahead of the mod data, so that a streaming reader knows the layouts before it reaches the entries
+        CompoundTag schema = new CompoundTag();
+        modDataVersions.forEach((modId, layoutVersion) -> schema.putInt(modId.toString(), layoutVersion));
+        output.writeByte(Tag.TAG_COMPOUND);
+        output.writeUTF(SCHEMA);
+        schema.write(output);
+
+        output.writeByte(Tag.TAG_COMPOUND);
+        output.writeUTF("characterData");
+    }
+
+    private static void writeFooter(DataOutput output) throws IOException {
+        output.writeByte(Tag.TAG_END);
+
+        output.writeByte(Tag.TAG_END);
+    }
+
+    /**
+     * Reads a profile from uncompressed NBT as written by {@link #write} or {@code NbtIo.write}.
+     * Mod data entries are only located, not decoded; each is decoded, and upgraded if it was stored in an older
+     * layout, on its first access.
+     * @param nbt The encoded profile
+     * @return The profile
+     * @throws IOException if the data is malformed
+     */
+    public static CharacterProfile read(byte[] nbt) throws IOException {
+        PositionedInput bytes = new PositionedInput(nbt);
+        DataInputStream input = new DataInputStream(bytes);
+        NbtAccounter accounter = NbtAccounter.unlimitedHeap();
+
+        if (input.readByte() != Tag.TAG_COMPOUND) {
+            throw new IOException("Character data is not a compound tag");
+        }
+        input.readUTF();
+
+        UUID id = null;
+        String name = "";
+        CompoundTag schema = new CompoundTag();
+        Map<ResourceLocation, byte[]> encoded = new HashMap<>();
+        byte type;
+        while ((type = input.readByte()) != Tag.TAG_END) {
+            String key = input.readUTF();
+            if (type == Tag.TAG_COMPOUND && key.equals("characterData")) {
+                readEncodedModData(bytes, input, accounter, encoded);
+                continue;
+            }
+            Tag tag = TagTypes.getType(type).load(input, accounter);
+            if (key.equals("id") && tag instanceof IntArrayTag) {
+                id = NbtUtils.loadUUID(tag);
+            } else if (key.equals("name") && tag.getId() == Tag.TAG_STRING) {
+                name = tag.getAsString();
+            } else if (key.equals(SCHEMA) && tag instanceof CompoundTag schemaTag) {
+                schema = schemaTag;
+            }
+        }
+        if (id == null) {
+            throw new IOException("Character data has no id");
+        }
+
+        CharacterProfile profile = new CharacterProfile(id, name, false); // Skip validation for stored data
+        // Files written before entries were versioned have no schema, so all their entries are version 0
+        CompoundTag layouts = schema;
+        encoded.forEach((modId, data) -> {
+            // Stored entries replace the defaults the constructor created
+            profile.modData.remove(modId);
+            profile.encodedModData.put(modId, data);
+            profile.setModDataVersion(modId, layouts.getInt(modId.toString()));
+        });
+        return profile;
+    }
+
+    private static void readEncodedModData(PositionedInput bytes, DataInput input, NbtAccounter accounter,
+                                           Map<ResourceLocation, byte[]> encoded) throws IOException {
+        byte type;
+        while ((type = input.readByte()) != Tag.TAG_END) {
+            String key = input.readUTF();
+            int start = bytes.position();
+            TagTypes.getType(type).skip(input, accounter);
+            ResourceLocation modId = ResourceLocation.tryParse(key);
+            if (modId == null) {
+                continue;
+            }
+            // Like deserialize, anything that is not a compound becomes an empty compound
+            encoded.put(modId, type == Tag.TAG_COMPOUND ? bytes.slice(start) : EMPTY_COMPOUND_PAYLOAD);
+        }
+    }
+
+    /**
+     * Byte array stream that exposes its read position, so encoded entries can be sliced out of the source.
+     */
+    private static final class PositionedInput extends ByteArrayInputStream {
+        PositionedInput(byte[] data) {
+            super(data);
+        }
+
+        int position() {
+            return pos;
+        }
+
+        byte[] slice(int start) {
+            return Arrays.copyOfRange(buf, start, pos);
+        }
+    }
+
     public static CharacterProfile deserialize(CompoundTag tag) {
         UUID id = tag.getUUID("id");
         String name = tag.getString("name");
         CharacterProfile profile = new CharacterProfile(id, name, false); // Skip validation for stored data
 
         CompoundTag dataTag = tag.getCompound("characterData");
+        // Without a schema the entries are taken to be in their current layout; such tags are never stored
+        CompoundTag schema = tag.contains(SCHEMA, Tag.TAG_COMPOUND) ? tag.getCompound(SCHEMA) : null;
         for (String key : dataTag.getAllKeys()) {
             ResourceLocation rl = ResourceLocation.tryParse(key);
             if (rl != null) {
-                profile.setModData(rl, dataTag.getCompound(key));
+                CompoundTag data = dataTag.getCompound(key);
+                int layout = schema != null ? schema.getInt(key) : CharacterSchema.getVersion(rl);
+                // serialize passes entries that were never accessed on in their stored layout
+                if (layout < CharacterSchema.getVersion(rl)) {
+                    CharacterSchema.Upgraded upgraded = CharacterSchema.upgrade(rl, data, layout);
+                    data = upgraded.data();
+                    layout = upgraded.version();
+                }
+                profile.setModData(rl, data);
+                profile.setModDataVersion(rl, layout);
             }
         }
 
@@ -0,0 +1,77 @@
+package world.landfall.persona.data;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+import world.landfall.persona.config.Config;
+import world.landfall.persona.data.storage.CharacterTombstones;
+import world.landfall.persona.features.inventory.ItemBlobStore;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the data of deleted characters from {@link CharacterFileStorage} once
+ * {@link Config#CHARACTER_DELETE_GRACE_HOURS} have passed. Until then, a character's tombstone hides it and it can be
+ * restored.
+ */
+final class CharacterReclaimer {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private final CharacterTombstones tombstones;
+
+    CharacterReclaimer(CharacterTombstones tombstones) {
+        this.tombstones = tombstones;
+    }
+
+    /**
+     * Reclaims every character whose grace period has run out. A character that fails is kept for the next pass.
+     */
+    void reclaimExpired() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(Config.CHARACTER_DELETE_GRACE_HOURS.get());
+        int reclaimed = 0;
+        for (CharacterTombstones.Tombstone tombstone : tombstones.deletedBefore(cutoff)) {
+            UUID characterId = tombstone.characterId();
+            List<byte[]> purged;
+            CharacterFileStorage.lockCharacterWrites();
+            try {
+                if (!tombstones.remove(tombstone)) {
+                    continue; // Restored meanwhile
+                }
+                try {
+                    purged = CharacterFileStorage.purgeCharacterData(characterId);
+                } catch (IOException e) {
+                    tombstones.add(tombstone);
+                    LOGGER.warn("[CharacterReclaimer] Failed to reclaim deleted character {}, retrying later: {}", characterId, e.getMessage());
+                    continue;
+                }
+            } finally {
+                CharacterFileStorage.unlockCharacterWrites();
+            }
+            // Outside the storage lock, which the item blob store takes while it holds its own
+            purged.forEach(ItemBlobStore::releaseStored);
+            try {
+                tombstones.deleteFile(characterId);
+            } catch (IOException e) {
+                LOGGER.warn("[CharacterReclaimer] Failed to delete tombstone of reclaimed character {}: {}", characterId, e.getMessage());
+            }
+            reclaimed++;
+        }
+        if (reclaimed > 0) {
+            LOGGER.info("[CharacterReclaimer] Reclaimed {} deleted characters", reclaimed);
+        }
+    }
+
+    /**
+     * Deletes the tombstone file of a character that was restored.
+     * @param characterId The character, already taken out of the tombstones in memory
+     */
+    void forgetRestored(UUID characterId) {
+        try {
+            tombstones.deleteFile(characterId);
+        } catch (IOException e) {
+            LOGGER.error("[CharacterReclaimer] Failed to delete tombstone of restored character {}; it is deleted again after a restart", characterId, e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package world.landfall.persona.data;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.resources.ResourceLocation;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Layout versions of character mod data entries. Every character file records the version each of its entries was
+ * written in; an entry without one is version 0. When a feature changes how it lays out its entry, it registers an
+ * upgrader from the previous version, and entries stored in an older layout are upgraded the first time they are
+ * accessed after loading. The upgraded entry is written back by the next regular save of its character, so stored
+ * characters are brought up to date gradually instead of in a migration pass.
+ * <p>
+ * Upgraders must be registered before any character is loaded, i.e. during mod construction or common setup:
+ * <pre>{@code
+ * CharacterSchema.register(LOCATION_KEY, 1, data -> {
+ *     data.putString("dimension", data.getString("world"));
+ *     data.remove("world");
+ *     return data;
+ * });
+ * }</pre>
+ */
+public final class CharacterSchema {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    // Upgraders per key; the one at index n turns version n into version n + 1
+    private static final Map<ResourceLocation, List<UnaryOperator<CompoundTag>>> upgraders = new ConcurrentHashMap<>();
+    private static final LongAdder entriesUpgraded = new LongAdder();
+
+    /**
+     * The result of {@link #upgrade}.
+     * @param data The entry in the layout of {@code version}
+     * @param version The version reached; lower than the current one if an upgrader failed
+     */
+    public record Upgraded(CompoundTag data, int version) {}
+
+    private CharacterSchema() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Registers the upgrader that turns an entry of {@code version - 1} into {@code version}, making {@code version}
+     * the current layout of the key. Versions of a key are registered in order, starting at 1.
+     * @param modId The mod data key
+     * @param version The version the upgrader produces
+     * @param upgrader Takes an entry in the previous layout and returns it in the new one; it may change and return
+     *                 the tag it is given
+     * @throws IllegalStateException if {@code version} does not follow the current version of the key
+     */
+    public static synchronized void register(ResourceLocation modId, int version, UnaryOperator<CompoundTag> upgrader) {
+        List<UnaryOperator<CompoundTag>> chain = upgraders.getOrDefault(modId, List.of());
+        if (version != chain.size() + 1) {
+            throw new IllegalStateException("Expected an upgrader of " + modId + " to version " + (chain.size() + 1)
+                + ", got version " + version);
+        }
+        List<UnaryOperator<CompoundTag>> extended = new ArrayList<>(chain);
+        extended.add(upgrader);
+        upgraders.put(modId, List.copyOf(extended));
+    }
+
+    /**
+     * @param modId The mod data key
+     * @return The version entries of the key are written in, 0 if its layout never changed
+     */
+    public static int getVersion(ResourceLocation modId) {
+        return upgraders.getOrDefault(modId, List.of()).size();
+    }
+
+    /**
+     * Brings an entry up to the current version of its key. Each upgrader is given a copy, so an upgrader that fails
+     * halfway leaves the entry as the previous one returned it; the upgrade stops there and the failure is logged.
+     * Entries of a version newer than the current one, written by a newer version of the mod, are returned as they are.
+     * @param modId The mod data key
+     * @param data The entry
+     * @param version The version the entry was written in
+     * @return The upgraded entry and its version
+     */
+    public static Upgraded upgrade(ResourceLocation modId, CompoundTag data, int version) {
+        List<UnaryOperator<CompoundTag>> chain = upgraders.getOrDefault(modId, List.of());
+        if (version >= chain.size()) {
+            return new Upgraded(data, version);
+        }
+        int reached = Math.max(version, 0);
+        for (; reached < chain.size(); reached++) {
+            try {
+                CompoundTag upgraded = chain.get(reached).apply(data.copy());
+                if (upgraded == null) {
+                    throw new IllegalStateException("Upgrader returned null");
+                }
+                data = upgraded;
+            } catch (RuntimeException e) {
+                LOGGER.error("[CharacterSchema] Failed to upgrade mod data {} from version {} to {}", modId, reached, reached + 1, e);
+                break;
+            }
+        }
+        if (reached > version) {
+            entriesUpgraded.increment();
+        }
+        return new Upgraded(data, reached);
+    }
+
+    /**
+     * @return Mod data entries upgraded since the server started
+     */
+    public static long getUpgradedCount() {
+        return entriesUpgraded.sum();
+    }
+}
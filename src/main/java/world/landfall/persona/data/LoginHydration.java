@@ -0,0 +1,132 @@
+package world.landfall.persona.data;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.server.level.ServerPlayer;
+import org.slf4j.Logger;
+import world.landfall.persona.data.storage.CharacterStores;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads a joining player's characters before the server thread needs them. Hydration starts as soon as the player's
+ * connection enters the configuration phase: the player's characters are listed and every one of them is read and
+ * decompressed on a virtual thread, which leaves them pinned in the {@link CharacterFileStorage} cache. The server
+ * thread then only applies the result, and login handlers that need the active character wait for
+ * {@link #onReady} instead of reading it from disk.
+ */
+public final class LoginHydration {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final ExecutorService IO = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("Persona-Hydration-", 0).factory());
+
+    /**
+     * The characters loaded for a player.
+     * @param characterIds The player's characters and their display names
+     */
+    public record Hydration(Map<UUID, String> characterIds) {}
+
+    private static final class PendingLogin {
+        private final CompletableFuture<Hydration> loaded;
+        // Completed on the server thread once the player's data holds the loaded characters
+        private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+        private PendingLogin(CompletableFuture<Hydration> loaded) {
+            this.loaded = loaded;
+        }
+    }
+
+    private static final Map<UUID, PendingLogin> logins = new ConcurrentHashMap<>();
+
+    private LoginHydration() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Starts loading a player's characters, unless that has already started.
+     * @param playerId The joining player
+     * @return Completes with the loaded characters, on a hydration thread
+     */
+    public static CompletableFuture<Hydration> begin(UUID playerId) {
+        return pending(playerId).loaded;
+    }
+
+    /**
+     * Runs an action on the server thread once the player's characters have been loaded and applied at login,
+     * right away if that has happened already or no login is pending. The action is dropped if the player disconnects
+     * first. Must be called on the server thread.
+     * @param player The player
+     * @param action What to do with the loaded characters
+     */
+    public static void onReady(ServerPlayer player, Runnable action) {
+        // Never starts a hydration: the player is in already, and one started now would pin characters nobody unpins
+        PendingLogin login = logins.get(player.getUUID());
+        if (login == null || login.ready.isDone()) {
+            action.run();
+            return;
+        }
+        login.ready.thenRun(() -> {
+            if (!player.hasDisconnected()) {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Signals that the player's loaded characters have been applied, running the actions waiting in {@link #onReady}.
+     * Must be called on the server thread.
+     * @param player The player
+     */
+    public static void markReady(ServerPlayer player) {
+        PendingLogin login = logins.get(player.getUUID());
+        if (login != null) {
+            login.ready.complete(null);
+        }
+    }
+
+    /**
+     * Forgets a player's login, e.g. when they disconnect. Characters pinned by a hydration that was never applied
+     * are unpinned again; a hydration that failed has unpinned them itself.
+     * @param playerId The player
+     */
+    public static void discard(UUID playerId) {
+        PendingLogin login = logins.remove(playerId);
+        if (login != null && !login.ready.isDone()) {
+            login.loaded.thenAccept(hydration -> CharacterFileStorage.unpinCharacters(hydration.characterIds().keySet()));
+        }
+    }
+
+    private static PendingLogin pending(UUID playerId) {
+        return logins.computeIfAbsent(playerId, id -> new PendingLogin(CompletableFuture.supplyAsync(() -> hydrate(id), IO)));
+    }
+
+    private static Hydration hydrate(UUID playerId) {
+        long start = System.nanoTime();
+        Map<UUID, String> characterIds = CharacterStores.get().listByOwner(playerId);
+        // Pinned first, so loaded characters cannot be evicted before the player is in
+        CharacterFileStorage.pinCharacters(characterIds.keySet());
+        try {
+            List<CompletableFuture<?>> loads = new ArrayList<>(characterIds.size());
+            for (UUID characterId : characterIds.keySet()) {
+                // Archived characters are only listed, which needs nothing but their stub
+                if (!CharacterFileStorage.isArchived(characterId)) {
+                    loads.add(CompletableFuture.runAsync(() -> CharacterStores.get().load(characterId), IO));
+                }
+            }
+            CompletableFuture.allOf(loads.toArray(CompletableFuture[]::new)).join();
+        } catch (RuntimeException e) {
+            // The login falls back to loading on the server thread, which pins what it keeps
+            CharacterFileStorage.unpinCharacters(characterIds.keySet());
+            throw e;
+        }
+        LOGGER.debug("[LoginHydration] Loaded {} characters of player {} in {} ms", characterIds.size(), playerId,
+            (System.nanoTime() - start) / 1_000_000);
+        return new Hydration(characterIds);
+    }
+}
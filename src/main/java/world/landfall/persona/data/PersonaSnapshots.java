@@ -0,0 +1,251 @@
+package world.landfall.persona.data;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+import world.landfall.persona.Persona;
+import world.landfall.persona.config.Config;
+import world.landfall.persona.data.storage.DurableFileWriter;
+import world.landfall.persona.data.storage.SnapshotEngine;
+import world.landfall.persona.features.inventory.ItemBlobStore;
+import world.landfall.persona.registry.GlobalCharacterRegistry;
+import world.landfall.persona.registry.RegistryPersistence;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time snapshots of the persona data directory, kept in {@code <world>/persona_snapshots}.
+ * Snapshots are taken on a background thread, either on demand or every {@link Config#SNAPSHOT_INTERVAL_MINUTES};
+ * character files are captured while {@link CharacterFileStorage} holds back its writes, and the registry is
+ * exported from an immutable snapshot, so the result is consistent without pausing the server thread.
+ * <p>
+ * A restore replaces the whole data directory and therefore only happens during server start: it is requested with
+ * {@link #scheduleRestore} and carried out by {@link #applyPendingRestore} before any storage is opened. The data it
+ * replaces is kept as another snapshot.
+ */
+public final class PersonaSnapshots {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final String SNAPSHOTS_DIR = "persona_snapshots";
+    private static final String RESTORE_MARKER = "restore.pending";
+    private static final String RESTORING_SUFFIX = ".restoring";
+    private static final String PRE_RESTORE_SUFFIX = "-pre-restore";
+
+    /**
+     * Outcome of a snapshot.
+     * @param snapshot The new snapshot
+     * @param stats How many files were linked and copied
+     * @param durationMillis How long the snapshot took
+     * @param pruned Snapshots deleted by the retention policy afterwards
+     */
+    public record Result(SnapshotEngine.SnapshotInfo snapshot, SnapshotEngine.Stats stats, long durationMillis,
+                         List<SnapshotEngine.SnapshotInfo> pruned) {}
+
+    private static SnapshotEngine engine;
+    private static Path snapshotsDirectory;
+    // Runs every snapshot, so they never overlap; null while the server is not running
+    private static ScheduledExecutorService executor;
+
+    private PersonaSnapshots() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Sets up snapshots for a world and starts scheduled snapshots if configured.
+     * Must run after {@link CharacterFileStorage#initialize}.
+     * @param worldPath The world directory path
+     */
+    public static void initialize(Path worldPath) {
+        shutdown();
+        snapshotsDirectory = worldPath.resolve(SNAPSHOTS_DIR).normalize();
+        engine = newEngine(worldPath);
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Persona-Snapshots");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        int interval = Config.SNAPSHOT_INTERVAL_MINUTES.get();
+        if (interval > 0) {
+            executor.scheduleWithFixedDelay(() -> {
+                try {
+                    Result result = snapshot();
+                    LOGGER.info("[PersonaSnapshots] Took snapshot {}: {} files, {} copied ({} KiB) in {} ms",
+                        result.snapshot().name(), result.stats().files(), result.stats().copies(),
+                        result.stats().copiedBytes() / 1024, result.durationMillis());
+                } catch (Exception e) {
+                    LOGGER.error("[PersonaSnapshots] Scheduled snapshot failed", e);
+                }
+            }, interval, interval, TimeUnit.MINUTES);
+            LOGGER.info("[PersonaSnapshots] Taking a snapshot every {} minutes into {}", interval, snapshotsDirectory);
+        }
+    }
+
+    /**
+     * Stops scheduled snapshots, waiting for one in progress. Must run before character storage shuts down.
+     */
+    public static void shutdown() {
+        ScheduledExecutorService current = executor;
+        executor = null;
+        if (current == null) {
+            return;
+        }
+        current.shutdownNow();
+        try {
+            if (!current.awaitTermination(Config.SHUTDOWN_FLUSH_TIMEOUT_SECONDS.get(), TimeUnit.SECONDS)) {
+                LOGGER.warn("[PersonaSnapshots] Timed out waiting for a snapshot to finish; it stays incomplete and is ignored");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes a snapshot on the snapshot thread.
+     * @return The outcome, completed once the snapshot is durable
+     */
+    public static CompletableFuture<Result> createSnapshot() {
+        ScheduledExecutorService current = executor;
+        if (current == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Snapshots are only available while the server is running"));
+        }
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        current.execute(() -> {
+            try {
+                result.complete(snapshot());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Lists the snapshots of the current world, oldest first.
+     * @return The snapshots
+     * @throws IOException if the snapshot directory could not be read
+     */
+    public static List<SnapshotEngine.SnapshotInfo> listSnapshots() throws IOException {
+        if (engine == null) {
+            throw new IllegalStateException("Snapshots are only available while the server is running");
+        }
+        return engine.list();
+    }
+
+    /**
+     * Requests that a snapshot replace the persona data directory on the next server start.
+     * @param name The snapshot's name
+     * @throws IOException if the request could not be recorded
+     * @throws IllegalArgumentException if there is no snapshot by that name
+     */
+    public static void scheduleRestore(String name) throws IOException {
+        if (engine == null) {
+            throw new IllegalStateException("Snapshots are only available while the server is running");
+        }
+        if (engine.find(name) == null) {
+            throw new IllegalArgumentException("No snapshot named " + name);
+        }
+        Files.createDirectories(snapshotsDirectory);
+        DurableFileWriter.commit(snapshotsDirectory.resolve(RESTORE_MARKER), name.getBytes(StandardCharsets.UTF_8));
+        LOGGER.warn("[PersonaSnapshots] Snapshot {} will replace the persona data on the next server start", name);
+    }
+
+    /**
+     * Carries out a restore requested with {@link #scheduleRestore}. Must run before any persona storage is opened.
+     * The snapshot is first recreated next to the data directory and then swapped in, so a crash at any point either
+     * leaves the old data in place or is completed on the next start.
+     * @param worldPath The world directory path
+     */
+    public static void applyPendingRestore(Path worldPath) {
+        Path snapshots = worldPath.resolve(SNAPSHOTS_DIR).normalize();
+        Path marker = snapshots.resolve(RESTORE_MARKER);
+        if (!Files.exists(marker)) {
+            return;
+        }
+        Path personaDir = worldPath.resolve(Persona.MODID).normalize();
+        Path restoring = worldPath.resolve(Persona.MODID + RESTORING_SUFFIX).normalize();
+        String name;
+        try {
+            name = Files.readString(marker, StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            LOGGER.error("[PersonaSnapshots] Failed to read pending restore request, keeping the current data", e);
+            return;
+        }
+
+        if (Files.exists(personaDir)) {
+            // Nothing has been swapped yet, so any failure here leaves the current data untouched
+            try {
+                SnapshotEngine restoreEngine = newEngine(worldPath);
+                SnapshotEngine.SnapshotInfo snapshot = restoreEngine.find(name);
+                if (snapshot == null) {
+                    LOGGER.error("[PersonaSnapshots] Snapshot {} requested for restore does not exist, keeping the current data", name);
+                    Files.delete(marker);
+                    return;
+                }
+                LOGGER.warn("[PersonaSnapshots] Restoring snapshot {}", name);
+                SnapshotEngine.deleteTree(restoring);
+                restoreEngine.materialize(snapshot, restoring);
+                Path aside = snapshots.resolve(SnapshotEngine.nameFor(Instant.now()) + PRE_RESTORE_SUFFIX);
+                Files.move(personaDir, aside, StandardCopyOption.ATOMIC_MOVE);
+                LOGGER.warn("[PersonaSnapshots] Previous persona data kept as snapshot {}", aside.getFileName());
+            } catch (IOException e) {
+                LOGGER.error("[PersonaSnapshots] Failed to restore snapshot {}, keeping the current data", name, e);
+                try {
+                    SnapshotEngine.deleteTree(restoring);
+                    Files.deleteIfExists(marker);
+                } catch (IOException cleanupError) {
+                    LOGGER.warn("[PersonaSnapshots] Failed to clean up after the failed restore", cleanupError);
+                }
+                return;
+            }
+        }
+
+        // The current data has been moved aside; from here on the restore must complete
+        try {
+            if (Files.exists(restoring)) {
+                Files.move(restoring, personaDir, StandardCopyOption.ATOMIC_MOVE);
+                DurableFileWriter.syncDirectory(worldPath);
+            }
+            Files.delete(marker);
+            LOGGER.warn("[PersonaSnapshots] Restored snapshot {}", name);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to move restored persona data into place from " + restoring, e);
+        }
+    }
+
+    private static Result snapshot() throws IOException {
+        long start = System.nanoTime();
+        Instant now = Instant.now();
+        SnapshotEngine.Builder builder = engine.begin(SnapshotEngine.nameFor(now));
+        SnapshotEngine.SnapshotInfo snapshot;
+        try {
+            // Characters first, as one consistent cut
+            CharacterFileStorage.captureSnapshot(builder);
+            // The registry's base file lags behind its journal; an export of the live registry needs neither
+            builder.write(Path.of(RegistryPersistence.REGISTRY_FILE), RegistryPersistence.export(GlobalCharacterRegistry.snapshot()));
+            // Dictionaries and item blobs are written before any character can refer to them, so taking them after
+            // the cut covers everything the captured characters need
+            builder.capture(Path.of(""));
+            snapshot = builder.commit();
+        } catch (IOException | RuntimeException e) {
+            builder.abort();
+            throw e;
+        }
+        List<SnapshotEngine.SnapshotInfo> pruned = engine.prune(Config.SNAPSHOT_KEEP_LAST.get(), Config.SNAPSHOT_KEEP_DAYS.get(), now);
+        return new Result(snapshot, builder.getStats(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), pruned);
+    }
+
+    private static SnapshotEngine newEngine(Path worldPath) {
+        return new SnapshotEngine(worldPath.resolve(Persona.MODID).normalize(), worldPath.resolve(SNAPSHOTS_DIR).normalize(),
+            relative -> CharacterFileStorage.isReplacedAtomically(relative) || ItemBlobStore.isReplacedAtomically(relative),
+            relative -> relative.getNameCount() == 1 && RegistryPersistence.isRegistryFile(relative.toString()));
+    }
+}
@@ -16,8 +16,8 @@ public class PlayerCharacterCapability {
     public static AttachmentType<PlayerCharacterData> CHARACTER_DATA;
     
     private static final Codec<PlayerCharacterData> CODEC = CompoundTag.CODEC.xmap(
-        PlayerCharacterData::deserialize,
-        PlayerCharacterData::serialize
+        PlayerCharacterData::deserializeAttachment,
+        PlayerCharacterData::serializeAttachment
     );
     
     @SubscribeEvent
@@ -3,15 +3,28 @@ package world.landfall.persona.data;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.Tag;
+import world.landfall.persona.data.storage.CharacterStores;
+import world.landfall.persona.data.storage.SaveReason;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+/**
+ * A player's characters and which of them is active. Only the active character is saved with the player; the
+ * roster of characters is rebuilt from the {@link world.landfall.persona.registry.GlobalCharacterRegistry} owner
+ * index at login, so there is no second copy of it that could drift from the registry.
+ */
 public class PlayerCharacterData {
+    /** Version of {@link #serializeAttachment}. Attachments without a version still carry the roster. */
+    public static final int ATTACHMENT_VERSION = 2;
+
     private UUID activeCharacterId;
     // Character IDs mapped to their display names (for quick access without loading full character data)
     private final Map<UUID, String> characterIds;
+    // Roster read from an attachment written before the roster was dropped from it; consumed at login
+    private Map<UUID, String> legacyCharacterIds = Map.of();
     // Client-side cache for character data received from server
     private final Map<UUID, CharacterProfile> clientCharacterCache;
     
@@ -21,6 +34,43 @@ public class PlayerCharacterData {
         // Persona.LOGGER.info("PlayerCharacterData created.");
     }
     
+    /**
+     * Serializes what is saved with the player: the active character and the format version.
+     * @return The attachment tag
+     */
+    public CompoundTag serializeAttachment() {
+        CompoundTag tag = new CompoundTag();
+        tag.putInt("version", ATTACHMENT_VERSION);
+        if (activeCharacterId != null) {
+            tag.putUUID("activeCharacter", activeCharacterId);
+        }
+        return tag;
+    }
+
+    /**
+     * Reads the data saved with the player. The roster stays empty until it is loaded at login; a roster found in
+     * an older attachment is kept aside for {@link #takeLegacyCharacterIds}.
+     * @param tag The attachment tag
+     * @return The data
+     */
+    public static PlayerCharacterData deserializeAttachment(CompoundTag tag) {
+        PlayerCharacterData data = new PlayerCharacterData();
+        if (tag.contains("activeCharacter", Tag.TAG_INT_ARRAY)) {
+            data.activeCharacterId = tag.getUUID("activeCharacter");
+        }
+        if (tag.getInt("version") < ATTACHMENT_VERSION) {
+            Map<UUID, String> legacy = readCharacterIds(tag);
+            if (!legacy.isEmpty()) {
+                data.legacyCharacterIds = legacy;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Serializes the active character together with the roster, for syncing to the client.
+     * @return The tag
+     */
     public CompoundTag serialize() {
         CompoundTag tag = new CompoundTag();
         if (activeCharacterId != null) {
@@ -46,6 +96,13 @@ public class PlayerCharacterData {
             data.activeCharacterId = tag.getUUID("activeCharacter");
         }
         
+        data.characterIds.putAll(readCharacterIds(tag));
+        
+        return data;
+    }
+
+    private static Map<UUID, String> readCharacterIds(CompoundTag tag) {
+        Map<UUID, String> characterIds = new HashMap<>();
         // Load character IDs and display names
         if (tag.contains("characterIds", Tag.TAG_LIST)) {
             ListTag charactersList = tag.getList("characterIds", Tag.TAG_COMPOUND);
@@ -53,12 +110,11 @@ public class PlayerCharacterData {
                 if (t instanceof CompoundTag entryTag) {
                     UUID id = entryTag.getUUID("id");
                     String displayName = entryTag.getString("displayName");
-                    data.characterIds.put(id, displayName);
+                    characterIds.put(id, displayName);
                 }
             }
         }
-        
-        return data;
+        return characterIds;
     }
     
     public UUID getActiveCharacterId() {
@@ -110,7 +166,7 @@ public class PlayerCharacterData {
         }
         
         // Try to load from file storage (server-side only)
-        CharacterProfile character = CharacterFileStorage.loadCharacter(id);
+        CharacterProfile character = CharacterStores.get().load(id);
         if (character != null) {
             // Cache it for future use
             clientCharacterCache.put(id, character);
@@ -126,7 +182,8 @@ public class PlayerCharacterData {
      */
     public void addCharacter(UUID id, CharacterProfile profile) {
         characterIds.put(id, profile.getDisplayName());
-        CharacterFileStorage.saveCharacter(profile);
+        CharacterFileStorage.pinCharacters(List.of(id));
+        CharacterStores.get().save(profile, SaveReason.CREATE);
     }
     
     /**
@@ -135,7 +192,7 @@ public class PlayerCharacterData {
      */
     public void removeCharacter(UUID id) {
         characterIds.remove(id);
-        CharacterFileStorage.deleteCharacter(id);
+        CharacterStores.get().delete(id);
         if (activeCharacterId != null && activeCharacterId.equals(id)) {
             activeCharacterId = null;
         }
@@ -149,10 +206,10 @@ public class PlayerCharacterData {
     public void updateCharacterDisplayName(UUID id, String newDisplayName) {
         if (characterIds.containsKey(id)) {
             characterIds.put(id, newDisplayName);
-            // Also update the character file
-            CharacterProfile character = CharacterFileStorage.loadCharacter(id);
+            // Also update the character file; not written again if the profile already holds the stored name
+            CharacterProfile character = getCharacter(id);
             if (character != null) {
-                CharacterFileStorage.saveCharacter(character);
+                CharacterStores.get().save(character);
             }
         }
     }
@@ -186,9 +243,27 @@ public class PlayerCharacterData {
      * @param playerId The player's UUID
      */
     public void loadCharacterIdsFromStorage(UUID playerId) {
-        Map<UUID, String> storedCharacters = CharacterFileStorage.loadPlayerCharacterIds(playerId);
+        setCharacterIds(CharacterStores.get().listByOwner(playerId));
+    }
+    
+    /**
+     * Replaces the roster with characters listed from storage, e.g. by {@link LoginHydration}.
+     * @param storedCharacters Character IDs and their display names
+     */
+    public void setCharacterIds(Map<UUID, String> storedCharacters) {
+        this.characterIds.clear();
         this.characterIds.putAll(storedCharacters);
     }
+
+    /**
+     * Hands over the roster read from an attachment saved before the roster was dropped from it, once.
+     * @return Character IDs and display names, empty if there were none or they were taken already
+     */
+    public Map<UUID, String> takeLegacyCharacterIds() {
+        Map<UUID, String> legacy = legacyCharacterIds;
+        legacyCharacterIds = Map.of();
+        return legacy;
+    }
     
     /**
      * Caches a character profile on the client side.
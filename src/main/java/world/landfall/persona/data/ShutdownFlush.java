@@ -0,0 +1,166 @@
+package world.landfall.persona.data;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+import world.landfall.persona.config.Config;
+import world.landfall.persona.data.storage.SaveReason;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves the active characters of online players when the server stops. The server thread only copies each player's
+ * live state (inventory, location) into their character; serializing, compressing and writing the characters is
+ * spread over a fork-join pool and bounded by {@code shutdownSaveBudgetSeconds}. Characters that are not saved within
+ * the budget keep their last saved state.
+ */
+public final class ShutdownFlush {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    /**
+     * Outcome of a flush.
+     * @param saved Characters written
+     * @param failed Characters whose save failed or was refused, or was still running when the flush gave up on it
+     * @param timedOut Characters whose save had not started when the budget ran out
+     * @param millis Time the flush took
+     * @param queueFlushed Whether every save queued before the flush was written
+     * @param unfinished Characters whose save was still running when the flush returned; their previous file stays
+     *                   valid meanwhile
+     */
+    public record Result(int saved, int failed, int timedOut, long millis, boolean queueFlushed, Set<UUID> unfinished) {
+        /**
+         * @return true if everything that was to be saved, queued or not, reached the disk
+         */
+        public boolean isComplete() {
+            return queueFlushed && failed == 0 && timedOut == 0;
+        }
+    }
+
+    private enum Outcome { SAVED, FAILED, NOT_STARTED }
+
+    private ShutdownFlush() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Saves characters in parallel. The write-behind queue is drained and stopped first, so every character is
+     * written by the pool itself. Blocks until all characters are saved or the budget runs out.
+     * @param characters The characters, already holding the state to save
+     * @param reason Why the characters are saved
+     * @return The outcome
+     */
+    public static Result flush(Collection<CharacterProfile> characters, SaveReason reason) {
+        long start = System.nanoTime();
+        boolean queueFlushed = CharacterFileStorage.stopWriteQueue();
+
+        // A character shared by two players would otherwise be written twice at once
+        Map<UUID, CharacterProfile> unique = new LinkedHashMap<>();
+        characters.forEach(character -> unique.putIfAbsent(character.getId(), character));
+        if (unique.isEmpty()) {
+            return new Result(0, 0, 0, 0, queueFlushed, Set.of());
+        }
+
+        int threads = Config.SHUTDOWN_SAVE_THREADS.get();
+        int parallelism = Math.min(unique.size(), threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+        ForkJoinPool pool = new ForkJoinPool(parallelism, ShutdownFlush::newWorker, null, false);
+        int total = unique.size();
+        AtomicInteger done = new AtomicInteger();
+        // Saves not started yet skip themselves once set; running ones are never interrupted, as an interrupted
+        // FileChannel closes, which in packed mode is the channel of a segment shared by every character in it
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Map<UUID, CompletableFuture<Outcome>> saves = new LinkedHashMap<>();
+        for (CharacterProfile character : unique.values()) {
+            saves.put(character.getId(), CompletableFuture.supplyAsync(() -> save(character, reason, cancelled, done, total), pool));
+        }
+
+        int budget = Config.SHUTDOWN_SAVE_BUDGET_SECONDS.get();
+        try {
+            CompletableFuture.allOf(saves.values().toArray(CompletableFuture[]::new)).get(budget, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            LOGGER.error("[ShutdownFlush] Saving active characters exceeded the budget of {} seconds", budget);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("[ShutdownFlush] Interrupted while saving active characters");
+        } catch (ExecutionException e) {
+            // Not thrown by save, which reports its own failures
+            LOGGER.error("[ShutdownFlush] Unexpected error while saving active characters", e);
+        } finally {
+            // Saves already writing finish their file or leave the previous one in place; the rest skip themselves
+            cancelled.set(true);
+            pool.shutdown();
+        }
+        try {
+            // Nothing may treat the characters as written (or hand them to another server) while a save still runs
+            if (!pool.awaitTermination(Config.SHUTDOWN_FLUSH_TIMEOUT_SECONDS.get(), TimeUnit.SECONDS)) {
+                LOGGER.error("[ShutdownFlush] Timed out waiting for character saves in progress to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        int saved = 0;
+        int failed = 0;
+        int notStarted = 0;
+        Set<UUID> unfinished = new HashSet<>();
+        for (CharacterProfile character : unique.values()) {
+            CompletableFuture<Outcome> save = saves.get(character.getId());
+            Outcome outcome = save.isDone() && !save.isCompletedExceptionally() ? save.join() : null;
+            if (outcome == Outcome.SAVED) {
+                saved++;
+            } else if (outcome == Outcome.NOT_STARTED) {
+                notStarted++;
+                LOGGER.warn("[ShutdownFlush] Character {} ({}) was not saved within the budget", character.getDisplayName(), character.getId());
+            } else {
+                failed++;
+                if (!save.isDone()) {
+                    LOGGER.warn("[ShutdownFlush] Character {} ({}) is still being saved", character.getDisplayName(), character.getId());
+                    unfinished.add(character.getId());
+                }
+            }
+        }
+        return new Result(saved, failed, notStarted, (System.nanoTime() - start) / 1_000_000, queueFlushed,
+            Set.copyOf(unfinished));
+    }
+
+    private static Outcome save(CharacterProfile character, SaveReason reason, AtomicBoolean cancelled,
+                                AtomicInteger done, int total) {
+        if (cancelled.get()) {
+            return Outcome.NOT_STARTED;
+        }
+        long start = System.nanoTime();
+        boolean saved;
+        try {
+            saved = CharacterFileStorage.saveCharacterNow(character, reason);
+        } catch (RuntimeException e) {
+            LOGGER.error("[ShutdownFlush] Failed to save character {} ({})", character.getDisplayName(), character.getId(), e);
+            saved = false;
+        }
+        int count = done.incrementAndGet();
+        if (saved) {
+            LOGGER.debug("[ShutdownFlush] Saved character {} ({}) in {} ms ({}/{})", character.getDisplayName(),
+                character.getId(), (System.nanoTime() - start) / 1_000_000, count, total);
+        } else {
+            LOGGER.warn("[ShutdownFlush] Character {} ({}) was not saved ({}/{})", character.getDisplayName(),
+                character.getId(), count, total);
+        }
+        return saved ? Outcome.SAVED : Outcome.FAILED;
+    }
+
+    private static ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("Persona-ShutdownFlush-" + thread.getPoolIndex());
+        return thread;
+    }
+}
@@ -0,0 +1,186 @@
+package world.landfall.persona.data.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Copy/insert deltas between two byte arrays, used to store character revisions as differences.
+ * The base is indexed in fixed-size blocks; the target is scanned with a rolling hash, and every block match is
+ * extended in both directions and emitted as a copy from the base. Everything else becomes inserted literal bytes.
+ * Two saves of the same character share most of their NBT, so the delta is usually a small fraction of either.
+ * <p>
+ * Format: varint target length, then ops until the target is complete: {@code 0} varint offset, varint length
+ * (copy from the base) or {@code 1} varint length, bytes (insert).
+ */
+public final class BinaryDelta {
+    private static final int BLOCK_SIZE = 16;
+    private static final int HASH_MULTIPLIER = 0x01000193;
+    private static final int OP_COPY = 0;
+    private static final int OP_INSERT = 1;
+    // HASH_MULTIPLIER^(BLOCK_SIZE - 1), to remove the outgoing byte from the rolling hash
+    private static final int OUTGOING_FACTOR;
+
+    static {
+        int factor = 1;
+        for (int i = 1; i < BLOCK_SIZE; i++) {
+            factor *= HASH_MULTIPLIER;
+        }
+        OUTGOING_FACTOR = factor;
+    }
+
+    private BinaryDelta() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Computes a delta that turns {@code base} into {@code target}.
+     * @param base The bytes the delta is applied to
+     * @param target The bytes the delta produces
+     * @return The delta
+     */
+    public static byte[] diff(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + target.length / 16);
+        writeVarInt(out, target.length);
+
+        // Open addressing table of block offsets + 1; later blocks overwrite earlier ones with the same hash
+        int blocks = base.length / BLOCK_SIZE;
+        int[] table = new int[Integer.highestOneBit(Math.max(1, blocks) * 2) * 2];
+        int mask = table.length - 1;
+        for (int block = 0; block < blocks; block++) {
+            int offset = block * BLOCK_SIZE;
+            table[hash(base, offset) & mask] = offset + 1;
+        }
+
+        int literalStart = 0;
+        int position = 0;
+        // Where the last copy ended in the base; after a small edit the target usually continues from there
+        int baseResume = 0;
+        int rolling = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+        while (position + BLOCK_SIZE <= target.length) {
+            int candidate = baseResume + (position - literalStart);
+            if (candidate + BLOCK_SIZE > base.length
+                    || !Arrays.equals(base, candidate, candidate + BLOCK_SIZE, target, position, position + BLOCK_SIZE)) {
+                // Repetitive data has many equal blocks; the table only remembers the last of them
+                candidate = blocks > 0 ? table[rolling & mask] - 1 : -1;
+            }
+            if (candidate >= 0 && Arrays.equals(base, candidate, candidate + BLOCK_SIZE, target, position, position + BLOCK_SIZE)) {
+                int baseStart = candidate;
+                int targetStart = position;
+                // Grow the match backwards into bytes that would otherwise be inserted
+                while (targetStart > literalStart && baseStart > 0 && base[baseStart - 1] == target[targetStart - 1]) {
+                    baseStart--;
+                    targetStart--;
+                }
+                int end = position + BLOCK_SIZE;
+                int baseEnd = candidate + BLOCK_SIZE;
+                while (end < target.length && baseEnd < base.length && base[baseEnd] == target[end]) {
+                    end++;
+                    baseEnd++;
+                }
+                writeInsert(out, target, literalStart, targetStart);
+                out.write(OP_COPY);
+                writeVarInt(out, baseStart);
+                writeVarInt(out, end - targetStart);
+                literalStart = end;
+                position = end;
+                baseResume = baseEnd;
+                if (position + BLOCK_SIZE <= target.length) {
+                    rolling = hash(target, position);
+                }
+                continue;
+            }
+            if (position + BLOCK_SIZE < target.length) {
+                rolling = (rolling - target[position] * OUTGOING_FACTOR) * HASH_MULTIPLIER + target[position + BLOCK_SIZE];
+            }
+            position++;
+        }
+        writeInsert(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Applies a delta produced by {@link #diff}.
+     * @param base The bytes the delta was computed against
+     * @param delta The delta
+     * @return The target bytes
+     * @throws IOException if the delta is corrupt or does not fit the base
+     */
+    public static byte[] apply(byte[] base, byte[] delta) throws IOException {
+        int[] cursor = {0};
+        int length = readVarInt(delta, cursor);
+        byte[] target = new byte[length];
+        int position = 0;
+        while (position < length) {
+            if (cursor[0] >= delta.length) {
+                throw new IOException("Truncated delta");
+            }
+            int op = delta[cursor[0]++];
+            if (op == OP_COPY) {
+                int offset = readVarInt(delta, cursor);
+                int count = readVarInt(delta, cursor);
+                if (offset > base.length - count || count > length - position) {
+                    throw new IOException("Delta copies outside its base");
+                }
+                System.arraycopy(base, offset, target, position, count);
+                position += count;
+            } else if (op == OP_INSERT) {
+                int count = readVarInt(delta, cursor);
+                if (count > length - position || count > delta.length - cursor[0]) {
+                    throw new IOException("Truncated delta");
+                }
+                System.arraycopy(delta, cursor[0], target, position, count);
+                cursor[0] += count;
+                position += count;
+            } else {
+                throw new IOException("Unknown delta operation " + op);
+            }
+        }
+        if (cursor[0] != delta.length) {
+            throw new IOException("Delta is longer than its target");
+        }
+        return target;
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int hash = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            hash = hash * HASH_MULTIPLIER + data[offset + i];
+        }
+        return hash;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        if (to > from) {
+            out.write(OP_INSERT);
+            writeVarInt(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(byte[] data, int[] cursor) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (cursor[0] >= data.length) {
+                throw new IOException("Truncated delta");
+            }
+            byte b = data[cursor[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Corrupt delta");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Corrupt delta");
+    }
+}
@@ -0,0 +1,371 @@
+package world.landfall.persona.data.storage;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold storage for characters that are not expected to be played again. Characters are archived in bundles of many
+ * at once: the bundle's payloads (uncompressed NBT) are gzipped as one stream, so the many keys and item ids that
+ * characters have in common are only stored about once per bundle. Only the bundle headers are read on open; they
+ * hold a small stub per character for listings, and a character's payload is inflated from its bundle on demand.
+ * <p>
+ * Bundles are written once and only ever replaced as a whole, by {@link #remove}. Callers must make sure no bundle is
+ * read while it is being replaced.
+ * <p>
+ * Bundle format ({@code bundle-<n>.pca}): {@code "PCA" 0x01}, int header length, int entry count; per entry long
+ * character UUID msb and lsb, boolean owner present, optionally long owner UUID msb and lsb, UTF display name, long
+ * archive time, int payload length; then the gzipped payloads in entry order.
+ */
+public final class CharacterArchive {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int MAGIC = 0x50434101; // "PCA" 0x01
+    private static final String BUNDLE_PREFIX = "bundle-";
+    private static final String BUNDLE_EXTENSION = ".pca";
+
+    /**
+     * What is kept in memory of an archived character.
+     * @param characterId The character's UUID
+     * @param ownerId The player who owns it, or null if unknown
+     * @param displayName Its display name when it was archived
+     * @param archivedAt When it was archived, in milliseconds since the epoch
+     */
+    public record Stub(UUID characterId, UUID ownerId, String displayName, long archivedAt) {}
+
+    /**
+     * A character to archive.
+     * @param stub Its stub
+     * @param payload Its uncompressed NBT
+     */
+    public record Entry(Stub stub, byte[] payload) {}
+
+    /**
+     * Archive metrics.
+     * @param characters Archived characters
+     * @param bundles Bundle files
+     * @param bytes Total size of the bundle files
+     */
+    public record Stats(int characters, int bundles, long bytes) {}
+
+    // Where a payload is: its offset in the bundle's uncompressed payload stream
+    private record Location(Stub stub, Path bundle, int headerLength, long offset, int length) {}
+
+    private final Path directory;
+    private final Map<UUID, Location> index = new ConcurrentHashMap<>();
+    private final Map<Path, Long> bundleSizes = new ConcurrentHashMap<>();
+    private int nextBundle = 1;
+
+    private CharacterArchive(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the archive in a directory, reading the bundle headers. Unreadable bundles are skipped.
+     * @param directory The archive directory; created when the first bundle is written
+     * @return The archive
+     * @throws IOException if the directory could not be listed
+     */
+    public static CharacterArchive open(Path directory) throws IOException {
+        CharacterArchive archive = new CharacterArchive(directory);
+        if (!Files.isDirectory(directory)) {
+            return archive;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, BUNDLE_PREFIX + "*" + BUNDLE_EXTENSION)) {
+            for (Path file : files) {
+                int number = parseNumber(file);
+                if (number <= 0) {
+                    continue;
+                }
+                archive.nextBundle = Math.max(archive.nextBundle, number + 1);
+                try {
+                    archive.indexBundle(file);
+                } catch (IOException e) {
+                    LOGGER.warn("[CharacterArchive] Skipping unreadable bundle {}: {}", file.getFileName(), e.getMessage());
+                }
+            }
+        }
+        // Bundles whose write was interrupted; the characters in them were never removed from hot storage
+        try (DirectoryStream<Path> temps = Files.newDirectoryStream(directory, "*" + BUNDLE_EXTENSION + DurableFileWriter.TEMP_SUFFIX)) {
+            for (Path temp : temps) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return archive;
+    }
+
+    /**
+     * @return true if the character is archived
+     */
+    public boolean contains(UUID characterId) {
+        return index.containsKey(characterId);
+    }
+
+    /**
+     * @return The character's stub, or null if it is not archived
+     */
+    public Stub getStub(UUID characterId) {
+        Location location = index.get(characterId);
+        return location != null ? location.stub() : null;
+    }
+
+    /**
+     * @return The stubs of all archived characters, most recently archived first
+     */
+    public List<Stub> list() {
+        List<Stub> list = new ArrayList<>(index.size());
+        index.values().forEach(location -> list.add(location.stub()));
+        list.sort(Comparator.comparingLong(Stub::archivedAt).reversed());
+        return list;
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public Stats getStats() {
+        long bytes = 0;
+        for (long size : bundleSizes.values()) {
+            bytes += size;
+        }
+        return new Stats(index.size(), bundleSizes.size(), bytes);
+    }
+
+    /**
+     * Writes characters into a new bundle. Once this returns they are archived, even if they were archived before.
+     * @param entries The characters
+     * @throws IOException if the bundle could not be written
+     */
+    public synchronized void write(List<Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Path bundle = directory.resolve(BUNDLE_PREFIX + nextBundle + BUNDLE_EXTENSION);
+        nextBundle++;
+        writeBundle(bundle, entries);
+    }
+
+    /**
+     * Reads an archived character.
+     * @param characterId The character's UUID
+     * @return Its uncompressed NBT, or null if it is not archived
+     * @throws IOException if its bundle could not be read
+     */
+    public byte[] read(UUID characterId) throws IOException {
+        Location location = index.get(characterId);
+        if (location == null) {
+            return null;
+        }
+        try (InputStream in = openPayloads(location.bundle(), location.headerLength())) {
+            in.skipNBytes(location.offset());
+            byte[] payload = in.readNBytes(location.length());
+            if (payload.length != location.length()) {
+                throw new IOException("Truncated bundle " + location.bundle().getFileName());
+            }
+            return payload;
+        }
+    }
+
+    /**
+     * Visits the payload of every archived character, one bundle at a time.
+     * @param visitor Receives uncompressed NBT
+     */
+    public void forEachPayload(Consumer<byte[]> visitor) {
+        for (Path bundle : List.copyOf(bundleSizes.keySet())) {
+            try {
+                readBundle(bundle).forEach(entry -> visitor.accept(entry.payload()));
+            } catch (IOException e) {
+                LOGGER.warn("[CharacterArchive] Skipping unreadable bundle {}: {}", bundle.getFileName(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Takes characters out of the archive. The bundles holding them are rewritten without them, or deleted if
+     * nothing else is left in them.
+     * @param characterIds The characters; ones that are not archived are ignored
+     * @return How many characters were removed
+     * @throws IOException if a bundle could not be rewritten; characters in bundles rewritten before stay removed
+     */
+    public synchronized int remove(Collection<UUID> characterIds) throws IOException {
+        Map<Path, List<UUID>> byBundle = new HashMap<>();
+        for (UUID characterId : characterIds) {
+            Location location = index.get(characterId);
+            if (location != null) {
+                byBundle.computeIfAbsent(location.bundle(), bundle -> new ArrayList<>()).add(characterId);
+            }
+        }
+        int removed = 0;
+        for (Map.Entry<Path, List<UUID>> bundle : byBundle.entrySet()) {
+            List<Entry> kept = new ArrayList<>();
+            for (Entry entry : readBundle(bundle.getKey())) {
+                UUID characterId = entry.stub().characterId();
+                // Entries that were archived again elsewhere meanwhile are dropped here as well
+                Location location = index.get(characterId);
+                if (!bundle.getValue().contains(characterId) && location != null && location.bundle().equals(bundle.getKey())) {
+                    kept.add(entry);
+                }
+            }
+            if (kept.isEmpty()) {
+                Files.deleteIfExists(bundle.getKey());
+                bundleSizes.remove(bundle.getKey());
+            } else {
+                writeBundle(bundle.getKey(), kept);
+            }
+            for (UUID characterId : bundle.getValue()) {
+                index.remove(characterId);
+            }
+            removed += bundle.getValue().size();
+        }
+        return removed;
+    }
+
+    private void writeBundle(Path bundle, List<Entry> entries) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(64 * entries.size());
+        try (DataOutputStream out = new DataOutputStream(header)) {
+            out.writeInt(MAGIC);
+            out.writeInt(0); // Header length, filled in below
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                Stub stub = entry.stub();
+                out.writeLong(stub.characterId().getMostSignificantBits());
+                out.writeLong(stub.characterId().getLeastSignificantBits());
+                out.writeBoolean(stub.ownerId() != null);
+                if (stub.ownerId() != null) {
+                    out.writeLong(stub.ownerId().getMostSignificantBits());
+                    out.writeLong(stub.ownerId().getLeastSignificantBits());
+                }
+                out.writeUTF(stub.displayName());
+                out.writeLong(stub.archivedAt());
+                out.writeInt(entry.payload().length);
+            }
+        }
+        byte[] headerBytes = header.toByteArray();
+        int headerLength = headerBytes.length;
+        headerBytes[4] = (byte) (headerLength >>> 24);
+        headerBytes[5] = (byte) (headerLength >>> 16);
+        headerBytes[6] = (byte) (headerLength >>> 8);
+        headerBytes[7] = (byte) headerLength;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(headerLength + 1024 * entries.size());
+        bytes.writeBytes(headerBytes);
+        try (OutputStream out = new GZIPOutputStream(bytes, 64 * 1024)) {
+            for (Entry entry : entries) {
+                out.write(entry.payload());
+            }
+        }
+        byte[] data = bytes.toByteArray();
+        DurableFileWriter.commit(bundle, data);
+
+        bundleSizes.put(bundle, (long) data.length);
+        long offset = 0;
+        for (Entry entry : entries) {
+            index.put(entry.stub().characterId(), new Location(entry.stub(), bundle, headerLength, offset, entry.payload().length));
+            offset += entry.payload().length;
+        }
+    }
+
+    private void indexBundle(Path bundle) throws IOException {
+        List<Location> locations = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(bundle)))) {
+            int headerLength = readHeaderStart(in);
+            int count = in.readInt();
+            long offset = 0;
+            for (int i = 0; i < count; i++) {
+                Stub stub = readStub(in);
+                int length = in.readInt();
+                locations.add(new Location(stub, bundle, headerLength, offset, length));
+                offset += length;
+            }
+        }
+        // A character archived again after a restore has an older entry in some other bundle
+        locations.forEach(location -> index.merge(location.stub().characterId(), location,
+            (existing, candidate) -> candidate.stub().archivedAt() >= existing.stub().archivedAt() ? candidate : existing));
+        bundleSizes.put(bundle, Files.size(bundle));
+    }
+
+    private static List<Entry> readBundle(Path bundle) throws IOException {
+        List<Stub> stubs = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        int headerLength;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(bundle)))) {
+            headerLength = readHeaderStart(in);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                stubs.add(readStub(in));
+                lengths.add(in.readInt());
+            }
+        }
+        List<Entry> entries = new ArrayList<>(stubs.size());
+        try (InputStream in = openPayloads(bundle, headerLength)) {
+            for (int i = 0; i < stubs.size(); i++) {
+                byte[] payload = in.readNBytes(lengths.get(i));
+                if (payload.length != lengths.get(i)) {
+                    throw new IOException("Truncated bundle " + bundle.getFileName());
+                }
+                entries.add(new Entry(stubs.get(i), payload));
+            }
+        }
+        return entries;
+    }
+
+    private static InputStream openPayloads(Path bundle, int headerLength) throws IOException {
+        InputStream file = Files.newInputStream(bundle);
+        try {
+            file.skipNBytes(headerLength);
+            return new GZIPInputStream(file, 64 * 1024);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static int readHeaderStart(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an archive bundle");
+        }
+        int headerLength = in.readInt();
+        if (headerLength < 12) {
+            throw new IOException("Corrupt archive bundle header");
+        }
+        return headerLength;
+    }
+
+    private static Stub readStub(DataInputStream in) throws IOException {
+        UUID characterId = new UUID(in.readLong(), in.readLong());
+        UUID ownerId = in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+        String displayName = in.readUTF();
+        long archivedAt = in.readLong();
+        return new Stub(characterId, ownerId, displayName, archivedAt);
+    }
+
+    private static int parseNumber(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(BUNDLE_PREFIX.length(), name.length() - BUNDLE_EXTENSION.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            LOGGER.warn("[CharacterArchive] Ignoring unexpected file in archive directory: {}", name);
+            return 0;
+        }
+    }
+}
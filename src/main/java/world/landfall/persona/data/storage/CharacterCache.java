@@ -0,0 +1,281 @@
+package world.landfall.persona.data.storage;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, size-weighted cache of loaded character profiles.
+ * Unpinned entries live in an LRU list whose total weight (estimated serialized size in bytes) is capped;
+ * when a new entry would push out the least recently used one, a TinyLFU frequency sketch decides whether
+ * the newcomer is popular enough to be admitted. Pinned entries (characters of online players) are never
+ * evicted and do not count against the cap. The cache halves itself when the JVM reports that the old
+ * generation is still nearly full after a collection.
+ *
+ * @param <V> The cached value type
+ */
+public final class CharacterCache<V> {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final double MEMORY_PRESSURE_THRESHOLD = 0.85;
+    private static final int AVERAGE_ENTRY_WEIGHT = 8 * 1024;
+
+    private record Entry<V>(V value, long weight) {}
+
+    /**
+     * Point-in-time cache metrics.
+     */
+    public record Stats(int entries, int pinnedEntries, long weight, long pinnedWeight, long maximumWeight,
+                        long hits, long misses, long evictions, long rejections) {
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0.0 : (double) hits / requests;
+        }
+    }
+
+    // All state below is guarded by "this"
+    private final LinkedHashMap<UUID, Entry<V>> lru = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<UUID, Entry<V>> pinned = new HashMap<>();
+    private final Set<UUID> pinnedIds = new HashSet<>();
+    private FrequencySketch sketch;
+    private long maximumWeight;
+    private long weight;
+    private long pinnedWeight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    private NotificationListener memoryListener;
+
+    public CharacterCache(long maximumWeight) {
+        setMaximumWeight(maximumWeight);
+    }
+
+    /**
+     * Changes the weight cap, evicting as needed.
+     * @param maximumWeight The new cap in bytes
+     */
+    public synchronized void setMaximumWeight(long maximumWeight) {
+        this.maximumWeight = Math.max(0, maximumWeight);
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(64, this.maximumWeight / AVERAGE_ENTRY_WEIGHT)));
+        evictTo(this.maximumWeight);
+    }
+
+    public synchronized V get(UUID id) {
+        sketch.increment(id);
+        Entry<V> entry = pinned.get(id);
+        if (entry == null) {
+            entry = lru.get(id);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value();
+    }
+
+    public synchronized boolean containsKey(UUID id) {
+        return pinned.containsKey(id) || lru.containsKey(id);
+    }
+
+    /**
+     * Caches a value. Values for pinned ids are always kept; others must pass the admission filter
+     * when the cache is full.
+     * @param id The character's UUID
+     * @param value The value to cache
+     * @param entryWeight The estimated size of the value in bytes
+     */
+    public synchronized void put(UUID id, V value, long entryWeight) {
+        Entry<V> entry = new Entry<>(value, Math.max(1, entryWeight));
+        if (pinnedIds.contains(id)) {
+            Entry<V> previous = pinned.put(id, entry);
+            pinnedWeight += entry.weight() - (previous != null ? previous.weight() : 0);
+            return;
+        }
+
+        Entry<V> previous = lru.remove(id);
+        if (previous != null) {
+            weight -= previous.weight();
+        } else if (weight + entry.weight() > maximumWeight && !admit(id)) {
+            rejections.incrementAndGet();
+            return;
+        }
+        lru.put(id, entry);
+        weight += entry.weight();
+        evictTo(maximumWeight);
+    }
+
+    public synchronized void remove(UUID id) {
+        Entry<V> entry = pinned.remove(id);
+        if (entry != null) {
+            pinnedWeight -= entry.weight();
+        }
+        entry = lru.remove(id);
+        if (entry != null) {
+            weight -= entry.weight();
+        }
+        pinnedIds.remove(id);
+    }
+
+    /**
+     * Removes every entry. Pins are kept, so pinned characters are retained again once reloaded.
+     */
+    public synchronized void clear() {
+        lru.clear();
+        pinned.clear();
+        weight = 0;
+        pinnedWeight = 0;
+    }
+
+    /**
+     * Removes every entry and pin, e.g. when a different world is loaded.
+     */
+    public synchronized void reset() {
+        clear();
+        pinnedIds.clear();
+    }
+
+    /**
+     * Exempts a character from eviction, e.g. while its owner is online.
+     * @param id The character's UUID
+     */
+    public synchronized void pin(UUID id) {
+        if (!pinnedIds.add(id)) {
+            return;
+        }
+        Entry<V> entry = lru.remove(id);
+        if (entry != null) {
+            weight -= entry.weight();
+            pinned.put(id, entry);
+            pinnedWeight += entry.weight();
+        }
+    }
+
+    /**
+     * Makes a pinned character evictable again. Its entry stays cached as the most recently used one.
+     * @param id The character's UUID
+     */
+    public synchronized void unpin(UUID id) {
+        if (!pinnedIds.remove(id)) {
+            return;
+        }
+        Entry<V> entry = pinned.remove(id);
+        if (entry != null) {
+            pinnedWeight -= entry.weight();
+            lru.put(id, entry);
+            weight += entry.weight();
+            evictTo(maximumWeight);
+        }
+    }
+
+    public synchronized boolean isPinned(UUID id) {
+        return pinnedIds.contains(id);
+    }
+
+    /**
+     * Evicts least recently used entries until the unpinned weight is at most the given fraction of the cap.
+     * @param fraction Target fill ratio between 0 and 1
+     */
+    public synchronized void shrink(double fraction) {
+        long before = weight;
+        evictTo((long) (maximumWeight * Math.max(0.0, Math.min(1.0, fraction))));
+        LOGGER.info("[CharacterCache] Shrunk character cache from {} KiB to {} KiB", before / 1024, weight / 1024);
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(lru.size() + pinned.size(), pinned.size(), weight, pinnedWeight, maximumWeight,
+            hits.get(), misses.get(), evictions.get(), rejections.get());
+    }
+
+    /**
+     * Registers for JVM low-memory notifications on the old generation and shrinks the cache to half its cap
+     * whenever the heap is still above the threshold after a collection.
+     */
+    public synchronized void installMemoryPressureListener() {
+        if (memoryListener != null) {
+            return;
+        }
+        MemoryPoolMXBean tenured = findTenuredPool();
+        if (tenured == null) {
+            LOGGER.debug("[CharacterCache] No heap pool supports collection usage thresholds; memory pressure shrinking disabled");
+            return;
+        }
+        long max = tenured.getUsage().getMax();
+        if (max <= 0) {
+            return;
+        }
+        if (tenured.getCollectionUsageThreshold() == 0) {
+            tenured.setCollectionUsageThreshold((long) (max * MEMORY_PRESSURE_THRESHOLD));
+        }
+        memoryListener = (Notification notification, Object handback) -> {
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                LOGGER.warn("[CharacterCache] Heap pool {} is above {}% after collection, shrinking character cache",
+                    tenured.getName(), (int) (MEMORY_PRESSURE_THRESHOLD * 100));
+                shrink(0.5);
+            }
+        };
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(memoryListener, null, null);
+    }
+
+    public synchronized void uninstallMemoryPressureListener() {
+        if (memoryListener == null) {
+            return;
+        }
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(memoryListener);
+        } catch (ListenerNotFoundException ignored) {
+            // Already gone
+        }
+        memoryListener = null;
+    }
+
+    /**
+     * TinyLFU admission: only displace the LRU victim if the candidate has been requested at least as often.
+     */
+    private boolean admit(UUID candidate) {
+        Iterator<UUID> eldest = lru.keySet().iterator();
+        if (!eldest.hasNext()) {
+            return true;
+        }
+        return sketch.frequency(candidate) >= sketch.frequency(eldest.next());
+    }
+
+    private void evictTo(long target) {
+        Iterator<Map.Entry<UUID, Entry<V>>> iterator = lru.entrySet().iterator();
+        while (weight > target && iterator.hasNext()) {
+            Entry<V> evicted = iterator.next().getValue();
+            iterator.remove();
+            weight -= evicted.weight();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static MemoryPoolMXBean findTenuredPool() {
+        MemoryPoolMXBean best = null;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+                && (best == null || pool.getUsage().getMax() > best.getUsage().getMax())) {
+                best = pool;
+            }
+        }
+        return best;
+    }
+}
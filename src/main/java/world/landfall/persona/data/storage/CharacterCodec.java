@@ -0,0 +1,311 @@
+package world.landfall.persona.data.storage;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses and decompresses character payloads (uncompressed NBT).
+ * Besides plain gzip, payloads can be deflated with a preset dictionary: a block of bytes that commonly occur in
+ * character data, so that even a small file can refer back to keys like {@code characterData} or item ids instead
+ * of spelling them out. Dictionaries are versioned and kept as {@code v<version>.dict} files in their own
+ * directory; every dictionary-compressed payload records the version it was written with, so retraining never
+ * invalidates existing files. Old dictionary files must therefore not be deleted.
+ * <p>
+ * Dictionary format: {@code "PDZ" 0x01}, int dictionary version, int uncompressed length, zlib stream.
+ * All methods are thread-safe.
+ */
+public final class CharacterCodec {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int MAGIC = 0x50445A01; // "PDZ" 0x01
+    private static final int HEADER_SIZE = 12;
+    private static final int GZIP_MAGIC = 0x1F8B;
+    private static final String DICTIONARY_PREFIX = "v";
+    private static final String DICTIONARY_EXTENSION = ".dict";
+    /** Deflate cannot refer back further than its 32 KiB window, so a larger dictionary would be wasted. */
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private final Path directory;
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private volatile int currentVersion;
+
+    private CharacterCodec(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens a codec with the dictionaries stored in a directory.
+     * @param directory The dictionary directory; created when the first dictionary is installed
+     * @return The codec
+     * @throws IOException if a dictionary could not be read
+     */
+    public static CharacterCodec open(Path directory) throws IOException {
+        CharacterCodec codec = new CharacterCodec(directory);
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, DICTIONARY_PREFIX + "*" + DICTIONARY_EXTENSION)) {
+                for (Path file : files) {
+                    int version = parseVersion(file);
+                    if (version > 0) {
+                        codec.dictionaries.put(version, Files.readAllBytes(file));
+                        codec.currentVersion = Math.max(codec.currentVersion, version);
+                    }
+                }
+            }
+        }
+        if (codec.currentVersion > 0) {
+            LOGGER.info("[CharacterCodec] Loaded {} compression dictionaries, current version {}", codec.dictionaries.size(), codec.currentVersion);
+        }
+        return codec;
+    }
+
+    /**
+     * Compresses a payload.
+     * @param payload Uncompressed NBT
+     * @param mode The format to write; {@link CompressionMode#DICTIONARY} falls back to gzip while no dictionary exists
+     * @return The compressed bytes
+     * @throws IOException if compression failed
+     */
+    public byte[] compress(byte[] payload, CompressionMode mode) throws IOException {
+        int version = currentVersion;
+        if (mode == CompressionMode.DICTIONARY && version > 0) {
+            return deflate(payload, version, dictionaries.get(version));
+        }
+        return gzip(payload);
+    }
+
+    /**
+     * Decompresses a payload written in either format.
+     * @param data The compressed bytes
+     * @return Uncompressed NBT
+     * @throws IOException if the data is corrupt or was written with a dictionary that is missing
+     */
+    public byte[] decompress(byte[] data) throws IOException {
+        if (data.length >= HEADER_SIZE && ByteBuffer.wrap(data).getInt() == MAGIC) {
+            return inflate(data, dictionaries::get);
+        }
+        if (data.length < 2 || ((data[0] & 0xFF) << 8 | (data[1] & 0xFF)) != GZIP_MAGIC) {
+            throw new IOException("Unknown character data format");
+        }
+        return gunzip(data);
+    }
+
+    /**
+     * Opens a stream that decompresses a payload written in either format as it is read, so a reader that only needs
+     * the start of the payload never inflates the rest of it.
+     * @param data The compressed bytes; closed together with the returned stream
+     * @return A stream of uncompressed NBT
+     * @throws IOException if the format is unknown or the payload was written with a dictionary that is missing
+     */
+    public InputStream openStream(InputStream data) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(data);
+        try {
+            in.mark(HEADER_SIZE);
+            byte[] header = in.readNBytes(HEADER_SIZE);
+            in.reset();
+            if (header.length == HEADER_SIZE && ByteBuffer.wrap(header).getInt() == MAGIC) {
+                int version = ByteBuffer.wrap(header).getInt(4);
+                byte[] dictionary = dictionaries.get(version);
+                if (dictionary == null) {
+                    throw new IOException("Character data was compressed with dictionary version " + version + ", which is missing");
+                }
+                in.skipNBytes(HEADER_SIZE);
+                return new DictionaryInflaterInputStream(in, dictionary);
+            }
+            if (header.length < 2 || ((header[0] & 0xFF) << 8 | (header[1] & 0xFF)) != GZIP_MAGIC) {
+                throw new IOException("Unknown character data format");
+            }
+            return new GZIPInputStream(in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Stores a new dictionary under the next version and uses it for all subsequent dictionary compression.
+     * @param dictionary The dictionary bytes, at most {@link #MAX_DICTIONARY_SIZE}
+     * @return The new dictionary's version
+     * @throws IOException if the dictionary could not be written
+     */
+    public synchronized int install(byte[] dictionary) throws IOException {
+        if (dictionary.length == 0 || dictionary.length > MAX_DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Dictionary size must be between 1 and " + MAX_DICTIONARY_SIZE + " bytes");
+        }
+        int version = currentVersion + 1;
+        DurableFileWriter.commit(directory.resolve(DICTIONARY_PREFIX + version + DICTIONARY_EXTENSION), dictionary.clone());
+        dictionaries.put(version, dictionary.clone());
+        currentVersion = version;
+        LOGGER.info("[CharacterCodec] Installed compression dictionary version {} ({} bytes)", version, dictionary.length);
+        return version;
+    }
+
+    /**
+     * @return The version new dictionary-compressed payloads are written with, or 0 if no dictionary exists
+     */
+    public int getCurrentVersion() {
+        return currentVersion;
+    }
+
+    /**
+     * @return The dictionary with the given version, or null if there is none
+     */
+    public byte[] getDictionary(int version) {
+        byte[] dictionary = dictionaries.get(version);
+        return dictionary != null ? dictionary.clone() : null;
+    }
+
+    /**
+     * Gzips a payload, producing the same bytes {@code NbtIo.writeCompressed} would.
+     */
+    static byte[] gzip(byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(256, payload.length / 4));
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(payload);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] gunzip(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Deflates a payload with a preset dictionary into the versioned dictionary format.
+     */
+    static byte[] deflate(byte[] payload, int version, byte[] dictionary) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setDictionary(dictionary);
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(256, payload.length / 4));
+            bytes.writeBytes(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(version).putInt(payload.length).array());
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                bytes.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return bytes.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflates a payload in the versioned dictionary format.
+     * @param dictionaries Looks up a dictionary by version; returns null for unknown versions
+     */
+    static byte[] inflate(byte[] data, IntFunction<byte[]> dictionaries) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(data, 0, HEADER_SIZE);
+        header.getInt();
+        int version = header.getInt();
+        int length = header.getInt();
+        byte[] dictionary = dictionaries.apply(version);
+        if (dictionary == null) {
+            throw new IOException("Character data was compressed with dictionary version " + version + ", which is missing");
+        }
+        if (length < 0) {
+            throw new IOException("Corrupt character data header");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, HEADER_SIZE, data.length - HEADER_SIZE);
+            byte[] payload = new byte[length];
+            byte[] overflow = new byte[1];
+            int offset = 0;
+            while (!inflater.finished()) {
+                if (inflater.needsDictionary()) {
+                    // Rejected if the dictionary does not match the checksum recorded in the stream
+                    inflater.setDictionary(dictionary);
+                    continue;
+                }
+                int inflated = offset < length
+                    ? inflater.inflate(payload, offset, length - offset)
+                    : inflater.inflate(overflow);
+                if (offset == length && inflated > 0) {
+                    throw new IOException("Character data is longer than its header says");
+                }
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new IOException("Truncated character data");
+                }
+                offset += inflated;
+            }
+            if (offset != length) {
+                throw new IOException("Character data is shorter than its header says");
+            }
+            return payload;
+        } catch (DataFormatException | IllegalArgumentException e) {
+            throw new IOException("Corrupt character data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Inflates the dictionary format while it is read. {@link InflaterInputStream} reports the end of the stream when
+     * the inflater asks for its preset dictionary, so the dictionary is supplied there and reading resumes.
+     */
+    private static final class DictionaryInflaterInputStream extends InflaterInputStream {
+        private final byte[] dictionary;
+
+        private DictionaryInflaterInputStream(InputStream in, byte[] dictionary) {
+            super(in, new Inflater());
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read < 0 && inf.needsDictionary()) {
+                try {
+                    // Rejected if the dictionary does not match the checksum recorded in the stream
+                    inf.setDictionary(dictionary);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Corrupt character data", e);
+                }
+                read = super.read(buffer, offset, length);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                // Not ended by the superclass, since the inflater was passed in
+                inf.end();
+            }
+        }
+    }
+
+    private static int parseVersion(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(DICTIONARY_PREFIX.length(), name.length() - DICTIONARY_EXTENSION.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            LOGGER.warn("[CharacterCodec] Ignoring unexpected file in dictionary directory: {}", name);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package world.landfall.persona.data.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * File format of a character's revision history.
+ * The newest revision is stored in full (compressed with the {@link CharacterCodec}); every older revision is a
+ * {@link BinaryDelta} from the next newer one. Recording a revision therefore only turns the previous newest revision
+ * into a delta, and dropping the oldest revisions is a truncation. Revision numbers keep counting up for the
+ * lifetime of the character, so they stay valid while older revisions are dropped.
+ * <p>
+ * Format: {@code "PRH" 0x01}, int count, then per revision (newest first) int number, long time saved,
+ * byte {@link SaveReason} ordinal, int stored length; followed by the stored bytes of each revision in the same order.
+ * The index comes first so revisions can be listed without reading any character data.
+ */
+public final class CharacterHistory {
+    private static final int MAGIC = 0x50524801; // "PRH" 0x01
+    private static final int ENTRY_SIZE = 4 + 8 + 1 + 4;
+
+    /**
+     * A recorded revision.
+     * @param number The revision number, counting up from 1
+     * @param savedAt When the revision was saved, in milliseconds since the epoch
+     * @param reason Why it was saved
+     * @param storedBytes Bytes the revision takes up in the history file
+     */
+    public record Revision(int number, long savedAt, SaveReason reason, int storedBytes) {}
+
+    private CharacterHistory() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Lists the revisions in a history file, reading only its index.
+     * @param file The history file
+     * @return The revisions, newest first; empty if there is no history file
+     * @throws IOException if the file could not be read
+     */
+    public static List<Revision> readRevisions(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return readIndex(in);
+        } catch (NoSuchFileException e) {
+            return List.of();
+        }
+    }
+
+    /**
+     * Adds a revision to a history.
+     * @param existing The current contents of the history file, or null if there is none
+     * @param payload The character's uncompressed NBT
+     * @param reason Why the character was saved
+     * @param savedAt When the character was saved, in milliseconds since the epoch
+     * @param keep Maximum number of revisions to keep
+     * @param codec Compresses the newest revision
+     * @param mode The format to compress it in
+     * @param dropped Receives the uncompressed NBT of every revision dropped to stay within {@code keep}
+     * @return The new contents of the history file, or null if the payload equals the newest revision
+     * @throws IOException if the existing history is corrupt or compression failed
+     */
+    public static byte[] append(byte[] existing, byte[] payload, SaveReason reason, long savedAt, int keep,
+                                CharacterCodec codec, CompressionMode mode, Consumer<byte[]> dropped) throws IOException {
+        List<Revision> revisions = new ArrayList<>();
+        List<byte[]> stored = new ArrayList<>();
+        if (existing == null) {
+            byte[] compressed = codec.compress(payload, mode);
+            revisions.add(new Revision(1, savedAt, reason, compressed.length));
+            stored.add(compressed);
+            return encode(revisions, stored);
+        }
+
+        List<Revision> previous = readIndex(new DataInputStream(new ByteArrayInputStream(existing)));
+        List<byte[]> previousStored = slice(existing, previous);
+        byte[] newest = codec.decompress(previousStored.get(0));
+        if (Arrays.equals(newest, payload)) {
+            return null;
+        }
+        byte[] compressed = codec.compress(payload, mode);
+        byte[] delta = BinaryDelta.diff(payload, newest);
+        Revision replaced = previous.get(0);
+        revisions.add(new Revision(replaced.number() + 1, savedAt, reason, compressed.length));
+        stored.add(compressed);
+        if (keep > 1) {
+            revisions.add(new Revision(replaced.number(), replaced.savedAt(), replaced.reason(), delta.length));
+            stored.add(delta);
+        }
+        int kept = 1;
+        for (; kept < previous.size() && revisions.size() < keep; kept++) {
+            revisions.add(previous.get(kept));
+            stored.add(previousStored.get(kept));
+        }
+        // Revisions from here on are dropped; the replaced newest one too if only one revision is kept
+        int firstDropped = keep > 1 ? kept : 0;
+        if (firstDropped == 0) {
+            dropped.accept(newest);
+        }
+        if (firstDropped < previous.size()) {
+            // Each older revision is a delta from the next newer one, so the kept ones are walked through as well
+            byte[] older = newest;
+            for (int i = 1; i < previous.size(); i++) {
+                older = BinaryDelta.apply(older, previousStored.get(i));
+                if (i >= firstDropped) {
+                    dropped.accept(older);
+                }
+            }
+        }
+        return encode(revisions, stored);
+    }
+
+    /**
+     * Reconstructs a revision by decompressing the newest one and applying deltas back to the requested one.
+     * Only the history file and one revision at a time are held in memory.
+     * @param file The history file
+     * @param number The revision number
+     * @param codec Decompresses the newest revision
+     * @return The revision's uncompressed NBT, or null if the history does not contain it
+     * @throws IOException if the file could not be read or is corrupt
+     */
+    public static byte[] reconstruct(Path file, int number, CharacterCodec codec) throws IOException {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        List<Revision> revisions = readIndex(new DataInputStream(new ByteArrayInputStream(data)));
+        int index = -1;
+        for (int i = 0; i < revisions.size(); i++) {
+            if (revisions.get(i).number() == number) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return null;
+        }
+        List<byte[]> stored = slice(data, revisions);
+        byte[] payload = codec.decompress(stored.get(0));
+        for (int i = 1; i <= index; i++) {
+            payload = BinaryDelta.apply(payload, stored.get(i));
+        }
+        return payload;
+    }
+
+    /**
+     * Reconstructs every revision in a history, newest first.
+     * @param file The history file
+     * @param codec Decompresses the newest revision
+     * @param visitor Receives the uncompressed NBT of each revision
+     * @throws IOException if the file could not be read or is corrupt; nothing is visited if there is no history file
+     */
+    public static void forEachRevision(Path file, CharacterCodec codec, Consumer<byte[]> visitor) throws IOException {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        List<Revision> revisions = readIndex(new DataInputStream(new ByteArrayInputStream(data)));
+        List<byte[]> stored = slice(data, revisions);
+        byte[] payload = codec.decompress(stored.get(0));
+        visitor.accept(payload);
+        for (int i = 1; i < stored.size(); i++) {
+            payload = BinaryDelta.apply(payload, stored.get(i));
+            visitor.accept(payload);
+        }
+    }
+
+    private static List<Revision> readIndex(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a character history file");
+        }
+        int count = in.readInt();
+        if (count <= 0 || count > 65536) {
+            throw new IOException("Corrupt character history: " + count + " revisions");
+        }
+        SaveReason[] reasons = SaveReason.values();
+        List<Revision> revisions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int number = in.readInt();
+            long savedAt = in.readLong();
+            int reason = in.readUnsignedByte();
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Corrupt character history: negative length");
+            }
+            revisions.add(new Revision(number, savedAt, reason < reasons.length ? reasons[reason] : SaveReason.OTHER, length));
+        }
+        return revisions;
+    }
+
+    private static List<byte[]> slice(byte[] data, List<Revision> revisions) throws IOException {
+        List<byte[]> stored = new ArrayList<>(revisions.size());
+        int offset = 8 + revisions.size() * ENTRY_SIZE;
+        for (Revision revision : revisions) {
+            if (revision.storedBytes() > data.length - offset) {
+                throw new IOException("Truncated character history");
+            }
+            stored.add(Arrays.copyOfRange(data, offset, offset + revision.storedBytes()));
+            offset += revision.storedBytes();
+        }
+        return stored;
+    }
+
+    private static byte[] encode(List<Revision> revisions, List<byte[]> stored) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(revisions.size());
+            for (Revision revision : revisions) {
+                out.writeInt(revision.number());
+                out.writeLong(revision.savedAt());
+                out.writeByte(revision.reason().ordinal());
+                out.writeInt(revision.storedBytes());
+            }
+            for (byte[] data : stored) {
+                out.write(data);
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
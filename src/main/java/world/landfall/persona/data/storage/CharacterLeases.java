@@ -0,0 +1,322 @@
+package world.landfall.persona.data.storage;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Leases on characters in a directory shared by several servers. A character may only be played on the server that
+ * holds its lease; the holder renews it well before it expires, and a lease that was not renewed in time may be taken
+ * over by another server. Every acquisition gets a higher epoch, so a change of holder is visible even when the same
+ * server gets the lease back.
+ * <p>
+ * A lease is one file, {@code <uuid>.lease}. It is created by hard-linking a fully written temporary file to that name,
+ * which fails if the name exists, so exactly one server wins a race even on network file systems. An expired lease is
+ * replaced by whichever server first creates the marker file {@code <uuid>.<epoch>.takeover} for it; the others back
+ * off. Expiry compares wall clock times of different servers, so their clocks must be kept in sync.
+ * <p>
+ * File format: {@code "PLS" 0x01}, UTF holder server id, long epoch, long expiry in milliseconds since the epoch.
+ */
+public final class CharacterLeases {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int MAGIC = 0x504C5301; // "PLS" 0x01
+    private static final String LEASE_EXTENSION = ".lease";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final String TAKEOVER_EXTENSION = ".takeover";
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * A lease as stored on disk.
+     * @param characterId The leased character
+     * @param holder The id of the server holding it
+     * @param epoch Counts up with every acquisition of this character's lease
+     * @param expiresAt When it expires unless renewed, in milliseconds since the epoch
+     */
+    public record Lease(UUID characterId, String holder, long epoch, long expiresAt) {
+        public boolean isExpired(long now) {
+            return expiresAt <= now;
+        }
+    }
+
+    private final Path directory;
+    private final String serverId;
+    private final long ttlMillis;
+    // Leases this server holds, by character; the epoch tells a renewal whether the lease is still the same one
+    private final Map<UUID, Lease> held = new ConcurrentHashMap<>();
+
+    private CharacterLeases(Path directory, String serverId, long ttlMillis) {
+        this.directory = directory;
+        this.serverId = serverId;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Opens the lease directory, creating it if needed.
+     * @param directory The shared lease directory
+     * @param serverId Identifies this server; must differ between servers sharing the directory
+     * @param ttlMillis How long a lease stays valid without being renewed
+     * @return The leases
+     * @throws IOException if the directory could not be created
+     */
+    public static CharacterLeases open(Path directory, String serverId, long ttlMillis) throws IOException {
+        Files.createDirectories(directory);
+        return new CharacterLeases(directory, serverId, ttlMillis);
+    }
+
+    public String getServerId() {
+        return serverId;
+    }
+
+    /**
+     * Tries to acquire a character's lease. Succeeds right away if this server already holds it.
+     * @param characterId The character
+     * @return The character's lease afterwards: held by this server on success, otherwise the one that is in the way
+     * @throws IOException if the lease directory could not be accessed
+     */
+    public Lease acquire(UUID characterId) throws IOException {
+        Lease own = held.get(characterId);
+        if (own != null) {
+            return own;
+        }
+        Path file = fileFor(characterId);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Lease existing = read(file, characterId);
+            long now = System.currentTimeMillis();
+            if (existing == null) {
+                Lease lease = new Lease(characterId, serverId, now, now + ttlMillis);
+                if (create(file, lease)) {
+                    held.put(characterId, lease);
+                    return lease;
+                }
+            } else if (existing.holder().equals(serverId) || existing.isExpired(now)) {
+                // Left behind by an earlier run of this server, or by a server that stopped renewing it
+                // Epochs are only compared for equality; the time keeps them increasing across deleted lease files
+                Lease lease = new Lease(characterId, serverId, Math.max(existing.epoch() + 1, now), now + ttlMillis);
+                if (replace(file, existing, lease)) {
+                    held.put(characterId, lease);
+                    return lease;
+                }
+            } else {
+                return existing;
+            }
+        }
+        Lease existing = read(file, characterId);
+        return existing != null ? existing : new Lease(characterId, "", 0, 0);
+    }
+
+    /**
+     * Extends a lease this server holds by the lease time.
+     * @param characterId The character
+     * @return true if the lease was renewed, false if this server does not hold it (anymore)
+     * @throws IOException if the lease file could not be read or written
+     */
+    public boolean renew(UUID characterId) throws IOException {
+        Lease own = held.get(characterId);
+        if (own == null) {
+            return false;
+        }
+        Path file = fileFor(characterId);
+        Lease existing = read(file, characterId);
+        if (existing == null || !existing.holder().equals(serverId) || existing.epoch() != own.epoch()) {
+            held.remove(characterId, own);
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        Lease renewed = new Lease(characterId, serverId, own.epoch(), now + ttlMillis);
+        if (existing.isExpired(now)) {
+            // Other servers may be taking it over already, so it is renewed the way they would replace it
+            if (!replace(file, existing, renewed)) {
+                held.remove(characterId, own);
+                return false;
+            }
+        } else {
+            Path temp = writeTemp(renewed);
+            try {
+                moveReplacing(temp, file);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        held.replace(characterId, own, renewed);
+        return true;
+    }
+
+    /**
+     * Gives up a lease this server holds. Does nothing if it does not hold it.
+     * @param characterId The character
+     * @throws IOException if the lease file could not be deleted
+     */
+    public void release(UUID characterId) throws IOException {
+        Lease own = held.remove(characterId);
+        if (own == null) {
+            return;
+        }
+        Path file = fileFor(characterId);
+        Lease existing = read(file, characterId);
+        if (existing != null && existing.holder().equals(serverId) && existing.epoch() == own.epoch()) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * @return true if this server holds the character's lease, as of its last acquisition or renewal
+     */
+    public boolean isHeld(UUID characterId) {
+        return held.containsKey(characterId);
+    }
+
+    /**
+     * @return The characters whose lease this server holds
+     */
+    public Set<UUID> getHeld() {
+        return Set.copyOf(held.keySet());
+    }
+
+    /**
+     * Reads a character's lease from disk.
+     * @return The lease, or null if there is none or it is unreadable
+     */
+    public Lease read(UUID characterId) {
+        return read(fileFor(characterId), characterId);
+    }
+
+    /**
+     * Reads every lease in the directory, whoever holds it. Unreadable lease files are skipped.
+     * @return The leases by character
+     * @throws IOException if the directory could not be listed
+     */
+    public Map<UUID, Lease> readAll() throws IOException {
+        Map<UUID, Lease> leases = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + LEASE_EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                UUID characterId;
+                try {
+                    characterId = UUID.fromString(name.substring(0, name.length() - LEASE_EXTENSION.length()));
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                Lease lease = read(file, characterId);
+                if (lease != null) {
+                    leases.put(characterId, lease);
+                }
+            }
+        }
+        return leases;
+    }
+
+    private boolean create(Path file, Lease lease) throws IOException {
+        Path temp = writeTemp(lease);
+        try {
+            Files.createLink(file, temp);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (UnsupportedOperationException e) {
+            // Without hard links, exclusive creation still decides the race; readers may briefly see a partial file
+            try {
+                Files.write(file, Files.readAllBytes(temp), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+                return true;
+            } catch (FileAlreadyExistsException raced) {
+                return false;
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Replaces an expired lease, unless another server is replacing it too or it changed since it was read.
+     * Whoever creates the takeover marker for the lease's epoch goes ahead; it checks the lease again only after that,
+     * so a server that gets the marker after an earlier winner removed it sees the winner's lease and backs off.
+     * @return true if the lease file now holds the replacement
+     */
+    private boolean replace(Path file, Lease expected, Lease replacement) throws IOException {
+        Path marker = directory.resolve(expected.characterId() + "." + expected.epoch() + TAKEOVER_EXTENSION);
+        try {
+            Files.createFile(marker);
+        } catch (FileAlreadyExistsException e) {
+            // A marker outlives a lease only if the server that created it died while taking over
+            try {
+                if (Files.getLastModifiedTime(marker).toMillis() < System.currentTimeMillis() - ttlMillis) {
+                    Files.deleteIfExists(marker);
+                }
+            } catch (NoSuchFileException ignored) {
+                // Removed by its owner meanwhile
+            }
+            return false;
+        }
+        try {
+            if (!expected.equals(read(file, expected.characterId()))) {
+                return false;
+            }
+            Path temp = writeTemp(replacement);
+            try {
+                moveReplacing(temp, file);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            return true;
+        } finally {
+            Files.deleteIfExists(marker);
+        }
+    }
+
+    private Path writeTemp(Lease lease) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeUTF(lease.holder());
+            out.writeLong(lease.epoch());
+            out.writeLong(lease.expiresAt());
+        }
+        Path temp = directory.resolve(lease.characterId() + "." + UUID.randomUUID() + TEMP_EXTENSION);
+        Files.write(temp, bytes.toByteArray(), StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+        return temp;
+    }
+
+    private static void moveReplacing(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static Lease read(Path file, UUID characterId) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a lease file");
+            }
+            return new Lease(characterId, in.readUTF(), in.readLong(), in.readLong());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.debug("[CharacterLeases] Unreadable lease {}: {}", file.getFileName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private Path fileFor(UUID characterId) {
+        return directory.resolve(characterId + LEASE_EXTENSION);
+    }
+}
@@ -0,0 +1,116 @@
+package world.landfall.persona.data.storage;
+
+import net.minecraft.Util;
+import net.minecraft.resources.ResourceLocation;
+import world.landfall.persona.data.CharacterMetadata;
+import world.landfall.persona.data.CharacterProfile;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Backend for persisting character profiles.
+ * Game code goes through {@link CharacterStores#get()} rather than a concrete backend, so backends can be swapped,
+ * compared and checked with the conformance suite in the tests. All methods must be safe to call from any thread.
+ */
+public interface CharacterStore {
+    /**
+     * Loads a character.
+     * @param characterId The character's UUID
+     * @return The last saved state of the character, or null if it does not exist or could not be read
+     */
+    CharacterProfile load(UUID characterId);
+
+    /**
+     * Reads the metadata of a character, for callers that need nothing else of it.
+     * The default implementation loads the whole character.
+     * @param characterId The character's UUID
+     * @param modDataKeys Mod data entries to include besides the deceased flag
+     * @return The metadata of the last saved state, or null if the character does not exist or could not be read
+     */
+    default CharacterMetadata readMetadata(UUID characterId, Collection<ResourceLocation> modDataKeys) {
+        CharacterProfile character = load(characterId);
+        return character != null ? CharacterMetadata.of(character, modDataKeys) : null;
+    }
+
+    /**
+     * Reads a character's id, display name and deceased flag.
+     * @param characterId The character's UUID
+     * @return The metadata, or null if the character does not exist or could not be read
+     */
+    default CharacterMetadata readMetadata(UUID characterId) {
+        return readMetadata(characterId, List.of());
+    }
+
+    /**
+     * Saves a character, replacing any previous state.
+     * @param character The character to save
+     * @return true if the save was accepted, false if it failed
+     */
+    boolean save(CharacterProfile character);
+
+    /**
+     * Saves a character, recording why it was saved for backends that keep a revision history.
+     * The default implementation ignores the reason.
+     * @param character The character to save
+     * @param reason Why the character is saved
+     * @return true if the save was accepted, false if it failed
+     */
+    default boolean save(CharacterProfile character, SaveReason reason) {
+        return save(character);
+    }
+
+    /**
+     * Deletes a character.
+     * @param characterId The character's UUID
+     * @return true if the character is gone afterwards (including when it never existed), false on error
+     */
+    boolean delete(UUID characterId);
+
+    /**
+     * Checks whether a character has been saved and not deleted.
+     * @param characterId The character's UUID
+     * @return true if the character exists
+     */
+    boolean exists(UUID characterId);
+
+    /**
+     * Lists the stored characters of a player.
+     * @param ownerId The player's UUID
+     * @return Character IDs mapped to their display names
+     */
+    Map<UUID, String> listByOwner(UUID ownerId);
+
+    /**
+     * Short name of the backend for logs and diagnostics.
+     */
+    String getName();
+
+    default CompletableFuture<CharacterProfile> loadAsync(UUID characterId) {
+        return CompletableFuture.supplyAsync(() -> load(characterId), Util.backgroundExecutor());
+    }
+
+    /**
+     * Saves a character without waiting for the backend to finish writing.
+     * The character's state is captured before this method returns, so the caller may keep modifying it.
+     * The default implementation saves synchronously.
+     */
+    default CompletableFuture<Boolean> saveAsync(CharacterProfile character) {
+        return CompletableFuture.completedFuture(save(character));
+    }
+
+    default CompletableFuture<Boolean> deleteAsync(UUID characterId) {
+        return CompletableFuture.supplyAsync(() -> delete(characterId), Util.backgroundExecutor());
+    }
+
+    default CompletableFuture<Boolean> existsAsync(UUID characterId) {
+        return CompletableFuture.supplyAsync(() -> exists(characterId), Util.backgroundExecutor());
+    }
+
+    default CompletableFuture<Map<UUID, String>> listByOwnerAsync(UUID ownerId) {
+        return CompletableFuture.supplyAsync(() -> listByOwner(ownerId), Util.backgroundExecutor());
+    }
+}
@@ -0,0 +1,33 @@
+package world.landfall.persona.data.storage;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+/**
+ * Holds the {@link CharacterStore} the game uses. Defaults to the file-backed store.
+ */
+public final class CharacterStores {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static volatile CharacterStore store = new FileCharacterStore();
+
+    private CharacterStores() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    public static CharacterStore get() {
+        return store;
+    }
+
+    /**
+     * Replaces the active backend, e.g. with an {@link InMemoryCharacterStore} for benchmarks.
+     * Characters already stored in the previous backend are not carried over.
+     * @param newStore The backend to use from now on
+     */
+    public static void set(CharacterStore newStore) {
+        if (newStore == null) {
+            throw new IllegalArgumentException("Character store cannot be null");
+        }
+        LOGGER.info("[CharacterStores] Switching character store from {} to {}", store.getName(), newStore.getName());
+        store = newStore;
+    }
+}
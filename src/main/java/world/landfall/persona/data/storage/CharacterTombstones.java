@@ -0,0 +1,170 @@
+package world.landfall.persona.data.storage;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tombstones of deleted characters whose data has not been reclaimed yet.
+ * A tombstone takes effect as soon as it is added in memory; writing its file ({@code <uuid>.tomb}) is left to the
+ * caller so it can happen off the server thread. The in-memory set is authoritative while the server runs and is
+ * loaded from the files on start.
+ * <p>
+ * File format: {@code "PTB" 0x01}, long character UUID msb and lsb, boolean owner present, optionally long owner UUID
+ * msb and lsb, UTF display name, long deletion time.
+ */
+public final class CharacterTombstones {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int MAGIC = 0x50544201; // "PTB" 0x01
+    private static final String TOMBSTONE_EXTENSION = ".tomb";
+
+    /**
+     * A deleted character.
+     * @param characterId The character's UUID
+     * @param ownerId The player who owned it, or null if unknown
+     * @param displayName The name it had when it was deleted, or an empty string if unknown
+     * @param deletedAt When it was deleted, in milliseconds since the epoch
+     */
+    public record Tombstone(UUID characterId, UUID ownerId, String displayName, long deletedAt) {}
+
+    private final Path directory;
+    private final Map<UUID, Tombstone> tombstones = new ConcurrentHashMap<>();
+
+    private CharacterTombstones(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Loads the tombstones stored in a directory. Unreadable tombstone files are skipped.
+     * @param directory The tombstone directory; created when the first tombstone is written
+     * @return The tombstones
+     * @throws IOException if the directory could not be listed
+     */
+    public static CharacterTombstones open(Path directory) throws IOException {
+        CharacterTombstones result = new CharacterTombstones(directory);
+        if (!Files.isDirectory(directory)) {
+            return result;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + TOMBSTONE_EXTENSION)) {
+            for (Path file : files) {
+                try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                    if (in.readInt() != MAGIC) {
+                        throw new IOException("Not a tombstone file");
+                    }
+                    UUID characterId = new UUID(in.readLong(), in.readLong());
+                    UUID ownerId = in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+                    String displayName = in.readUTF();
+                    long deletedAt = in.readLong();
+                    result.tombstones.put(characterId, new Tombstone(characterId, ownerId, displayName, deletedAt));
+                } catch (IOException e) {
+                    LOGGER.warn("[CharacterTombstones] Skipping unreadable tombstone {}: {}", file.getFileName(), e.getMessage());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the character has been deleted and not restored or reclaimed since
+     */
+    public boolean contains(UUID characterId) {
+        return tombstones.containsKey(characterId);
+    }
+
+    /**
+     * @return The character's tombstone, or null if it has none
+     */
+    public Tombstone get(UUID characterId) {
+        return tombstones.get(characterId);
+    }
+
+    /**
+     * @return All tombstones, most recently deleted first
+     */
+    public List<Tombstone> list() {
+        List<Tombstone> list = new ArrayList<>(tombstones.values());
+        list.sort(Comparator.comparingLong(Tombstone::deletedAt).reversed());
+        return list;
+    }
+
+    /**
+     * @param deletedBefore Deletion time in milliseconds since the epoch
+     * @return The tombstones of characters deleted before that time
+     */
+    public List<Tombstone> deletedBefore(long deletedBefore) {
+        return tombstones.values().stream().filter(tombstone -> tombstone.deletedAt() < deletedBefore).toList();
+    }
+
+    /**
+     * Adds a tombstone in memory. Its file is written separately with {@link #write}.
+     */
+    public void add(Tombstone tombstone) {
+        tombstones.put(tombstone.characterId(), tombstone);
+    }
+
+    /**
+     * Removes a character's tombstone from memory. Its file is deleted separately with {@link #deleteFile}.
+     * @return The removed tombstone, or null if the character had none
+     */
+    public Tombstone remove(UUID characterId) {
+        return tombstones.remove(characterId);
+    }
+
+    /**
+     * Removes a tombstone from memory unless it has been replaced or removed meanwhile.
+     * @return true if it was removed
+     */
+    public boolean remove(Tombstone tombstone) {
+        return tombstones.remove(tombstone.characterId(), tombstone);
+    }
+
+    /**
+     * Writes a tombstone's file.
+     * @throws IOException if the file could not be written
+     */
+    public void write(Tombstone tombstone) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeLong(tombstone.characterId().getMostSignificantBits());
+            out.writeLong(tombstone.characterId().getLeastSignificantBits());
+            out.writeBoolean(tombstone.ownerId() != null);
+            if (tombstone.ownerId() != null) {
+                out.writeLong(tombstone.ownerId().getMostSignificantBits());
+                out.writeLong(tombstone.ownerId().getLeastSignificantBits());
+            }
+            out.writeUTF(tombstone.displayName());
+            out.writeLong(tombstone.deletedAt());
+        }
+        DurableFileWriter.commit(fileFor(tombstone.characterId()), bytes.toByteArray());
+    }
+
+    /**
+     * Deletes a character's tombstone file, if any.
+     * @throws IOException if the file could not be deleted
+     */
+    public void deleteFile(UUID characterId) throws IOException {
+        Files.deleteIfExists(fileFor(characterId));
+    }
+
+    public int size() {
+        return tombstones.size();
+    }
+
+    private Path fileFor(UUID characterId) {
+        return directory.resolve(characterId + TOMBSTONE_EXTENSION);
+    }
+}
@@ -0,0 +1,279 @@
+package world.landfall.persona.data.storage;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind queue for character files.
+ * The caller hands over an already serialized (uncompressed) NBT snapshot and returns immediately;
+ * a single I/O worker thread compresses and writes it. Saves of a character that arrive while an
+ * earlier save of the same character is still queued replace that snapshot instead of adding a second write.
+ * Whatever has accumulated while the worker was busy is handed to the sink as one batch (group commit).
+ */
+public final class CharacterWriteQueue {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final Task STOP = new Task(null, null);
+
+    /**
+     * Performs the actual writes for a batch of dequeued snapshots on the I/O worker thread.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void write(List<PendingWrite> batch) throws Exception;
+    }
+
+    /**
+     * A serialized character snapshot waiting to be written.
+     */
+    public static final class PendingWrite {
+        private final UUID characterId;
+        private final byte[] payload;
+        private final SaveReason reason;
+        private final long savedAt;
+        private final long enqueuedNanos;
+        private volatile boolean cancelled;
+
+        private PendingWrite(UUID characterId, byte[] payload, SaveReason reason) {
+            this.characterId = characterId;
+            this.payload = payload;
+            this.reason = reason;
+            this.savedAt = System.currentTimeMillis();
+            this.enqueuedNanos = System.nanoTime();
+        }
+
+        public UUID getCharacterId() { return characterId; }
+        public byte[] getPayload() { return payload; }
+        public SaveReason getReason() { return reason; }
+        /** Wall-clock time of the save in milliseconds since the epoch. */
+        public long getSavedAt() { return savedAt; }
+        public long getEnqueuedNanos() { return enqueuedNanos; }
+
+        /**
+         * @return true if the character was deleted after this snapshot was queued; the sink must not write it
+         */
+        public boolean isCancelled() { return cancelled; }
+    }
+
+    /**
+     * Point-in-time queue metrics.
+     */
+    public record Stats(int depth, long written, long coalesced, long failed, double averageLatencyMs, double maxLatencyMs) {}
+
+    private record Task(UUID characterId, CompletableFuture<Void> barrier) {}
+
+    private final Sink sink;
+    private final int maxBatchSize;
+    private final BlockingQueue<Task> tasks = new LinkedBlockingQueue<>();
+    // Guarded by "this"
+    private final Map<UUID, PendingWrite> pending = new HashMap<>();
+    private final Map<UUID, PendingWrite> inFlight = new HashMap<>();
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private final Thread worker;
+    private volatile boolean running;
+
+    public CharacterWriteQueue(String threadName, int maxBatchSize, Sink sink) {
+        this.sink = sink;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.worker = new Thread(this::run, threadName);
+        this.worker.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        worker.start();
+        LOGGER.debug("[CharacterWriteQueue] Started I/O worker {}", worker.getName());
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Queues a serialized snapshot for writing, replacing any snapshot of the same character that has not been picked up yet.
+     * The replaced snapshot's reason is dropped along with it; the newest one is what gets written.
+     * @param characterId The character the snapshot belongs to
+     * @param payload Uncompressed NBT bytes; must not be modified after this call
+     * @param reason Why the character was saved
+     * @return false if the queue has been shut down and the caller must write synchronously
+     */
+    public boolean enqueue(UUID characterId, byte[] payload, SaveReason reason) {
+        PendingWrite write = new PendingWrite(characterId, payload, reason);
+        synchronized (this) {
+            if (!running) {
+                return false;
+            }
+            PendingWrite previous = pending.put(characterId, write);
+            if (previous == null) {
+                // Added under the monitor so it can never land behind the STOP task
+                tasks.add(new Task(characterId, null));
+            } else {
+                coalesced.incrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the newest snapshot of a character that has not reached the disk yet.
+     * @param characterId The character's UUID
+     * @return The uncompressed NBT bytes, or null if nothing is queued or being written
+     */
+    public synchronized byte[] peek(UUID characterId) {
+        PendingWrite write = pending.get(characterId);
+        if (write == null) {
+            write = inFlight.get(characterId);
+        }
+        return write != null && !write.isCancelled() ? write.getPayload() : null;
+    }
+
+    /**
+     * Drops any queued snapshot of a character and marks an in-flight one as cancelled.
+     * Callers must hold the same lock the sink takes before writing, so a cancelled write can never land after a delete.
+     * @param characterId The character's UUID
+     */
+    public synchronized void cancel(UUID characterId) {
+        PendingWrite queued = pending.remove(characterId);
+        if (queued != null) {
+            queued.cancelled = true;
+        }
+        PendingWrite current = inFlight.get(characterId);
+        if (current != null) {
+            current.cancelled = true;
+        }
+    }
+
+    /**
+     * Blocks until every snapshot queued before this call has been written.
+     * @return true if the queue drained within the timeout
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+        if (!running) {
+            return true;
+        }
+        CompletableFuture<Void> barrier = new CompletableFuture<>();
+        tasks.add(new Task(null, barrier));
+        try {
+            barrier.get(timeout, unit);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            LOGGER.warn("[CharacterWriteQueue] Flush did not complete within {} {} ({} writes still pending)", timeout, unit, getDepth());
+            return false;
+        }
+    }
+
+    /**
+     * Flushes the queue and stops the worker. Saves arriving afterwards must be written synchronously by the caller.
+     * @return true if everything queued was written before the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        if (!running) {
+            return true;
+        }
+        boolean drained = flush(timeout, unit);
+        synchronized (this) {
+            running = false;
+            tasks.add(STOP);
+        }
+        try {
+            worker.join(unit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.debug("[CharacterWriteQueue] Stopped I/O worker {} (drained: {})", worker.getName(), drained);
+        return drained;
+    }
+
+    public synchronized int getDepth() {
+        return pending.size() + inFlight.size();
+    }
+
+    public Stats getStats() {
+        long count = written.get();
+        double average = count == 0 ? 0.0 : totalLatencyNanos.sum() / (double) count / 1_000_000.0;
+        return new Stats(getDepth(), count, coalesced.get(), failed.get(), average, maxLatencyNanos.get() / 1_000_000.0);
+    }
+
+    private void run() {
+        List<Task> drained = new ArrayList<>(maxBatchSize);
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        while (true) {
+            try {
+                drained.add(tasks.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            tasks.drainTo(drained, maxBatchSize - 1);
+
+            for (Task task : drained) {
+                if (task == STOP) {
+                    writeBatch(batch);
+                    return;
+                }
+                if (task.barrier() != null) {
+                    // Everything queued before the barrier must be on disk before it completes
+                    writeBatch(batch);
+                    task.barrier().complete(null);
+                    continue;
+                }
+                synchronized (this) {
+                    PendingWrite write = pending.remove(task.characterId());
+                    if (write != null) {
+                        inFlight.put(task.characterId(), write);
+                        batch.add(write);
+                    }
+                    // Otherwise a delete cancelled it before the worker got to it
+                }
+            }
+            writeBatch(batch);
+            drained.clear();
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            sink.write(batch);
+            long now = System.nanoTime();
+            for (PendingWrite write : batch) {
+                long latency = now - write.getEnqueuedNanos();
+                totalLatencyNanos.add(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            }
+            written.addAndGet(batch.size());
+        } catch (Exception e) {
+            failed.addAndGet(batch.size());
+            LOGGER.error("[CharacterWriteQueue] Failed to write batch of {} characters", batch.size(), e);
+        } finally {
+            synchronized (this) {
+                for (PendingWrite write : batch) {
+                    inFlight.remove(write.getCharacterId(), write);
+                }
+            }
+            batch.clear();
+        }
+    }
+}
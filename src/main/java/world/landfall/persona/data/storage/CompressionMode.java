@@ -0,0 +1,11 @@
+package world.landfall.persona.data.storage;
+
+/**
+ * How character payloads are compressed when they are written. Both formats can always be read.
+ */
+public enum CompressionMode {
+    /** Plain gzip, the same bytes as {@code NbtIo.writeCompressed}. */
+    GZIP,
+    /** Deflate with a preset dictionary trained from the server's own characters; falls back to gzip until one is trained. */
+    DICTIONARY
+}
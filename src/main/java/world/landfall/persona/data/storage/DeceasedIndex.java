@@ -0,0 +1,153 @@
+package world.landfall.persona.data.storage;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The stored characters that are deceased, with the time each one died, so that the archiver does not have to read
+ * every character to find them. Saves keep it up to date. It is written on a clean shutdown and removed while the
+ * server runs, like the item blob reference counts; when it is missing, it has to be seeded from the stored
+ * characters once before it can be used.
+ * <p>
+ * A character that died before deaths were timestamped is given the time it was first seen here, so it is archived
+ * one full period after that instead of right away.
+ * <p>
+ * File format: int version, int count, then per character long UUID msb and lsb and long time of death.
+ */
+public final class DeceasedIndex {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final Map<UUID, Long> deceasedSince = new ConcurrentHashMap<>();
+    private volatile boolean seeded;
+
+    private DeceasedIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the index written by the last clean shutdown and removes its file, which is stale from here on.
+     * @param file The index file
+     * @return The index, which still needs to be seeded if the file was missing or unreadable
+     * @throws IOException if the file could not be removed
+     */
+    public static DeceasedIndex open(Path file) throws IOException {
+        DeceasedIndex result = new DeceasedIndex(file);
+        if (!Files.exists(file)) {
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported deceased index version " + version);
+            }
+            int entries = in.readInt();
+            for (int i = 0; i < entries; i++) {
+                result.deceasedSince.put(new UUID(in.readLong(), in.readLong()), in.readLong());
+            }
+            result.seeded = true;
+        } catch (IOException e) {
+            LOGGER.warn("[DeceasedIndex] Failed to read {}, seeding it again: {}", file.getFileName(), e.getMessage());
+            result.deceasedSince.clear();
+        }
+        Files.delete(file);
+        return result;
+    }
+
+    /**
+     * Records a character's deceased flag as it is saved.
+     * @param characterId The character
+     * @param deceased Whether it is deceased
+     * @param since When it died, or 0 if unknown; the first time it is seen is used then
+     */
+    public void record(UUID characterId, boolean deceased, long since) {
+        if (!deceased) {
+            deceasedSince.remove(characterId);
+        } else if (since > 0) {
+            deceasedSince.put(characterId, since);
+        } else {
+            deceasedSince.putIfAbsent(characterId, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Records a deceased character found while seeding. Unlike {@link #record}, it never replaces what a save
+     * recorded meanwhile.
+     * @param characterId The character
+     * @param since When it died, or 0 if unknown
+     */
+    public void seed(UUID characterId, long since) {
+        deceasedSince.putIfAbsent(characterId, since > 0 ? since : System.currentTimeMillis());
+    }
+
+    /**
+     * Marks the index complete, once every stored character has been seeded.
+     */
+    public void markSeeded() {
+        seeded = true;
+    }
+
+    /**
+     * @return true once the index covers every stored character
+     */
+    public boolean isSeeded() {
+        return seeded;
+    }
+
+    /**
+     * Removes a character that is no longer stored outside the archive, e.g. because it was archived or deleted.
+     */
+    public void remove(UUID characterId) {
+        deceasedSince.remove(characterId);
+    }
+
+    /**
+     * @param cutoff Time of death in milliseconds since the epoch
+     * @return The characters that died before that time
+     */
+    public List<UUID> deceasedBefore(long cutoff) {
+        return deceasedSince.entrySet().stream()
+            .filter(entry -> entry.getValue() < cutoff)
+            .map(Map.Entry::getKey)
+            .toList();
+    }
+
+    public int size() {
+        return deceasedSince.size();
+    }
+
+    /**
+     * Writes the index, if it is complete. Saves must have stopped.
+     * @throws IOException if the file could not be written
+     */
+    public void write() throws IOException {
+        if (!seeded) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + deceasedSince.size() * 24);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(VERSION);
+            Map<UUID, Long> entries = Map.copyOf(deceasedSince);
+            out.writeInt(entries.size());
+            for (Map.Entry<UUID, Long> entry : entries.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeLong(entry.getValue());
+            }
+        }
+        DurableFileWriter.commit(file, bytes.toByteArray());
+    }
+}
@@ -0,0 +1,186 @@
+package world.landfall.persona.data.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Builds preset dictionaries for {@link CharacterCodec} and measures how they perform.
+ * Training follows the idea of zstd's COVER algorithm: byte sequences (k-mers) are scored by how many sample
+ * payloads contain them, and the dictionary is assembled greedily from the fixed-size segments that cover the most
+ * valuable k-mers not covered yet. The best segments go last, where deflate can reach them with the shortest
+ * distances.
+ */
+public final class DictionaryTrainer {
+    private static final int KMER_LENGTH = 8;
+    private static final int SEGMENT_LENGTH = 64;
+    private static final int SEGMENT_STEP = SEGMENT_LENGTH / 4;
+    private static final int MEASURE_ROUNDS = 3;
+
+    /**
+     * Compressed size and timing of both formats over the same payloads. Times are averages per payload.
+     */
+    public record Measurement(int payloads, long uncompressedBytes, long gzipBytes, long dictionaryBytes,
+                              double gzipEncodeMicros, double dictionaryEncodeMicros,
+                              double gzipDecodeMicros, double dictionaryDecodeMicros) {
+        public double gzipRatio() {
+            return uncompressedBytes == 0 ? 0.0 : (double) gzipBytes / uncompressedBytes;
+        }
+
+        public double dictionaryRatio() {
+            return uncompressedBytes == 0 ? 0.0 : (double) dictionaryBytes / uncompressedBytes;
+        }
+    }
+
+    private record Candidate(int sample, int offset, long score) {}
+
+    private DictionaryTrainer() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Trains a dictionary.
+     * @param samples Uncompressed character payloads
+     * @param dictionarySize Maximum dictionary size in bytes
+     * @return The dictionary; empty if the samples share nothing worth storing
+     */
+    public static byte[] train(List<byte[]> samples, int dictionarySize) {
+        int size = Math.min(dictionarySize, CharacterCodec.MAX_DICTIONARY_SIZE);
+
+        // How many samples contain each k-mer; k-mers unique to one sample cannot help another file
+        Map<Long, Integer> frequencies = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + KMER_LENGTH <= sample.length; i++) {
+                seen.add(kmer(sample, i));
+            }
+            seen.forEach(kmer -> frequencies.merge(kmer, 1, Integer::sum));
+        }
+        frequencies.values().removeIf(count -> count < 2);
+
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>((a, b) -> Long.compare(b.score(), a.score()));
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int offset = 0; offset + SEGMENT_LENGTH <= sample.length; offset += SEGMENT_STEP) {
+                long score = score(sample, offset, frequencies);
+                if (score > 0) {
+                    candidates.add(new Candidate(s, offset, score));
+                }
+            }
+        }
+
+        // Lazy greedy selection: a popped candidate's score can only have dropped since it was queued
+        List<Candidate> selected = new ArrayList<>();
+        int selectedBytes = 0;
+        while (selectedBytes < size && !candidates.isEmpty()) {
+            Candidate candidate = candidates.poll();
+            byte[] sample = samples.get(candidate.sample());
+            long score = score(sample, candidate.offset(), frequencies);
+            if (score <= 0) {
+                continue;
+            }
+            Candidate next = candidates.peek();
+            if (next != null && score < next.score()) {
+                candidates.add(new Candidate(candidate.sample(), candidate.offset(), score));
+                continue;
+            }
+            selected.add(candidate);
+            selectedBytes += SEGMENT_LENGTH;
+            for (int i = candidate.offset(); i + KMER_LENGTH <= candidate.offset() + SEGMENT_LENGTH; i++) {
+                frequencies.remove(kmer(sample, i));
+            }
+        }
+
+        // Most valuable segments last; trim the least valuable from the front if over size
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(selectedBytes);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            Candidate candidate = selected.get(i);
+            dictionary.write(samples.get(candidate.sample()), candidate.offset(), SEGMENT_LENGTH);
+        }
+        byte[] bytes = dictionary.toByteArray();
+        if (bytes.length <= size) {
+            return bytes;
+        }
+        byte[] trimmed = new byte[size];
+        System.arraycopy(bytes, bytes.length - size, trimmed, 0, size);
+        return trimmed;
+    }
+
+    /**
+     * Compresses and decompresses every payload with gzip and with the given dictionary.
+     * @param payloads Uncompressed character payloads, ideally not the ones the dictionary was trained on
+     * @param dictionary The dictionary to measure
+     * @return The measurement
+     * @throws IOException if a payload could not be round-tripped
+     */
+    public static Measurement measure(List<byte[]> payloads, byte[] dictionary) throws IOException {
+        long uncompressed = 0;
+        long gzipBytes = 0;
+        long dictionaryBytes = 0;
+        long gzipEncodeNanos = 0;
+        long dictionaryEncodeNanos = 0;
+        long gzipDecodeNanos = 0;
+        long dictionaryDecodeNanos = 0;
+        IntFunction<byte[]> lookup = version -> dictionary;
+
+        // Round 0 warms up the JIT and is not counted
+        for (int round = 0; round <= MEASURE_ROUNDS; round++) {
+            for (byte[] payload : payloads) {
+                long start = System.nanoTime();
+                byte[] gzipped = CharacterCodec.gzip(payload);
+                long gzipEncoded = System.nanoTime();
+                byte[] deflated = CharacterCodec.deflate(payload, 1, dictionary);
+                long dictionaryEncoded = System.nanoTime();
+                CharacterCodec.gunzip(gzipped);
+                long gzipDecoded = System.nanoTime();
+                byte[] inflated = CharacterCodec.inflate(deflated, lookup);
+                long dictionaryDecoded = System.nanoTime();
+                if (!Arrays.equals(payload, inflated)) {
+                    throw new IOException("Dictionary round trip changed a payload");
+                }
+                if (round > 0) {
+                    uncompressed += payload.length;
+                    gzipBytes += gzipped.length;
+                    dictionaryBytes += deflated.length;
+                    gzipEncodeNanos += gzipEncoded - start;
+                    dictionaryEncodeNanos += dictionaryEncoded - gzipEncoded;
+                    gzipDecodeNanos += gzipDecoded - dictionaryEncoded;
+                    dictionaryDecodeNanos += dictionaryDecoded - gzipDecoded;
+                }
+            }
+        }
+        double operations = Math.max(1.0, (double) payloads.size() * MEASURE_ROUNDS) * 1000.0;
+        return new Measurement(payloads.size(), uncompressed / MEASURE_ROUNDS, gzipBytes / MEASURE_ROUNDS,
+            dictionaryBytes / MEASURE_ROUNDS, gzipEncodeNanos / operations, dictionaryEncodeNanos / operations,
+            gzipDecodeNanos / operations, dictionaryDecodeNanos / operations);
+    }
+
+    private static long score(byte[] sample, int offset, Map<Long, Integer> frequencies) {
+        long score = 0;
+        Set<Long> counted = new HashSet<>();
+        for (int i = offset; i + KMER_LENGTH <= offset + SEGMENT_LENGTH; i++) {
+            long kmer = kmer(sample, i);
+            Integer frequency = frequencies.get(kmer);
+            if (frequency != null && counted.add(kmer)) {
+                score += frequency;
+            }
+        }
+        return score;
+    }
+
+    private static long kmer(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < KMER_LENGTH; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,223 @@
+package world.landfall.persona.data.storage;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Crash-safe file replacement with group commit.
+ * Files are written to a temporary sibling, synced, and then atomically renamed over the target, so a crash
+ * leaves either the old or the new contents but never a torn file. Writing a whole batch of temporaries before
+ * syncing any of them lets the filesystem commit them together, and each touched directory is synced once per batch.
+ */
+public final class DurableFileWriter {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Contents destined for a target file.
+     */
+    public record FileWrite(Path target, byte[] data) {}
+
+    /**
+     * A synced temporary file waiting to be renamed over its target.
+     */
+    public record PreparedFile(Path temp, Path target) {}
+
+    private DurableFileWriter() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Gets the temporary sibling used while replacing a file.
+     * @param target The file being replaced
+     * @return The temporary path in the same directory
+     */
+    public static Path tempPathFor(Path target) {
+        return target.resolveSibling(target.getFileName().toString() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Durably replaces a single file.
+     * @param target The file to replace
+     * @param data The new contents
+     * @throws IOException if the file could not be written; the old contents are left untouched
+     */
+    public static void commit(Path target, byte[] data) throws IOException {
+        List<PreparedFile> prepared = prepare(List.of(new FileWrite(target, data)));
+        publish(prepared.get(0));
+        syncDirectories(prepared);
+    }
+
+    /**
+     * Writes every file of a batch to its temporary sibling and then syncs them all.
+     * Nothing is visible under the target names yet; call {@link #publish} for each result afterwards.
+     * Missing parent directories of the targets are created.
+     * @param writes The batch to prepare
+     * @return The prepared files, in the same order as the writes
+     * @throws IOException if any file could not be written; all temporaries of the batch are removed
+     */
+    public static List<PreparedFile> prepare(List<FileWrite> writes) throws IOException {
+        List<PreparedFile> prepared = new ArrayList<>(writes.size());
+        List<FileChannel> channels = new ArrayList<>(writes.size());
+        try {
+            for (FileWrite write : writes) {
+                Path temp = tempPathFor(write.target());
+                Files.createDirectories(temp.getParent());
+                FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+                channels.add(channel);
+                prepared.add(new PreparedFile(temp, write.target()));
+
+                ByteBuffer buffer = ByteBuffer.wrap(write.data());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            // Sync only after every temporary is written so the filesystem can batch the journal commits
+            for (FileChannel channel : channels) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            closeQuietly(channels);
+            prepared.forEach(DurableFileWriter::discard);
+            throw e;
+        }
+        try {
+            closeAll(channels);
+        } catch (IOException e) {
+            prepared.forEach(DurableFileWriter::discard);
+            throw e;
+        }
+        return prepared;
+    }
+
+    /**
+     * Atomically renames a prepared temporary over its target.
+     * @param file The prepared file
+     * @throws IOException if the rename failed; the target keeps its previous contents
+     */
+    public static void publish(PreparedFile file) throws IOException {
+        try {
+            Files.move(file.temp(), file.target(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(file.temp(), file.target(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes a prepared temporary that is no longer wanted.
+     * @param file The prepared file
+     */
+    public static void discard(PreparedFile file) {
+        try {
+            Files.deleteIfExists(file.temp());
+        } catch (IOException e) {
+            LOGGER.warn("[DurableFileWriter] Failed to remove temporary file {}", file.temp(), e);
+        }
+    }
+
+    /**
+     * Syncs each directory touched by a batch once, making the renames themselves durable.
+     * @param files The files that were published
+     */
+    public static void syncDirectories(Collection<PreparedFile> files) {
+        Set<Path> directories = new LinkedHashSet<>();
+        for (PreparedFile file : files) {
+            Path parent = file.target().getParent();
+            if (parent != null) {
+                directories.add(parent);
+            }
+        }
+        for (Path directory : directories) {
+            syncDirectory(directory);
+        }
+    }
+
+    /**
+     * Syncs a directory, making renames and links within it durable.
+     * @param directory The directory
+     */
+    public static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can open a directory for syncing (e.g. Windows); the rename is still atomic there
+            LOGGER.debug("[DurableFileWriter] Could not sync directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Resolves a temporary left behind by a crash.
+     * A temporary is only ever renamed after it was fully synced, so one that passes validation is newer than its
+     * target and is moved into place; anything else is a torn write and is deleted.
+     * @param temp The leftover temporary file
+     * @param isComplete Checks whether the temporary contains a complete, readable file
+     * @return true if the temporary was recovered into place, false if it was discarded
+     */
+    public static boolean recover(Path temp, Predicate<Path> isComplete) {
+        String name = temp.getFileName().toString();
+        if (!name.endsWith(TEMP_SUFFIX)) {
+            return false;
+        }
+        Path target = temp.resolveSibling(name.substring(0, name.length() - TEMP_SUFFIX.length()));
+        PreparedFile file = new PreparedFile(temp, target);
+        if (!isComplete.test(temp)) {
+            LOGGER.warn("[DurableFileWriter] Discarding incomplete write {}", temp.getFileName());
+            discard(file);
+            return false;
+        }
+        try {
+            publish(file);
+            syncDirectories(List.of(file));
+            LOGGER.info("[DurableFileWriter] Recovered interrupted write of {}", target.getFileName());
+            return true;
+        } catch (IOException e) {
+            // Keep the temporary so the next start can try again
+            LOGGER.error("[DurableFileWriter] Failed to move recovered file {} into place", temp, e);
+            return false;
+        }
+    }
+
+    private static void closeAll(List<FileChannel> channels) throws IOException {
+        IOException failure = null;
+        for (FileChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void closeQuietly(List<FileChannel> channels) {
+        for (FileChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Already failing; the original exception is more useful
+            }
+        }
+    }
+}
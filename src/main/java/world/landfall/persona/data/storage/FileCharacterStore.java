@@ -0,0 +1,76 @@
+package world.landfall.persona.data.storage;
+
+import net.minecraft.resources.ResourceLocation;
+import world.landfall.persona.data.CharacterFileStorage;
+import world.landfall.persona.data.CharacterMetadata;
+import world.landfall.persona.data.CharacterProfile;
+import world.landfall.persona.registry.GlobalCharacterRegistry;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * {@link CharacterStore} backed by {@link CharacterFileStorage}, i.e. the world's character files or packed segments.
+ */
+public final class FileCharacterStore implements CharacterStore {
+    private final Function<UUID, Map<UUID, String>> ownerIndex;
+
+    /**
+     * Creates a store that resolves ownership through the {@link GlobalCharacterRegistry}.
+     */
+    public FileCharacterStore() {
+        this(GlobalCharacterRegistry::getCharactersForPlayer);
+    }
+
+    /**
+     * @param ownerIndex Looks up a player's character IDs and display names for {@link #listByOwner}
+     */
+    public FileCharacterStore(Function<UUID, Map<UUID, String>> ownerIndex) {
+        this.ownerIndex = ownerIndex;
+    }
+
+    @Override
+    public CharacterProfile load(UUID characterId) {
+        return CharacterFileStorage.loadCharacter(characterId);
+    }
+
+    /**
+     * Scans the stored data as a stream instead of loading the character.
+     */
+    @Override
+    public CharacterMetadata readMetadata(UUID characterId, Collection<ResourceLocation> modDataKeys) {
+        return CharacterFileStorage.readMetadata(characterId, modDataKeys);
+    }
+
+    @Override
+    public boolean save(CharacterProfile character) {
+        return CharacterFileStorage.saveCharacter(character);
+    }
+
+    @Override
+    public boolean save(CharacterProfile character, SaveReason reason) {
+        return CharacterFileStorage.saveCharacter(character, reason);
+    }
+
+    @Override
+    public boolean delete(UUID characterId) {
+        return CharacterFileStorage.deleteCharacter(characterId);
+    }
+
+    @Override
+    public boolean exists(UUID characterId) {
+        return CharacterFileStorage.characterExists(characterId);
+    }
+
+    @Override
+    public Map<UUID, String> listByOwner(UUID ownerId) {
+        return CharacterFileStorage.loadPlayerCharacterIds(ownerId, ownerIndex.apply(ownerId));
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+}
@@ -0,0 +1,92 @@
+package world.landfall.persona.data.storage;
+
+import net.minecraft.nbt.CompoundTag;
+import world.landfall.persona.data.CharacterProfile;
+import world.landfall.persona.registry.GlobalCharacterRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * {@link CharacterStore} that keeps serialized snapshots in memory. Nothing survives a restart;
+ * meant for tests, benchmarks and as a baseline when comparing backends.
+ */
+public final class InMemoryCharacterStore implements CharacterStore {
+    private final Map<UUID, CompoundTag> characters = new ConcurrentHashMap<>();
+    private final Function<UUID, Map<UUID, String>> ownerIndex;
+
+    /**
+     * Creates a store that resolves ownership through the {@link GlobalCharacterRegistry}.
+     */
+    public InMemoryCharacterStore() {
+        this(GlobalCharacterRegistry::getCharactersForPlayer);
+    }
+
+    /**
+     * @param ownerIndex Looks up a player's character IDs and display names for {@link #listByOwner}
+     */
+    public InMemoryCharacterStore(Function<UUID, Map<UUID, String>> ownerIndex) {
+        this.ownerIndex = ownerIndex;
+    }
+
+    @Override
+    public CharacterProfile load(UUID characterId) {
+        if (characterId == null) {
+            return null;
+        }
+        CompoundTag snapshot = characters.get(characterId);
+        // Hand out a fresh copy so callers cannot modify the stored state without saving
+        return snapshot != null ? CharacterProfile.deserialize(snapshot.copy()) : null;
+    }
+
+    @Override
+    public boolean save(CharacterProfile character) {
+        if (character == null) {
+            return false;
+        }
+        // The serialized mod data entries are the profile's live tags, so store a copy that later changes cannot reach
+        characters.put(character.getId(), character.serialize().copy());
+        return true;
+    }
+
+    @Override
+    public boolean delete(UUID characterId) {
+        if (characterId == null) {
+            return false;
+        }
+        characters.remove(characterId);
+        return true;
+    }
+
+    @Override
+    public boolean exists(UUID characterId) {
+        return characterId != null && characters.containsKey(characterId);
+    }
+
+    @Override
+    public Map<UUID, String> listByOwner(UUID ownerId) {
+        Map<UUID, String> owned = new HashMap<>();
+        if (ownerId == null) {
+            return owned;
+        }
+        ownerIndex.apply(ownerId).keySet().forEach(characterId -> {
+            CompoundTag snapshot = characters.get(characterId);
+            if (snapshot != null) {
+                owned.put(characterId, snapshot.getString("name"));
+            }
+        });
+        return owned;
+    }
+
+    @Override
+    public String getName() {
+        return "memory";
+    }
+
+    public int size() {
+        return characters.size();
+    }
+}
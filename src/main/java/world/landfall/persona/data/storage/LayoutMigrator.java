@@ -0,0 +1,161 @@
+package world.landfall.persona.data.storage;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves files out of a directory in small, paced batches on a background thread, so that a storage layout
+ * change can happen while the server keeps running. What "moving" means is up to the {@link Step}, which is
+ * also responsible for any locking against concurrent readers and writers.
+ */
+public final class LayoutMigrator {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int BATCH_SIZE = 64;
+    private static final long PAUSE_BETWEEN_BATCHES_MS = 50;
+
+    /**
+     * Migrates a single file.
+     */
+    @FunctionalInterface
+    public interface Step {
+        /**
+         * @param file A file matching the migrator's pattern
+         * @return true if the file was migrated (and is gone from the source directory), false to leave it alone
+         * @throws IOException if the file could not be migrated; it is skipped for the rest of this run
+         */
+        boolean migrate(Path file) throws IOException;
+    }
+
+    private final Path directory;
+    private final String glob;
+    private final Step step;
+    private final Runnable onComplete;
+    private final Thread worker;
+    private final AtomicLong migrated = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean stopped;
+    private volatile boolean complete;
+
+    /**
+     * @param threadName Name of the background thread
+     * @param directory The directory to drain (not recursive)
+     * @param glob Pattern selecting the files to migrate
+     * @param step Migrates one file
+     * @param onComplete Called on the background thread once every matching file was either migrated or deliberately left alone
+     */
+    public LayoutMigrator(String threadName, Path directory, String glob, Step step, Runnable onComplete) {
+        this.directory = directory;
+        this.glob = glob;
+        this.step = step;
+        this.onComplete = onComplete;
+        this.worker = new Thread(this::run, threadName);
+        this.worker.setDaemon(true);
+        this.worker.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    public void start() {
+        worker.start();
+    }
+
+    /**
+     * Stops the migration after the file currently being moved; the remainder is picked up on the next start.
+     */
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public long getMigratedCount() {
+        return migrated.get();
+    }
+
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    private void run() {
+        Set<Path> ignored = new HashSet<>();
+        try {
+            while (!stopped) {
+                List<Path> batch = nextBatch(ignored);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                for (Path file : batch) {
+                    if (stopped) {
+                        return;
+                    }
+                    try {
+                        if (step.migrate(file)) {
+                            migrated.incrementAndGet();
+                        } else {
+                            ignored.add(file);
+                            skipped.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        ignored.add(file);
+                        failed.incrementAndGet();
+                        LOGGER.warn("[LayoutMigrator] Failed to migrate {}, leaving it in place", file, e);
+                    }
+                }
+                // Leave I/O headroom for the server between batches
+                Thread.sleep(PAUSE_BETWEEN_BATCHES_MS);
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException e) {
+            LOGGER.error("[LayoutMigrator] Failed to list {}, migration will resume on next start", directory, e);
+            return;
+        }
+        if (stopped) {
+            return;
+        }
+        if (failed.get() > 0) {
+            LOGGER.warn("[LayoutMigrator] {} files in {} could not be migrated, will retry on next start", failed.get(), directory);
+            return;
+        }
+        complete = true;
+        LOGGER.info("[LayoutMigrator] Migration of {} finished ({} moved, {} skipped)", directory, migrated.get(), skipped.get());
+        onComplete.run();
+    }
+
+    private List<Path> nextBatch(Set<Path> ignored) throws IOException {
+        List<Path> batch = new ArrayList<>(BATCH_SIZE);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : files) {
+                if (!ignored.contains(file) && Files.isRegularFile(file)) {
+                    batch.add(file);
+                    if (batch.size() == BATCH_SIZE) {
+                        break;
+                    }
+                }
+            }
+        }
+        return batch;
+    }
+}
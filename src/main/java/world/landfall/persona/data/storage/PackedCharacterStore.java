@@ -0,0 +1,519 @@
+package world.landfall.persona.data.storage;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Packed character storage modelled on Minecraft's region files.
+ * Characters are kept in a handful of segment files instead of one file each. Every segment starts with a fixed
+ * slot table (character UUID, first sector, sector count, length and CRC32 per slot) followed by 4 KiB data sectors.
+ * A new version of a character is always written to free sectors and synced before its slot is switched over to it,
+ * so a crash leaves either the old or the new version. Reads are served from a memory mapping of the segment.
+ * <p>
+ * Payloads are opaque to the store. All methods are thread-safe.
+ */
+public final class PackedCharacterStore implements Closeable {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int MAGIC = 0x50435331; // "PCS1"
+    private static final int FORMAT_VERSION = 1;
+    private static final int SECTOR_SIZE = 4096;
+    private static final int FILE_HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 32;
+    private static final int TABLE_SECTORS = 8;
+    private static final int SLOTS_PER_SEGMENT = (TABLE_SECTORS * SECTOR_SIZE - FILE_HEADER_SIZE) / SLOT_SIZE;
+    private static final String SEGMENT_FILE_FORMAT = "segment-%03d.pcs";
+
+    /**
+     * Point-in-time storage metrics. Sector counts exclude the slot tables.
+     */
+    public record Stats(int segments, int characters, long usedSectors, long freeSectors, long fileBytes) {}
+
+    private record Location(Segment segment, int slot, int firstSector, int sectorCount, int length, int crc) {}
+
+    private record Placement(UUID characterId, Location previous, Location next) {}
+
+    private final Path directory;
+    // Guarded by "this"
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<UUID, Location> index = new HashMap<>();
+
+    private PackedCharacterStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the store in a directory, creating it if needed, and builds the in-memory index from the slot tables.
+     * @param directory The directory holding the segment files
+     * @return The opened store
+     * @throws IOException if a segment could not be read
+     */
+    public static PackedCharacterStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        PackedCharacterStore store = new PackedCharacterStore(directory);
+        try {
+            for (int i = 0; Files.exists(segmentPath(directory, i)); i++) {
+                Segment segment = Segment.open(segmentPath(directory, i));
+                store.segments.add(segment);
+                store.loadSlots(segment);
+            }
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+        LOGGER.debug("[PackedCharacterStore] Opened {} segments with {} characters in {}",
+            store.segments.size(), store.index.size(), directory);
+        return store;
+    }
+
+    /**
+     * Checks whether a directory contains a packed store.
+     * @param directory The directory to check
+     * @return true if at least one segment file exists
+     */
+    public static boolean exists(Path directory) {
+        return Files.exists(segmentPath(directory, 0));
+    }
+
+    /**
+     * Deletes every segment file of a store that is not open, and the directory if it is then empty.
+     * @param directory The directory holding the segment files
+     * @throws IOException if a file could not be deleted
+     */
+    public static void deleteAll(Path directory) throws IOException {
+        for (int i = 0; Files.exists(segmentPath(directory, i)); i++) {
+            Files.delete(segmentPath(directory, i));
+        }
+        try (DirectoryStream<Path> remaining = Files.newDirectoryStream(directory)) {
+            if (remaining.iterator().hasNext()) {
+                return;
+            }
+        }
+        Files.delete(directory);
+    }
+
+    public synchronized boolean contains(UUID characterId) {
+        return index.containsKey(characterId);
+    }
+
+    public synchronized Set<UUID> getCharacterIds() {
+        return new HashSet<>(index.keySet());
+    }
+
+    /**
+     * Reads a character's payload.
+     * @param characterId The character's UUID
+     * @return The stored bytes, or null if the character is not stored
+     * @throws IOException if the data could not be read or fails its checksum
+     */
+    public synchronized byte[] read(UUID characterId) throws IOException {
+        Location location = index.get(characterId);
+        if (location == null) {
+            return null;
+        }
+        byte[] data = location.segment().read(location.firstSector(), location.length());
+        if (checksum(data) != location.crc()) {
+            throw new IOException("Checksum mismatch for character " + characterId + " in " + location.segment().path.getFileName());
+        }
+        return data;
+    }
+
+    /**
+     * Stores a single character's payload.
+     * @see #writeAll(Map)
+     */
+    public void write(UUID characterId, byte[] data) throws IOException {
+        writeAll(Map.of(characterId, data));
+    }
+
+    /**
+     * Stores a batch of payloads with one round of syncs: all data is written to free sectors and synced, then
+     * all slots are switched over and synced, and only then are the sectors of the previous versions released.
+     * @param writes Payloads by character UUID
+     * @throws IOException if the batch could not be written; stored characters keep their previous versions
+     */
+    public synchronized void writeAll(Map<UUID, byte[]> writes) throws IOException {
+        if (writes.isEmpty()) {
+            return;
+        }
+        List<Placement> placements = new ArrayList<>(writes.size());
+        Set<Segment> touched = new LinkedHashSet<>();
+        try {
+            for (Map.Entry<UUID, byte[]> write : writes.entrySet()) {
+                byte[] data = write.getValue();
+                Location previous = index.get(write.getKey());
+                Segment segment;
+                int slot;
+                if (previous != null) {
+                    segment = previous.segment();
+                    slot = previous.slot();
+                } else {
+                    segment = segmentWithFreeSlot();
+                    slot = segment.reserveSlot();
+                }
+                int sectorCount = sectorsFor(data.length);
+                int firstSector = segment.allocate(sectorCount);
+                placements.add(new Placement(write.getKey(), previous,
+                    new Location(segment, slot, firstSector, sectorCount, data.length, checksum(data))));
+                touched.add(segment);
+                segment.writeData(firstSector, data);
+            }
+            // The data must be durable before any slot points at it
+            for (Segment segment : touched) {
+                segment.force();
+            }
+            for (Placement placement : placements) {
+                Location next = placement.next();
+                next.segment().writeSlot(next.slot(), placement.characterId(), next.firstSector(), next.sectorCount(), next.length(), next.crc());
+            }
+            for (Segment segment : touched) {
+                segment.force();
+            }
+        } catch (IOException e) {
+            // Give back what this batch reserved; slots that were already switched are repaired from disk on next open
+            for (Placement placement : placements) {
+                Location next = placement.next();
+                next.segment().free(next.firstSector(), next.sectorCount());
+                if (placement.previous() == null) {
+                    next.segment().releaseSlot(next.slot());
+                }
+            }
+            throw e;
+        }
+        for (Placement placement : placements) {
+            index.put(placement.characterId(), placement.next());
+            Location previous = placement.previous();
+            if (previous != null) {
+                previous.segment().free(previous.firstSector(), previous.sectorCount());
+            }
+        }
+    }
+
+    /**
+     * Removes a character from the store.
+     * @param characterId The character's UUID
+     * @return true if the character was stored
+     * @throws IOException if its slot could not be cleared
+     */
+    public synchronized boolean delete(UUID characterId) throws IOException {
+        Location location = index.get(characterId);
+        if (location == null) {
+            return false;
+        }
+        Segment segment = location.segment();
+        segment.clearSlot(location.slot());
+        segment.force();
+        index.remove(characterId);
+        segment.free(location.firstSector(), location.sectorCount());
+        segment.releaseSlot(location.slot());
+        return true;
+    }
+
+    /**
+     * Moves characters into free sectors nearer the start of their segment and truncates the freed tail.
+     * Every move is crash-safe in the same way as a normal write.
+     * @return The number of sectors returned to the filesystem
+     * @throws IOException if a segment could not be compacted; data already moved stays valid
+     */
+    public synchronized long compact() throws IOException {
+        long reclaimed = 0;
+        for (Segment segment : segments) {
+            int before = segment.sectorCount;
+            while (compactPass(segment) > 0) {
+                // Each pass frees sectors at the end, which can open up room for the next one
+            }
+            segment.truncate();
+            reclaimed += before - segment.sectorCount;
+        }
+        if (reclaimed > 0) {
+            LOGGER.info("[PackedCharacterStore] Compaction reclaimed {} KiB in {}", reclaimed * SECTOR_SIZE / 1024, directory);
+        }
+        return reclaimed;
+    }
+
+    public synchronized Stats getStats() {
+        long used = 0;
+        long total = 0;
+        long bytes = 0;
+        for (Segment segment : segments) {
+            used += segment.usedSectors.cardinality() - TABLE_SECTORS;
+            total += segment.sectorCount - TABLE_SECTORS;
+            bytes += (long) segment.sectorCount * SECTOR_SIZE;
+        }
+        return new Stats(segments.size(), index.size(), used, Math.max(0, total - used), bytes);
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        index.clear();
+    }
+
+    private int compactPass(Segment segment) throws IOException {
+        List<Placement> moves = new ArrayList<>();
+        // Highest first, so the tail empties out
+        List<Map.Entry<UUID, Location>> entries = new ArrayList<>();
+        for (Map.Entry<UUID, Location> entry : index.entrySet()) {
+            if (entry.getValue().segment() == segment) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator.comparingInt((Map.Entry<UUID, Location> entry) -> entry.getValue().firstSector()).reversed());
+
+        for (Map.Entry<UUID, Location> entry : entries) {
+            Location current = entry.getValue();
+            int target = segment.findFree(current.sectorCount(), current.firstSector());
+            if (target < 0) {
+                continue;
+            }
+            segment.usedSectors.set(target, target + current.sectorCount());
+            segment.writeData(target, segment.read(current.firstSector(), current.length()));
+            moves.add(new Placement(entry.getKey(), current, new Location(segment, current.slot(), target,
+                current.sectorCount(), current.length(), current.crc())));
+        }
+        if (moves.isEmpty()) {
+            return 0;
+        }
+        segment.force();
+        for (Placement move : moves) {
+            Location next = move.next();
+            segment.writeSlot(next.slot(), move.characterId(), next.firstSector(), next.sectorCount(), next.length(), next.crc());
+        }
+        segment.force();
+        for (Placement move : moves) {
+            index.put(move.characterId(), move.next());
+            segment.free(move.previous().firstSector(), move.previous().sectorCount());
+        }
+        return moves.size();
+    }
+
+    private void loadSlots(Segment segment) throws IOException {
+        ByteBuffer table = segment.readTable();
+        for (int slot = 0; slot < SLOTS_PER_SEGMENT; slot++) {
+            int position = FILE_HEADER_SIZE + slot * SLOT_SIZE;
+            UUID characterId = new UUID(table.getLong(position), table.getLong(position + 8));
+            int firstSector = table.getInt(position + 16);
+            int sectorCount = table.getInt(position + 20);
+            int length = table.getInt(position + 24);
+            int crc = table.getInt(position + 28);
+            if (sectorCount <= 0) {
+                continue;
+            }
+            if (firstSector < TABLE_SECTORS || firstSector + sectorCount > segment.sectorCount
+                || length > sectorCount * SECTOR_SIZE || segment.usedSectors.get(firstSector, firstSector + sectorCount).cardinality() > 0) {
+                LOGGER.warn("[PackedCharacterStore] Ignoring invalid slot {} for character {} in {}", slot, characterId, segment.path.getFileName());
+                continue;
+            }
+            Location previous = index.get(characterId);
+            if (previous != null) {
+                LOGGER.warn("[PackedCharacterStore] Character {} is stored twice, keeping the copy in {}", characterId, previous.segment().path.getFileName());
+                continue;
+            }
+            segment.usedSectors.set(firstSector, firstSector + sectorCount);
+            segment.usedSlots.set(slot);
+            index.put(characterId, new Location(segment, slot, firstSector, sectorCount, length, crc));
+        }
+    }
+
+    private Segment segmentWithFreeSlot() throws IOException {
+        for (Segment segment : segments) {
+            if (segment.usedSlots.cardinality() < SLOTS_PER_SEGMENT) {
+                return segment;
+            }
+        }
+        Segment segment = Segment.open(segmentPath(directory, segments.size()));
+        segments.add(segment);
+        return segment;
+    }
+
+    private static Path segmentPath(Path directory, int index) {
+        return directory.resolve(String.format(SEGMENT_FILE_FORMAT, index));
+    }
+
+    private static int sectorsFor(int length) {
+        return Math.max(1, (length + SECTOR_SIZE - 1) / SECTOR_SIZE);
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * One segment file. Sector and slot bookkeeping is rebuilt from the slot table on open.
+     */
+    private static final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private final BitSet usedSectors = new BitSet();
+        private final BitSet usedSlots = new BitSet(SLOTS_PER_SEGMENT);
+        private int sectorCount;
+        private MappedByteBuffer mapping;
+
+        private Segment(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+
+        static Segment open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(path, channel);
+            try {
+                if (channel.size() == 0) {
+                    ByteBuffer header = ByteBuffer.allocate(TABLE_SECTORS * SECTOR_SIZE);
+                    header.putInt(0, MAGIC).putInt(4, FORMAT_VERSION);
+                    segment.writeFully(header, 0);
+                    channel.force(true);
+                } else {
+                    ByteBuffer header = ByteBuffer.allocate(8);
+                    segment.readFully(header, 0);
+                    if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+                        throw new IOException("Not a packed character segment: " + path);
+                    }
+                }
+                segment.sectorCount = (int) ((channel.size() + SECTOR_SIZE - 1) / SECTOR_SIZE);
+                segment.usedSectors.set(0, TABLE_SECTORS);
+                return segment;
+            } catch (IOException e) {
+                segment.close();
+                throw e;
+            }
+        }
+
+        ByteBuffer readTable() throws IOException {
+            ByteBuffer table = ByteBuffer.allocate(TABLE_SECTORS * SECTOR_SIZE);
+            readFully(table, 0);
+            return table;
+        }
+
+        int reserveSlot() {
+            int slot = usedSlots.nextClearBit(0);
+            usedSlots.set(slot);
+            return slot;
+        }
+
+        void releaseSlot(int slot) {
+            usedSlots.clear(slot);
+        }
+
+        /**
+         * Reserves the first run of free sectors that is long enough, growing the file if none is.
+         */
+        int allocate(int count) {
+            int start = findFree(count, Integer.MAX_VALUE);
+            usedSectors.set(start, start + count);
+            sectorCount = Math.max(sectorCount, start + count);
+            return start;
+        }
+
+        /**
+         * Finds the first run of free sectors that is long enough and ends at or before a limit.
+         * @return The first sector of the run, or -1 if there is none
+         */
+        int findFree(int count, int limit) {
+            int start = TABLE_SECTORS;
+            while (true) {
+                start = usedSectors.nextClearBit(start);
+                int end = usedSectors.nextSetBit(start);
+                if (end < 0 || end - start >= count) {
+                    return (long) start + count <= limit ? start : -1;
+                }
+                start = end;
+            }
+        }
+
+        void free(int firstSector, int count) {
+            usedSectors.clear(firstSector, firstSector + count);
+        }
+
+        void writeData(int firstSector, byte[] data) throws IOException {
+            writeFully(ByteBuffer.wrap(data), (long) firstSector * SECTOR_SIZE);
+        }
+
+        void writeSlot(int slot, UUID characterId, int firstSector, int count, int length, int crc) throws IOException {
+            ByteBuffer entry = ByteBuffer.allocate(SLOT_SIZE);
+            entry.putLong(characterId.getMostSignificantBits()).putLong(characterId.getLeastSignificantBits())
+                .putInt(firstSector).putInt(count).putInt(length).putInt(crc).flip();
+            writeFully(entry, FILE_HEADER_SIZE + (long) slot * SLOT_SIZE);
+        }
+
+        void clearSlot(int slot) throws IOException {
+            writeFully(ByteBuffer.allocate(SLOT_SIZE), FILE_HEADER_SIZE + (long) slot * SLOT_SIZE);
+        }
+
+        byte[] read(int firstSector, int length) throws IOException {
+            long end = (long) firstSector * SECTOR_SIZE + length;
+            if (mapping == null || mapping.capacity() < end) {
+                // The file only grows between compactions, so remapping to the current size covers every earlier write
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            byte[] data = new byte[length];
+            mapping.get(firstSector * SECTOR_SIZE, data);
+            return data;
+        }
+
+        void force() throws IOException {
+            channel.force(false);
+        }
+
+        void truncate() throws IOException {
+            int end = Math.max(TABLE_SECTORS, usedSectors.length());
+            if (end >= sectorCount) {
+                return;
+            }
+            mapping = null;
+            channel.truncate((long) end * SECTOR_SIZE);
+            channel.force(true);
+            sectorCount = end;
+        }
+
+        void close() {
+            mapping = null;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("[PackedCharacterStore] Failed to close segment {}", path, e);
+            }
+        }
+
+        private void writeFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of segment " + path);
+                }
+                position += read;
+            }
+        }
+    }
+}
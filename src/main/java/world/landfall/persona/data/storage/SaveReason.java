@@ -0,0 +1,24 @@
+package world.landfall.persona.data.storage;
+
+/**
+ * Why a character was saved; recorded with each revision of the character's history.
+ * Stored by ordinal, so new reasons must only ever be added at the end.
+ */
+public enum SaveReason {
+    /** Any save without a more specific reason, e.g. from addons. */
+    OTHER,
+    /** The character was created. */
+    CREATE,
+    /** The player switched away from the character. */
+    SWITCH,
+    /** The player logged out while playing the character. */
+    LOGOUT,
+    /** The server stopped while the character was being played. */
+    SHUTDOWN,
+    /** The character died. */
+    DEATH,
+    /** An administrator changed the character, including rolling it back. */
+    ADMIN,
+    /** The character was saved periodically while being played. */
+    AUTOSAVE
+}
@@ -0,0 +1,404 @@
+package world.landfall.persona.data.storage;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Incremental point-in-time snapshots of a data directory, built from hard links.
+ * <p>
+ * Files the {@code replacedAtomically} predicate accepts are only ever replaced by renaming a new file over them
+ * (see {@link DurableFileWriter}), never modified in place, so linking the live file pins exactly the contents it has
+ * now: later saves give the live name a new inode and leave the snapshot's alone. Such files cost no space until they
+ * change. Any other file may be written in place and is copied instead, unless it still has the size and
+ * modification time of its copy in the previous snapshot, in which case that copy is linked.
+ * <p>
+ * A snapshot is assembled in {@code <name>.partial} and renamed into place once complete, so an interrupted snapshot
+ * never looks valid. Snapshot files share storage with the live data and with each other and must never be edited.
+ */
+public final class SnapshotEngine {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final String PARTIAL_SUFFIX = ".partial";
+    /** Names of scheduled snapshots, in UTC so they sort chronologically. */
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+    /**
+     * A completed snapshot.
+     * @param name The snapshot's directory name
+     * @param directory The snapshot's directory
+     * @param created When the snapshot was taken, or null if its name does not carry a timestamp
+     */
+    public record SnapshotInfo(String name, Path directory, Instant created) {
+        /**
+         * @return true for snapshots named by {@link #nameFor}, the only ones retention policies remove
+         */
+        public boolean isScheduled() {
+            return created != null;
+        }
+    }
+
+    /**
+     * What a snapshot cost.
+     * @param liveLinks Files linked from the live directory
+     * @param previousLinks Files linked from the previous snapshot
+     * @param copies Files copied
+     * @param copiedBytes Bytes copied
+     */
+    public record Stats(int liveLinks, int previousLinks, int copies, long copiedBytes) {
+        public int files() {
+            return liveLinks + previousLinks + copies;
+        }
+    }
+
+    private final Path source;
+    private final Path snapshotsDirectory;
+    private final Predicate<Path> replacedAtomically;
+    private final Predicate<Path> excluded;
+
+    /**
+     * @param source The live data directory
+     * @param snapshotsDirectory Where snapshots are kept; must be on the same file system as the source for links
+     * @param replacedAtomically Accepts paths (relative to the source) that are never modified in place
+     * @param excluded Accepts paths (relative to the source) that are not part of a snapshot
+     */
+    public SnapshotEngine(Path source, Path snapshotsDirectory, Predicate<Path> replacedAtomically, Predicate<Path> excluded) {
+        this.source = source;
+        this.snapshotsDirectory = snapshotsDirectory;
+        this.replacedAtomically = replacedAtomically;
+        this.excluded = excluded;
+    }
+
+    /**
+     * @param time The snapshot time
+     * @return The name a scheduled snapshot taken at that time gets
+     */
+    public static String nameFor(Instant time) {
+        return NAME_FORMAT.format(LocalDateTime.ofInstant(time, ZoneOffset.UTC));
+    }
+
+    /**
+     * Starts a snapshot. Parts of the source are added with {@link Builder#capture} and the snapshot becomes visible
+     * with {@link Builder#commit}.
+     * @param name The snapshot's name
+     * @return The snapshot under construction
+     * @throws IOException if the snapshot directory could not be created
+     */
+    public Builder begin(String name) throws IOException {
+        if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.startsWith(".") || name.endsWith(PARTIAL_SUFFIX)) {
+            throw new IllegalArgumentException("Invalid snapshot name: " + name);
+        }
+        Path target = snapshotsDirectory.resolve(name);
+        if (Files.exists(target)) {
+            throw new IOException("Snapshot " + name + " already exists");
+        }
+        Path partial = snapshotsDirectory.resolve(name + PARTIAL_SUFFIX);
+        deleteTree(partial);
+        Files.createDirectories(partial);
+        List<SnapshotInfo> snapshots = list();
+        Path previous = snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1).directory();
+        return new Builder(name, partial, target, previous);
+    }
+
+    /**
+     * Lists the completed snapshots, oldest first.
+     * @return The snapshots
+     * @throws IOException if the snapshot directory could not be read
+     */
+    public List<SnapshotInfo> list() throws IOException {
+        List<SnapshotInfo> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(snapshotsDirectory)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(snapshotsDirectory, Files::isDirectory)) {
+            for (Path directory : directories) {
+                String name = directory.getFileName().toString();
+                if (!name.endsWith(PARTIAL_SUFFIX)) {
+                    snapshots.add(new SnapshotInfo(name, directory, parseTime(name)));
+                }
+            }
+        }
+        // Scheduled snapshots by time; others (e.g. taken before a restore) by name, which starts with a timestamp too
+        snapshots.sort(Comparator.comparing(SnapshotInfo::name));
+        return snapshots;
+    }
+
+    /**
+     * Finds a completed snapshot by name.
+     * @param name The snapshot's name
+     * @return The snapshot, or null if there is none by that name
+     * @throws IOException if the snapshot directory could not be read
+     */
+    public SnapshotInfo find(String name) throws IOException {
+        for (SnapshotInfo snapshot : list()) {
+            if (snapshot.name().equals(name)) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes scheduled snapshots outside the retention policy: the newest {@code keepLast} are kept, and so is the
+     * newest snapshot of each of the last {@code keepDays} days. Other snapshots are never deleted.
+     * @param keepLast Number of most recent snapshots to keep
+     * @param keepDays Number of days for which one snapshot per day is kept
+     * @param now The current time
+     * @return The deleted snapshots
+     * @throws IOException if the snapshot directory could not be read
+     */
+    public List<SnapshotInfo> prune(int keepLast, int keepDays, Instant now) throws IOException {
+        List<SnapshotInfo> scheduled = new ArrayList<>(list().stream().filter(SnapshotInfo::isScheduled).toList());
+        scheduled.sort(Comparator.comparing(SnapshotInfo::created).reversed());
+
+        Set<SnapshotInfo> keep = new HashSet<>(scheduled.subList(0, Math.min(keepLast, scheduled.size())));
+        LocalDate oldestDay = LocalDate.ofInstant(now, ZoneOffset.UTC).minusDays(Math.max(0, keepDays - 1));
+        Set<LocalDate> days = new HashSet<>();
+        for (SnapshotInfo snapshot : scheduled) {
+            LocalDate day = LocalDate.ofInstant(snapshot.created(), ZoneOffset.UTC);
+            if (keepDays > 0 && !day.isBefore(oldestDay) && days.add(day)) {
+                keep.add(snapshot);
+            }
+        }
+
+        List<SnapshotInfo> deleted = new ArrayList<>();
+        for (SnapshotInfo snapshot : scheduled) {
+            if (keep.contains(snapshot)) {
+                continue;
+            }
+            try {
+                deleteTree(snapshot.directory());
+                deleted.add(snapshot);
+            } catch (IOException e) {
+                LOGGER.warn("[SnapshotEngine] Failed to delete expired snapshot {}", snapshot.name(), e);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Recreates a snapshot as a new directory. Files that are replaced atomically are linked, so restoring costs no
+     * space for them either; everything else is copied, so writing to the restored files cannot alter the snapshot.
+     * @param snapshot The snapshot to restore
+     * @param target The directory to create; must not exist
+     * @throws IOException if the snapshot could not be restored; the target may then be incomplete
+     */
+    public void materialize(SnapshotInfo snapshot, Path target) throws IOException {
+        if (Files.exists(target)) {
+            throw new IOException("Restore target " + target + " already exists");
+        }
+        Files.createDirectories(target);
+        for (Path file : listFiles(snapshot.directory())) {
+            Path relative = snapshot.directory().relativize(file);
+            Path destination = target.resolve(relative.toString());
+            Files.createDirectories(destination.getParent());
+            if (replacedAtomically.test(relative)) {
+                linkOrCopy(file, destination);
+            } else {
+                copy(file, destination);
+            }
+        }
+        syncTree(target);
+    }
+
+    /**
+     * Deletes a directory and everything below it. Hard-linked files only lose one name.
+     * @param directory The directory; nothing happens if it does not exist
+     * @throws IOException if something could not be deleted
+     */
+    public static void deleteTree(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            paths = walk.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * A snapshot under construction. Not thread-safe.
+     */
+    public final class Builder {
+        private final String name;
+        private final Path partial;
+        private final Path target;
+        private final Path previous;
+        private final Set<Path> captured = new HashSet<>();
+        private int liveLinks;
+        private int previousLinks;
+        private int copies;
+        private long copiedBytes;
+
+        private Builder(String name, Path partial, Path target, Path previous) {
+            this.name = name;
+            this.partial = partial;
+            this.target = target;
+            this.previous = previous;
+        }
+
+        /**
+         * Adds the files below a part of the source. Parts already captured are skipped, so a later
+         * {@code capture(Path.of(""))} adds just the remainder.
+         * @param relativeDirectory The part, relative to the source
+         * @throws IOException if a file could not be added
+         */
+        public void capture(Path relativeDirectory) throws IOException {
+            Path directory = source.resolve(relativeDirectory.toString());
+            if (!Files.isDirectory(directory)) {
+                return;
+            }
+            for (Path file : listFiles(directory)) {
+                Path relative = source.relativize(file);
+                if (excluded.test(relative) || !captured.add(relative)) {
+                    continue;
+                }
+                Path destination = partial.resolve(relative.toString());
+                Files.createDirectories(destination.getParent());
+                if (replacedAtomically.test(relative)) {
+                    linkOrCopy(file, destination);
+                    liveLinks++;
+                } else if (unchangedSincePrevious(file, relative)) {
+                    linkOrCopy(previous.resolve(relative.toString()), destination);
+                    previousLinks++;
+                } else {
+                    copiedBytes += copy(file, destination);
+                    copies++;
+                }
+            }
+        }
+
+        /**
+         * Adds a file with the given contents, e.g. a consistent export of data that is journaled on disk.
+         * @param relativePath The file's path in the snapshot
+         * @param data The contents
+         * @throws IOException if the file could not be written
+         */
+        public void write(Path relativePath, byte[] data) throws IOException {
+            Path destination = partial.resolve(relativePath.toString());
+            Files.createDirectories(destination.getParent());
+            DurableFileWriter.commit(destination, data);
+            captured.add(relativePath);
+            copies++;
+            copiedBytes += data.length;
+        }
+
+        /**
+         * Makes the snapshot visible under its name.
+         * @return The snapshot
+         * @throws IOException if the snapshot could not be completed; it is then discarded
+         */
+        public SnapshotInfo commit() throws IOException {
+            try {
+                // Copies are synced one by one; this makes the directory entries durable, links included
+                syncTree(partial);
+                Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+                DurableFileWriter.syncDirectory(snapshotsDirectory);
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+            return new SnapshotInfo(name, target, parseTime(name));
+        }
+
+        /**
+         * Discards the snapshot.
+         */
+        public void abort() {
+            try {
+                deleteTree(partial);
+            } catch (IOException e) {
+                LOGGER.warn("[SnapshotEngine] Failed to remove incomplete snapshot {}", partial, e);
+            }
+        }
+
+        public Stats getStats() {
+            return new Stats(liveLinks, previousLinks, copies, copiedBytes);
+        }
+
+        private boolean unchangedSincePrevious(Path file, Path relative) throws IOException {
+            if (previous == null) {
+                return false;
+            }
+            Path previousFile = previous.resolve(relative.toString());
+            if (!Files.isRegularFile(previousFile)) {
+                return false;
+            }
+            BasicFileAttributes current = Files.readAttributes(file, BasicFileAttributes.class);
+            BasicFileAttributes old = Files.readAttributes(previousFile, BasicFileAttributes.class);
+            return current.size() == old.size() && current.lastModifiedTime().equals(old.lastModifiedTime());
+        }
+    }
+
+    private static List<Path> listFiles(Path directory) throws IOException {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            return walk.filter(Files::isRegularFile)
+                .filter(file -> !file.getFileName().toString().endsWith(DurableFileWriter.TEMP_SUFFIX))
+                .toList();
+        }
+    }
+
+    private static void linkOrCopy(Path existing, Path link) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // Different file system or no hard link support; a copy is just as correct, only larger
+            LOGGER.debug("[SnapshotEngine] Could not link {}, copying it: {}", existing, e.getMessage());
+            copy(existing, link);
+        }
+    }
+
+    /**
+     * Copies a file with its modification time, which later snapshots compare against, and syncs the copy.
+     * @return The number of bytes copied
+     */
+    private static long copy(Path from, Path to) throws IOException {
+        Files.copy(from, to);
+        long size;
+        try (FileChannel channel = FileChannel.open(to, StandardOpenOption.WRITE)) {
+            channel.force(true);
+            size = channel.size();
+        }
+        // Set separately: a copy with COPY_ATTRIBUTES may round the time, and then never compares as unchanged
+        Files.setLastModifiedTime(to, Files.getLastModifiedTime(from));
+        return size;
+    }
+
+    private static void syncTree(Path root) throws IOException {
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.filter(Files::isDirectory).forEach(DurableFileWriter::syncDirectory);
+        }
+    }
+
+    private static Instant parseTime(String name) {
+        try {
+            return LocalDateTime.parse(name, NAME_FORMAT).toInstant(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
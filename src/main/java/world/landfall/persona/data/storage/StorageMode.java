@@ -0,0 +1,11 @@
+package world.landfall.persona.data.storage;
+
+/**
+ * How character data is laid out on disk.
+ */
+public enum StorageMode {
+    /** One compressed NBT file per character, spread over hex prefix subdirectories. */
+    FILES,
+    /** A few large segment files with a sector allocation table, read through memory mappings. */
+    PACKED
+}
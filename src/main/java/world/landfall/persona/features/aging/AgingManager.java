@@ -15,6 +15,7 @@ import world.landfall.persona.Persona;
 import world.landfall.persona.client.gui.input.CharacterCreationInputRegistry;
 import world.landfall.persona.config.Config;
 import world.landfall.persona.data.CharacterProfile;
+import world.landfall.persona.data.LoginHydration;
 import world.landfall.persona.data.PlayerCharacterCapability;
 import world.landfall.persona.data.PlayerCharacterData;
 
@@ -197,6 +198,11 @@ public class AgingManager {
         if (!(event.getEntity() instanceof ServerPlayer player)) return;
         if (!isAgingEnabled()) return;
 
+        // The active character is loaded in the background during login
+        LoginHydration.onReady(player, () -> updateAgeOnLogin(player));
+    }
+
+    private static void updateAgeOnLogin(ServerPlayer player) {
         PlayerCharacterData data = player.getData(PlayerCharacterCapability.CHARACTER_DATA);
         if (data == null || data.getActiveCharacterId() == null) {
             LOGGER.debug("Player {} logged in, but no active character data. No aging actions taken.", player.getName().getString());
@@ -23,7 +23,7 @@ import java.util.concurrent.locks.ReentrantLock;
 @EventBusSubscriber(modid = Persona.MODID)
 public class InventoryHandler {
     private static final Logger LOGGER = LogUtils.getLogger();
-    private static final ResourceLocation INVENTORY_KEY = ResourceLocation.fromNamespaceAndPath(Persona.MODID, "inventory");
+    public static final ResourceLocation INVENTORY_KEY = ResourceLocation.fromNamespaceAndPath(Persona.MODID, "inventory");
     
     // Per-player locks to prevent concurrent inventory operations
     private static final ConcurrentHashMap<UUID, ReentrantLock> playerLocks = new ConcurrentHashMap<>();
@@ -110,10 +110,10 @@ public class InventoryHandler {
                     }
                     CharacterProfile fromProfile = characterData.getCharacter(fromCharacterId);
                     if (fromProfile != null) {
-                        CompoundTag inventoryTag = saveInventory(player);
-                        fromProfile.setModData(INVENTORY_KEY, inventoryTag);
+                        CompoundTag inventoryTag = storeInventory(player, fromProfile);
                         // Save the character to file to persist the inventory data
-                        world.landfall.persona.data.CharacterFileStorage.saveCharacter(fromProfile);
+                        world.landfall.persona.data.storage.CharacterStores.get().save(fromProfile,
+                            world.landfall.persona.data.storage.SaveReason.SWITCH);
                         LOGGER.debug("[InventoryHandler] Saved inventory for character {} ({} items). Player: {}",
                             fromCharacterId, inventoryTag.getList("Items", 10).size(), playerId);
                     } else {
@@ -276,6 +276,28 @@ public class InventoryHandler {
         return true;
     }
 
+    /**
+     * Saves the player's inventory into a character profile, moving large items into the {@link ItemBlobStore}
+     * when item deduplication is enabled. The references held by the inventory it replaces are released.
+     * @return The stored inventory tag
+     */
+    public static CompoundTag storeInventory(ServerPlayer player, CharacterProfile profile) {
+        return storeInventory(profile, saveInventory(player));
+    }
+
+    /**
+     * Stores an inventory taken with {@link #saveInventory} into a character profile, like {@link #storeInventory(ServerPlayer, CharacterProfile)}.
+     * @param inventoryTag The inventory; may end up in the profile as is
+     * @return The stored inventory tag
+     */
+    public static CompoundTag storeInventory(CharacterProfile profile, CompoundTag inventoryTag) {
+        inventoryTag = ItemBlobStore.externalize(inventoryTag);
+        CompoundTag previous = profile.getModData(INVENTORY_KEY);
+        profile.setModData(INVENTORY_KEY, inventoryTag);
+        ItemBlobStore.release(previous);
+        return inventoryTag;
+    }
+
     public static CompoundTag saveInventory(ServerPlayer player) {
         CompoundTag inventoryTag = new CompoundTag();
         ListTag itemsList = new ListTag();
@@ -328,7 +350,13 @@ public class InventoryHandler {
         for (int i = 0; i < itemsList.size(); i++) {
             CompoundTag itemTag = itemsList.getCompound(i);
             int slot = itemTag.getInt("Slot");
-            ItemStack stack = ItemStack.parseOptional(player.registryAccess(), itemTag.getCompound("Item"));
+            CompoundTag stackTag = ItemBlobStore.resolve(itemTag);
+            if (stackTag == null) {
+                LOGGER.error("[InventoryHandler] Item in slot {} for player {} refers to a missing item blob. Item not loaded.",
+                    itemTag.getInt("Slot"), player.getName().getString());
+                continue;
+            }
+            ItemStack stack = ItemStack.parseOptional(player.registryAccess(), stackTag);
 
             if (!stack.isEmpty() && slot >= 0 && slot < player.getInventory().getContainerSize()) {
                 // Double-check the slot is empty before setting the item
@@ -0,0 +1,566 @@
+package world.landfall.persona.features.inventory;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtIo;
+import org.slf4j.Logger;
+import world.landfall.persona.Persona;
+import world.landfall.persona.config.Config;
+import world.landfall.persona.data.CharacterFileStorage;
+import world.landfall.persona.data.CharacterLeasing;
+import world.landfall.persona.data.CharacterProfile;
+import world.landfall.persona.data.storage.DurableFileWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store for large item stacks in saved inventories.
+ * An item tag at least {@link Config#ITEM_BLOB_MIN_BYTES} long is written once to
+ * {@code persona/item_blobs/ab/<sha-256>.nbt} and the inventory keeps only its hash, so identical kits, gear and
+ * books held by many characters share one copy on disk and none in the character cache.
+ * <p>
+ * Storing an inventory only hashes its items and swaps in the references; a new blob is kept in memory until
+ * {@link CharacterFileStorage} writes it, right before it writes any character, so the blob is durable before a
+ * character file can refer to it and the server thread never waits for the disk.
+ * <p>
+ * Every blob carries a count of the inventory slots referencing it, in stored characters as well as in the revisions
+ * of their histories. Blobs whose count dropped to zero are deleted by
+ * a background sweep once they have stayed unreferenced for {@link #GC_GRACE_MS}, which outlasts any character write
+ * still queued with the old reference. Counts are kept in memory and written to {@code refcounts.dat} on a clean
+ * shutdown; the file is removed while the server runs, so after a crash (or when queued writes were lost) the counts
+ * are rebuilt from the stored characters before anything is deleted.
+ * <p>
+ * When characters are shared with other servers (see {@link CharacterLeasing}), so are the blobs. The references held
+ * by the other servers' characters are not counted here, so nothing is collected then.
+ */
+public final class ItemBlobStore {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final String BLOBS_DIR = "item_blobs";
+    private static final String REFCOUNTS_FILE = "refcounts.dat";
+    private static final String BLOB_EXTENSION = ".nbt";
+    // Version 2 counts the references of history revisions, which version 1 did not
+    private static final int REFCOUNTS_VERSION = 2;
+    private static final int SHARD_NAME_LENGTH = 2;
+    private static final int DECODED_CACHE_SIZE = 256;
+    private static final long GC_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long GC_GRACE_MS = TimeUnit.MINUTES.toMillis(10);
+
+    static final String ITEMS_KEY = "Items";
+    static final String ITEM_KEY = "Item";
+    static final String BLOB_KEY = "Blob";
+
+    /**
+     * Store metrics.
+     */
+    public record Stats(int blobs, long references, int unreferenced, long collected) {}
+
+    private static final Object lock = new Object();
+    // Guarded by lock
+    private static Path blobsDirectory;
+    private static final Map<String, Integer> refCounts = new HashMap<>();
+    private static final Map<String, Long> unreferencedSince = new HashMap<>();
+    // New blobs that references were handed out for but that are not on disk yet
+    private static final Map<String, DurableFileWriter.FileWrite> pendingBlobs = new LinkedHashMap<>();
+    private static final Map<String, CompoundTag> decodedCache = new LinkedHashMap<>(DECODED_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompoundTag> eldest) {
+            return size() > DECODED_CACHE_SIZE;
+        }
+    };
+    private static long collected;
+    // False if the counts could not be established; they are then neither collected against nor saved
+    private static boolean countsTrusted;
+
+    private static ScheduledExecutorService collector;
+    // Held while pending blobs are written, so that concurrent writers do not write the same blob twice
+    private static final Object writeLock = new Object();
+
+    private ItemBlobStore() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Loads the reference counts of a world, rebuilding them if the last shutdown was not clean, and starts the
+     * background sweep. Must run after {@link CharacterFileStorage#initialize}.
+     * @param worldPath The world directory path
+     */
+    public static void initialize(Path worldPath) {
+        shutdown(false);
+        Path sharedDirectory = CharacterLeasing.getSharedDirectory();
+        synchronized (lock) {
+            blobsDirectory = (sharedDirectory != null ? sharedDirectory : worldPath.resolve(Persona.MODID)).resolve(BLOBS_DIR).normalize();
+            refCounts.clear();
+            unreferencedSince.clear();
+            pendingBlobs.clear();
+            decodedCache.clear();
+            collected = 0;
+            countsTrusted = false;
+            if (sharedDirectory != null) {
+                LOGGER.info("[ItemBlobStore] Item blobs are shared with other servers, garbage collection is disabled");
+                return;
+            }
+            try {
+                Files.createDirectories(blobsDirectory);
+                Path refCountsFile = blobsDirectory.resolve(REFCOUNTS_FILE);
+                if (Files.exists(refCountsFile)) {
+                    readRefCounts(refCountsFile);
+                    // From here on the file is stale until the next clean shutdown writes it again
+                    Files.delete(refCountsFile);
+                } else if (hasBlobs()) {
+                    rebuildRefCounts();
+                }
+            } catch (IOException e) {
+                LOGGER.error("[ItemBlobStore] Failed to load item blob reference counts, rebuilding them", e);
+                try {
+                    rebuildRefCounts();
+                } catch (IOException rebuildError) {
+                    // Without trustworthy counts nothing may be collected; the counts are rebuilt on the next start
+                    LOGGER.error("[ItemBlobStore] Failed to rebuild item blob reference counts, garbage collection is disabled", rebuildError);
+                    return;
+                }
+            }
+            countsTrusted = true;
+        }
+        collector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Persona-ItemBlobGC");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        collector.scheduleWithFixedDelay(ItemBlobStore::collectGarbage, GC_INTERVAL_MS, GC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background sweep and, if every character write reached the disk, saves the reference counts.
+     * @param charactersFlushed Whether all queued character writes were written; if not, the counts no longer match
+     *                          the stored characters and are rebuilt on the next start
+     */
+    public static void shutdown(boolean charactersFlushed) {
+        ScheduledExecutorService executor = collector;
+        collector = null;
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (charactersFlushed) {
+            try {
+                // Left over when a save that held references was refused; the counts must not name a missing file
+                writePendingBlobs();
+            } catch (IOException e) {
+                LOGGER.error("[ItemBlobStore] Failed to write pending item blobs", e);
+                charactersFlushed = false;
+            }
+        }
+        synchronized (lock) {
+            if (blobsDirectory == null) {
+                return;
+            }
+            if (charactersFlushed && countsTrusted) {
+                try {
+                    writeRefCounts(blobsDirectory.resolve(REFCOUNTS_FILE));
+                } catch (IOException e) {
+                    LOGGER.error("[ItemBlobStore] Failed to save item blob reference counts, they will be rebuilt on the next start", e);
+                }
+            } else if (countsTrusted) {
+                LOGGER.warn("[ItemBlobStore] Not all character writes were flushed, item blob reference counts will be rebuilt on the next start");
+            }
+            blobsDirectory = null;
+        }
+    }
+
+    /**
+     * Moves the large items of an inventory tag into the store and references them by hash. Items are only encoded
+     * and hashed here; blobs the store does not have yet are written by {@link #writePendingBlobs}.
+     * The returned tag holds a reference on every blob it names, including references it already had, e.g. when it
+     * comes from a history revision; pass the tag it replaces to {@link #release}.
+     * @param inventoryTag An inventory as written by {@link InventoryHandler#saveInventory}, or as stored before
+     * @return A tag with large items replaced by references, or the given tag if the store is not running or failed
+     */
+    public static CompoundTag externalize(CompoundTag inventoryTag) {
+        boolean deduplicate = Config.ITEM_DEDUPLICATION.get();
+        int minBytes = Config.ITEM_BLOB_MIN_BYTES.get();
+        CompoundTag result = inventoryTag.copy();
+        ListTag items = result.getList(ITEMS_KEY, 10);
+        Map<String, byte[]> encodedBlobs = new LinkedHashMap<>();
+        List<String> acquired = new ArrayList<>();
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                CompoundTag slot = items.getCompound(i);
+                if (slot.contains(BLOB_KEY, 8)) {
+                    acquired.add(slot.getString(BLOB_KEY));
+                    continue;
+                }
+                if (!deduplicate || !slot.contains(ITEM_KEY, 10)) {
+                    continue;
+                }
+                byte[] encoded = encode(slot.getCompound(ITEM_KEY));
+                if (encoded.length < minBytes) {
+                    continue;
+                }
+                String hash = hash(encoded);
+                encodedBlobs.putIfAbsent(hash, encoded);
+                slot.remove(ITEM_KEY);
+                slot.putString(BLOB_KEY, hash);
+                acquired.add(hash);
+            }
+        } catch (IOException e) {
+            LOGGER.error("[ItemBlobStore] Failed to encode item blobs, keeping items inline", e);
+            return inventoryTag;
+        }
+        synchronized (lock) {
+            if (blobsDirectory == null) {
+                return inventoryTag;
+            }
+            // Every blob that is on disk or pending has a count, so any other blob is new
+            encodedBlobs.forEach((hash, encoded) -> {
+                if (!refCounts.containsKey(hash) && !pendingBlobs.containsKey(hash)) {
+                    pendingBlobs.put(hash, new DurableFileWriter.FileWrite(getBlobPath(hash), encoded));
+                }
+            });
+            for (String hash : acquired) {
+                refCounts.merge(hash, 1, Integer::sum);
+                unreferencedSince.remove(hash);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the blobs that references were handed out for but that are not on disk yet. Called by
+     * {@link CharacterFileStorage} before it writes any character, which is the I/O worker when write-behind is
+     * enabled. Blobs that could not be written stay pending.
+     * @throws IOException if a blob could not be written; the character write that called this must fail
+     */
+    public static void writePendingBlobs() throws IOException {
+        synchronized (writeLock) {
+            Map<String, DurableFileWriter.FileWrite> batch;
+            synchronized (lock) {
+                if (pendingBlobs.isEmpty()) {
+                    return;
+                }
+                batch = new LinkedHashMap<>(pendingBlobs);
+            }
+            List<DurableFileWriter.PreparedFile> prepared = DurableFileWriter.prepare(new ArrayList<>(batch.values()));
+            for (DurableFileWriter.PreparedFile file : prepared) {
+                DurableFileWriter.publish(file);
+            }
+            DurableFileWriter.syncDirectories(prepared);
+            synchronized (lock) {
+                batch.keySet().forEach(pendingBlobs::remove);
+            }
+            LOGGER.debug("[ItemBlobStore] Wrote {} new item blobs", batch.size());
+        }
+    }
+
+    /**
+     * Drops the references an inventory tag holds. The tag is not modified.
+     * @param inventoryTag An inventory tag that is no longer stored, or null
+     */
+    public static void release(CompoundTag inventoryTag) {
+        if (inventoryTag == null || !inventoryTag.contains(ITEMS_KEY)) {
+            return;
+        }
+        ListTag items = inventoryTag.getList(ITEMS_KEY, 10);
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            for (int i = 0; i < items.size(); i++) {
+                CompoundTag slot = items.getCompound(i);
+                if (!slot.contains(BLOB_KEY, 8)) {
+                    continue;
+                }
+                String hash = slot.getString(BLOB_KEY);
+                Integer count = refCounts.get(hash);
+                if (count == null || count <= 0) {
+                    LOGGER.debug("[ItemBlobStore] Released item blob {} that had no references", hash);
+                    continue;
+                }
+                refCounts.put(hash, count - 1);
+                if (count == 1) {
+                    unreferencedSince.put(hash, now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the references of stored character data that did not hold any yet, i.e. a newly recorded history revision.
+     * @param payload The stored data, uncompressed NBT
+     */
+    public static void acquireStored(byte[] payload) {
+        ListTag items = readStoredItems(payload);
+        synchronized (lock) {
+            for (int i = 0; i < items.size(); i++) {
+                CompoundTag slot = items.getCompound(i);
+                if (slot.contains(BLOB_KEY, 8)) {
+                    refCounts.merge(slot.getString(BLOB_KEY), 1, Integer::sum);
+                    unreferencedSince.remove(slot.getString(BLOB_KEY));
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the references of stored character data that is removed for good: a reclaimed character or a history
+     * revision that was dropped. Soft-deleted characters keep theirs until they are reclaimed, so that they can be
+     * restored with their items.
+     * @param payload The removed data, uncompressed NBT
+     */
+    public static void releaseStored(byte[] payload) {
+        CompoundTag inventory = new CompoundTag();
+        inventory.put(ITEMS_KEY, readStoredItems(payload));
+        release(inventory);
+    }
+
+    /**
+     * @return The inventory slots of stored character data, empty if it has none or cannot be read
+     */
+    private static ListTag readStoredItems(byte[] payload) {
+        try {
+            return CharacterProfile.read(payload).getModData(InventoryHandler.INVENTORY_KEY).getList(ITEMS_KEY, 10);
+        } catch (IOException e) {
+            // Counts stay too high, so nothing is collected early; the next rebuild corrects them
+            LOGGER.warn("[ItemBlobStore] Failed to read stored character data for its item blob references: {}", e.getMessage());
+            return new ListTag();
+        }
+    }
+
+    /**
+     * Resolves one inventory slot to its item tag.
+     * @param slot A slot entry holding either an inline item or a blob reference
+     * @return The item tag, or null if the referenced blob is missing or unreadable
+     */
+    public static CompoundTag resolve(CompoundTag slot) {
+        if (!slot.contains(BLOB_KEY, 8)) {
+            return slot.getCompound(ITEM_KEY);
+        }
+        String hash = slot.getString(BLOB_KEY);
+        if (!isValidHash(hash)) {
+            LOGGER.error("[ItemBlobStore] Ignoring malformed item blob reference: {}", hash);
+            return null;
+        }
+        synchronized (lock) {
+            CompoundTag cached = decodedCache.get(hash);
+            if (cached != null) {
+                return cached.copy();
+            }
+            if (blobsDirectory == null) {
+                LOGGER.error("[ItemBlobStore] Cannot resolve item blob {}, the store is not initialized", hash);
+                return null;
+            }
+            try {
+                DurableFileWriter.FileWrite pending = pendingBlobs.get(hash);
+                byte[] encoded = pending != null ? pending.data() : Files.readAllBytes(getBlobPath(hash));
+                CompoundTag item = NbtIo.read(new DataInputStream(new ByteArrayInputStream(encoded)), NbtAccounter.unlimitedHeap());
+                decodedCache.put(hash, item);
+                return item.copy();
+            } catch (IOException e) {
+                LOGGER.error("[ItemBlobStore] Failed to read item blob {}", hash, e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a file belongs to the store. Blobs are immutable and the reference counts are replaced by
+     * renaming, so none of them is ever modified in place.
+     * @param relativePath A path relative to the persona directory
+     */
+    public static boolean isReplacedAtomically(Path relativePath) {
+        return relativePath.getName(0).toString().equals(BLOBS_DIR);
+    }
+
+    /**
+     * Gets the store metrics.
+     * @return The current stats
+     */
+    public static Stats getStats() {
+        synchronized (lock) {
+            long references = 0;
+            for (int count : refCounts.values()) {
+                references += count;
+            }
+            return new Stats(refCounts.size(), references, unreferencedSince.size(), collected);
+        }
+    }
+
+    /**
+     * Deletes blobs that have been unreferenced for longer than the grace period. Runs on the sweep thread.
+     */
+    private static void collectGarbage() {
+        long cutoff = System.currentTimeMillis() - GC_GRACE_MS;
+        int deleted = 0;
+        synchronized (lock) {
+            if (blobsDirectory == null) {
+                return;
+            }
+            Iterator<Map.Entry<String, Long>> iterator = unreferencedSince.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                // A pending blob is collected once it has been written
+                if (entry.getValue() > cutoff || refCounts.getOrDefault(entry.getKey(), 0) > 0 || pendingBlobs.containsKey(entry.getKey())) {
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(getBlobPath(entry.getKey()));
+                } catch (IOException e) {
+                    LOGGER.warn("[ItemBlobStore] Failed to delete unreferenced item blob {}", entry.getKey(), e);
+                    continue;
+                }
+                iterator.remove();
+                refCounts.remove(entry.getKey());
+                decodedCache.remove(entry.getKey());
+                deleted++;
+            }
+            collected += deleted;
+        }
+        if (deleted > 0) {
+            LOGGER.info("[ItemBlobStore] Deleted {} unreferenced item blobs", deleted);
+        }
+    }
+
+    /**
+     * Counts the references of every stored character from scratch. Blobs nobody refers to become eligible for
+     * collection. Caller must hold the lock.
+     */
+    private static void rebuildRefCounts() throws IOException {
+        LOGGER.info("[ItemBlobStore] Rebuilding item blob reference counts from stored characters");
+        long start = System.nanoTime();
+        refCounts.clear();
+        unreferencedSince.clear();
+        int[] characters = new int[1];
+        CharacterFileStorage.forEachCharacterPayload(payload -> {
+            characters[0]++;
+            countReferences(payload);
+        });
+        int[] revisions = new int[1];
+        CharacterFileStorage.forEachHistoryPayload(payload -> {
+            revisions[0]++;
+            countReferences(payload);
+        });
+
+        long now = System.currentTimeMillis();
+        try (Stream<Path> files = Files.walk(blobsDirectory, 2)) {
+            files.map(ItemBlobStore::parseHash)
+                .filter(hash -> hash != null && !refCounts.containsKey(hash))
+                .forEach(hash -> {
+                    refCounts.put(hash, 0);
+                    unreferencedSince.put(hash, now);
+                });
+        }
+        LOGGER.info("[ItemBlobStore] Counted references of {} characters and {} history revisions to {} item blobs ({} unreferenced) in {} ms",
+            characters[0], revisions[0], refCounts.size(), unreferencedSince.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Adds the references of stored character data to the counts. Caller must hold the lock.
+     */
+    private static void countReferences(byte[] payload) {
+        ListTag items = readStoredItems(payload);
+        for (int i = 0; i < items.size(); i++) {
+            CompoundTag slot = items.getCompound(i);
+            if (slot.contains(BLOB_KEY, 8)) {
+                refCounts.merge(slot.getString(BLOB_KEY), 1, Integer::sum);
+            }
+        }
+    }
+
+    private static void readRefCounts(Path file) throws IOException {
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            int version = in.readInt();
+            if (version != REFCOUNTS_VERSION) {
+                throw new IOException("Unsupported item blob reference count version " + version);
+            }
+            int entries = in.readInt();
+            for (int i = 0; i < entries; i++) {
+                String hash = in.readUTF();
+                int count = in.readInt();
+                refCounts.put(hash, count);
+                if (count == 0) {
+                    // The grace period starts over, which only delays collection
+                    unreferencedSince.put(hash, now);
+                }
+            }
+        }
+    }
+
+    private static void writeRefCounts(Path file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + refCounts.size() * 72);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(REFCOUNTS_VERSION);
+            out.writeInt(refCounts.size());
+            for (Map.Entry<String, Integer> entry : refCounts.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+        DurableFileWriter.commit(file, bytes.toByteArray());
+    }
+
+    private static boolean hasBlobs() throws IOException {
+        try (Stream<Path> files = Files.walk(blobsDirectory, 2)) {
+            return files.anyMatch(file -> parseHash(file) != null);
+        }
+    }
+
+    /**
+     * @return The hash a blob file is named after, or null if the file is not a blob
+     */
+    private static String parseHash(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(BLOB_EXTENSION) || !Files.isRegularFile(file)) {
+            return null;
+        }
+        String hash = name.substring(0, name.length() - BLOB_EXTENSION.length());
+        return isValidHash(hash) ? hash : null;
+    }
+
+    private static boolean isValidHash(String hash) {
+        return hash.length() == 64 && hash.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+    }
+
+    private static Path getBlobPath(String hash) {
+        return blobsDirectory.resolve(hash.substring(0, SHARD_NAME_LENGTH)).resolve(hash + BLOB_EXTENSION);
+    }
+
+    private static byte[] encode(CompoundTag item) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            NbtIo.write(item, out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String hash(byte[] encoded) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(encoded));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
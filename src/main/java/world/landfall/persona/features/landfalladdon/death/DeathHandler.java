@@ -12,6 +12,8 @@ import world.landfall.persona.Persona;
 import world.landfall.persona.data.CharacterProfile;
 import world.landfall.persona.data.PlayerCharacterCapability;
 import world.landfall.persona.data.PlayerCharacterData;
+import world.landfall.persona.data.storage.CharacterStores;
+import world.landfall.persona.data.storage.SaveReason;
 import world.landfall.persona.features.landfalladdon.LandfallAddonData;
 import world.landfall.persona.features.landfalladdon.shells.Shell;
 import world.landfall.persona.features.landfalladdon.shells.ShellManager;
@@ -128,6 +130,7 @@ public final class DeathHandler {
      *   Incrementing the death count
      *   Assigning a new shell based on origin
      *   Updating the player's action bar
+     *   Saving the character
      * 
      * @param player The server player, must not be null
      * @param profile The character profile that died, must not be null
@@ -153,6 +156,9 @@ public final class DeathHandler {
 
             updatePlayerActionBar(player, profile, newShell);
 
+            // Persist the new shell and death count right away, as a revision of its own
+            CharacterStores.get().save(profile, SaveReason.DEATH);
+
         } catch (Exception e) {
             LOGGER.error("[DeathHandler] Error processing death for character '{}' (player: {}): {}", 
                 profile.getDisplayName(), player.getName().getString(), e.getMessage(), e);
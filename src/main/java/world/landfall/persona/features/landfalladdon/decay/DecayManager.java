@@ -8,6 +8,7 @@ import net.neoforged.neoforge.event.entity.player.PlayerEvent;
 import org.slf4j.Logger;
 import world.landfall.persona.Persona;
 import world.landfall.persona.data.CharacterProfile;
+import world.landfall.persona.data.LoginHydration;
 import world.landfall.persona.data.PlayerCharacterCapability;
 import world.landfall.persona.data.PlayerCharacterData;
 import world.landfall.persona.features.aging.AgingManager;
@@ -197,7 +198,8 @@ public class DecayManager {
                 return;
             }
             
-            processPlayerLogin(player);
+            // The active character is loaded in the background during login
+            LoginHydration.onReady(player, () -> processPlayerLogin(player));
             
         } catch (Exception e) {
             LOGGER.error("Unexpected error processing player login event", e);
@@ -12,6 +12,7 @@ import net.neoforged.neoforge.event.entity.player.PlayerEvent;
 import org.slf4j.Logger;
 import world.landfall.persona.Persona;
 import world.landfall.persona.data.CharacterProfile;
+import world.landfall.persona.data.LoginHydration;
 import world.landfall.persona.data.PlayerCharacterCapability;
 import world.landfall.persona.data.PlayerCharacterData;
 import world.landfall.persona.features.landfalladdon.LandfallAddonData;
@@ -93,13 +94,15 @@ public class ShellEffectManager {
         if (!(event.getEntity() instanceof ServerPlayer player)) return;
         PlayerCharacterData data = player.getData(PlayerCharacterCapability.CHARACTER_DATA);
         if (data == null) return;
-        UUID active = data.getActiveCharacterId();
-        if (active == null) return;
-        CharacterProfile profile = data.getCharacter(active);
-        if (profile == null) return;
-        Shell shell = LandfallAddonData.getCurrentShell(profile);
-        applyShell(player, shell);
-        LOGGER.debug("[ShellEffects] Applied shell {} for player {} on login.", shell, player.getName().getString());
+        LoginHydration.onReady(player, () -> {
+            UUID active = data.getActiveCharacterId();
+            if (active == null) return;
+            CharacterProfile profile = data.getCharacter(active);
+            if (profile == null) return;
+            Shell shell = LandfallAddonData.getCurrentShell(profile);
+            applyShell(player, shell);
+            LOGGER.debug("[ShellEffects] Applied shell {} for player {} on login.", shell, player.getName().getString());
+        });
     }
 
     @SubscribeEvent
@@ -83,7 +83,8 @@ public class LocationHandler {
                 if (fromProfile != null) {
                     fromProfile.setModData(LOCATION_KEY, saveLocation(player));
                     // Save the character to file to persist the location data
-                    world.landfall.persona.data.CharacterFileStorage.saveCharacter(fromProfile);
+                    world.landfall.persona.data.storage.CharacterStores.get().save(fromProfile,
+                        world.landfall.persona.data.storage.SaveReason.SWITCH);
                     LOGGER.debug("[LocationHandler] Saved location for character {}. Player: {}", fromCharacterId, playerId);
                 } else {
                     LOGGER.warn("[LocationHandler] 'From' CharacterProfile is null for character: {}. Cannot save location.", fromCharacterId);
@@ -0,0 +1,33 @@
+package world.landfall.persona.mixin;
+
+import com.mojang.authlib.GameProfile;
+import net.minecraft.server.network.ServerConfigurationPacketListenerImpl;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import world.landfall.persona.data.LoginHydration;
+
+/**
+ * Starts loading a player's characters when their connection enters the configuration phase, well before the
+ * player is placed in the world, and drops the loaded characters again if the connection is lost before that.
+ */
+@Mixin(ServerConfigurationPacketListenerImpl.class)
+public abstract class ServerConfigurationPacketListenerImplMixin {
+    @Shadow
+    @Final
+    private GameProfile gameProfile;
+
+    @Inject(method = "startConfiguration", at = @At("HEAD"))
+    private void persona$beginHydration(CallbackInfo ci) {
+        LoginHydration.begin(gameProfile.getId());
+    }
+
+    // A player who leaves during configuration never logs in or out, so nothing else would unpin their characters
+    @Inject(method = "onDisconnect", at = @At("HEAD"))
+    private void persona$discardHydration(CallbackInfo ci) {
+        LoginHydration.discard(gameProfile.getId());
+    }
+}
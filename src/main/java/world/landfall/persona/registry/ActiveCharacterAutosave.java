@@ -0,0 +1,141 @@
+package world.landfall.persona.registry;
+
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.fml.common.EventBusSubscriber;
+import net.neoforged.neoforge.event.server.ServerStoppedEvent;
+import net.neoforged.neoforge.event.tick.ServerTickEvent;
+import world.landfall.persona.Persona;
+import world.landfall.persona.config.Config;
+import world.landfall.persona.data.CharacterLeasing;
+import world.landfall.persona.data.CharacterProfile;
+import world.landfall.persona.data.PlayerCharacterCapability;
+import world.landfall.persona.data.PlayerCharacterData;
+import world.landfall.persona.data.storage.CharacterStores;
+import world.landfall.persona.data.storage.SaveReason;
+import world.landfall.persona.features.inventory.InventoryHandler;
+import world.landfall.persona.features.location.LocationHandler;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+/**
+ * Periodically saves the inventory and location of every online player's active character, which are otherwise only
+ * saved on switch, logout and shutdown. Instead of saving everyone at once, each round goes through the online players
+ * a slice per tick, spread evenly over {@code autosaveIntervalSeconds}. The slice shrinks when the server has little
+ * time to spare in a tick, measured against the cost of recent saves, and grows again to catch up once it has.
+ * A character whose inventory and location are unchanged since it was last stored is checked but not written: the
+ * save finds that its encoding matches what is stored and skips the write.
+ * Runs on the server thread only.
+ */
+@EventBusSubscriber(modid = Persona.MODID)
+public final class ActiveCharacterAutosave {
+    private static final ResourceLocation LOCATION_KEY = ResourceLocation.fromNamespaceAndPath(Persona.MODID, "location");
+    // Share of the spare time in a tick that autosaves may use
+    private static final double HEADROOM_SHARE = 0.5;
+    // Weight of the newest measurement in the average cost of a save
+    private static final double COST_SMOOTHING = 0.2;
+
+    private static final ArrayDeque<UUID> round = new ArrayDeque<>();
+    private static long roundStartTick;
+    private static long nextRoundTick;
+    private static double averageCostNanos;
+    private static int roundChecked;
+
+    private ActiveCharacterAutosave() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    @SubscribeEvent
+    public static void onServerTick(ServerTickEvent.Post event) {
+        int intervalSeconds = Config.AUTOSAVE_INTERVAL_SECONDS.get();
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        MinecraftServer server = event.getServer();
+        long tick = server.getTickCount();
+        long roundTicks = Math.max(1, Math.round(intervalSeconds * (double) server.tickRateManager().tickrate()));
+        if (round.isEmpty()) {
+            if (tick < nextRoundTick) {
+                return;
+            }
+            startRound(server, tick, roundTicks);
+            if (round.isEmpty()) {
+                return;
+            }
+        }
+
+        // Spread what is left evenly over the rest of the interval; a round that overran catches up as fast as affordable
+        long ticksLeft = Math.max(1, nextRoundTick - tick);
+        int due = (int) Math.min(round.size(), (round.size() + ticksLeft - 1) / ticksLeft);
+        long headroomNanos = server.tickRateManager().nanosecondsPerTick() - server.getAverageTickTimeNanos();
+        int affordable = averageCostNanos > 0
+            ? (int) Math.min(Integer.MAX_VALUE, Math.max(0, headroomNanos) * HEADROOM_SHARE / averageCostNanos)
+            : due;
+        // At least one per tick, so a busy server still gets through a round
+        int slice = Math.max(1, Math.min(due, affordable));
+
+        for (int i = 0; i < slice && !round.isEmpty(); i++) {
+            ServerPlayer player = server.getPlayerList().getPlayer(round.poll());
+            if (player == null) {
+                continue;
+            }
+            long start = System.nanoTime();
+            autosave(player);
+            long cost = System.nanoTime() - start;
+            averageCostNanos = averageCostNanos == 0 ? cost : averageCostNanos + COST_SMOOTHING * (cost - averageCostNanos);
+        }
+        if (round.isEmpty()) {
+            Persona.LOGGER.debug("[Persona] Autosave round done in {} ticks: {} characters checked",
+                tick - roundStartTick + 1, roundChecked);
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        round.clear();
+        nextRoundTick = 0;
+        averageCostNanos = 0;
+    }
+
+    private static void startRound(MinecraftServer server, long tick, long roundTicks) {
+        roundStartTick = tick;
+        nextRoundTick = tick + roundTicks;
+        roundChecked = 0;
+        server.getPlayerList().getPlayers().forEach(player -> round.add(player.getUUID()));
+    }
+
+    /**
+     * Saves a player's active character with its current inventory and location. Nothing is written if they match
+     * what is stored.
+     */
+    private static void autosave(ServerPlayer player) {
+        try {
+            PlayerCharacterData data = player.getData(PlayerCharacterCapability.CHARACTER_DATA);
+            UUID activeCharacterId = data != null ? data.getActiveCharacterId() : null;
+            // Another server has the current state of a character whose lease this server does not hold
+            if (activeCharacterId == null || !CharacterLeasing.isHeld(activeCharacterId)) {
+                return;
+            }
+            // Null while the player's characters are still being loaded at login
+            CharacterProfile activeProfile = data.getCharacter(activeCharacterId);
+            if (activeProfile == null) {
+                return;
+            }
+            roundChecked++;
+
+            if (Config.ENABLE_INVENTORY_SYSTEM.get()) {
+                InventoryHandler.storeInventory(player, activeProfile);
+            }
+            if (Config.ENABLE_LOCATION_SYSTEM.get()) {
+                activeProfile.setModData(LOCATION_KEY, LocationHandler.saveLocation(player));
+            }
+            // Compared against the stored character, whoever saved it last, so it cannot go stale on a switch or rollback
+            CharacterStores.get().save(activeProfile, SaveReason.AUTOSAVE);
+        } catch (Exception e) {
+            Persona.LOGGER.error("[Persona] Failed to autosave the active character of {}", player.getName().getString(), e);
+        }
+    }
+}
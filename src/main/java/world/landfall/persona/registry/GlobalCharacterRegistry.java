@@ -10,62 +10,82 @@ import world.landfall.persona.Persona;
 import world.landfall.persona.data.PlayerCharacterData;
 import world.landfall.persona.data.PlayerCharacterCapability;
 import world.landfall.persona.data.CharacterProfile;
+import world.landfall.persona.data.CharacterMetadata;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Thread-safe global registry for character profiles.
  * Manages the mapping between characters, their owners, and names.
+ * The state is an immutable {@link RegistrySnapshot} that writers replace atomically while holding the write lock;
+ * readers never lock and never copy.
  */
 @EventBusSubscriber(modid = Persona.MODID)
 public class GlobalCharacterRegistry {
-    private static final Map<UUID, UUID> characterToPlayerMap = new ConcurrentHashMap<>();
-    private static final Map<String, UUID> characterNameMap = new ConcurrentHashMap<>();
-    private static final ReentrantReadWriteLock registryLock = new ReentrantReadWriteLock();
+    // Includes the owner index (player -> their characters with display names), so login only touches the player's own characters
+    private static volatile RegistrySnapshot current = RegistrySnapshot.EMPTY;
+    // Serializes writers so that snapshots and journal records are produced in the same order
+    private static final ReentrantLock writeLock = new ReentrantLock();
     
     public static void initialize() {
-        registryLock.writeLock().lock();
+        writeLock.lock();
         try {
-            characterToPlayerMap.clear();
-            characterNameMap.clear();
+            current = RegistrySnapshot.EMPTY;
             Persona.LOGGER.info("[Persona] Global Character Registry initialized.");
         } finally {
-            registryLock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
     @SubscribeEvent
     public static void onServerStarting(ServerStartingEvent event) {
-        registryLock.writeLock().lock();
+        writeLock.lock();
         try {
             Path worldPath = event.getServer().getWorldPath(net.minecraft.world.level.storage.LevelResource.ROOT);
+            // A restore swaps out the whole data directory, so it has to happen before anything is opened
+            world.landfall.persona.data.PersonaSnapshots.applyPendingRestore(worldPath);
             RegistryPersistence.initialize(worldPath);
             world.landfall.persona.data.CharacterFileStorage.initialize(worldPath);
-            RegistryPersistence.RegistryData data = RegistryPersistence.loadRegistry();
-            characterToPlayerMap.putAll(data.characterToPlayerMap);
-            characterNameMap.putAll(data.characterNameMap);
+            world.landfall.persona.features.inventory.ItemBlobStore.initialize(worldPath);
+            world.landfall.persona.data.PersonaSnapshots.initialize(worldPath);
+            world.landfall.persona.data.CharacterLeasing.initialize();
+            current = RegistryPersistence.loadRegistry();
+            rebuildPlayerCharacterIndex();
             Persona.LOGGER.info("[Persona] Global Character Registry and File Storage initialized from disk.");
         } finally {
-            registryLock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
     @SubscribeEvent
     public static void onServerStopping(ServerStoppingEvent event) {
-        registryLock.writeLock().lock();
+        writeLock.lock();
         try {
+            // A snapshot in progress holds back character writes
+            world.landfall.persona.data.PersonaSnapshots.shutdown();
+            
             // Save all active character data before server shutdown
-            saveAllActiveCharacterData(event.getServer());
+            world.landfall.persona.data.ShutdownFlush.Result saved = saveAllActiveCharacterData(event.getServer());
             
-            RegistryPersistence.saveRegistry(characterToPlayerMap, characterNameMap);
+            RegistryPersistence.saveRegistry(current);
             Persona.LOGGER.info("[Persona] Global Character Registry saved to disk.");
+            RegistryPersistence.shutdown();
+            
+            // Queued character writes must reach the disk before the server finishes stopping
+            boolean flushed = world.landfall.persona.data.CharacterFileStorage.shutdown()
+                && saved != null && saved.isComplete();
+            // Blob reference counts are only worth keeping if they match what reached the disk
+            world.landfall.persona.features.inventory.ItemBlobStore.shutdown(flushed);
+            // Only now may other servers pick up the characters that were active here, except those still being written
+            world.landfall.persona.data.CharacterLeasing.shutdown(saved != null ? saved.unfinished() : java.util.Set.of());
         } finally {
-            registryLock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
     
@@ -82,23 +102,21 @@ public class GlobalCharacterRegistry {
         }
 
         String normalizedName = characterName.toLowerCase();
-        registryLock.writeLock().lock();
+        writeLock.lock();
         try {
             // Check if name is already taken
-            if (characterNameMap.containsKey(normalizedName)) {
-                UUID existingCharId = characterNameMap.get(normalizedName);
+            if (current.characterNameMap().containsKey(normalizedName)) {
+                UUID existingCharId = current.characterNameMap().get(normalizedName);
                 // Allow if it's the same character being re-registered (e.g., during player login)
                 if (!characterId.equals(existingCharId)) {
                     return false;
                 }
             }
             
-            characterToPlayerMap.put(characterId, playerId);
-            characterNameMap.put(normalizedName, characterId);
-            RegistryPersistence.saveRegistry(characterToPlayerMap, characterNameMap);
+            apply(List.of(RegistryJournal.Entry.put(characterId, playerId, characterName)));
             return true;
         } finally {
-            registryLock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
     
@@ -117,27 +135,25 @@ public class GlobalCharacterRegistry {
         String normalizedOldName = oldName.toLowerCase();
         String normalizedNewName = newName.toLowerCase();
         
-        registryLock.writeLock().lock();
+        writeLock.lock();
         try {
             // Verify the old name belongs to this character
-            UUID existingCharId = characterNameMap.get(normalizedOldName);
+            UUID existingCharId = current.characterNameMap().get(normalizedOldName);
             if (!characterId.equals(existingCharId)) {
                 return false;
             }
             
             // Check if new name is already taken by a different character
-            UUID existingForNewName = characterNameMap.get(normalizedNewName);
+            UUID existingForNewName = current.characterNameMap().get(normalizedNewName);
             if (existingForNewName != null && !characterId.equals(existingForNewName)) {
                 return false;
             }
             
             // Update the name mapping
-            characterNameMap.remove(normalizedOldName);
-            characterNameMap.put(normalizedNewName, characterId);
-            RegistryPersistence.saveRegistry(characterToPlayerMap, characterNameMap);
+            apply(List.of(RegistryJournal.Entry.rename(characterId, oldName, newName)));
             return true;
         } finally {
-            registryLock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
     
@@ -146,57 +162,35 @@ public class GlobalCharacterRegistry {
             throw new IllegalArgumentException("Character unregistration parameters cannot be null");
         }
 
-        String normalizedName = characterName.toLowerCase();
-        registryLock.writeLock().lock();
+        writeLock.lock();
         try {
-            // Only remove the name if it belongs to this character
-            UUID existingCharId = characterNameMap.get(normalizedName);
-            if (characterId.equals(existingCharId)) {
-                characterNameMap.remove(normalizedName);
-            }
-            characterToPlayerMap.remove(characterId);
-            RegistryPersistence.saveRegistry(characterToPlayerMap, characterNameMap);
+            // Only removes the name if it belongs to this character
+            apply(List.of(RegistryJournal.Entry.remove(characterId, characterName)));
         } finally {
-            registryLock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
     
     public static Optional<UUID> getPlayerForCharacter(UUID characterId) {
-        if (characterId == null) {
-            return Optional.empty();
-        }
-        registryLock.readLock().lock();
-        try {
-            return Optional.ofNullable(characterToPlayerMap.get(characterId));
-        } finally {
-            registryLock.readLock().unlock();
-        }
+        return current.getPlayerForCharacter(characterId);
     }
 
     public static boolean isNameTaken(String name) {
-        if (name == null) {
-            return false;
-        }
-        String normalizedName = name.toLowerCase();
-        registryLock.readLock().lock();
-        try {
-            return characterNameMap.containsKey(normalizedName);
-        } finally {
-            registryLock.readLock().unlock();
-        }
+        return current.isNameTaken(name);
     }
 
     public static Optional<UUID> getCharacterIdByName(String name) {
-        if (name == null) {
-            return Optional.empty();
-        }
-        String normalizedName = name.toLowerCase();
-        registryLock.readLock().lock();
-        try {
-            return Optional.ofNullable(characterNameMap.get(normalizedName));
-        } finally {
-            registryLock.readLock().unlock();
-        }
+        return current.getCharacterIdByName(name);
+    }
+
+    /**
+     * Gets the current state of the registry.
+     * The snapshot never changes, so it can be iterated or queried repeatedly without locking and always
+     * reflects a single point in time.
+     * @return The current registry snapshot
+     */
+    public static RegistrySnapshot snapshot() {
+        return current;
     }
     
     @SubscribeEvent
@@ -204,22 +198,84 @@ public class GlobalCharacterRegistry {
         if (event.getEntity() instanceof ServerPlayer player) {
             PlayerCharacterData data = player.getData(PlayerCharacterCapability.CHARACTER_DATA);
             if (data != null) {
-                registryLock.writeLock().lock();
-                try {
-                    // Load character IDs from file storage
-                    data.loadCharacterIdsFromStorage(player.getUUID());
-                    
-                    // Register all characters atomically
-                    data.getCharacterIds().forEach((id, displayName) -> {
-                        characterToPlayerMap.put(id, player.getUUID());
-                        characterNameMap.put(displayName.toLowerCase(), id);
-                    });
-                    RegistryPersistence.saveRegistry(characterToPlayerMap, characterNameMap);
-                    PersonaNetworking.sendToPlayer(data, player);
-                } finally {
-                    registryLock.writeLock().unlock();
+                // With shared characters, the active character must not be in play on another server
+                UUID activeCharacterId = data.getActiveCharacterId();
+                if (activeCharacterId != null && !world.landfall.persona.data.CharacterLeasing.acquire(activeCharacterId)) {
+                    String holder = world.landfall.persona.data.CharacterLeasing.getHolder(activeCharacterId);
+                    Persona.LOGGER.info("[Persona] Disconnecting {}: their active character {} is leased by server {}",
+                        player.getName().getString(), activeCharacterId, holder);
+                    player.connection.disconnect(net.minecraft.network.chat.Component.translatable(
+                        "persona.disconnect.char_leased_elsewhere", holder != null ? holder : "?"));
+                    world.landfall.persona.data.LoginHydration.discard(player.getUUID());
+                    return;
                 }
+                // Usually loaded during the configuration phase already; applied on the server thread once done
+                world.landfall.persona.data.LoginHydration.begin(player.getUUID()).whenCompleteAsync(
+                    (hydration, error) -> finishLogin(player, data, hydration, error), player.getServer());
+            }
+        }
+    }
+    
+    /**
+     * Applies a player's loaded characters and registers them. Runs on the server thread.
+     */
+    private static void finishLogin(ServerPlayer player, PlayerCharacterData data,
+                                    world.landfall.persona.data.LoginHydration.Hydration hydration, Throwable error) {
+        if (player.hasDisconnected()) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            // The roster comes from the registry's owner index; the player's saved data only names the active character
+            if (error != null) {
+                Persona.LOGGER.error("[Persona] Failed to load the characters of {} in the background, loading them now",
+                    player.getName().getString(), error);
+                data.loadCharacterIdsFromStorage(player.getUUID());
+            } else {
+                data.setCharacterIds(hydration.characterIds());
+            }
+            adoptLegacyCharacters(player, data);
+            UUID activeCharacterId = data.getActiveCharacterId();
+            if (activeCharacterId != null && !data.hasCharacter(activeCharacterId)
+                && !world.landfall.persona.data.storage.CharacterStores.get().exists(activeCharacterId)) {
+                Persona.LOGGER.warn("[Persona] Active character {} of {} no longer exists, clearing it",
+                    activeCharacterId, player.getName().getString());
+                world.landfall.persona.data.CharacterLeasing.release(activeCharacterId);
+                data.setActiveCharacterId(null);
             }
+            // Keep the player's characters in memory while they are online
+            world.landfall.persona.data.CharacterFileStorage.pinCharacters(data.getCharacterIds().keySet());
+            PersonaNetworking.sendToPlayer(data, player);
+        } finally {
+            writeLock.unlock();
+        }
+        world.landfall.persona.data.LoginHydration.markReady(player);
+    }
+    
+    /**
+     * Registers the characters listed only in a roster read from player data saved before the roster was dropped
+     * from it, provided they are still stored and nobody else owns them. Happens once per player.
+     * Caller must hold the registry write lock.
+     */
+    private static void adoptLegacyCharacters(ServerPlayer player, PlayerCharacterData data) {
+        Map<UUID, String> legacy = data.takeLegacyCharacterIds();
+        if (legacy.isEmpty()) {
+            return;
+        }
+        Map<UUID, String> characterIds = data.getCharacterIds();
+        List<RegistryJournal.Entry> changes = new ArrayList<>();
+        legacy.forEach((id, displayName) -> {
+            if (!characterIds.containsKey(id) && !current.characterToPlayerMap().containsKey(id)
+                && world.landfall.persona.data.storage.CharacterStores.get().exists(id)) {
+                changes.add(RegistryJournal.Entry.put(id, player.getUUID(), displayName));
+                characterIds.put(id, displayName);
+            }
+        });
+        if (!changes.isEmpty()) {
+            apply(changes);
+            data.setCharacterIds(characterIds);
+            Persona.LOGGER.info("[Persona] Registered {} characters of {} found only in their saved player data",
+                changes.size(), player.getName().getString());
         }
     }
     
@@ -227,7 +283,17 @@ public class GlobalCharacterRegistry {
     public static void onPlayerLogout(final PlayerEvent.PlayerLoggedOutEvent event) {
         if (event.getEntity() instanceof ServerPlayer player) {
             // Save active character data before player disconnects
-            saveActiveCharacterData(player);
+            saveActiveCharacterData(player, world.landfall.persona.data.storage.SaveReason.LOGOUT);
+            
+            PlayerCharacterData data = player.getData(PlayerCharacterCapability.CHARACTER_DATA);
+            world.landfall.persona.data.LoginHydration.discard(player.getUUID());
+            if (data != null) {
+                world.landfall.persona.data.CharacterFileStorage.unpinCharacters(data.getCharacterIds().keySet());
+                // Handed on to the next server once the logout save is written
+                if (data.getActiveCharacterId() != null) {
+                    world.landfall.persona.data.CharacterLeasing.release(data.getActiveCharacterId());
+                }
+            }
         }
     }
     
@@ -244,19 +310,17 @@ public class GlobalCharacterRegistry {
         }
 
         String normalizedName = characterName.toLowerCase();
-        registryLock.writeLock().lock();
+        writeLock.lock();
         try {
             // Only remove if the name matches the character
-            UUID existingCharId = characterNameMap.get(normalizedName);
+            UUID existingCharId = current.characterNameMap().get(normalizedName);
             if (characterId.equals(existingCharId)) {
-                characterNameMap.remove(normalizedName);
-                characterToPlayerMap.remove(characterId);
-                RegistryPersistence.saveRegistry(characterToPlayerMap, characterNameMap);
+                apply(List.of(RegistryJournal.Entry.remove(characterId, characterName)));
                 return true;
             }
             return false;
         } finally {
-            registryLock.writeLock().unlock();
+            writeLock.unlock();
         }
     }
 
@@ -271,113 +335,181 @@ public class GlobalCharacterRegistry {
         }
         PlayerCharacterData data = player.getData(PlayerCharacterCapability.CHARACTER_DATA);
         if (data != null) {
-            registryLock.readLock().lock();
-            try {
-                PersonaNetworking.sendToPlayer(data, player);
-            } finally {
-                registryLock.readLock().unlock();
-            }
+            PersonaNetworking.sendToPlayer(data, player);
         }
     }
 
     /**
-     * Gets a copy of the character to player mapping.
+     * Gets the character to player mapping.
      * This method is thread-safe.
-     * @return A copy of the character to player mapping
+     * @return An immutable view of the current character to player mapping
      */
     public static Map<UUID, UUID> getCharacterToPlayerMap() {
-        registryLock.readLock().lock();
-        try {
-            return new ConcurrentHashMap<>(characterToPlayerMap);
-        } finally {
-            registryLock.readLock().unlock();
+        return current.characterToPlayerMap();
+    }
+
+    /**
+     * Gets a player's characters from the owner index.
+     * This method is thread-safe.
+     * @param playerId The player's UUID
+     * @return An immutable view of the player's character IDs mapped to their display names
+     */
+    public static Map<UUID, String> getCharactersForPlayer(UUID playerId) {
+        return current.getCharactersForPlayer(playerId);
+    }
+
+    /**
+     * Applies registry mutations and appends them to the registry journal. Caller must hold the registry write lock.
+     */
+    private static void apply(List<RegistryJournal.Entry> changes) {
+        RegistrySnapshot snapshot = current;
+        for (RegistryJournal.Entry change : changes) {
+            snapshot = snapshot.apply(change);
+        }
+        current = snapshot;
+        RegistryPersistence.appendToJournal(changes, snapshot);
+    }
+
+    /**
+     * Adds characters missing from the owner index, which happens once for registries written before the
+     * index existed. Caller must hold the registry write lock.
+     */
+    private static void rebuildPlayerCharacterIndex() {
+        RegistrySnapshot snapshot = current;
+        int rebuilt = 0;
+        for (Map.Entry<UUID, UUID> entry : snapshot.characterToPlayerMap().entrySet()) {
+            UUID characterId = entry.getKey();
+            UUID playerId = entry.getValue();
+            if (snapshot.getCharactersForPlayer(playerId).containsKey(characterId)) {
+                continue;
+            }
+            // Only the display name is needed, so the character is scanned rather than loaded
+            CharacterMetadata metadata = world.landfall.persona.data.storage.CharacterStores.get().readMetadata(characterId);
+            if (metadata != null) {
+                snapshot = snapshot.apply(RegistryJournal.Entry.put(characterId, playerId, metadata.displayName()));
+                rebuilt++;
+            }
+        }
+        if (rebuilt > 0) {
+            current = snapshot;
+            Persona.LOGGER.info("[Persona] Added {} characters to the player character index.", rebuilt);
+            RegistryPersistence.saveRegistry(snapshot);
         }
     }
 
     /**
-     * Gets a copy of the character name mapping.
+     * Gets the character name mapping.
      * This method is thread-safe.
-     * @return A copy of the character name mapping
+     * @return An immutable view of the current character name mapping
      */
     public static Map<String, UUID> getCharacterNameMap() {
-        registryLock.readLock().lock();
-        try {
-            return new ConcurrentHashMap<>(characterNameMap);
-        } finally {
-            registryLock.readLock().unlock();
-        }
+        return current.characterNameMap();
     }
 
     /**
      * Saves all active character data for all online players.
      * This ensures that inventory and location data is not lost on server restart.
+     * Only the players' state is captured here; the characters are written in parallel by {@link world.landfall.persona.data.ShutdownFlush}.
      */
-    private static void saveAllActiveCharacterData(net.minecraft.server.MinecraftServer server) {
+    private static world.landfall.persona.data.ShutdownFlush.Result saveAllActiveCharacterData(net.minecraft.server.MinecraftServer server) {
         try {
-            int savedCount = 0;
+            List<CharacterProfile> characters = new ArrayList<>();
             for (ServerPlayer player : server.getPlayerList().getPlayers()) {
-                if (saveActiveCharacterData(player)) {
-                    savedCount++;
+                CharacterProfile character = captureActiveCharacter(player);
+                if (character != null) {
+                    characters.add(character);
                 }
             }
-            Persona.LOGGER.info("[Persona] Saved active character data for {} players before server shutdown.", savedCount);
+            world.landfall.persona.data.ShutdownFlush.Result result = world.landfall.persona.data.ShutdownFlush.flush(
+                characters, world.landfall.persona.data.storage.SaveReason.SHUTDOWN);
+            Persona.LOGGER.info("[Persona] Saved active character data for {} players before server shutdown in {} ms ({} failed, {} out of time).",
+                result.saved(), result.millis(), result.failed(), result.timedOut());
+            return result;
         } catch (Exception e) {
             Persona.LOGGER.error("[Persona] Error saving active character data during server shutdown", e);
+            return null;
         }
     }
 
     /**
      * Saves the active character data for a specific player.
      * @param player The player whose active character data should be saved
+     * @param reason Why the character is saved, recorded in its history
      * @return true if data was saved successfully, false otherwise
      */
-    private static boolean saveActiveCharacterData(ServerPlayer player) {
+    private static boolean saveActiveCharacterData(ServerPlayer player, world.landfall.persona.data.storage.SaveReason reason) {
+        CharacterProfile activeProfile = captureActiveCharacter(player);
+        if (activeProfile == null) {
+            return false;
+        }
+        try {
+            // Save the character to file
+            if (!world.landfall.persona.data.storage.CharacterStores.get().save(activeProfile, reason)) {
+                return false;
+            }
+            
+            Persona.LOGGER.debug("[Persona] Saved active character data for player {} (character: {})", 
+                player.getName().getString(), activeProfile.getDisplayName());
+            return true;
+
+        } catch (Exception e) {
+            Persona.LOGGER.error("[Persona] Error saving active character data for player {}", player.getName().getString(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Copies a player's current inventory and location into their active character, without saving it.
+     * Must be called on the server thread.
+     * @param player The player
+     * @return The active character, or null if the player has none that this server may save
+     */
+    private static CharacterProfile captureActiveCharacter(ServerPlayer player) {
         try {
             PlayerCharacterData data = player.getData(PlayerCharacterCapability.CHARACTER_DATA);
             if (data == null) {
-                return false;
+                return null;
             }
 
             UUID activeCharacterId = data.getActiveCharacterId();
             if (activeCharacterId == null) {
-                return false;
+                return null;
+            }
+            // The player was turned away at login, or the lease was lost; the other server has the current state
+            if (!world.landfall.persona.data.CharacterLeasing.isHeld(activeCharacterId)) {
+                Persona.LOGGER.warn("[Persona] Not saving active character {} of player {}: this server does not hold its lease",
+                    activeCharacterId, player.getName().getString());
+                return null;
             }
 
             CharacterProfile activeProfile = data.getCharacter(activeCharacterId);
             if (activeProfile == null) {
-                return false;
+                return null;
             }
 
-                         // Save current inventory data
-             if (world.landfall.persona.config.Config.ENABLE_INVENTORY_SYSTEM.get()) {
-                 try {
-                     net.minecraft.nbt.CompoundTag inventoryTag = world.landfall.persona.features.inventory.InventoryHandler.saveInventory(player);
-                     activeProfile.setModData(net.minecraft.resources.ResourceLocation.fromNamespaceAndPath(Persona.MODID, "inventory"), inventoryTag);
-                 } catch (Exception e) {
-                     Persona.LOGGER.error("[Persona] Failed to save inventory data for player {}", player.getName().getString(), e);
-                 }
-             }
-
-             // Save current location data
-             if (world.landfall.persona.config.Config.ENABLE_LOCATION_SYSTEM.get()) {
-                 try {
-                     net.minecraft.nbt.CompoundTag locationTag = world.landfall.persona.features.location.LocationHandler.saveLocation(player);
-                     activeProfile.setModData(net.minecraft.resources.ResourceLocation.fromNamespaceAndPath(Persona.MODID, "location"), locationTag);
-                 } catch (Exception e) {
-                     Persona.LOGGER.error("[Persona] Failed to save location data for player {}", player.getName().getString(), e);
-                 }
-             }
+            // Save current inventory data
+            if (world.landfall.persona.config.Config.ENABLE_INVENTORY_SYSTEM.get()) {
+                try {
+                    world.landfall.persona.features.inventory.InventoryHandler.storeInventory(player, activeProfile);
+                } catch (Exception e) {
+                    Persona.LOGGER.error("[Persona] Failed to save inventory data for player {}", player.getName().getString(), e);
+                }
+            }
 
-            // Save the character to file
-            world.landfall.persona.data.CharacterFileStorage.saveCharacter(activeProfile);
-            
-            Persona.LOGGER.debug("[Persona] Saved active character data for player {} (character: {})", 
-                player.getName().getString(), activeProfile.getDisplayName());
-            return true;
+            // Save current location data
+            if (world.landfall.persona.config.Config.ENABLE_LOCATION_SYSTEM.get()) {
+                try {
+                    net.minecraft.nbt.CompoundTag locationTag = world.landfall.persona.features.location.LocationHandler.saveLocation(player);
+                    activeProfile.setModData(net.minecraft.resources.ResourceLocation.fromNamespaceAndPath(Persona.MODID, "location"), locationTag);
+                } catch (Exception e) {
+                    Persona.LOGGER.error("[Persona] Failed to save location data for player {}", player.getName().getString(), e);
+                }
+            }
+            return activeProfile;
 
         } catch (Exception e) {
             Persona.LOGGER.error("[Persona] Error saving active character data for player {}", player.getName().getString(), e);
-            return false;
+            return null;
         }
     }
-} 
\ No newline at end of file
+} 
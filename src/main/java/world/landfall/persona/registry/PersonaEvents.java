@@ -96,7 +96,7 @@ public class PersonaEvents {
         if (player instanceof ServerPlayer serverPlayer) {
             PlayerCharacterData data = serverPlayer.getData(PlayerCharacterCapability.CHARACTER_DATA);
             if (data != null) {
-                GlobalCharacterRegistry.syncRegistry(serverPlayer);
+                world.landfall.persona.data.LoginHydration.onReady(serverPlayer, () -> GlobalCharacterRegistry.syncRegistry(serverPlayer));
             } else {
                 Persona.LOGGER.warn("[Persona] Player {} missing character data on login.", serverPlayer.getName().getString());
             }
@@ -14,10 +14,11 @@ import net.neoforged.neoforge.network.PacketDistributor;
 import net.neoforged.neoforge.network.registration.PayloadRegistrar;
 import world.landfall.persona.Persona;
 import world.landfall.persona.command.CommandRegistry;
+import world.landfall.persona.data.CharacterFileStorage;
 import world.landfall.persona.data.PlayerCharacterData;
 import world.landfall.persona.data.PlayerCharacterCapability;
 import world.landfall.persona.data.CharacterProfile;
-import world.landfall.persona.data.CharacterFileStorage;
+import world.landfall.persona.data.storage.CharacterStores;
 import world.landfall.persona.config.Config;
 import world.landfall.persona.config.ClientSyncedConfig;
 import net.minecraft.nbt.CompoundTag;
@@ -364,10 +365,11 @@ public class PersonaNetworking {
             return;
         }
         
-        // Load all character profiles for this player
+        // Load all character profiles for this player; archived characters are only sent as stand-ins
         Map<UUID, CharacterProfile> characters = new HashMap<>();
         for (UUID characterId : data.getCharacterIds().keySet()) {
-            CharacterProfile character = CharacterFileStorage.loadCharacter(characterId);
+            CharacterProfile stub = CharacterFileStorage.getArchivedStub(characterId);
+            CharacterProfile character = stub != null ? stub : CharacterStores.get().load(characterId);
             if (character != null) {
                 characters.put(characterId, character);
             }
@@ -0,0 +1,210 @@
+package world.landfall.persona.registry;
+
+import net.minecraft.Util;
+import world.landfall.persona.util.PersistentHashMap;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Binary format of the registry base file. UUIDs are stored as their two raw longs and every distinct name once in a
+ * string table, so loading needs no string parsing besides decoding the names themselves.
+ * <p>
+ * Layout (big-endian): a 32 byte header of {@code "PRG" 0x01}, int format version, long journal sequence, int string
+ * count, int character count, int name count, int index count; then int CRC32 of everything after the header, the
+ * string table (per string an unsigned short UTF-8 length and the bytes), the character entries (character msb,
+ * lsb, owner msb, lsb), the name entries (string index, character msb, lsb) and the owner index entries (owner msb,
+ * lsb, character msb, lsb, display name string index).
+ */
+final class RegistryFileFormat {
+    private static final int MAGIC = 0x50524701; // "PRG" 0x01
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int CHARACTER_ENTRY_SIZE = 32;
+    private static final int NAME_ENTRY_SIZE = 20;
+    private static final int INDEX_ENTRY_SIZE = 36;
+
+    /**
+     * A decoded base file.
+     * @param snapshot The registry
+     * @param journalSequence The last journal record folded into it
+     */
+    record Decoded(RegistrySnapshot snapshot, long journalSequence) {}
+
+    private record IndexEntry(UUID playerId, UUID characterId, int displayName) {}
+
+    private RegistryFileFormat() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * @param header The first bytes of a file, at least 4
+     * @return true if they start a binary registry file
+     */
+    static boolean isBinary(byte[] header) {
+        return header.length >= 4 && ByteBuffer.wrap(header).getInt() == MAGIC;
+    }
+
+    static byte[] encode(RegistrySnapshot snapshot, long journalSequence) {
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int[] stringBytes = {0};
+        ToIntFunction<String> intern = value -> stringIndex.computeIfAbsent(value, key -> {
+            byte[] utf8 = key.getBytes(StandardCharsets.UTF_8);
+            if (utf8.length > 0xFFFF) {
+                throw new IllegalArgumentException("Registry name too long: " + utf8.length + " bytes");
+            }
+            strings.add(utf8);
+            stringBytes[0] += 2 + utf8.length;
+            return strings.size() - 1;
+        });
+
+        // Names are interned before sizing the buffer; the same lists are written out below
+        List<Map.Entry<String, UUID>> names = new ArrayList<>(snapshot.characterNameMap().entrySet());
+        names.forEach(entry -> intern.applyAsInt(entry.getKey()));
+        List<IndexEntry> index = new ArrayList<>();
+        snapshot.playerCharacterIndex().forEach((playerId, characters) -> characters.forEach((characterId, displayName) ->
+            index.add(new IndexEntry(playerId, characterId, intern.applyAsInt(displayName)))));
+
+        int characterCount = snapshot.characterToPlayerMap().size();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 + stringBytes[0] + characterCount * CHARACTER_ENTRY_SIZE
+            + names.size() * NAME_ENTRY_SIZE + index.size() * INDEX_ENTRY_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(journalSequence)
+            .putInt(strings.size()).putInt(characterCount).putInt(names.size()).putInt(index.size());
+        buffer.putInt(0); // CRC32, filled in below
+        for (byte[] utf8 : strings) {
+            buffer.putShort((short) utf8.length).put(utf8);
+        }
+        snapshot.characterToPlayerMap().forEach((characterId, playerId) -> {
+            putUuid(buffer, characterId);
+            putUuid(buffer, playerId);
+        });
+        for (Map.Entry<String, UUID> entry : names) {
+            buffer.putInt(stringIndex.get(entry.getKey()));
+            putUuid(buffer, entry.getValue());
+        }
+        for (IndexEntry entry : index) {
+            putUuid(buffer, entry.playerId());
+            putUuid(buffer, entry.characterId());
+            buffer.putInt(entry.displayName());
+        }
+
+        byte[] bytes = buffer.array();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_SIZE + 4, bytes.length - HEADER_SIZE - 4);
+        ByteBuffer.wrap(bytes).putInt(HEADER_SIZE, (int) crc.getValue());
+        return bytes;
+    }
+
+    /**
+     * Reads a base file through a memory-mapped buffer.
+     * On Windows a mapped file cannot be replaced until the mapping is garbage collected, which would make the next
+     * compaction fail, so the file is read into memory there instead.
+     * @throws IOException if the file could not be read or is not a valid binary registry file
+     */
+    static Decoded read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Registry file too large: " + size + " bytes");
+            }
+            ByteBuffer buffer;
+            if (Util.getPlatform() == Util.OS.WINDOWS) {
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // Keep reading until the buffer is full
+                }
+                buffer.flip();
+            } else {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return decode(buffer);
+        }
+    }
+
+    /**
+     * Decodes a base file.
+     * @param buffer The file's contents, positioned at its start
+     * @throws IOException if the contents are not a valid binary registry file
+     */
+    static Decoded decode(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a binary registry file");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported registry format version " + version);
+            }
+            long journalSequence = buffer.getLong();
+            int stringCount = buffer.getInt();
+            int characterCount = buffer.getInt();
+            int nameCount = buffer.getInt();
+            int indexCount = buffer.getInt();
+            int expectedCrc = buffer.getInt();
+            if (stringCount < 0 || characterCount < 0 || nameCount < 0 || indexCount < 0) {
+                throw new IOException("Corrupt registry header");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice());
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Registry file checksum mismatch");
+            }
+
+            String[] strings = new String[stringCount];
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < stringCount; i++) {
+                int length = Short.toUnsignedInt(buffer.getShort());
+                if (length > scratch.length) {
+                    scratch = new byte[length];
+                }
+                buffer.get(scratch, 0, length);
+                strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+
+            PersistentHashMap<UUID, UUID> characters = PersistentHashMap.empty();
+            for (int i = 0; i < characterCount; i++) {
+                characters = characters.with(getUuid(buffer), getUuid(buffer));
+            }
+            PersistentHashMap<String, UUID> names = PersistentHashMap.empty();
+            for (int i = 0; i < nameCount; i++) {
+                names = names.with(strings[buffer.getInt()], getUuid(buffer));
+            }
+            // Grouped in plain maps first; the persistent per-player maps are built once per player
+            Map<UUID, PersistentHashMap<UUID, String>> owners = new HashMap<>();
+            for (int i = 0; i < indexCount; i++) {
+                UUID playerId = getUuid(buffer);
+                UUID characterId = getUuid(buffer);
+                String displayName = strings[buffer.getInt()];
+                owners.put(playerId, owners.getOrDefault(playerId, PersistentHashMap.empty()).with(characterId, displayName));
+            }
+            PersistentHashMap<UUID, PersistentHashMap<UUID, String>> index = PersistentHashMap.empty();
+            for (Map.Entry<UUID, PersistentHashMap<UUID, String>> owner : owners.entrySet()) {
+                index = index.with(owner.getKey(), owner.getValue());
+            }
+            return new Decoded(new RegistrySnapshot(characters, names, index), journalSequence);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated registry file", e);
+        }
+    }
+
+    private static void putUuid(ByteBuffer buffer, UUID id) {
+        buffer.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID getUuid(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
@@ -0,0 +1,239 @@
+package world.landfall.persona.registry;
+
+import world.landfall.persona.Persona;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of registry mutations. Each record is framed as {@code [int length][body][int crc32]}, where the
+ * body holds a sequence number, the operation and its arguments. A torn record at the end of the file (from a crash
+ * mid-append) fails its checksum and is cut off when the journal is reopened.
+ */
+final class RegistryJournal implements AutoCloseable {
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+
+    enum Operation {
+        PUT, RENAME, REMOVE
+    }
+
+    /**
+     * One registry mutation, applied with {@link RegistrySnapshot#apply}.
+     * PUT assigns a character to a player under a display name, RENAME changes a character's name and REMOVE
+     * drops a character (and its name, if the name still belongs to it).
+     */
+    record Entry(Operation operation, UUID characterId, UUID playerId, String name, String newName) {
+        static Entry put(UUID characterId, UUID playerId, String displayName) {
+            return new Entry(Operation.PUT, characterId, playerId, displayName, null);
+        }
+
+        static Entry rename(UUID characterId, String oldName, String newName) {
+            return new Entry(Operation.RENAME, characterId, null, oldName, newName);
+        }
+
+        static Entry remove(UUID characterId, String name) {
+            return new Entry(Operation.REMOVE, characterId, null, name, null);
+        }
+    }
+
+    private final Path file;
+    private FileChannel channel;
+    private long sequence;
+
+    /**
+     * Opens a journal for appending, cutting off a torn record at its end.
+     * @param file The journal file; created if missing
+     * @param sequence The sequence number of the newest mutation persisted elsewhere, e.g. in the base file
+     * @throws IOException if the file could not be opened
+     */
+    RegistryJournal(Path file, long sequence) throws IOException {
+        this.file = file;
+        long[] newest = {sequence};
+        long validLength = Files.exists(file)
+            ? replay(file, sequence, record -> newest[0] = Math.max(newest[0], record.sequence()))
+            : 0;
+        this.sequence = newest[0];
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (channel.size() > validLength) {
+            Persona.LOGGER.warn("[Persona] Discarding {} bytes of incomplete registry journal records", channel.size() - validLength);
+            channel.truncate(validLength);
+            channel.force(true);
+        }
+        channel.position(validLength);
+    }
+
+    /**
+     * Reads every intact record of a journal in order.
+     * @param file The journal file
+     * @param afterSequence Records with a sequence number up to and including this one are skipped
+     * @param consumer Receives each record that is not skipped
+     * @return The length of the intact prefix of the file
+     * @throws IOException if the file could not be read
+     */
+    static long replay(Path file, long afterSequence, Consumer<SequencedEntry> consumer) throws IOException {
+        long validLength = 0;
+        try (InputStream stream = Files.newInputStream(file)) {
+            DataInputStream in = new DataInputStream(stream);
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                int checksum;
+                try {
+                    in.readFully(body);
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (checksum != checksum(body)) {
+                    break;
+                }
+                SequencedEntry record = decode(body);
+                if (record.sequence() > afterSequence) {
+                    consumer.accept(record);
+                }
+                validLength += Integer.BYTES + length + Integer.BYTES;
+            }
+        }
+        return validLength;
+    }
+
+    /**
+     * A journal record together with its position in the global mutation order.
+     */
+    record SequencedEntry(long sequence, Entry entry) {}
+
+    /**
+     * Durably appends mutations; they are on disk when this method returns.
+     * @param entries The mutations, in the order they were applied
+     * @return The sequence number of the last appended mutation
+     * @throws IOException if the records could not be written
+     */
+    synchronized long append(List<Entry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entries.size() * 96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        long next = sequence;
+        for (Entry entry : entries) {
+            byte[] body = encode(++next, entry);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeInt(checksum(body));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        sequence = next;
+        return sequence;
+    }
+
+    synchronized long getSequence() {
+        return sequence;
+    }
+
+    synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Moves the current contents aside and continues with an empty journal.
+     * @param target Where the current contents are moved to; replaced if it exists
+     * @return The sequence number of the last mutation in the moved contents
+     * @throws IOException if the journal could not be rotated
+     */
+    synchronized long rotate(Path target) throws IOException {
+        channel.force(true);
+        channel.close();
+        Files.move(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return sequence;
+    }
+
+    /**
+     * Drops every record; used once all of them are folded into the base file.
+     * @throws IOException if the journal could not be truncated
+     */
+    synchronized void clear() throws IOException {
+        channel.truncate(0);
+        channel.force(true);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private static byte[] encode(long sequence, Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(sequence);
+        out.writeByte(entry.operation().ordinal());
+        writeUUID(out, entry.characterId());
+        switch (entry.operation()) {
+            case PUT -> {
+                writeUUID(out, entry.playerId());
+                out.writeUTF(entry.name());
+            }
+            case RENAME -> {
+                out.writeUTF(entry.name());
+                out.writeUTF(entry.newName());
+            }
+            case REMOVE -> out.writeUTF(entry.name());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static SequencedEntry decode(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        long sequence = in.readLong();
+        int operation = in.readUnsignedByte();
+        if (operation >= Operation.values().length) {
+            throw new IOException("Unknown registry journal operation " + operation);
+        }
+        UUID characterId = readUUID(in);
+        Entry entry = switch (Operation.values()[operation]) {
+            case PUT -> Entry.put(characterId, readUUID(in), in.readUTF());
+            case RENAME -> Entry.rename(characterId, in.readUTF(), in.readUTF());
+            case REMOVE -> Entry.remove(characterId, in.readUTF());
+        };
+        return new SequencedEntry(sequence, entry);
+    }
+
+    private static void writeUUID(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readUUID(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+}
@@ -5,17 +5,37 @@ import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.NbtAccounter;
 import net.minecraft.nbt.NbtIo;
 import net.minecraft.nbt.Tag;
+import net.minecraft.Util;
 import world.landfall.persona.Persona;
+import world.landfall.persona.config.Config;
+import world.landfall.persona.data.storage.DurableFileWriter;
+import world.landfall.persona.util.PersistentHashMap;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Map;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public class RegistryPersistence {
-    private static final String REGISTRY_FILE = "character_registry.dat";
+    public static final String REGISTRY_FILE = "character_registry.dat";
+    private static final String JOURNAL_FILE = "character_registry.journal";
+    private static final String COMPACTING_JOURNAL_FILE = "character_registry.journal.compacting";
+    private static final String LOCK_FILE = "character_registry.lock";
     private static Path registryPath;
+    private static Path journalPath;
+    private static Path compactingJournalPath;
+    // Mutations since the last base file; opened by loadRegistry
+    private static RegistryJournal journal;
+    private static CompletableFuture<Void> compaction = CompletableFuture.completedFuture(null);
+    // Held while the server runs; the base file and journal have a single writer, also when characters are shared
+    private static FileChannel lockChannel;
 
     public static void initialize(Path configDir) {
         try {
@@ -26,6 +46,16 @@ public class RegistryPersistence {
             }
             
             registryPath = personaDir.resolve(REGISTRY_FILE).normalize();
+            journalPath = personaDir.resolve(JOURNAL_FILE).normalize();
+            compactingJournalPath = personaDir.resolve(COMPACTING_JOURNAL_FILE).normalize();
+            closeJournal();
+            lockRegistry(personaDir.resolve(LOCK_FILE));
+            
+            // Finish or discard a registry write that was interrupted by a crash
+            Path temp = DurableFileWriter.tempPathFor(registryPath);
+            if (Files.exists(temp)) {
+                DurableFileWriter.recover(temp, RegistryPersistence::isReadableRegistryFile);
+            }
             Persona.LOGGER.debug("[Persona] Registry file initialized at {}", registryPath);
         } catch (Exception e) {
             Persona.LOGGER.error("[Persona] Failed to initialize registry file", e);
@@ -37,93 +67,300 @@ public class RegistryPersistence {
         return registryPath;
     }
 
-    public static void saveRegistry(Map<UUID, UUID> characterToPlayerMap, Map<String, UUID> characterNameMap) {
+    /**
+     * @param fileName A file name in the persona directory
+     * @return true for the registry base file and its journals
+     */
+    public static boolean isRegistryFile(String fileName) {
+        return fileName.equals(REGISTRY_FILE) || fileName.equals(JOURNAL_FILE) || fileName.equals(COMPACTING_JOURNAL_FILE);
+    }
+
+    /**
+     * Encodes a registry as a complete base file that needs no journal, e.g. for a snapshot.
+     * @param snapshot The registry
+     * @return The contents of a {@link #REGISTRY_FILE}
+     * @throws IOException if the registry could not be encoded
+     */
+    public static byte[] export(RegistrySnapshot snapshot) throws IOException {
+        return encodeBase(snapshot, 0);
+    }
+
+    /**
+     * Writes the complete registry to the base file and empties the journal.
+     * Callers must hold the registry write lock so that no mutation is journaled concurrently.
+     */
+    public static void saveRegistry(RegistrySnapshot snapshot) {
         if (registryPath == null) {
             Persona.LOGGER.error("[Persona] Cannot save registry: path not initialized");
             return;
         }
 
+        awaitCompaction();
         try {
-            CompoundTag root = new CompoundTag();
-            
-            // Save character to player mappings
-            ListTag characterPlayerList = new ListTag();
-            characterToPlayerMap.forEach((charId, playerId) -> {
-                CompoundTag entry = new CompoundTag();
-                entry.putString("characterId", charId.toString());
-                entry.putString("playerId", playerId.toString());
-                characterPlayerList.add(entry);
-            });
-            root.put("characterToPlayerMap", characterPlayerList);
-
-            // Save character name mappings
-            ListTag characterNameList = new ListTag();
-            characterNameMap.forEach((name, charId) -> {
-                CompoundTag entry = new CompoundTag();
-                entry.putString("name", name);
-                entry.putString("characterId", charId.toString());
-                characterNameList.add(entry);
-            });
-            root.put("characterNameMap", characterNameList);
-
-            // Save to file
-            NbtIo.writeCompressed(root, registryPath);
+            long sequence = journal != null ? journal.getSequence() : 0;
+            writeBase(snapshot, sequence);
+            Files.deleteIfExists(compactingJournalPath);
+            if (journal != null) {
+                journal.clear();
+            }
             Persona.LOGGER.debug("[Persona] Registry saved successfully");
         } catch (IOException e) {
             Persona.LOGGER.error("[Persona] Failed to save registry", e);
         }
     }
 
-    public static class RegistryData {
-        public final ConcurrentHashMap<UUID, UUID> characterToPlayerMap;
-        public final ConcurrentHashMap<String, UUID> characterNameMap;
+    /**
+     * Durably records registry mutations. Once the journal grows past the configured size, it is rotated and the
+     * given snapshot, which must already include the mutations, is written to the base file in the background.
+     * Callers must hold the registry write lock.
+     */
+    static void appendToJournal(List<RegistryJournal.Entry> entries, RegistrySnapshot snapshot) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (journal == null) {
+            Persona.LOGGER.error("[Persona] Cannot journal registry changes: registry not loaded");
+            return;
+        }
+
+        try {
+            journal.append(entries);
+            if (journal.size() >= Config.REGISTRY_JOURNAL_COMPACT_KB.get() * 1024L && compaction.isDone()) {
+                startCompaction(snapshot);
+            }
+        } catch (IOException e) {
+            Persona.LOGGER.error("[Persona] Failed to journal registry changes", e);
+        }
+    }
+
+    /**
+     * Waits for a running compaction and closes the journal.
+     */
+    public static void shutdown() {
+        awaitCompaction();
+        closeJournal();
+        unlockRegistry();
+    }
+
+    /**
+     * Takes the lock that keeps a second server from writing the registry.
+     * @throws IllegalStateException if another server running on the same persona directory holds it
+     */
+    private static void lockRegistry(Path lockPath) throws IOException {
+        unlockRegistry();
+        FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IllegalStateException("The character registry in " + lockPath.getParent()
+                + " is in use by another server. Servers sharing characters need their own persona directories and a common sharedStorageDirectory");
+        }
+        lockChannel = channel;
+    }
 
-        public RegistryData() {
-            this.characterToPlayerMap = new ConcurrentHashMap<>();
-            this.characterNameMap = new ConcurrentHashMap<>();
+    private static void unlockRegistry() {
+        if (lockChannel == null) {
+            return;
+        }
+        try {
+            // Closing the channel releases the lock
+            lockChannel.close();
+        } catch (IOException e) {
+            Persona.LOGGER.warn("[Persona] Failed to release registry lock", e);
         }
+        lockChannel = null;
     }
 
-    public static RegistryData loadRegistry() {
-        RegistryData data = new RegistryData();
-        
+    private static void startCompaction(RegistrySnapshot snapshot) throws IOException {
+        // A journal left over from a failed compaction still holds unfolded records, so keep appending to the
+        // current one instead of rotating over it; the snapshot below covers both
+        long sequence = Files.exists(compactingJournalPath) ? journal.getSequence() : journal.rotate(compactingJournalPath);
+
+        // Snapshots are immutable, so the background write needs no copy of the registry
+        compaction = CompletableFuture.runAsync(() -> {
+            try {
+                writeBase(snapshot, sequence);
+                Files.deleteIfExists(compactingJournalPath);
+                Persona.LOGGER.debug("[Persona] Compacted registry journal up to change {}", sequence);
+            } catch (IOException e) {
+                Persona.LOGGER.error("[Persona] Failed to compact registry journal, will retry", e);
+            }
+        }, Util.backgroundExecutor());
+    }
+
+    private static void awaitCompaction() {
+        compaction.join();
+    }
+
+    private static void closeJournal() {
+        awaitCompaction();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Persona.LOGGER.warn("[Persona] Failed to close registry journal", e);
+            }
+            journal = null;
+        }
+    }
+
+    private static void writeBase(RegistrySnapshot snapshot, long sequence) throws IOException {
+        // Save to a synced temporary file and atomically swap it in
+        DurableFileWriter.commit(registryPath, encodeBase(snapshot, sequence));
+    }
+
+    private static byte[] encodeBase(RegistrySnapshot snapshot, long sequence) {
+        return RegistryFileFormat.encode(snapshot, sequence);
+    }
+
+    private static boolean isReadableRegistryFile(Path file) {
+        try {
+            if (isBinaryRegistryFile(file)) {
+                RegistryFileFormat.read(file);
+                return true;
+            }
+            return NbtIo.readCompressed(file, NbtAccounter.unlimitedHeap()) != null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static boolean isBinaryRegistryFile(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return RegistryFileFormat.isBinary(in.readNBytes(4));
+        }
+    }
+
+    /**
+     * Reads the base file and replays the journal on top of it.
+     * @return The registry as of the last journaled change
+     */
+    public static RegistrySnapshot loadRegistry() {
         if (registryPath == null) {
             Persona.LOGGER.error("[Persona] Cannot load registry: path not initialized");
-            return data;
+            return RegistrySnapshot.EMPTY;
         }
 
+        long[] sequence = {0};
+        RegistrySnapshot snapshot = RegistrySnapshot.EMPTY;
         if (!registryPath.toFile().exists()) {
             Persona.LOGGER.debug("[Persona] No existing registry file found, starting fresh");
-            return data;
+        } else {
+            snapshot = readBase(sequence);
         }
 
-        try {
-            CompoundTag root = NbtIo.readCompressed(registryPath, NbtAccounter.unlimitedHeap());
-            if (root != null) {
-                // Load character to player mappings
-                ListTag characterPlayerList = root.getList("characterToPlayerMap", Tag.TAG_COMPOUND);
-                for (int i = 0; i < characterPlayerList.size(); i++) {
-                    CompoundTag entry = characterPlayerList.getCompound(i);
-                    UUID characterId = UUID.fromString(entry.getString("characterId"));
-                    UUID playerId = UUID.fromString(entry.getString("playerId"));
-                    data.characterToPlayerMap.put(characterId, playerId);
-                }
-
-                // Load character name mappings
-                ListTag characterNameList = root.getList("characterNameMap", Tag.TAG_COMPOUND);
-                for (int i = 0; i < characterNameList.size(); i++) {
-                    CompoundTag entry = characterNameList.getCompound(i);
-                    String name = entry.getString("name");
-                    UUID characterId = UUID.fromString(entry.getString("characterId"));
-                    data.characterNameMap.put(name.toLowerCase(), characterId);
-                }
+        return openJournal(snapshot, sequence[0]);
+    }
 
+    /**
+     * Reads the base file. A base file still in the NBT format is converted to the binary format on the spot.
+     * @param sequence Receives the sequence number of the last journal record folded into the base file
+     * @return The registry stored in the base file
+     */
+    private static RegistrySnapshot readBase(long[] sequence) {
+        try {
+            if (isBinaryRegistryFile(registryPath)) {
+                RegistryFileFormat.Decoded decoded = RegistryFileFormat.read(registryPath);
+                sequence[0] = decoded.journalSequence();
                 Persona.LOGGER.debug("[Persona] Registry loaded successfully");
+                return decoded.snapshot();
             }
+
+            CompoundTag root = NbtIo.readCompressed(registryPath, NbtAccounter.unlimitedHeap());
+            if (root == null) {
+                return RegistrySnapshot.EMPTY;
+            }
+            RegistrySnapshot snapshot = decodeNbt(root, sequence);
+            long nbtSize = Files.size(registryPath);
+            // Keeps the journal sequence, so the journal replays on top of it exactly as on top of the NBT file
+            writeBase(snapshot, sequence[0]);
+            Persona.LOGGER.info("[Persona] Converted the character registry to the binary format ({} KB -> {} KB)",
+                nbtSize / 1024, Files.size(registryPath) / 1024);
+            return snapshot;
         } catch (IOException e) {
             Persona.LOGGER.error("[Persona] Failed to load registry", e);
+            return RegistrySnapshot.EMPTY;
+        }
+    }
+
+    /**
+     * Decodes a registry in the NBT format used before {@link RegistryFileFormat}.
+     * @param sequence Receives the sequence number of the last journal record folded into it
+     */
+    static RegistrySnapshot decodeNbt(CompoundTag root, long[] sequence) {
+        PersistentHashMap<UUID, UUID> characters = PersistentHashMap.empty();
+        PersistentHashMap<String, UUID> names = PersistentHashMap.empty();
+        PersistentHashMap<UUID, PersistentHashMap<UUID, String>> index = PersistentHashMap.empty();
+        sequence[0] = root.getLong("journalSequence");
+
+        // Load character to player mappings
+        ListTag characterPlayerList = root.getList("characterToPlayerMap", Tag.TAG_COMPOUND);
+        for (int i = 0; i < characterPlayerList.size(); i++) {
+            CompoundTag entry = characterPlayerList.getCompound(i);
+            UUID characterId = UUID.fromString(entry.getString("characterId"));
+            UUID playerId = UUID.fromString(entry.getString("playerId"));
+            characters = characters.with(characterId, playerId);
+        }
+
+        // Load character name mappings
+        ListTag characterNameList = root.getList("characterNameMap", Tag.TAG_COMPOUND);
+        for (int i = 0; i < characterNameList.size(); i++) {
+            CompoundTag entry = characterNameList.getCompound(i);
+            String name = entry.getString("name");
+            UUID characterId = UUID.fromString(entry.getString("characterId"));
+            names = names.with(name.toLowerCase(), characterId);
+        }
+
+        // Load the owner index
+        ListTag ownerList = root.getList("playerCharacterIndex", Tag.TAG_COMPOUND);
+        for (int i = 0; i < ownerList.size(); i++) {
+            CompoundTag ownerEntry = ownerList.getCompound(i);
+            UUID playerId = UUID.fromString(ownerEntry.getString("playerId"));
+            PersistentHashMap<UUID, String> owned = PersistentHashMap.empty();
+            ListTag characterList = ownerEntry.getList("characters", Tag.TAG_COMPOUND);
+            for (int j = 0; j < characterList.size(); j++) {
+                CompoundTag entry = characterList.getCompound(j);
+                owned = owned.with(UUID.fromString(entry.getString("characterId")), entry.getString("displayName"));
+            }
+            index = index.with(playerId, owned);
         }
+        return new RegistrySnapshot(characters, names, index);
+    }
 
-        return data;
+    /**
+     * Applies the mutations journaled after the base file was written and opens the journal for appending.
+     */
+    private static RegistrySnapshot openJournal(RegistrySnapshot base, long baseSequence) {
+        closeJournal();
+        RegistrySnapshot[] snapshot = {base};
+        long[] newest = {baseSequence};
+        int[] replayed = {0};
+        Consumer<RegistryJournal.SequencedEntry> apply = record -> {
+            snapshot[0] = snapshot[0].apply(record.entry());
+            newest[0] = Math.max(newest[0], record.sequence());
+            replayed[0]++;
+        };
+        try {
+            // A journal rotated out by an unfinished compaction holds the older records
+            if (Files.exists(compactingJournalPath)) {
+                RegistryJournal.replay(compactingJournalPath, baseSequence, apply);
+            }
+            if (Files.exists(journalPath)) {
+                RegistryJournal.replay(journalPath, baseSequence, apply);
+            }
+            journal = new RegistryJournal(journalPath, newest[0]);
+            if (replayed[0] > 0) {
+                Persona.LOGGER.info("[Persona] Replayed {} registry journal records", replayed[0]);
+            }
+        } catch (IOException e) {
+            Persona.LOGGER.error("[Persona] Failed to open registry journal", e);
+        }
+        return snapshot[0];
     }
 } 
\ No newline at end of file
@@ -0,0 +1,97 @@
+package world.landfall.persona.registry;
+
+import world.landfall.persona.util.PersistentHashMap;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Immutable, internally consistent view of the global character registry.
+ * Writers derive a new snapshot for every change and publish it atomically, so a snapshot can be held and
+ * iterated for as long as needed without locking and without observing a half-applied change.
+ *
+ * @param characterToPlayerMap Character IDs mapped to their owners
+ * @param characterNameMap Lowercase character names mapped to character IDs
+ * @param playerCharacterIndex Players mapped to their character IDs and display names
+ */
+public record RegistrySnapshot(PersistentHashMap<UUID, UUID> characterToPlayerMap,
+                               PersistentHashMap<String, UUID> characterNameMap,
+                               PersistentHashMap<UUID, PersistentHashMap<UUID, String>> playerCharacterIndex) {
+    public static final RegistrySnapshot EMPTY = new RegistrySnapshot(
+        PersistentHashMap.empty(), PersistentHashMap.empty(), PersistentHashMap.empty());
+
+    public Optional<UUID> getPlayerForCharacter(UUID characterId) {
+        return characterId == null ? Optional.empty() : Optional.ofNullable(characterToPlayerMap.get(characterId));
+    }
+
+    public Optional<UUID> getCharacterIdByName(String name) {
+        return name == null ? Optional.empty() : Optional.ofNullable(characterNameMap.get(name.toLowerCase()));
+    }
+
+    public boolean isNameTaken(String name) {
+        return name != null && characterNameMap.containsKey(name.toLowerCase());
+    }
+
+    /**
+     * @param playerId The player's UUID
+     * @return The player's character IDs mapped to their display names; empty if the player has none
+     */
+    public Map<UUID, String> getCharactersForPlayer(UUID playerId) {
+        PersistentHashMap<UUID, String> characters = playerId != null ? playerCharacterIndex.get(playerId) : null;
+        return characters != null ? characters : PersistentHashMap.empty();
+    }
+
+    /**
+     * Derives the snapshot that results from a registry mutation.
+     * @param entry The mutation
+     * @return The new snapshot; this one is left unchanged
+     */
+    RegistrySnapshot apply(RegistryJournal.Entry entry) {
+        PersistentHashMap<UUID, UUID> characters = characterToPlayerMap;
+        PersistentHashMap<String, UUID> names = characterNameMap;
+        PersistentHashMap<UUID, PersistentHashMap<UUID, String>> index = playerCharacterIndex;
+        UUID characterId = entry.characterId();
+        switch (entry.operation()) {
+            case PUT -> {
+                UUID previousOwner = characters.get(characterId);
+                if (previousOwner != null && !previousOwner.equals(entry.playerId())) {
+                    index = removeFromIndex(index, previousOwner, characterId);
+                }
+                characters = characters.with(characterId, entry.playerId());
+                index = index.with(entry.playerId(), ownedBy(index, entry.playerId()).with(characterId, entry.name()));
+                names = names.with(entry.name().toLowerCase(), characterId);
+            }
+            case RENAME -> {
+                names = names.without(entry.name().toLowerCase()).with(entry.newName().toLowerCase(), characterId);
+                UUID owner = characters.get(characterId);
+                if (owner != null) {
+                    index = index.with(owner, ownedBy(index, owner).with(characterId, entry.newName()));
+                }
+            }
+            case REMOVE -> {
+                String normalizedName = entry.name().toLowerCase();
+                if (characterId.equals(names.get(normalizedName))) {
+                    names = names.without(normalizedName);
+                }
+                UUID owner = characters.get(characterId);
+                if (owner != null) {
+                    characters = characters.without(characterId);
+                    index = removeFromIndex(index, owner, characterId);
+                }
+            }
+        }
+        return new RegistrySnapshot(characters, names, index);
+    }
+
+    private static PersistentHashMap<UUID, String> ownedBy(PersistentHashMap<UUID, PersistentHashMap<UUID, String>> index, UUID playerId) {
+        PersistentHashMap<UUID, String> characters = index.get(playerId);
+        return characters != null ? characters : PersistentHashMap.empty();
+    }
+
+    private static PersistentHashMap<UUID, PersistentHashMap<UUID, String>> removeFromIndex(
+            PersistentHashMap<UUID, PersistentHashMap<UUID, String>> index, UUID playerId, UUID characterId) {
+        PersistentHashMap<UUID, String> characters = ownedBy(index, playerId).without(characterId);
+        return characters.isEmpty() ? index.without(playerId) : index.with(playerId, characters);
+    }
+}
@@ -0,0 +1,425 @@
+package world.landfall.persona.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash map with structural sharing (a hash array mapped trie).
+ * {@link #with} and {@link #without} return a new map that shares every untouched branch with the old one, so an
+ * update costs O(log32 n) instead of a full copy. Instances never change, so they can be published through a
+ * volatile field and read from any thread without locking. The standard {@link Map} mutators throw
+ * {@link UnsupportedOperationException}; null keys and values are not supported.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    // 32-bit hashes split into 5-bit fragments give at most 7 bitmap levels, plus one for collisions
+    private static final int MAX_DEPTH = 9;
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(new BitmapNode(0, new Object[0]), 0);
+
+    /**
+     * Key-value pair stored in the trie.
+     */
+    private static final class Leaf<K, V> implements Map.Entry<K, V> {
+        final int hash;
+        final K key;
+        final V value;
+
+        Leaf(int hash, K key, V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Map.Entry<?, ?> entry && key.equals(entry.getKey()) && value.equals(entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * Interior node; each set bit of the bitmap owns one slot holding a {@link Leaf} or a child node.
+     */
+    private static final class BitmapNode {
+        final int bitmap;
+        final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        BitmapNode withSlot(int bit, Object slot) {
+            int index = index(bit);
+            Object[] copy = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, copy, 0, index);
+            copy[index] = slot;
+            System.arraycopy(slots, index, copy, index + 1, slots.length - index);
+            return new BitmapNode(bitmap | bit, copy);
+        }
+
+        BitmapNode replacingSlot(int index, Object slot) {
+            Object[] copy = slots.clone();
+            copy[index] = slot;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        BitmapNode withoutSlot(int bit) {
+            int index = index(bit);
+            Object[] copy = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, copy, 0, index);
+            System.arraycopy(slots, index + 1, copy, index, slots.length - index - 1);
+            return new BitmapNode(bitmap & ~bit, copy);
+        }
+    }
+
+    /**
+     * Leaves whose keys have identical hashes.
+     */
+    private static final class CollisionNode {
+        final int hash;
+        final Leaf<?, ?>[] leaves;
+
+        CollisionNode(int hash, Leaf<?, ?>[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+    }
+
+    private final BitmapNode root;
+    private final int size;
+
+    private PersistentHashMap(BitmapNode root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Returns a map with the given mapping added or replaced.
+     * @param key The key
+     * @param value The value
+     * @return The updated map, or this map if it already contains exactly this mapping
+     */
+    public PersistentHashMap<K, V> with(K key, V value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+        int[] added = {0};
+        Object updated = insert(root, 0, new Leaf<>(hash(key), key, value), added);
+        return updated == root ? this : new PersistentHashMap<>((BitmapNode) updated, size + added[0]);
+    }
+
+    /**
+     * Returns a map without the given key.
+     * @param key The key
+     * @return The updated map, or this map if the key is absent
+     */
+    public PersistentHashMap<K, V> without(Object key) {
+        if (key == null) {
+            return this;
+        }
+        Object updated = remove(root, 0, hash(key), key);
+        if (updated == root) {
+            return this;
+        }
+        return updated == null ? empty() : new PersistentHashMap<>((BitmapNode) updated, size - 1);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Leaf<?, ?> leaf = find(key);
+        return leaf != null ? (V) leaf.value : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(root.slots, action);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private Leaf<?, ?> find(Object key) {
+        if (key == null) {
+            return null;
+        }
+        int hash = hash(key);
+        Object node = root;
+        int shift = 0;
+        while (true) {
+            if (node instanceof BitmapNode bitmapNode) {
+                int bit = bit(hash, shift);
+                if ((bitmapNode.bitmap & bit) == 0) {
+                    return null;
+                }
+                node = bitmapNode.slots[bitmapNode.index(bit)];
+                shift += BITS;
+            } else if (node instanceof Leaf<?, ?> leaf) {
+                return leaf.hash == hash && leaf.key.equals(key) ? leaf : null;
+            } else {
+                CollisionNode collision = (CollisionNode) node;
+                if (collision.hash != hash) {
+                    return null;
+                }
+                for (Leaf<?, ?> leaf : collision.leaves) {
+                    if (leaf.key.equals(key)) {
+                        return leaf;
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return The replacement for the node, or the node itself if nothing changed
+     */
+    private static Object insert(Object node, int shift, Leaf<?, ?> leaf, int[] added) {
+        if (node instanceof BitmapNode bitmapNode) {
+            int bit = bit(leaf.hash, shift);
+            if ((bitmapNode.bitmap & bit) == 0) {
+                added[0] = 1;
+                return bitmapNode.withSlot(bit, leaf);
+            }
+            int index = bitmapNode.index(bit);
+            Object child = bitmapNode.slots[index];
+            Object updated = insert(child, shift + BITS, leaf, added);
+            return updated == child ? bitmapNode : bitmapNode.replacingSlot(index, updated);
+        }
+        if (node instanceof Leaf<?, ?> existing) {
+            if (existing.hash == leaf.hash && existing.key.equals(leaf.key)) {
+                return existing.value.equals(leaf.value) ? existing : leaf;
+            }
+            added[0] = 1;
+            return merge(existing, leaf, shift);
+        }
+        CollisionNode collision = (CollisionNode) node;
+        if (collision.hash != leaf.hash) {
+            // Push the collision node one level down so the new key can branch off next to it
+            return insert(new BitmapNode(bit(collision.hash, shift), new Object[]{collision}), shift, leaf, added);
+        }
+        for (int i = 0; i < collision.leaves.length; i++) {
+            Leaf<?, ?> existing = collision.leaves[i];
+            if (existing.key.equals(leaf.key)) {
+                if (existing.value.equals(leaf.value)) {
+                    return collision;
+                }
+                Leaf<?, ?>[] copy = collision.leaves.clone();
+                copy[i] = leaf;
+                return new CollisionNode(collision.hash, copy);
+            }
+        }
+        Leaf<?, ?>[] copy = new Leaf<?, ?>[collision.leaves.length + 1];
+        System.arraycopy(collision.leaves, 0, copy, 0, collision.leaves.length);
+        copy[collision.leaves.length] = leaf;
+        added[0] = 1;
+        return new CollisionNode(collision.hash, copy);
+    }
+
+    private static Object merge(Leaf<?, ?> first, Leaf<?, ?> second, int shift) {
+        if (first.hash == second.hash) {
+            return new CollisionNode(first.hash, new Leaf<?, ?>[]{first, second});
+        }
+        int firstFragment = fragment(first.hash, shift);
+        int secondFragment = fragment(second.hash, shift);
+        if (firstFragment == secondFragment) {
+            return new BitmapNode(1 << firstFragment, new Object[]{merge(first, second, shift + BITS)});
+        }
+        Object[] slots = firstFragment < secondFragment ? new Object[]{first, second} : new Object[]{second, first};
+        return new BitmapNode((1 << firstFragment) | (1 << secondFragment), slots);
+    }
+
+    /**
+     * @return The replacement for the node (a lone leaf is pulled up into its parent), null if the node is now
+     *         empty, or the node itself if the key was absent
+     */
+    private static Object remove(Object node, int shift, int hash, Object key) {
+        if (node instanceof BitmapNode bitmapNode) {
+            int bit = bit(hash, shift);
+            if ((bitmapNode.bitmap & bit) == 0) {
+                return bitmapNode;
+            }
+            int index = bitmapNode.index(bit);
+            Object child = bitmapNode.slots[index];
+            Object updated = remove(child, shift + BITS, hash, key);
+            if (updated == child) {
+                return bitmapNode;
+            }
+            if (updated == null) {
+                if (bitmapNode.slots.length == 1) {
+                    return null;
+                }
+                BitmapNode shrunk = bitmapNode.withoutSlot(bit);
+                return shift > 0 && shrunk.slots.length == 1 && shrunk.slots[0] instanceof Leaf<?, ?> ? shrunk.slots[0] : shrunk;
+            }
+            if (shift > 0 && bitmapNode.slots.length == 1 && updated instanceof Leaf<?, ?>) {
+                return updated;
+            }
+            return bitmapNode.replacingSlot(index, updated);
+        }
+        if (node instanceof Leaf<?, ?> leaf) {
+            return leaf.hash == hash && leaf.key.equals(key) ? null : leaf;
+        }
+        CollisionNode collision = (CollisionNode) node;
+        if (collision.hash != hash) {
+            return collision;
+        }
+        for (int i = 0; i < collision.leaves.length; i++) {
+            if (collision.leaves[i].key.equals(key)) {
+                if (collision.leaves.length == 2) {
+                    return collision.leaves[1 - i];
+                }
+                Leaf<?, ?>[] copy = new Leaf<?, ?>[collision.leaves.length - 1];
+                System.arraycopy(collision.leaves, 0, copy, 0, i);
+                System.arraycopy(collision.leaves, i + 1, copy, i, collision.leaves.length - i - 1);
+                return new CollisionNode(collision.hash, copy);
+            }
+        }
+        return collision;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void forEach(Object[] slots, BiConsumer<? super K, ? super V> action) {
+        for (Object slot : slots) {
+            if (slot instanceof Leaf<?, ?> leaf) {
+                action.accept((K) leaf.key, (V) leaf.value);
+            } else if (slot instanceof BitmapNode bitmapNode) {
+                forEach(bitmapNode.slots, action);
+            } else {
+                forEach(((CollisionNode) slot).leaves, action);
+            }
+        }
+    }
+
+    /**
+     * Depth-first walk over the trie with an explicit stack, so iteration allocates nothing per entry.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final Object[][] stack = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth;
+        private Leaf<?, ?> next;
+
+        EntryIterator() {
+            stack[0] = root.slots;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> current = (Map.Entry<K, V>) next;
+            advance();
+            return current;
+        }
+
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                if (positions[depth] >= stack[depth].length) {
+                    depth--;
+                    continue;
+                }
+                Object slot = stack[depth][positions[depth]++];
+                if (slot instanceof Leaf<?, ?> leaf) {
+                    next = leaf;
+                    return;
+                }
+                depth++;
+                stack[depth] = slot instanceof BitmapNode bitmapNode ? bitmapNode.slots : ((CollisionNode) slot).leaves;
+                positions[depth] = 0;
+            }
+        }
+    }
+
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int fragment(int hash, int shift) {
+        return (hash >>> shift) & MASK;
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << fragment(hash, shift);
+    }
+}
@@ -0,0 +1,228 @@
+package world.landfall.persona.data.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class BinaryDeltaTest {
+    // BinaryDelta matches blocks of this many bytes; shorter targets can only be inserted
+    private static final int BLOCK_SIZE = 16;
+    private static final int OP_COPY = 0;
+    private static final int OP_INSERT = 1;
+
+    @Test
+    void emptyBaseRoundTrips() throws IOException {
+        assertRoundTrip(new byte[0], new byte[0]);
+        assertRoundTrip(new byte[0], random(1, 1000));
+    }
+
+    @Test
+    void emptyTargetRoundTrips() throws IOException {
+        assertRoundTrip(random(2, 1000), new byte[0]);
+    }
+
+    @Test
+    void targetShorterThanBlockRoundTrips() throws IOException {
+        byte[] base = random(3, 256);
+        for (int length = 1; length < BLOCK_SIZE; length++) {
+            assertRoundTrip(base, Arrays.copyOfRange(base, 10, 10 + length));
+            assertRoundTrip(base, random(length, length));
+            assertRoundTrip(Arrays.copyOf(base, length), Arrays.copyOf(base, length));
+        }
+    }
+
+    @Test
+    void repetitiveDataRoundTrips() throws IOException {
+        byte[] zeros = new byte[4096];
+        byte[] edited = new byte[5000];
+        edited[17] = 1;
+        edited[2048] = 2;
+        edited[4999] = 3;
+        assertCompact(assertRoundTrip(zeros, edited), edited);
+
+        byte[] pattern = new byte[4096];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = (byte) (i % 7);
+        }
+        byte[] shifted = new byte[4100];
+        System.arraycopy(pattern, 3, shifted, 0, pattern.length - 3);
+        assertCompact(assertRoundTrip(pattern, shifted), shifted);
+        assertRoundTrip(shifted, pattern);
+    }
+
+    @Test
+    void smallEditsGiveSmallDeltas() throws IOException {
+        byte[] base = random(4, 8192);
+        byte[] changed = base.clone();
+        changed[100] ^= 1;
+        changed[5000] ^= 1;
+        assertCompact(assertRoundTrip(base, changed), changed);
+
+        byte[] inserted = new byte[base.length + 5];
+        System.arraycopy(base, 0, inserted, 0, 3000);
+        System.arraycopy(base, 3000, inserted, 3005, base.length - 3000);
+        assertCompact(assertRoundTrip(base, inserted), inserted);
+
+        byte[] removed = new byte[base.length - 40];
+        System.arraycopy(base, 0, removed, 0, 6000);
+        System.arraycopy(base, 6040, removed, 6000, base.length - 6040);
+        assertCompact(assertRoundTrip(base, removed), removed);
+    }
+
+    @Test
+    void randomEditsRoundTrip() throws IOException {
+        Random random = new Random(5);
+        byte[] base = random(6, 2048);
+        for (int round = 0; round < 500; round++) {
+            byte[] target = mutate(base, random);
+            assertRoundTrip(base, target);
+            assertRoundTrip(target, base);
+            base = target;
+        }
+    }
+
+    @Test
+    void everyTruncationIsRejected() throws IOException {
+        byte[] base = random(7, 1024);
+        byte[] target = mutate(base, new Random(8));
+        byte[] delta = BinaryDelta.diff(base, target);
+        for (int length = 0; length < delta.length; length++) {
+            byte[] truncated = Arrays.copyOf(delta, length);
+            assertThrows(IOException.class, () -> BinaryDelta.apply(base, truncated), "truncated to " + length);
+        }
+    }
+
+    @Test
+    void trailingBytesAreRejected() throws IOException {
+        byte[] base = random(9, 1024);
+        byte[] delta = BinaryDelta.diff(base, mutate(base, new Random(10)));
+        byte[] longer = Arrays.copyOf(delta, delta.length + 1);
+        assertThrows(IOException.class, () -> BinaryDelta.apply(base, longer));
+    }
+
+    @Test
+    void unknownOperationIsRejected() {
+        byte[] delta = {4, 2, 0, 0, 0, 0};
+        assertThrows(IOException.class, () -> BinaryDelta.apply(new byte[16], delta));
+    }
+
+    @Test
+    void copiesOutsideTheBaseAreRejected() {
+        byte[] base = new byte[8];
+        // Past the end of the base
+        assertThrows(IOException.class, () -> BinaryDelta.apply(base, new byte[] {4, OP_COPY, 6, 4}));
+        // More than the target holds
+        assertThrows(IOException.class, () -> BinaryDelta.apply(base, new byte[] {2, OP_COPY, 0, 4}));
+        // Overflowing offset + count
+        assertThrows(IOException.class, () -> BinaryDelta.apply(base,
+            new byte[] {4, OP_COPY, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 4}));
+    }
+
+    @Test
+    void insertsPastTheDeltaAreRejected() {
+        assertThrows(IOException.class, () -> BinaryDelta.apply(new byte[0], new byte[] {8, OP_INSERT, 8, 1, 2, 3}));
+        assertThrows(IOException.class, () -> BinaryDelta.apply(new byte[0], new byte[] {2, OP_INSERT, 4, 1, 2, 3, 4}));
+    }
+
+    @Test
+    void corruptLengthsAreRejected() {
+        // Five continuation bytes do not end a varint
+        assertThrows(IOException.class, () -> BinaryDelta.apply(new byte[0],
+            new byte[] {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0}));
+        // A varint that decodes to a negative length
+        assertThrows(IOException.class, () -> BinaryDelta.apply(new byte[0],
+            new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}));
+    }
+
+    @Test
+    void deltaAgainstAnotherBaseFailsCleanly() throws IOException {
+        byte[] base = random(11, 4096);
+        byte[] delta = BinaryDelta.diff(base, mutate(base, new Random(12)));
+        assertThrows(IOException.class, () -> BinaryDelta.apply(Arrays.copyOf(base, 100), delta));
+    }
+
+    @Test
+    void flippedBytesNeverEscapeAsOtherExceptions() throws IOException {
+        Random random = new Random(13);
+        byte[] base = random(14, 2048);
+        byte[] delta = BinaryDelta.diff(base, mutate(base, random));
+        // The target length is left intact, so a flip cannot ask for an arbitrarily large target
+        int lengthBytes = varIntLength(delta);
+        for (int round = 0; round < 2000; round++) {
+            byte[] corrupt = delta.clone();
+            int position = lengthBytes + random.nextInt(corrupt.length - lengthBytes);
+            corrupt[position] ^= (byte) (1 << random.nextInt(8));
+            try {
+                BinaryDelta.apply(base, corrupt);
+            } catch (IOException expected) {
+                // Detected as corrupt
+            } catch (RuntimeException e) {
+                fail("Flipping a bit at " + position + " threw " + e);
+            }
+        }
+    }
+
+    private static byte[] assertRoundTrip(byte[] base, byte[] target) throws IOException {
+        byte[] delta = BinaryDelta.diff(base, target);
+        assertArrayEquals(target, BinaryDelta.apply(base, delta));
+        return delta;
+    }
+
+    private static void assertCompact(byte[] delta, byte[] target) {
+        assertTrue(delta.length < target.length / 10,
+            () -> "Delta of " + delta.length + " bytes for a target of " + target.length);
+    }
+
+    private static byte[] random(long seed, int length) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Applies a few replacements, insertions and removals, like the changes between two saves of a character.
+     */
+    private static byte[] mutate(byte[] data, Random random) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 64);
+        int position = 0;
+        int edits = 1 + random.nextInt(4);
+        for (int edit = 0; edit < edits && position < data.length; edit++) {
+            int at = position + random.nextInt(Math.max(1, (data.length - position) / (edits - edit)));
+            out.write(data, position, at - position);
+            position = at;
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    byte[] inserted = new byte[1 + random.nextInt(32)];
+                    random.nextBytes(inserted);
+                    out.writeBytes(inserted);
+                }
+                case 1 -> position = Math.min(data.length, position + 1 + random.nextInt(32));
+                default -> {
+                    int replaced = Math.min(data.length - position, 1 + random.nextInt(8));
+                    for (int i = 0; i < replaced; i++) {
+                        out.write(data[position + i] + 1);
+                    }
+                    position += replaced;
+                }
+            }
+        }
+        out.write(data, position, data.length - position);
+        return out.toByteArray();
+    }
+
+    private static int varIntLength(byte[] data) {
+        int length = 1;
+        while ((data[length - 1] & 0x80) != 0) {
+            length++;
+        }
+        return length;
+    }
+}
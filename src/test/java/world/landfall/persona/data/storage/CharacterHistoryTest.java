@@ -0,0 +1,224 @@
+package world.landfall.persona.data.storage;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CharacterHistoryTest {
+    private static final int PAYLOAD_SIZE = 4096;
+
+    @TempDir
+    static Path directory;
+
+    private static CharacterCodec codec;
+
+    @BeforeAll
+    static void openCodec() throws IOException {
+        codec = CharacterCodec.open(directory.resolve("dictionaries"));
+    }
+
+    @Test
+    void firstRevisionIsStoredInFull() throws IOException {
+        byte[] payload = payloads(1, 1).get(0);
+        List<byte[]> dropped = new ArrayList<>();
+        Path file = write("first", CharacterHistory.append(null, payload, SaveReason.CREATE, 1000L, 5, codec,
+            CompressionMode.GZIP, dropped::add));
+
+        List<CharacterHistory.Revision> revisions = CharacterHistory.readRevisions(file);
+        assertEquals(1, revisions.size());
+        assertEquals(1, revisions.get(0).number());
+        assertEquals(1000L, revisions.get(0).savedAt());
+        assertEquals(SaveReason.CREATE, revisions.get(0).reason());
+        assertArrayEquals(payload, CharacterHistory.reconstruct(file, 1, codec));
+        assertTrue(dropped.isEmpty());
+    }
+
+    @Test
+    void unchangedPayloadIsNotRecorded() throws IOException {
+        byte[] payload = payloads(2, 1).get(0);
+        byte[] history = CharacterHistory.append(null, payload, SaveReason.CREATE, 1000L, 5, codec, CompressionMode.GZIP, bytes -> {});
+        List<byte[]> dropped = new ArrayList<>();
+        assertNull(CharacterHistory.append(history, payload.clone(), SaveReason.AUTOSAVE, 2000L, 5, codec,
+            CompressionMode.GZIP, dropped::add));
+        assertTrue(dropped.isEmpty());
+    }
+
+    @Test
+    void everyRevisionIsReconstructed() throws IOException {
+        List<byte[]> payloads = payloads(3, 6);
+        Path file = write("all", record(payloads, 10, new ArrayList<>()));
+
+        List<CharacterHistory.Revision> revisions = CharacterHistory.readRevisions(file);
+        assertEquals(List.of(6, 5, 4, 3, 2, 1), revisions.stream().map(CharacterHistory.Revision::number).toList());
+        for (int number = 1; number <= payloads.size(); number++) {
+            assertArrayEquals(payloads.get(number - 1), CharacterHistory.reconstruct(file, number, codec), "revision " + number);
+        }
+        assertNull(CharacterHistory.reconstruct(file, 7, codec));
+
+        List<byte[]> visited = new ArrayList<>();
+        CharacterHistory.forEachRevision(file, codec, visited::add);
+        List<byte[]> newestFirst = new ArrayList<>(payloads);
+        Collections.reverse(newestFirst);
+        assertContents(newestFirst, visited);
+    }
+
+    @Test
+    void keepOneStoresOnlyTheNewestRevision() throws IOException {
+        List<byte[]> payloads = payloads(4, 4);
+        List<byte[]> dropped = new ArrayList<>();
+        Path file = write("keep-one", record(payloads, 1, dropped));
+
+        List<CharacterHistory.Revision> revisions = CharacterHistory.readRevisions(file);
+        assertEquals(1, revisions.size());
+        assertEquals(4, revisions.get(0).number());
+        assertArrayEquals(payloads.get(3), CharacterHistory.reconstruct(file, 4, codec));
+        assertNull(CharacterHistory.reconstruct(file, 3, codec));
+        // Each save replaces the newest revision, which is dropped in full
+        assertContents(payloads.subList(0, 3), dropped);
+    }
+
+    @Test
+    void keepNDropsTheOldestRevisions() throws IOException {
+        List<byte[]> payloads = payloads(5, 7);
+        List<byte[]> dropped = new ArrayList<>();
+        Path file = write("keep-three", record(payloads, 3, dropped));
+
+        List<CharacterHistory.Revision> revisions = CharacterHistory.readRevisions(file);
+        assertEquals(List.of(7, 6, 5), revisions.stream().map(CharacterHistory.Revision::number).toList());
+        for (int number = 5; number <= 7; number++) {
+            assertArrayEquals(payloads.get(number - 1), CharacterHistory.reconstruct(file, number, codec), "revision " + number);
+        }
+        for (int number = 1; number <= 4; number++) {
+            assertNull(CharacterHistory.reconstruct(file, number, codec), "revision " + number);
+        }
+        assertContents(payloads.subList(0, 4), dropped);
+    }
+
+    @Test
+    void loweringKeepDropsSeveralRevisionsNewestFirst() throws IOException {
+        List<byte[]> payloads = payloads(6, 6);
+        byte[] history = record(payloads.subList(0, 5), 10, new ArrayList<>());
+
+        List<byte[]> dropped = new ArrayList<>();
+        Path file = write("lowered", CharacterHistory.append(history, payloads.get(5), SaveReason.SWITCH, 6000L, 2, codec,
+            CompressionMode.GZIP, dropped::add));
+
+        assertEquals(List.of(6, 5), CharacterHistory.readRevisions(file).stream().map(CharacterHistory.Revision::number).toList());
+        assertArrayEquals(payloads.get(4), CharacterHistory.reconstruct(file, 5, codec));
+        assertContents(List.of(payloads.get(3), payloads.get(2), payloads.get(1), payloads.get(0)), dropped);
+
+        List<byte[]> droppedToOne = new ArrayList<>();
+        byte[] newest = payloads(7, 1).get(0);
+        file = write("lowered-to-one", CharacterHistory.append(Files.readAllBytes(file), newest, SaveReason.SWITCH, 7000L, 1,
+            codec, CompressionMode.GZIP, droppedToOne::add));
+        assertEquals(1, CharacterHistory.readRevisions(file).size());
+        assertContents(List.of(payloads.get(5), payloads.get(4)), droppedToOne);
+    }
+
+    @Test
+    void keptRevisionsKeepTheirMetadata() throws IOException {
+        List<byte[]> payloads = payloads(8, 3);
+        byte[] history = null;
+        SaveReason[] reasons = {SaveReason.CREATE, SaveReason.DEATH, SaveReason.LOGOUT};
+        for (int i = 0; i < payloads.size(); i++) {
+            history = CharacterHistory.append(history, payloads.get(i), reasons[i], 1000L * (i + 1), 5, codec,
+                CompressionMode.GZIP, bytes -> {});
+        }
+        List<CharacterHistory.Revision> revisions = CharacterHistory.readRevisions(write("metadata", history));
+        for (int i = 0; i < reasons.length; i++) {
+            CharacterHistory.Revision revision = revisions.get(reasons.length - 1 - i);
+            assertEquals(reasons[i], revision.reason());
+            assertEquals(1000L * (i + 1), revision.savedAt());
+        }
+    }
+
+    @Test
+    void missingHistoryIsEmpty() throws IOException {
+        Path file = directory.resolve("missing.hist");
+        assertTrue(CharacterHistory.readRevisions(file).isEmpty());
+        assertNull(CharacterHistory.reconstruct(file, 1, codec));
+        CharacterHistory.forEachRevision(file, codec, bytes -> {
+            throw new AssertionError("Visited a revision of a missing history");
+        });
+    }
+
+    @Test
+    void corruptHistoryIsRejected() throws IOException {
+        byte[] history = record(payloads(9, 3), 5, new ArrayList<>());
+        byte[] payload = payloads(10, 1).get(0);
+
+        byte[] notHistory = history.clone();
+        notHistory[0] ^= 1;
+        assertThrows(IOException.class, () -> CharacterHistory.append(notHistory, payload, SaveReason.OTHER, 0L, 5, codec,
+            CompressionMode.GZIP, bytes -> {}));
+        assertThrows(IOException.class, () -> CharacterHistory.readRevisions(write("not-history", notHistory)));
+
+        byte[] truncated = Arrays.copyOf(history, history.length - 1);
+        assertThrows(IOException.class, () -> CharacterHistory.append(truncated, payload, SaveReason.OTHER, 0L, 5, codec,
+            CompressionMode.GZIP, bytes -> {}));
+        Path truncatedFile = write("truncated", truncated);
+        assertThrows(IOException.class, () -> CharacterHistory.reconstruct(truncatedFile, 1, codec));
+
+        // The oldest revision is stored last; a delta whose target length is wrong cannot be applied
+        List<CharacterHistory.Revision> revisions = CharacterHistory.readRevisions(write("intact", history));
+        byte[] corruptDelta = history.clone();
+        corruptDelta[history.length - revisions.get(revisions.size() - 1).storedBytes()] ^= 0x01;
+        Path corruptFile = write("corrupt-delta", corruptDelta);
+        assertThrows(IOException.class, () -> CharacterHistory.reconstruct(corruptFile, 1, codec));
+    }
+
+    private static byte[] record(List<byte[]> payloads, int keep, List<byte[]> dropped) throws IOException {
+        byte[] history = null;
+        for (int i = 0; i < payloads.size(); i++) {
+            history = CharacterHistory.append(history, payloads.get(i), SaveReason.AUTOSAVE, 1000L * (i + 1), keep, codec,
+                CompressionMode.GZIP, dropped::add);
+        }
+        return history;
+    }
+
+    private static Path write(String name, byte[] history) throws IOException {
+        Path file = directory.resolve(name + ".hist");
+        Files.write(file, history);
+        return file;
+    }
+
+    /**
+     * Successive saves of one character: each changes a few bytes of the one before.
+     */
+    private static List<byte[]> payloads(long seed, int count) {
+        Random random = new Random(seed);
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        random.nextBytes(payload);
+        List<byte[]> payloads = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            payload = payload.clone();
+            for (int edit = 0; edit < 8; edit++) {
+                payload[random.nextInt(payload.length)] ^= (byte) (1 + random.nextInt(255));
+            }
+            payloads.add(payload);
+        }
+        return payloads;
+    }
+
+    private static void assertContents(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size(), "revisions");
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i), "revision at " + i);
+        }
+    }
+}
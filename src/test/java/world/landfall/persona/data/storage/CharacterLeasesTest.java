@@ -0,0 +1,178 @@
+package world.landfall.persona.data.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two servers leasing characters in one local directory.
+ */
+class CharacterLeasesTest {
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long SHORT_TTL_MILLIS = 300;
+
+    @TempDir
+    Path directory;
+
+    private CharacterLeases serverA;
+    private CharacterLeases serverB;
+
+    @BeforeEach
+    void openLeases() throws IOException {
+        serverA = CharacterLeases.open(directory, "server-a", TTL_MILLIS);
+        serverB = CharacterLeases.open(directory, "server-b", TTL_MILLIS);
+    }
+
+    @Test
+    void leaseIsHeldByOneServerOnly() throws IOException {
+        UUID characterId = UUID.randomUUID();
+        CharacterLeases.Lease lease = serverA.acquire(characterId);
+        assertEquals("server-a", lease.holder());
+        assertTrue(serverA.isHeld(characterId));
+
+        // The other server gets the lease that is in the way
+        assertEquals(lease, serverB.acquire(characterId));
+        assertFalse(serverB.isHeld(characterId));
+        assertFalse(serverB.renew(characterId));
+        assertEquals(lease, serverB.read(characterId));
+
+        // Acquiring again is a no-op for the holder
+        assertEquals(lease, serverA.acquire(characterId));
+    }
+
+    @Test
+    void releasedLeaseMovesToTheOtherServer() throws IOException {
+        UUID characterId = UUID.randomUUID();
+        CharacterLeases.Lease first = serverA.acquire(characterId);
+        serverA.release(characterId);
+        assertFalse(serverA.isHeld(characterId));
+        assertNull(serverB.read(characterId));
+
+        CharacterLeases.Lease second = serverB.acquire(characterId);
+        assertEquals("server-b", second.holder());
+        assertNotEquals(first.epoch(), second.epoch());
+        assertFalse(serverA.renew(characterId));
+
+        // Releasing a lease held elsewhere leaves it alone
+        serverA.release(characterId);
+        assertEquals(second, serverA.read(characterId));
+    }
+
+    @Test
+    void renewedLeaseDoesNotExpire() throws IOException, InterruptedException {
+        CharacterLeases shortA = CharacterLeases.open(directory, "server-a", SHORT_TTL_MILLIS);
+        UUID characterId = UUID.randomUUID();
+        shortA.acquire(characterId);
+        // Renewed every third of the lease time, like the heartbeat does, for well past the lease time
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(SHORT_TTL_MILLIS / 3);
+            assertTrue(shortA.renew(characterId));
+            assertEquals("server-a", serverB.acquire(characterId).holder());
+        }
+        assertFalse(serverB.isHeld(characterId));
+    }
+
+    @Test
+    void expiredLeaseIsTakenOver() throws IOException, InterruptedException {
+        CharacterLeases shortA = CharacterLeases.open(directory, "server-a", SHORT_TTL_MILLIS);
+        UUID characterId = UUID.randomUUID();
+        CharacterLeases.Lease abandoned = shortA.acquire(characterId);
+        // Server A stops renewing, e.g. because it crashed
+        Thread.sleep(SHORT_TTL_MILLIS * 2);
+
+        CharacterLeases.Lease taken = serverB.acquire(characterId);
+        assertEquals("server-b", taken.holder());
+        assertNotEquals(abandoned.epoch(), taken.epoch());
+        assertTrue(serverB.isHeld(characterId));
+
+        // Server A finds out on its next renewal and must not touch the character anymore
+        assertFalse(shortA.renew(characterId));
+        assertFalse(shortA.isHeld(characterId));
+        assertEquals(taken, serverA.read(characterId));
+    }
+
+    @Test
+    void restartedServerTakesBackItsOwnLease() throws IOException {
+        UUID characterId = UUID.randomUUID();
+        CharacterLeases.Lease leftBehind = serverA.acquire(characterId);
+
+        // A new run of the same server, before the lease left behind expired
+        CharacterLeases restarted = CharacterLeases.open(directory, "server-a", TTL_MILLIS);
+        CharacterLeases.Lease lease = restarted.acquire(characterId);
+        assertEquals("server-a", lease.holder());
+        assertTrue(restarted.isHeld(characterId));
+        // The epoch tells the other servers that the character may have changed meanwhile
+        assertNotEquals(leftBehind.epoch(), lease.epoch());
+        assertFalse(serverA.renew(characterId));
+    }
+
+    @Test
+    void racingServersGetOneLeaseEach() throws Exception {
+        int characters = 64;
+        List<UUID> characterIds = new ArrayList<>();
+        for (int i = 0; i < characters; i++) {
+            characterIds.add(UUID.randomUUID());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> racers = new ArrayList<>();
+            for (CharacterLeases server : List.of(serverA, serverB)) {
+                racers.add(executor.submit(() -> {
+                    start.await();
+                    for (UUID characterId : characterIds) {
+                        server.acquire(characterId);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> racer : racers) {
+                racer.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<UUID, CharacterLeases.Lease> leases = serverA.readAll();
+        assertEquals(characters, leases.size());
+        for (UUID characterId : characterIds) {
+            assertTrue(serverA.isHeld(characterId) != serverB.isHeld(characterId), "exactly one holder of " + characterId);
+            String holder = serverA.isHeld(characterId) ? "server-a" : "server-b";
+            assertEquals(holder, leases.get(characterId).holder());
+        }
+    }
+
+    @Test
+    void everyServerSeesAllLeases() throws IOException {
+        UUID leasedByA = UUID.randomUUID();
+        UUID leasedByB = UUID.randomUUID();
+        serverA.acquire(leasedByA);
+        serverB.acquire(leasedByB);
+
+        for (CharacterLeases server : List.of(serverA, serverB)) {
+            Map<UUID, CharacterLeases.Lease> leases = server.readAll();
+            assertEquals(2, leases.size());
+            assertEquals("server-a", leases.get(leasedByA).holder());
+            assertEquals("server-b", leases.get(leasedByB).holder());
+        }
+    }
+}
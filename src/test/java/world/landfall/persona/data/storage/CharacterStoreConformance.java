@@ -0,0 +1,240 @@
+package world.landfall.persona.data.storage;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.resources.ResourceLocation;
+import world.landfall.persona.Persona;
+import world.landfall.persona.data.CharacterMetadata;
+import world.landfall.persona.data.CharacterProfile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Shared correctness and throughput checks that every {@link CharacterStore} backend must pass.
+ * Each run only touches characters with fresh random UUIDs and deletes them again. Run for every backend by
+ * {@link CharacterStoreConformanceTest}, which points file storage at a temporary world directory.
+ */
+public final class CharacterStoreConformance {
+    private static final ResourceLocation TEST_DATA_KEY = ResourceLocation.fromNamespaceAndPath(Persona.MODID, "conformance");
+    private static final int CONCURRENT_WRITERS = 4;
+
+    /**
+     * Outcome of a run against one backend.
+     */
+    public record Result(String backend, int checks, List<String> failures, int operations,
+                         double saveOpsPerSecond, double loadOpsPerSecond, double deleteOpsPerSecond) {
+        public boolean passed() {
+            return failures.isEmpty();
+        }
+    }
+
+    private final CharacterStore store;
+    private final Map<UUID, Map<UUID, String>> ownerIndex = new ConcurrentHashMap<>();
+    private final Set<UUID> created = ConcurrentHashMap.newKeySet();
+    private final List<String> failures = new ArrayList<>();
+    private int checks;
+
+    private CharacterStoreConformance(Function<Function<UUID, Map<UUID, String>>, CharacterStore> factory) {
+        this.store = factory.apply(owner -> new HashMap<>(ownerIndex.getOrDefault(owner, Map.of())));
+    }
+
+    /**
+     * Runs the suite.
+     * @param factory Creates the backend under test from an owner index the suite controls
+     * @param operations Number of characters used for the throughput measurements
+     * @return The result
+     */
+    public static Result run(Function<Function<UUID, Map<UUID, String>>, CharacterStore> factory, int operations) {
+        CharacterStoreConformance suite = new CharacterStoreConformance(factory);
+        try {
+            suite.checkMissing();
+            suite.checkRoundTrip();
+            suite.checkOverwrite();
+            suite.checkDelete();
+            suite.checkListByOwner();
+            suite.checkAsync();
+            suite.checkConcurrentWriters();
+            return suite.measure(operations);
+        } catch (Exception e) {
+            suite.failures.add("Unexpected exception: " + e);
+            return new Result(suite.store.getName(), suite.checks, suite.failures, 0, 0, 0, 0);
+        } finally {
+            suite.cleanUp();
+        }
+    }
+
+    private void checkMissing() {
+        UUID id = UUID.randomUUID();
+        check(store.load(id) == null, "load of an unknown character returns null");
+        check(!store.exists(id), "exists is false for an unknown character");
+        check(store.delete(id), "deleting an unknown character succeeds");
+        check(store.load(null) == null, "load of a null id returns null");
+    }
+
+    private void checkRoundTrip() {
+        CharacterProfile character = newCharacter("Round Trip");
+        CompoundTag data = new CompoundTag();
+        data.putInt("value", 42);
+        data.putString("text", "persona");
+        character.setModData(TEST_DATA_KEY, data);
+
+        check(store.save(character), "save succeeds");
+        check(store.exists(character.getId()), "exists is true after save");
+        CharacterProfile loaded = store.load(character.getId());
+        check(loaded != null && Objects.equals(loaded.serialize(), character.serialize()), "load returns the saved state including mod data");
+        CharacterMetadata metadata = store.readMetadata(character.getId(), List.of(TEST_DATA_KEY));
+        check(metadata != null && "Round Trip".equals(metadata.displayName()) && !metadata.deceased()
+            && data.equals(metadata.getModData(TEST_DATA_KEY)), "readMetadata returns the saved name, deceased flag and mod data");
+    }
+
+    private void checkOverwrite() {
+        CharacterProfile character = newCharacter("Before");
+        store.save(character);
+        CharacterProfile renamed = copyWithName(character, "After");
+        check(store.save(renamed), "saving an existing character succeeds");
+        CharacterProfile loaded = store.load(character.getId());
+        check(loaded != null && "After".equals(loaded.getDisplayName()), "load returns the newest save");
+    }
+
+    private void checkDelete() {
+        CharacterProfile character = newCharacter("Doomed");
+        store.save(character);
+        check(store.delete(character.getId()), "delete succeeds");
+        check(!store.exists(character.getId()), "exists is false after delete");
+        check(store.load(character.getId()) == null, "load returns null after delete");
+        check(store.readMetadata(character.getId()) == null, "readMetadata returns null after delete");
+        check(store.delete(character.getId()), "deleting twice succeeds");
+    }
+
+    private void checkListByOwner() {
+        UUID owner = UUID.randomUUID();
+        UUID otherOwner = UUID.randomUUID();
+        CharacterProfile first = newCharacter("Owned One");
+        CharacterProfile second = newCharacter("Owned Two");
+        CharacterProfile foreign = newCharacter("Foreign");
+        CharacterProfile deleted = newCharacter("Deleted");
+        for (CharacterProfile character : List.of(first, second, foreign, deleted)) {
+            store.save(character);
+        }
+        ownerIndex.put(owner, Map.of(first.getId(), "Owned One", second.getId(), "Owned Two", deleted.getId(), "Deleted"));
+        ownerIndex.put(otherOwner, Map.of(foreign.getId(), "Foreign"));
+        store.delete(deleted.getId());
+
+        Map<UUID, String> listed = store.listByOwner(owner);
+        check(listed.equals(Map.of(first.getId(), "Owned One", second.getId(), "Owned Two")),
+            "listByOwner returns exactly the owner's stored characters with their names");
+        check(store.listByOwner(UUID.randomUUID()).isEmpty(), "listByOwner is empty for a player without characters");
+    }
+
+    private void checkAsync() throws Exception {
+        CharacterProfile character = newCharacter("Async");
+        check(store.saveAsync(character).get(10, TimeUnit.SECONDS), "saveAsync succeeds");
+        CharacterProfile loaded = store.loadAsync(character.getId()).get(10, TimeUnit.SECONDS);
+        check(loaded != null && loaded.getId().equals(character.getId()), "loadAsync returns the saved character");
+        check(store.existsAsync(character.getId()).get(10, TimeUnit.SECONDS), "existsAsync is true after save");
+        check(store.deleteAsync(character.getId()).get(10, TimeUnit.SECONDS), "deleteAsync succeeds");
+        check(!store.exists(character.getId()), "character is gone after deleteAsync");
+    }
+
+    private void checkConcurrentWriters() throws Exception {
+        List<CharacterProfile> characters = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_WRITERS * 16; i++) {
+            characters.add(newCharacter("Writer " + i));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_WRITERS);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (CharacterProfile character : characters) {
+                results.add(executor.submit(() -> store.save(character) && store.load(character.getId()) != null));
+            }
+            boolean allSucceeded = true;
+            for (Future<Boolean> result : results) {
+                allSucceeded &= result.get(30, TimeUnit.SECONDS);
+            }
+            check(allSucceeded, "concurrent saves and loads of different characters succeed");
+        } finally {
+            executor.shutdownNow();
+        }
+        check(characters.stream().allMatch(character -> store.exists(character.getId())), "every concurrently saved character exists");
+    }
+
+    private Result measure(int operations) {
+        List<CharacterProfile> characters = new ArrayList<>(operations);
+        for (int i = 0; i < operations; i++) {
+            CharacterProfile character = newCharacter("Bench " + i);
+            CompoundTag payload = new CompoundTag();
+            payload.putByteArray("blob", new byte[2048]);
+            character.setModData(TEST_DATA_KEY, payload);
+            characters.add(character);
+        }
+
+        long start = System.nanoTime();
+        for (CharacterProfile character : characters) {
+            store.save(character);
+        }
+        double saveRate = rate(operations, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (CharacterProfile character : characters) {
+            store.load(character.getId());
+        }
+        double loadRate = rate(operations, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (CharacterProfile character : characters) {
+            store.delete(character.getId());
+        }
+        double deleteRate = rate(operations, System.nanoTime() - start);
+
+        return new Result(store.getName(), checks, failures, operations, saveRate, loadRate, deleteRate);
+    }
+
+    private void cleanUp() {
+        for (UUID id : created) {
+            store.delete(id);
+        }
+    }
+
+    private CharacterProfile newCharacter(String name) {
+        UUID id = UUID.randomUUID();
+        created.add(id);
+        return profile(id, name);
+    }
+
+    private static CharacterProfile copyWithName(CharacterProfile character, String name) {
+        CompoundTag tag = character.serialize();
+        tag.putString("name", name);
+        return CharacterProfile.deserialize(tag);
+    }
+
+    private static CharacterProfile profile(UUID id, String name) {
+        // Built from a tag so the run does not depend on the configured name rules
+        CompoundTag tag = new CompoundTag();
+        tag.putUUID("id", id);
+        tag.putString("name", name);
+        tag.put("characterData", new CompoundTag());
+        return CharacterProfile.deserialize(tag);
+    }
+
+    private void check(boolean condition, String description) {
+        checks++;
+        if (!condition) {
+            failures.add(description);
+        }
+    }
+
+    private static double rate(int operations, long nanos) {
+        return nanos <= 0 ? 0.0 : operations * 1_000_000_000.0 / nanos;
+    }
+}
@@ -0,0 +1,50 @@
+package world.landfall.persona.data.storage;
+
+import net.neoforged.fml.config.ConfigTracker;
+import net.neoforged.fml.config.ModConfig;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import world.landfall.persona.data.CharacterFileStorage;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CharacterStoreConformanceTest {
+    private static final int OPERATIONS = 500;
+
+    @TempDir
+    static Path directory;
+
+    @BeforeAll
+    static void loadConfig() {
+        // Storage reads the server config, which is otherwise only loaded with a world; files are created with defaults
+        ConfigTracker.INSTANCE.loadConfigs(ModConfig.Type.SERVER, directory.resolve("serverconfig"));
+    }
+
+    @AfterAll
+    static void unloadConfig() {
+        ConfigTracker.INSTANCE.unloadConfigs(ModConfig.Type.SERVER);
+    }
+
+    @Test
+    void inMemoryStorePasses() {
+        assertPassed(CharacterStoreConformance.run(InMemoryCharacterStore::new, OPERATIONS));
+    }
+
+    @Test
+    void fileStorePasses() {
+        CharacterFileStorage.initialize(directory.resolve("world"));
+        try {
+            assertPassed(CharacterStoreConformance.run(FileCharacterStore::new, OPERATIONS));
+        } finally {
+            CharacterFileStorage.shutdown();
+        }
+    }
+
+    private static void assertPassed(CharacterStoreConformance.Result result) {
+        assertTrue(result.passed(), () -> result.backend() + " failed: " + String.join("; ", result.failures()));
+    }
+}
@@ -0,0 +1,223 @@
+package world.landfall.persona.registry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures registry lookups under concurrent writes, comparing the lock-free {@link RegistrySnapshot} against the
+ * previous design of {@link ConcurrentHashMap}s behind a {@link ReentrantReadWriteLock}. Both variants run on
+ * private, synthetic data; the live registry and its journal are not touched.
+ * Run by {@link RegistryContentionBenchmarkTest}.
+ */
+final class RegistryContentionBenchmark {
+    private static final int CHARACTERS = 10_000;
+    private static final int PLAYERS = 2_000;
+
+    /**
+     * Throughput of one variant.
+     */
+    public record Variant(String name, double readsPerSecond, double writesPerSecond) {}
+
+    /**
+     * Outcome of a run.
+     */
+    public record Result(int readerThreads, long durationMillis, Variant locked, Variant snapshot) {
+        public double speedup() {
+            return locked.readsPerSecond() == 0 ? 0.0 : snapshot.readsPerSecond() / locked.readsPerSecond();
+        }
+    }
+
+    /**
+     * Common operations of both variants.
+     */
+    private interface Registry {
+        boolean isNameTaken(String name);
+
+        UUID getCharacterIdByName(String name);
+
+        UUID getPlayerForCharacter(UUID characterId);
+
+        void rename(UUID characterId, String oldName, String newName);
+    }
+
+    private final UUID[] characterIds = new UUID[CHARACTERS];
+    private final UUID[] ownerIds = new UUID[CHARACTERS];
+    private final String[] names = new String[CHARACTERS];
+
+    private RegistryContentionBenchmark() {
+        UUID[] players = new UUID[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            players[i] = UUID.randomUUID();
+        }
+        for (int i = 0; i < CHARACTERS; i++) {
+            characterIds[i] = UUID.randomUUID();
+            ownerIds[i] = players[i % PLAYERS];
+            names[i] = "Character " + i;
+        }
+    }
+
+    /**
+     * Runs both variants one after the other.
+     * @param readerThreads Number of threads doing lookups; one more thread renames characters continuously
+     * @param durationMillis How long each variant is measured
+     * @return The result
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public static Result run(int readerThreads, long durationMillis) throws InterruptedException {
+        RegistryContentionBenchmark benchmark = new RegistryContentionBenchmark();
+        Variant locked = benchmark.measure("read-write lock", benchmark.newLockedRegistry(), readerThreads, durationMillis);
+        Variant snapshot = benchmark.measure("snapshot", benchmark.newSnapshotRegistry(), readerThreads, durationMillis);
+        return new Result(readerThreads, durationMillis, locked, snapshot);
+    }
+
+    private Variant measure(String name, Registry registry, int readerThreads, long durationMillis) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder reads = new LongAdder();
+        LongAdder writes = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < readerThreads; t++) {
+            threads.add(new Thread(() -> {
+                awaitQuietly(start);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long done = 0;
+                while (running.get()) {
+                    int i = random.nextInt(CHARACTERS);
+                    // The mix seen in command handlers: a name check, a name lookup and an owner lookup
+                    if (registry.isNameTaken(names[i])) {
+                        registry.getCharacterIdByName(names[i]);
+                    }
+                    registry.getPlayerForCharacter(characterIds[i]);
+                    done += 3;
+                }
+                reads.add(done);
+            }, "Persona-RegistryBench-Reader-" + t));
+        }
+        threads.add(new Thread(() -> {
+            awaitQuietly(start);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long done = 0;
+            while (running.get()) {
+                int i = random.nextInt(CHARACTERS);
+                // Rename back and forth so the data set keeps its shape
+                String renamed = names[i] + "'";
+                registry.rename(characterIds[i], names[i], renamed);
+                registry.rename(characterIds[i], renamed, names[i]);
+                done += 2;
+            }
+            writes.add(done);
+        }, "Persona-RegistryBench-Writer"));
+
+        threads.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(durationMillis);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1_000_000_000.0;
+        return new Variant(name, reads.sum() / seconds, writes.sum() / seconds);
+    }
+
+    private Registry newLockedRegistry() {
+        Map<UUID, UUID> characterToPlayerMap = new ConcurrentHashMap<>();
+        Map<String, UUID> characterNameMap = new ConcurrentHashMap<>();
+        for (int i = 0; i < CHARACTERS; i++) {
+            characterToPlayerMap.put(characterIds[i], ownerIds[i]);
+            characterNameMap.put(names[i].toLowerCase(), characterIds[i]);
+        }
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        return new Registry() {
+            @Override
+            public boolean isNameTaken(String name) {
+                lock.readLock().lock();
+                try {
+                    return characterNameMap.containsKey(name.toLowerCase());
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+
+            @Override
+            public UUID getCharacterIdByName(String name) {
+                lock.readLock().lock();
+                try {
+                    return characterNameMap.get(name.toLowerCase());
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+
+            @Override
+            public UUID getPlayerForCharacter(UUID characterId) {
+                lock.readLock().lock();
+                try {
+                    return characterToPlayerMap.get(characterId);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+
+            @Override
+            public void rename(UUID characterId, String oldName, String newName) {
+                lock.writeLock().lock();
+                try {
+                    characterNameMap.remove(oldName.toLowerCase());
+                    characterNameMap.put(newName.toLowerCase(), characterId);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        };
+    }
+
+    private Registry newSnapshotRegistry() {
+        RegistrySnapshot initial = RegistrySnapshot.EMPTY;
+        for (int i = 0; i < CHARACTERS; i++) {
+            initial = initial.apply(RegistryJournal.Entry.put(characterIds[i], ownerIds[i], names[i]));
+        }
+        RegistrySnapshot seeded = initial;
+        return new Registry() {
+            private volatile RegistrySnapshot current = seeded;
+
+            @Override
+            public boolean isNameTaken(String name) {
+                return current.isNameTaken(name);
+            }
+
+            @Override
+            public UUID getCharacterIdByName(String name) {
+                return current.getCharacterIdByName(name).orElse(null);
+            }
+
+            @Override
+            public UUID getPlayerForCharacter(UUID characterId) {
+                return current.getPlayerForCharacter(characterId).orElse(null);
+            }
+
+            @Override
+            public void rename(UUID characterId, String oldName, String newName) {
+                // Single writer, so no lock is needed to order the swaps
+                current = current.apply(RegistryJournal.Entry.rename(characterId, oldName, newName));
+            }
+        };
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package world.landfall.persona.registry;
+
+import com.mojang.logging.LogUtils;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegistryContentionBenchmarkTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final long DURATION_MILLIS = 1000;
+
+    @Test
+    void bothVariantsMakeProgress() throws InterruptedException {
+        int readers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        RegistryContentionBenchmark.Result result = RegistryContentionBenchmark.run(readers, DURATION_MILLIS);
+
+        LOGGER.info("[RegistryContentionBenchmark] {} reader threads, 1 writer thread, {} ms per variant",
+            result.readerThreads(), result.durationMillis());
+        for (RegistryContentionBenchmark.Variant variant : List.of(result.locked(), result.snapshot())) {
+            LOGGER.info("[RegistryContentionBenchmark] {}: {} reads/s, {} writes/s",
+                variant.name(), Math.round(variant.readsPerSecond()), Math.round(variant.writesPerSecond()));
+            // Throughput depends on the machine; only a variant that starves its readers or its writer is a failure
+            assertTrue(variant.readsPerSecond() > 0, () -> variant.name() + " made no reads");
+            assertTrue(variant.writesPerSecond() > 0, () -> variant.name() + " made no writes");
+        }
+        LOGGER.info("[RegistryContentionBenchmark] Snapshot read speedup: {}x", String.format("%.2f", result.speedup()));
+    }
+}
@@ -0,0 +1,202 @@
+package world.landfall.persona.registry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegistryJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void recordsReplayInOrder() throws IOException {
+        Path file = directory.resolve("ordered.journal");
+        List<RegistryJournal.Entry> entries = entries(5);
+        try (RegistryJournal journal = new RegistryJournal(file, 0)) {
+            assertEquals(2, journal.append(entries.subList(0, 2)));
+            assertEquals(5, journal.append(entries.subList(2, 5)));
+        }
+
+        List<RegistryJournal.SequencedEntry> replayed = new ArrayList<>();
+        assertEquals(Files.size(file), RegistryJournal.replay(file, 0, replayed::add));
+        assertEquals(sequenced(1, entries), replayed);
+    }
+
+    @Test
+    void tornTailIsCutOffOnReopen() throws IOException {
+        Path file = directory.resolve("torn.journal");
+        List<RegistryJournal.Entry> entries = entries(3);
+        long intact;
+        try (RegistryJournal journal = new RegistryJournal(file, 0)) {
+            journal.append(entries.subList(0, 2));
+            intact = journal.size();
+            journal.append(entries.subList(2, 3));
+        }
+        // A crash mid-append leaves part of the last record
+        truncate(file, Files.size(file) - 3);
+
+        List<RegistryJournal.SequencedEntry> replayed = new ArrayList<>();
+        assertEquals(intact, RegistryJournal.replay(file, 0, replayed::add));
+        assertEquals(sequenced(1, entries.subList(0, 2)), replayed);
+
+        assertReopensAt(file, intact, 2, entries.subList(0, 2));
+    }
+
+    @Test
+    void recordFailingItsChecksumEndsTheJournal() throws IOException {
+        Path file = directory.resolve("corrupt.journal");
+        List<RegistryJournal.Entry> entries = entries(3);
+        long intact;
+        try (RegistryJournal journal = new RegistryJournal(file, 0)) {
+            journal.append(entries.subList(0, 2));
+            intact = journal.size();
+            journal.append(entries.subList(2, 3));
+        }
+        byte[] data = Files.readAllBytes(file);
+        // Inside the body of the last record, past its length
+        data[(int) intact + 6] ^= 0x10;
+        Files.write(file, data);
+
+        List<RegistryJournal.SequencedEntry> replayed = new ArrayList<>();
+        assertEquals(intact, RegistryJournal.replay(file, 0, replayed::add));
+        assertEquals(sequenced(1, entries.subList(0, 2)), replayed);
+
+        assertReopensAt(file, intact, 2, entries.subList(0, 2));
+    }
+
+    @Test
+    void garbageLengthEndsTheJournal() throws IOException {
+        Path file = directory.resolve("garbage.journal");
+        List<RegistryJournal.Entry> entries = entries(2);
+        long intact;
+        try (RegistryJournal journal = new RegistryJournal(file, 0)) {
+            journal.append(entries);
+            intact = journal.size();
+        }
+        Files.write(file, new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        assertEquals(intact, RegistryJournal.replay(file, 0, record -> {}));
+        assertReopensAt(file, intact, 2, entries);
+    }
+
+    @Test
+    void recordsUpToTheGivenSequenceAreSkipped() throws IOException {
+        Path file = directory.resolve("skipped.journal");
+        List<RegistryJournal.Entry> entries = entries(5);
+        try (RegistryJournal journal = new RegistryJournal(file, 0)) {
+            journal.append(entries);
+        }
+
+        List<RegistryJournal.SequencedEntry> replayed = new ArrayList<>();
+        // Skipped records still count towards the intact length
+        assertEquals(Files.size(file), RegistryJournal.replay(file, 3, replayed::add));
+        assertEquals(sequenced(4, entries.subList(3, 5)), replayed);
+
+        replayed.clear();
+        RegistryJournal.replay(file, 5, replayed::add);
+        assertTrue(replayed.isEmpty());
+
+        // The sequence continues from the newer of the base file and the journal
+        try (RegistryJournal journal = new RegistryJournal(file, 2)) {
+            assertEquals(5, journal.getSequence());
+        }
+        try (RegistryJournal journal = new RegistryJournal(file, 10)) {
+            assertEquals(10, journal.getSequence());
+            assertEquals(11, journal.append(entries(1)));
+        }
+    }
+
+    @Test
+    void rotateMovesTheRecordsAside() throws IOException {
+        Path file = directory.resolve("rotated.journal");
+        Path target = directory.resolve("rotated.journal.compacting");
+        List<RegistryJournal.Entry> entries = entries(4);
+        try (RegistryJournal journal = new RegistryJournal(file, 0)) {
+            journal.append(entries.subList(0, 1));
+            assertEquals(1, journal.rotate(target));
+            journal.append(entries.subList(1, 3));
+            // Rotating again replaces the target; its records must already be folded into the base file
+            assertEquals(3, journal.rotate(target));
+            assertEquals(0, journal.size());
+            assertEquals(4, journal.append(entries.subList(3, 4)));
+        }
+
+        List<RegistryJournal.SequencedEntry> moved = new ArrayList<>();
+        RegistryJournal.replay(target, 0, moved::add);
+        assertEquals(sequenced(2, entries.subList(1, 3)), moved);
+        List<RegistryJournal.SequencedEntry> current = new ArrayList<>();
+        RegistryJournal.replay(file, 0, current::add);
+        assertEquals(sequenced(4, entries.subList(3, 4)), current);
+    }
+
+    @Test
+    void clearKeepsTheSequence() throws IOException {
+        Path file = directory.resolve("cleared.journal");
+        try (RegistryJournal journal = new RegistryJournal(file, 0)) {
+            journal.append(entries(3));
+            journal.clear();
+            assertEquals(0, journal.size());
+            assertEquals(3, journal.getSequence());
+            assertEquals(4, journal.append(entries(1)));
+        }
+    }
+
+    /**
+     * Reopens a damaged journal and checks that it was cut back to its intact records and is appended to after them.
+     */
+    private static void assertReopensAt(Path file, long intact, long sequence, List<RegistryJournal.Entry> kept) throws IOException {
+        RegistryJournal.Entry next = entries(1).get(0);
+        try (RegistryJournal journal = new RegistryJournal(file, 0)) {
+            assertEquals(intact, journal.size());
+            assertEquals(sequence, journal.getSequence());
+            assertEquals(sequence + 1, journal.append(List.of(next)));
+        }
+        List<RegistryJournal.Entry> expected = new ArrayList<>(kept);
+        expected.add(next);
+        List<RegistryJournal.SequencedEntry> replayed = new ArrayList<>();
+        assertEquals(Files.size(file), RegistryJournal.replay(file, 0, replayed::add));
+        assertEquals(sequenced(1, expected), replayed);
+    }
+
+    private static void truncate(Path file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+
+    /**
+     * A mix of every operation on distinct characters.
+     */
+    private static List<RegistryJournal.Entry> entries(int count) {
+        List<RegistryJournal.Entry> entries = new ArrayList<>(count);
+        UUID playerId = UUID.randomUUID();
+        for (int i = 0; i < count; i++) {
+            UUID characterId = UUID.randomUUID();
+            entries.add(switch (i % 3) {
+                case 0 -> RegistryJournal.Entry.put(characterId, playerId, "Character " + i);
+                case 1 -> RegistryJournal.Entry.rename(characterId, "Character " + i, "Renamed " + i);
+                default -> RegistryJournal.Entry.remove(characterId, "Character " + i);
+            });
+        }
+        return entries;
+    }
+
+    private static List<RegistryJournal.SequencedEntry> sequenced(long first, List<RegistryJournal.Entry> entries) {
+        List<RegistryJournal.SequencedEntry> sequenced = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            sequenced.add(new RegistryJournal.SequencedEntry(first + i, entries.get(i)));
+        }
+        return sequenced;
+    }
+}
@@ -0,0 +1,157 @@
+package world.landfall.persona.registry;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtIo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * Measures how long the registry base file takes to load at startup, comparing the binary {@link RegistryFileFormat}
+ * against the NBT format it replaced. Both are written for the same synthetic registry into a temporary directory;
+ * the live registry and its files are not touched.
+ * Run by {@link RegistryLoadBenchmarkTest}.
+ */
+final class RegistryLoadBenchmark {
+    private static final int CHARACTERS_PER_PLAYER = 5;
+    private static final int ROUNDS = 3;
+
+    /**
+     * Size and load time of one format.
+     * @param loadMillis Fastest of several loads, after a warm-up load
+     */
+    public record Format(String name, long fileBytes, double loadMillis) {}
+
+    /**
+     * Outcome of a run.
+     * @param verified Whether both formats loaded back into exactly the registry that was written
+     */
+    public record Result(int characters, int players, Format nbt, Format binary, boolean verified) {
+        public double speedup() {
+            return binary.loadMillis() == 0 ? 0.0 : nbt.loadMillis() / binary.loadMillis();
+        }
+    }
+
+    private RegistryLoadBenchmark() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Runs the benchmark.
+     * @param characters Number of characters in the synthetic registry
+     * @return The result
+     * @throws IOException if the temporary files could not be written or read
+     */
+    public static Result run(int characters) throws IOException {
+        int players = Math.max(1, characters / CHARACTERS_PER_PLAYER);
+        RegistrySnapshot registry = syntheticRegistry(characters, players);
+
+        Path directory = Files.createTempDirectory("persona-registry-bench");
+        Path nbtFile = directory.resolve("registry.nbt");
+        Path binaryFile = directory.resolve("registry.bin");
+        try {
+            Files.write(nbtFile, encodeNbt(registry, 0));
+            Files.write(binaryFile, RegistryFileFormat.encode(registry, 0));
+
+            RegistrySnapshot[] loaded = new RegistrySnapshot[2];
+            double nbtMillis = fastest(() -> {
+                CompoundTag root = NbtIo.readCompressed(nbtFile, NbtAccounter.unlimitedHeap());
+                loaded[0] = RegistryPersistence.decodeNbt(root, new long[1]);
+            });
+            double binaryMillis = fastest(() -> loaded[1] = RegistryFileFormat.read(binaryFile).snapshot());
+
+            boolean verified = registry.equals(loaded[0]) && registry.equals(loaded[1]);
+            return new Result(characters, players,
+                new Format("NBT", Files.size(nbtFile), nbtMillis),
+                new Format("binary", Files.size(binaryFile), binaryMillis),
+                verified);
+        } finally {
+            Files.deleteIfExists(nbtFile);
+            Files.deleteIfExists(binaryFile);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private interface Load {
+        void run() throws IOException;
+    }
+
+    private static double fastest(Load load) throws IOException {
+        load.run();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            load.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1_000_000.0;
+    }
+
+    /**
+     * Encodes a registry in the NBT format used before {@link RegistryFileFormat}, which
+     * {@link RegistryPersistence} can still read but no longer writes.
+     */
+    private static byte[] encodeNbt(RegistrySnapshot snapshot, long sequence) throws IOException {
+        CompoundTag root = new CompoundTag();
+        // Journal records up to and including this sequence number are already reflected below
+        root.putLong("journalSequence", sequence);
+
+        // Save character to player mappings
+        ListTag characterPlayerList = new ListTag();
+        snapshot.characterToPlayerMap().forEach((charId, playerId) -> {
+            CompoundTag entry = new CompoundTag();
+            entry.putString("characterId", charId.toString());
+            entry.putString("playerId", playerId.toString());
+            characterPlayerList.add(entry);
+        });
+        root.put("characterToPlayerMap", characterPlayerList);
+
+        // Save character name mappings
+        ListTag characterNameList = new ListTag();
+        snapshot.characterNameMap().forEach((name, charId) -> {
+            CompoundTag entry = new CompoundTag();
+            entry.putString("name", name);
+            entry.putString("characterId", charId.toString());
+            characterNameList.add(entry);
+        });
+        root.put("characterNameMap", characterNameList);
+
+        // Save the owner index (player -> characters with display names)
+        ListTag ownerList = new ListTag();
+        snapshot.playerCharacterIndex().forEach((playerId, characters) -> {
+            CompoundTag ownerEntry = new CompoundTag();
+            ownerEntry.putString("playerId", playerId.toString());
+            ListTag characterList = new ListTag();
+            characters.forEach((charId, displayName) -> {
+                CompoundTag entry = new CompoundTag();
+                entry.putString("characterId", charId.toString());
+                entry.putString("displayName", displayName);
+                characterList.add(entry);
+            });
+            ownerEntry.put("characters", characterList);
+            ownerList.add(ownerEntry);
+        });
+        root.put("playerCharacterIndex", ownerList);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NbtIo.writeCompressed(root, bytes);
+        return bytes.toByteArray();
+    }
+
+    private static RegistrySnapshot syntheticRegistry(int characters, int players) {
+        UUID[] playerIds = new UUID[players];
+        for (int i = 0; i < players; i++) {
+            playerIds[i] = UUID.randomUUID();
+        }
+        RegistrySnapshot registry = RegistrySnapshot.EMPTY;
+        for (int i = 0; i < characters; i++) {
+            registry = registry.apply(RegistryJournal.Entry.put(UUID.randomUUID(), playerIds[i % players], "Character " + i));
+        }
+        return registry;
+    }
+}
@@ -0,0 +1,29 @@
+package world.landfall.persona.registry;
+
+import com.mojang.logging.LogUtils;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegistryLoadBenchmarkTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int CHARACTERS = 100_000;
+
+    @Test
+    void bothFormatsLoadBackTheRegistry() throws IOException {
+        RegistryLoadBenchmark.Result result = RegistryLoadBenchmark.run(CHARACTERS);
+
+        LOGGER.info("[RegistryLoadBenchmark] {} characters of {} players", result.characters(), result.players());
+        for (RegistryLoadBenchmark.Format format : List.of(result.nbt(), result.binary())) {
+            LOGGER.info("[RegistryLoadBenchmark] {}: {} ms to load, {} KiB on disk",
+                format.name(), String.format("%.1f", format.loadMillis()), format.fileBytes() / 1024);
+        }
+        LOGGER.info("[RegistryLoadBenchmark] Binary load speedup: {}x", String.format("%.2f", result.speedup()));
+        // Load times depend on the machine; only a format that does not round trip is a failure
+        assertTrue(result.verified(), "A format did not load back the registry that was written");
+    }
+}
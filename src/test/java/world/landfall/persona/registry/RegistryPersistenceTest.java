@@ -0,0 +1,180 @@
+package world.landfall.persona.registry;
+
+import net.neoforged.fml.config.ConfigTracker;
+import net.neoforged.fml.config.ModConfig;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import world.landfall.persona.Persona;
+import world.landfall.persona.data.storage.DurableFileWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegistryPersistenceTest {
+    private static final String JOURNAL_FILE = "character_registry.journal";
+    private static final String COMPACTING_JOURNAL_FILE = "character_registry.journal.compacting";
+    // Enough records to grow the journal past the default registryJournalCompactKb
+    private static final int COMPACTION_BATCH = 20_000;
+
+    @TempDir
+    static Path directory;
+
+    @BeforeAll
+    static void loadConfig() {
+        ConfigTracker.INSTANCE.loadConfigs(ModConfig.Type.SERVER, directory.resolve("serverconfig"));
+    }
+
+    @AfterAll
+    static void unloadConfig() {
+        ConfigTracker.INSTANCE.unloadConfigs(ModConfig.Type.SERVER);
+    }
+
+    @Test
+    void compactionFoldsTheJournalIntoTheBaseFile() throws IOException {
+        Path world = directory.resolve("compacted");
+        RegistrySnapshot expected;
+        try {
+            expected = append(open(world), puts(COMPACTION_BATCH));
+        } finally {
+            // Waits for the background compaction
+            RegistryPersistence.shutdown();
+        }
+
+        Path persona = world.resolve(Persona.MODID);
+        assertFalse(Files.exists(persona.resolve(COMPACTING_JOURNAL_FILE)));
+        assertEquals(0, Files.size(persona.resolve(JOURNAL_FILE)));
+        RegistryFileFormat.Decoded base = RegistryFileFormat.read(persona.resolve(RegistryPersistence.REGISTRY_FILE));
+        assertEquals(COMPACTION_BATCH, base.journalSequence());
+        assertEquals(expected, base.snapshot());
+        assertEquals(expected, reopen(world));
+    }
+
+    @Test
+    void leftoverCompactingJournalIsNotRotatedOver() throws IOException {
+        Path world = directory.resolve("leftover");
+        Path persona = world.resolve(Persona.MODID);
+        UUID characterId = UUID.randomUUID();
+        try {
+            append(open(world), List.of(RegistryJournal.Entry.put(characterId, UUID.randomUUID(), "Alpha")));
+        } finally {
+            RegistryPersistence.shutdown();
+        }
+        // A compaction rotated the journal out and then failed to write the base file
+        Files.move(persona.resolve(JOURNAL_FILE), persona.resolve(COMPACTING_JOURNAL_FILE));
+
+        RegistrySnapshot expected;
+        try {
+            RegistrySnapshot loaded = open(world);
+            assertEquals(characterId, loaded.getCharacterIdByName("Alpha").orElse(null));
+            expected = append(loaded, puts(COMPACTION_BATCH));
+        } finally {
+            RegistryPersistence.shutdown();
+        }
+
+        assertFalse(Files.exists(persona.resolve(COMPACTING_JOURNAL_FILE)));
+        // The journal kept its records instead of replacing the leftover one; the base file covers both
+        assertTrue(Files.size(persona.resolve(JOURNAL_FILE)) > 0);
+        assertEquals(COMPACTION_BATCH + 1, RegistryFileFormat.read(persona.resolve(RegistryPersistence.REGISTRY_FILE)).journalSequence());
+        RegistrySnapshot reloaded = reopen(world);
+        assertEquals(expected, reloaded);
+        assertEquals(characterId, reloaded.getCharacterIdByName("Alpha").orElse(null));
+    }
+
+    @Test
+    void crashDuringCompactionReplaysTheCompactingJournalFirst() throws IOException {
+        Path world = directory.resolve("crashed");
+        Path persona = world.resolve(Persona.MODID);
+        UUID characterId = UUID.randomUUID();
+        try {
+            append(open(world), List.of(RegistryJournal.Entry.put(characterId, UUID.randomUUID(), "Alpha")));
+        } finally {
+            RegistryPersistence.shutdown();
+        }
+        // The server stopped after rotating the journal and appending to the new one, before the base file was written
+        Files.move(persona.resolve(JOURNAL_FILE), persona.resolve(COMPACTING_JOURNAL_FILE));
+        try (RegistryJournal journal = new RegistryJournal(persona.resolve(JOURNAL_FILE), 1)) {
+            journal.append(List.of(RegistryJournal.Entry.rename(characterId, "Alpha", "Beta")));
+        }
+
+        // Replayed the other way around, the rename would come before the character exists
+        RegistrySnapshot reloaded = reopen(world);
+        assertEquals(characterId, reloaded.getCharacterIdByName("Beta").orElse(null));
+        assertFalse(reloaded.isNameTaken("Alpha"));
+        assertEquals("Beta", reloaded.getCharactersForPlayer(reloaded.getPlayerForCharacter(characterId).orElseThrow()).get(characterId));
+    }
+
+    @Test
+    void recordsFoldedIntoTheBaseFileAreNotReplayed() throws IOException {
+        Path world = directory.resolve("folded");
+        Path persona = world.resolve(Persona.MODID);
+        UUID playerId = UUID.randomUUID();
+        UUID folded = UUID.randomUUID();
+        try {
+            append(open(world), List.of(RegistryJournal.Entry.put(folded, playerId, "Alpha")));
+        } finally {
+            RegistryPersistence.shutdown();
+        }
+        // The server stopped after the compaction wrote the base file, before it deleted the compacting journal.
+        // The base file is written without the folded character, so a record replayed on top of it would show
+        Files.move(persona.resolve(JOURNAL_FILE), persona.resolve(COMPACTING_JOURNAL_FILE));
+        DurableFileWriter.commit(persona.resolve(RegistryPersistence.REGISTRY_FILE), RegistryFileFormat.encode(RegistrySnapshot.EMPTY, 1));
+
+        UUID later = UUID.randomUUID();
+        try {
+            RegistrySnapshot loaded = open(world);
+            assertTrue(loaded.getPlayerForCharacter(folded).isEmpty());
+            append(loaded, List.of(RegistryJournal.Entry.put(later, playerId, "Beta")));
+        } finally {
+            RegistryPersistence.shutdown();
+        }
+
+        // The journal continues after the base file's sequence
+        List<RegistryJournal.SequencedEntry> journaled = new ArrayList<>();
+        RegistryJournal.replay(persona.resolve(JOURNAL_FILE), 0, journaled::add);
+        assertEquals(List.of(new RegistryJournal.SequencedEntry(2, RegistryJournal.Entry.put(later, playerId, "Beta"))), journaled);
+        assertEquals(later, reopen(world).getCharacterIdByName("Beta").orElse(null));
+    }
+
+    private static RegistrySnapshot open(Path world) {
+        RegistryPersistence.initialize(world);
+        return RegistryPersistence.loadRegistry();
+    }
+
+    private static RegistrySnapshot reopen(Path world) {
+        try {
+            return open(world);
+        } finally {
+            RegistryPersistence.shutdown();
+        }
+    }
+
+    /**
+     * Journals mutations the way {@link GlobalCharacterRegistry} does, together with the snapshot they result in.
+     */
+    private static RegistrySnapshot append(RegistrySnapshot snapshot, List<RegistryJournal.Entry> entries) {
+        for (RegistryJournal.Entry entry : entries) {
+            snapshot = snapshot.apply(entry);
+        }
+        RegistryPersistence.appendToJournal(entries, snapshot);
+        return snapshot;
+    }
+
+    private static List<RegistryJournal.Entry> puts(int count) {
+        List<RegistryJournal.Entry> entries = new ArrayList<>(count);
+        UUID playerId = UUID.randomUUID();
+        for (int i = 0; i < count; i++) {
+            entries.add(RegistryJournal.Entry.put(UUID.randomUUID(), playerId, "Character " + i));
+        }
+        return entries;
+    }
+}